@@ -0,0 +1,72 @@
+package umm3601.todo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import umm3601.TextStorage;
+
+/**
+ * Compares the `contains` body search the way `filterTodosByBody` used to do
+ * it (lowercasing every body on every query) against the trigram index, with
+ * the bodies on and off the heap (see `TextStorage`). The indexed search goes
+ * through `forEachTodo`, so it isn't just measuring the query cache.
+ * <p>
+ * Run with `./gradlew jmh`.
+ */
+// JMH needs to be able to set the `@Param` fields, so they can't be private.
+@SuppressWarnings({ "VisibilityModifier", "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContainsBenchmark {
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  int size;
+
+  // A common word, a rarer phrase spanning two words, and text that
+  // appears nowhere.
+  @Param({ "dolor", "sint esse", "zzz" })
+  String target;
+
+  @Param({ "HEAP", "OFF_HEAP" })
+  TextStorage storage;
+
+  private Todo[] todos;
+  private TodoDatabase db;
+  private TodoQuery query;
+
+  @Setup
+  public void setUp() {
+    todos = TodoGenerator.generate(size, 3601);
+    db = new TodoDatabase(todos, storage);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("contains", Arrays.asList(target));
+    query = TodoQuery.fromQueryParams(queryParams);
+  }
+
+  @Benchmark
+  public Todo[] lowercaseScan() {
+    return Arrays
+        .stream(todos)
+        .filter(todo -> todo.body.toLowerCase().contains(target.toLowerCase()))
+        .toArray(Todo[]::new);
+  }
+
+  @Benchmark
+  public void trigramIndex(Blackhole blackhole) {
+    db.forEachTodo(query, blackhole::consume);
+  }
+}
@@ -0,0 +1,110 @@
+package umm3601.todo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures each of the `filterTodosBy*` methods, which scan an array of
+ * todos, against the same filter answered from the indexes with
+ * `forEachTodo` (which doesn't go through the query cache).
+ * <p>
+ * Run with `./gradlew jmh`; see `build.gradle` for the profilers.
+ */
+// JMH needs to be able to set the `@Param` field, so it can't be private.
+@SuppressWarnings({ "VisibilityModifier", "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterTodosBenchmark {
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  int size;
+
+  private Todo[] todos;
+  private TodoDatabase db;
+  private TodoQuery byStatus;
+  private TodoQuery byBody;
+  private TodoQuery byOwner;
+  private TodoQuery byCategory;
+  private TodoQuery byLimit;
+
+  private static TodoQuery query(String key, String value) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(key, Arrays.asList(value));
+    return TodoQuery.fromQueryParams(queryParams);
+  }
+
+  @Setup
+  public void setUp() {
+    todos = TodoGenerator.generate(size, 3601);
+    db = new TodoDatabase(todos);
+    byStatus = query("status", "complete");
+    byBody = query("contains", "sint esse");
+    byOwner = query("owner", "fry");
+    byCategory = query("category", "homework");
+    byLimit = query("limit", "20");
+  }
+
+  @Benchmark
+  public Todo[] filterTodosByStatus() {
+    return db.filterTodosByStatus(todos, "complete");
+  }
+
+  @Benchmark
+  public void statusIndex(Blackhole blackhole) {
+    db.forEachTodo(byStatus, blackhole::consume);
+  }
+
+  @Benchmark
+  public Todo[] filterTodosByBody() {
+    return db.filterTodosByBody(todos, "sint esse");
+  }
+
+  @Benchmark
+  public void bodyIndex(Blackhole blackhole) {
+    db.forEachTodo(byBody, blackhole::consume);
+  }
+
+  @Benchmark
+  public Todo[] filterTodosByOwner() {
+    return db.filterTodosByOwner(todos, "fry");
+  }
+
+  @Benchmark
+  public void ownerIndex(Blackhole blackhole) {
+    db.forEachTodo(byOwner, blackhole::consume);
+  }
+
+  @Benchmark
+  public Todo[] filterTodosByCategory() {
+    return db.filterTodosByCategory(todos, "homework");
+  }
+
+  @Benchmark
+  public void categoryIndex(Blackhole blackhole) {
+    db.forEachTodo(byCategory, blackhole::consume);
+  }
+
+  @Benchmark
+  public Todo[] filterTodosByLimit() {
+    return db.filterTodosByLimit(todos, 20);
+  }
+
+  @Benchmark
+  public void limit(Blackhole blackhole) {
+    db.forEachTodo(byLimit, blackhole::consume);
+  }
+}
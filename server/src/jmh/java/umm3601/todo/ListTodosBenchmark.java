@@ -0,0 +1,83 @@
+package umm3601.todo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures whole `listTodos` queries, combining the filters, `orderBy` and
+ * `limit` the way the client does: answered from scratch (`forEachTodo`,
+ * and `forEachTodoJson`, which is what a streamed response does), and
+ * through `listTodos`, which repeated queries mostly answer from its cache.
+ * <p>
+ * Run with `./gradlew jmh`; see `build.gradle` for the profilers.
+ */
+// JMH needs to be able to set the `@Param` fields, so they can't be private.
+@SuppressWarnings({ "VisibilityModifier", "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListTodosBenchmark {
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  int size;
+
+  // Query strings, as the client would send them (without the `?`).
+  @Param({
+      "",
+      "orderBy=owner",
+      "status=incomplete&orderBy=category",
+      "owner=blanche&category=groceries",
+      "contains=dolor&status=complete&orderBy=body",
+      "owner=fry&contains=ipsum&limit=20",
+      "category=video games&orderBy=status&limit=100"
+  })
+  String queryString;
+
+  private TodoDatabase db;
+  private TodoQuery query;
+
+  private static Map<String, List<String>> parse(String queryString) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (String param : queryString.split("&")) {
+      if (!param.isEmpty()) {
+        String[] keyAndValue = param.split("=", 2);
+        queryParams.put(keyAndValue[0], Arrays.asList(keyAndValue[1]));
+      }
+    }
+    return queryParams;
+  }
+
+  @Setup
+  public void setUp() {
+    db = new TodoDatabase(TodoGenerator.generate(size, 3601));
+    query = TodoQuery.fromQueryParams(parse(queryString));
+  }
+
+  @Benchmark
+  public void forEachTodo(Blackhole blackhole) {
+    db.forEachTodo(query, blackhole::consume);
+  }
+
+  @Benchmark
+  public void forEachTodoJson(Blackhole blackhole) {
+    db.forEachTodoJson(query, blackhole::consume);
+  }
+
+  @Benchmark
+  public Todo[] listTodos() {
+    return db.listTodos(query);
+  }
+}
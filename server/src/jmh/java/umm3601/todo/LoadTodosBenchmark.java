@@ -0,0 +1,53 @@
+package umm3601.todo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares loading todos with data binding (what `TodoDatabase` used to do)
+ * against the token-streaming `TodoLoader`.
+ * <p>
+ * Run with `./gradlew jmh`. Adding the gc profiler (`-prof gc`) reports the
+ * bytes allocated per load (`gc.alloc.rate.norm`) alongside the time.
+ */
+// JMH needs to be able to set the `@Param` field, so it can't be private.
+@SuppressWarnings({ "VisibilityModifier", "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadTodosBenchmark {
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  int size;
+
+  private byte[] json;
+
+  @Setup
+  public void setUp() throws IOException {
+    json = new ObjectMapper().writeValueAsBytes(TodoGenerator.generate(size, 3601));
+  }
+
+  @Benchmark
+  public Todo[] dataBinding() throws IOException {
+    InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(json));
+    return new ObjectMapper().readValue(reader, Todo[].class);
+  }
+
+  @Benchmark
+  public Todo[] tokenStreaming() throws IOException {
+    return TodoLoader.readJson(new ByteArrayInputStream(json));
+  }
+}
@@ -0,0 +1,61 @@
+package umm3601.todo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures `sortTodos`, which sorts an array of todos with a comparator,
+ * against walking the sort order `TodoDatabase` builds at load time, for
+ * every `orderBy` key.
+ * <p>
+ * Run with `./gradlew jmh`; see `build.gradle` for the profilers.
+ */
+// JMH needs to be able to set the `@Param` fields, so they can't be private.
+@SuppressWarnings({ "VisibilityModifier", "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SortTodosBenchmark {
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  int size;
+
+  @Param({ "owner", "body", "status", "category" })
+  String orderBy;
+
+  private Todo[] todos;
+  private TodoDatabase db;
+  private TodoQuery query;
+
+  @Setup
+  public void setUp() {
+    todos = TodoGenerator.generate(size, 3601);
+    db = new TodoDatabase(todos);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(orderBy));
+    query = TodoQuery.fromQueryParams(queryParams);
+  }
+
+  @Benchmark
+  public Todo[] sortTodos() {
+    return db.sortTodos(todos, orderBy);
+  }
+
+  @Benchmark
+  public void sortOrder(Blackhole blackhole) {
+    db.forEachTodo(query, blackhole::consume);
+  }
+}
@@ -0,0 +1,72 @@
+package umm3601.todo;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic todos for the benchmarks, following the shape of the
+ * bundled `todos.json`: six owners, four categories, roughly half of the todos
+ * complete, and lorem ipsum bodies of one to three sentences.
+ */
+public final class TodoGenerator {
+
+  private static final String[] OWNERS = {"Blanche", "Fry", "Barry", "Workman", "Dawn", "Roberta"};
+  private static final String[] CATEGORIES = {"software design", "video games", "homework", "groceries"};
+  private static final String[] WORDS = (
+      "ad adipisicing aliqua aliquip amet anim aute cillum commodo consectetur consequat culpa cupidatat "
+      + "deserunt do dolor dolore duis ea eiusmod elit enim esse est et eu ex excepteur exercitation fugiat "
+      + "id in incididunt ipsum irure labore laboris laborum lorem magna minim mollit nisi non nostrud nulla "
+      + "occaecat officia pariatur proident qui quis reprehenderit sint sit sunt tempor ullamco ut velit "
+      + "veniam voluptate").split(" ");
+
+  private static final int MIN_SENTENCE_WORDS = 4;
+  private static final int MAX_SENTENCE_WORDS = 12;
+  private static final int MAX_SENTENCES = 3;
+  private static final int ID_LENGTH = 24;
+
+  private TodoGenerator() {
+  }
+
+  /**
+   * Generate the given number of todos. The same seed always produces the
+   * same todos.
+   *
+   * @param size how many todos to generate
+   * @param seed the seed for the random number generator
+   * @return the generated todos
+   */
+  public static Todo[] generate(int size, long seed) {
+    Random random = new Random(seed);
+    Todo[] todos = new Todo[size];
+    for (int i = 0; i < size; ++i) {
+      Todo todo = new Todo();
+      todo._id = String.format("%0" + ID_LENGTH + "x", i);
+      todo.owner = OWNERS[random.nextInt(OWNERS.length)];
+      todo.status = random.nextBoolean();
+      todo.body = body(random);
+      todo.category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+      todos[i] = todo;
+    }
+    return todos;
+  }
+
+  private static String body(Random random) {
+    StringBuilder body = new StringBuilder();
+    int sentences = 1 + random.nextInt(MAX_SENTENCES);
+    for (int s = 0; s < sentences; ++s) {
+      if (s > 0) {
+        body.append(' ');
+      }
+      int words = MIN_SENTENCE_WORDS + random.nextInt(MAX_SENTENCE_WORDS - MIN_SENTENCE_WORDS + 1);
+      for (int w = 0; w < words; ++w) {
+        String word = WORDS[random.nextInt(WORDS.length)];
+        if (w == 0) {
+          body.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        } else {
+          body.append(' ').append(word);
+        }
+      }
+      body.append('.');
+    }
+    return body.toString();
+  }
+}
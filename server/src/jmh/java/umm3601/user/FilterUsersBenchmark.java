@@ -0,0 +1,103 @@
+package umm3601.user;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures each of the `filterUsersBy*` methods, which scan an array of
+ * users, against the same filter answered from the indexes with
+ * `forEachUser` (which doesn't go through the query cache), and a query
+ * combining all three.
+ * <p>
+ * Run with `./gradlew jmh`; see `build.gradle` for the profilers.
+ */
+// JMH needs to be able to set the `@Param` field, so it can't be private.
+@SuppressWarnings({ "VisibilityModifier", "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterUsersBenchmark {
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  int size;
+
+  private User[] users;
+  private UserDatabase db;
+  private String company;
+  private UserQuery byAge;
+  private UserQuery byCompany;
+  private UserQuery byRole;
+  private UserQuery combined;
+
+  private static UserQuery query(String... keysAndValues) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      queryParams.put(keysAndValues[i], Arrays.asList(keysAndValues[i + 1]));
+    }
+    return UserQuery.fromQueryParams(queryParams);
+  }
+
+  @Setup
+  public void setUp() {
+    users = UserGenerator.generate(size, 3601);
+    db = new UserDatabase(users);
+    company = UserGenerator.company(7);
+    byAge = query("age", "37");
+    byCompany = query("company", company);
+    byRole = query("role", "editor");
+    combined = query("age", "37", "company", company, "role", "editor");
+  }
+
+  @Benchmark
+  public User[] filterUsersByAge() {
+    return db.filterUsersByAge(users, 37);
+  }
+
+  @Benchmark
+  public void ageIndex(Blackhole blackhole) {
+    db.forEachUser(byAge, blackhole::consume);
+  }
+
+  @Benchmark
+  public User[] filterUsersByCompany() {
+    return db.filterUsersByCompany(users, company);
+  }
+
+  @Benchmark
+  public void companyIndex(Blackhole blackhole) {
+    db.forEachUser(byCompany, blackhole::consume);
+  }
+
+  @Benchmark
+  public User[] filterUsersByRole() {
+    return db.filterUsersByRole(users, "editor");
+  }
+
+  @Benchmark
+  public void roleIndex(Blackhole blackhole) {
+    db.forEachUser(byRole, blackhole::consume);
+  }
+
+  @Benchmark
+  public User[] filterUsersByAll() {
+    return db.filterUsersByRole(db.filterUsersByCompany(db.filterUsersByAge(users, 37), company), "editor");
+  }
+
+  @Benchmark
+  public void combinedIndexes(Blackhole blackhole) {
+    db.forEachUser(combined, blackhole::consume);
+  }
+}
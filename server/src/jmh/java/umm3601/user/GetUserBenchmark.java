@@ -0,0 +1,66 @@
+package umm3601.user;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares looking users up by `_id` with a linear scan (what `getUser`
+ * used to do) against the primary key index in `UserDatabase`.
+ * <p>
+ * Run with `./gradlew jmh`.
+ */
+// JMH needs to be able to set the `@Param` field, so it can't be private.
+@SuppressWarnings({ "VisibilityModifier", "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GetUserBenchmark {
+
+  @Param({ "1000", "10000", "100000", "1000000" })
+  int size;
+
+  private User[] users;
+  private UserDatabase db;
+  private String[] ids;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    users = UserGenerator.generate(size, 3601);
+    db = new UserDatabase(users);
+
+    // Look up a fixed, shuffled set of IDs so every benchmark sees
+    // the same mix of early and late positions in the array.
+    Random random = new Random(3601);
+    ids = new String[1024];
+    for (int i = 0; i < ids.length; ++i) {
+      ids[i] = users[random.nextInt(size)]._id;
+    }
+  }
+
+  private String nextId() {
+    next = (next + 1) & (ids.length - 1);
+    return ids[next];
+  }
+
+  @Benchmark
+  public User linearScan() {
+    String id = nextId();
+    return Arrays.stream(users).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+  }
+
+  @Benchmark
+  public User indexed() {
+    return db.getUser(nextId());
+  }
+}
@@ -0,0 +1,59 @@
+package umm3601.user;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic users for the benchmarks, following the shape of the
+ * bundled `users.json`: ages from 18 to 80, a few dozen companies, and one
+ * of three roles.
+ */
+public final class UserGenerator {
+
+  private static final String[] FIRST_NAMES = {"Connie", "Lynn", "Roxie", "Kitty", "Pat", "Stokes", "Bolton",
+      "Merrill", "Tracy", "Norma"};
+  private static final String[] LAST_NAMES = {"Stewart", "Holland", "Morse", "Page", "Knight", "Lester",
+      "Monroe", "Parker", "Sanchez", "Vasquez"};
+  private static final String[] ROLES = {"admin", "editor", "viewer"};
+  private static final int COMPANIES = 40;
+  private static final int MIN_AGE = 18;
+  private static final int MAX_AGE = 80;
+  private static final int ID_LENGTH = 24;
+
+  private UserGenerator() {
+  }
+
+  /**
+   * Generate the given number of users. The same seed always produces the
+   * same users.
+   *
+   * @param size how many users to generate
+   * @param seed the seed for the random number generator
+   * @return the generated users
+   */
+  public static User[] generate(int size, long seed) {
+    Random random = new Random(seed);
+    User[] users = new User[size];
+    for (int i = 0; i < size; ++i) {
+      User user = new User();
+      user._id = String.format("%0" + ID_LENGTH + "x", i);
+      String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+      String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+      user.name = first + " " + last;
+      user.age = MIN_AGE + random.nextInt(MAX_AGE - MIN_AGE + 1);
+      user.company = company(random.nextInt(COMPANIES));
+      user.email = first.toLowerCase() + last.toLowerCase() + i + "@" + user.company.toLowerCase() + ".com";
+      user.avatar = "https://gravatar.com/avatar/" + user._id + "?d=identicon";
+      user.role = ROLES[random.nextInt(ROLES.length)];
+      users[i] = user;
+    }
+    return users;
+  }
+
+  /**
+   * @param index which company
+   * @return the company's name, like "COMPANY7"
+   */
+  public static String company(int index) {
+    return "COMPANY" + index;
+  }
+}
@@ -0,0 +1,288 @@
+package umm3601.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.Server;
+import umm3601.todo.Todo;
+import umm3601.user.User;
+
+/**
+ * Generates `todos.json` and `users.json` files of any size for the load
+ * test, following the bundled data (`src/main/resources`).
+ * <p>
+ * Every field is drawn from what the bundled records actually have: a
+ * todo's owner, category and status are copies of a random bundled todo's,
+ * its body has as many sentences as a random bundled body, each as long as
+ * a random bundled sentence, made of words drawn from all the bundled
+ * bodies (so common words stay common), and likewise for the users. The
+ * only exception is the users' companies: the bundled users nearly all
+ * work for different companies, which would make every company filter
+ * match a single user, so a company is shared by about
+ * `USERS_PER_COMPANY` users, its name made from parts of the bundled ones.
+ * <p>
+ * The files are written a record at a time, so a file of millions of
+ * records never has to fit in memory; only the `_id`s are kept, for the
+ * requests by id.
+ */
+public final class DataGenerator {
+
+  /**
+   * About how many users work for each company.
+   */
+  public static final int USERS_PER_COMPANY = 25;
+
+  private static final int ID_PREFIX_BITS = 32;
+  private static final int MIN_COMPANY_PART = 3;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  // The values of each field in the bundled records, once per record (so
+  // picking one at random follows their distribution).
+  private final String[] owners;
+  private final String[] categories;
+  private final boolean[] statuses;
+  private final int[] sentencesPerBody;
+  private final int[] wordsPerSentence;
+  private final String[] words;
+  private final String[] firstNames;
+  private final String[] lastNames;
+  private final int[] ages;
+  private final String[] roles;
+  private final String[] bundledCompanies;
+
+  private final Random random;
+  private String[] companies;
+
+  /**
+   * Construct a generator from the bundled data.
+   *
+   * @param seed the seed for the random number generator; the same seed
+   *             always generates the same records
+   * @throws IOException if the bundled data can't be read
+   */
+  public DataGenerator(long seed) throws IOException {
+    this.random = new Random(seed);
+
+    Todo[] todos = read(Server.TODO_DATA_FILE, Todo[].class);
+    owners = new String[todos.length];
+    categories = new String[todos.length];
+    statuses = new boolean[todos.length];
+    sentencesPerBody = new int[todos.length];
+    List<Integer> sentenceLengths = new ArrayList<>();
+    List<String> bodyWords = new ArrayList<>();
+    for (int i = 0; i < todos.length; ++i) {
+      owners[i] = todos[i].owner;
+      categories[i] = todos[i].category;
+      statuses[i] = todos[i].status;
+      String[] sentences = todos[i].body.split("\\.\\s*");
+      sentencesPerBody[i] = sentences.length;
+      for (String sentence : sentences) {
+        String[] sentenceWords = sentence.trim().split("\\s+");
+        sentenceLengths.add(sentenceWords.length);
+        for (String word : sentenceWords) {
+          bodyWords.add(word.toLowerCase());
+        }
+      }
+    }
+    wordsPerSentence = sentenceLengths.stream().mapToInt(Integer::intValue).toArray();
+    words = bodyWords.toArray(new String[0]);
+
+    User[] users = read(Server.USER_DATA_FILE, User[].class);
+    firstNames = new String[users.length];
+    lastNames = new String[users.length];
+    ages = new int[users.length];
+    roles = new String[users.length];
+    Set<String> companySet = new LinkedHashSet<>();
+    for (int i = 0; i < users.length; ++i) {
+      String[] name = users[i].name.split(" ", 2);
+      firstNames[i] = name[0];
+      lastNames[i] = name.length > 1 ? name[1] : name[0];
+      ages[i] = users[i].age;
+      roles[i] = users[i].role;
+      companySet.add(users[i].company);
+    }
+    bundledCompanies = companySet.toArray(new String[0]);
+    companies = bundledCompanies;
+  }
+
+  private static <T> T read(String resource, Class<T> type) throws IOException {
+    try (InputStream input = DataGenerator.class.getResourceAsStream(resource)) {
+      if (input == null) {
+        throw new IOException("Can't find the bundled " + resource);
+      }
+      return MAPPER.readValue(input, type);
+    }
+  }
+
+  /**
+   * Write a JSON array of generated todos to a file.
+   *
+   * @param file  where to write them
+   * @param count how many todos to generate
+   * @return the `_id`s of the todos, in the order they were written
+   * @throws IOException if the file can't be written
+   */
+  public String[] writeTodos(Path file, int count) throws IOException {
+    String[] ids = new String[count];
+    long idPrefix = random.nextInt() & ((1L << ID_PREFIX_BITS) - 1);
+    try (OutputStream output = Files.newOutputStream(file);
+        JsonGenerator json = MAPPER.getFactory().createGenerator(output)) {
+      json.writeStartArray();
+      for (int i = 0; i < count; ++i) {
+        Todo todo = new Todo();
+        todo._id = id(idPrefix, i);
+        todo.owner = pick(owners);
+        todo.status = statuses[random.nextInt(statuses.length)];
+        todo.body = body();
+        todo.category = pick(categories);
+        json.writeObject(todo);
+        ids[i] = todo._id;
+      }
+      json.writeEndArray();
+    }
+    return ids;
+  }
+
+  /**
+   * Write a JSON array of generated users to a file.
+   *
+   * @param file  where to write them
+   * @param count how many users to generate
+   * @return the `_id`s of the users, in the order they were written
+   * @throws IOException if the file can't be written
+   */
+  public String[] writeUsers(Path file, int count) throws IOException {
+    companies = companies(Math.max(bundledCompanies.length, count / USERS_PER_COMPANY));
+    String[] ids = new String[count];
+    long idPrefix = random.nextInt() & ((1L << ID_PREFIX_BITS) - 1);
+    try (OutputStream output = Files.newOutputStream(file);
+        JsonGenerator json = MAPPER.getFactory().createGenerator(output)) {
+      json.writeStartArray();
+      for (int i = 0; i < count; ++i) {
+        User user = new User();
+        user._id = id(idPrefix, i);
+        String first = pick(firstNames);
+        String last = pick(lastNames);
+        user.name = first + " " + last;
+        user.age = ages[random.nextInt(ages.length)];
+        user.company = pick(companies);
+        user.email = (first + last).toLowerCase() + "@" + user.company.toLowerCase() + ".com";
+        user.role = pick(roles);
+        user.avatar = "https://gravatar.com/avatar/" + id(random.nextLong(), random.nextLong()) + "?d=identicon";
+        json.writeObject(user);
+        ids[i] = user._id;
+      }
+      json.writeEndArray();
+    }
+    return ids;
+  }
+
+  // Like a MongoDB ObjectId: 24 hex digits, the first 8 the same for
+  // every record in a file, so they sort in the order they were written.
+  private static String id(long prefix, long index) {
+    return String.format("%08x%016x", prefix, index);
+  }
+
+  private String pick(String[] values) {
+    return values[random.nextInt(values.length)];
+  }
+
+  private String body() {
+    StringBuilder body = new StringBuilder();
+    int sentences = sentencesPerBody[random.nextInt(sentencesPerBody.length)];
+    for (int s = 0; s < sentences; ++s) {
+      if (s > 0) {
+        body.append(' ');
+      }
+      int length = wordsPerSentence[random.nextInt(wordsPerSentence.length)];
+      for (int w = 0; w < length; ++w) {
+        String word = pick(words);
+        if (w == 0) {
+          body.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        } else {
+          body.append(' ').append(word);
+        }
+      }
+      body.append('.');
+    }
+    return body.toString();
+  }
+
+  /**
+   * Make up company names: the bundled ones, then the start of one joined
+   * to the end of another (like "OHMGENE"), numbered if that's taken.
+   */
+  private String[] companies(int count) {
+    Set<String> names = new LinkedHashSet<>(Arrays.asList(bundledCompanies));
+    Set<String> taken = new HashSet<>(names);
+    while (names.size() < count) {
+      String start = pick(bundledCompanies);
+      String end = pick(bundledCompanies);
+      String name = start.substring(0, Math.min(start.length(), MIN_COMPANY_PART + random.nextInt(2)))
+          + end.substring(Math.max(0, end.length() - MIN_COMPANY_PART - random.nextInt(2)));
+      if (!taken.add(name)) {
+        name = name + names.size();
+        taken.add(name);
+      }
+      names.add(name);
+    }
+    return names.toArray(new String[0]);
+  }
+
+  /**
+   * @return the todo owners, with duplicates, for building requests
+   */
+  public String[] getOwners() {
+    return owners.clone();
+  }
+
+  /**
+   * @return the todo categories, with duplicates, for building requests
+   */
+  public String[] getCategories() {
+    return categories.clone();
+  }
+
+  /**
+   * @return the words in the todo bodies, with duplicates, for building
+   *         requests
+   */
+  public String[] getWords() {
+    return words.clone();
+  }
+
+  /**
+   * @return the user ages, with duplicates, for building requests
+   */
+  public int[] getAges() {
+    return ages.clone();
+  }
+
+  /**
+   * @return the companies of the users written by `writeUsers`
+   */
+  public String[] getCompanies() {
+    return companies.clone();
+  }
+
+  /**
+   * @return the user roles, with duplicates, for building requests
+   */
+  public String[] getRoles() {
+    return roles.clone();
+  }
+}
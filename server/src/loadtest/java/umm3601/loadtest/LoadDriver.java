@@ -0,0 +1,293 @@
+package umm3601.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import umm3601.LatencyHistogram;
+
+/**
+ * Sends the requests of a `RequestMix` to a server, and times the
+ * responses.
+ * <p>
+ * It can drive the server two ways. In a closed loop each of a fixed
+ * number of connections sends its next request as soon as the last
+ * response arrives, which finds the most the server can do but hides how
+ * slow it is under load: while a response is slow, the requests that
+ * would have arrived meanwhile aren't sent, so they're never timed
+ * ("coordinated omission"). In an open loop requests are sent at a fixed
+ * rate whatever happens to the responses, the way independent clients
+ * send them, and a request that couldn't be sent on time is timed from
+ * when it should have been.
+ * <p>
+ * Both ways, every latency is recorded twice: as it was measured, and
+ * corrected for coordinated omission. In the open loop the corrected
+ * latency is from when the request should have been sent; in the closed
+ * loop the requests a slow response held up are made up for by
+ * `LatencyHistogram.recordWithExpectedInterval`, given how long a request
+ * takes when nothing is slow. It's the corrected latencies that say what
+ * the server's clients see.
+ */
+public final class LoadDriver {
+
+  // How long to wait for the responses still on their way when an open
+  // loop ends, before giving up on them.
+  private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+  private static final int OK_CODES = 200;
+  private static final int NOT_OK_CODES = 300;
+  private static final int NOT_MODIFIED = 304;
+  private static final int SERVICE_UNAVAILABLE = 503;
+  // The status recorded for a request that got no response at all.
+  private static final int NO_RESPONSE = 0;
+
+  /**
+   * The counts and latencies of one kind of request (or of all of them).
+   */
+  public static final class Stats {
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final LatencyHistogram measured = new LatencyHistogram();
+    private final LatencyHistogram corrected = new LatencyHistogram();
+
+    private void record(int status, long measuredNanos, long correctedNanos, long expectedNanos) {
+      requests.incrementAndGet();
+      if (status == SERVICE_UNAVAILABLE) {
+        shed.incrementAndGet();
+      } else if ((status < OK_CODES || status >= NOT_OK_CODES) && status != NOT_MODIFIED) {
+        errors.incrementAndGet();
+      }
+      measured.record(measuredNanos);
+      corrected.recordWithExpectedInterval(correctedNanos, expectedNanos);
+    }
+
+    /**
+     * @return how many requests were sent
+     */
+    public long getRequests() {
+      return requests.get();
+    }
+
+    /**
+     * @return how many of them failed, or got neither a 2xx response nor a
+     *         304 (Not Modified) nor a 503
+     */
+    public long getErrors() {
+      return errors.get();
+    }
+
+    /**
+     * @return how many of them the server turned away with a 503 (Service
+     *         Unavailable) because it was too busy; their latencies are
+     *         recorded with the rest, since being told quickly to come back
+     *         later is what load shedding trades for keeping the others
+     *         fast
+     */
+    public long getShed() {
+      return shed.get();
+    }
+
+    /**
+     * @return the latencies as they were measured
+     */
+    public LatencyHistogram getMeasured() {
+      return measured;
+    }
+
+    /**
+     * @return the latencies corrected for coordinated omission
+     */
+    public LatencyHistogram getCorrected() {
+      return corrected;
+    }
+  }
+
+  /**
+   * What happened in one run: the stats of each kind of request and of all
+   * of them together, and how long the run took.
+   */
+  public static final class Results {
+    private final Map<RequestMix.Kind, Stats> byKind = new EnumMap<>(RequestMix.Kind.class);
+    private final Stats all = new Stats();
+    private long elapsedNanos;
+
+    private Results(List<RequestMix.Kind> kinds) {
+      for (RequestMix.Kind kind : kinds) {
+        byKind.put(kind, new Stats());
+      }
+    }
+
+    private void record(RequestMix.Kind kind, int status, long measuredNanos, long correctedNanos,
+        long expectedNanos) {
+      byKind.get(kind).record(status, measuredNanos, correctedNanos, expectedNanos);
+      all.record(status, measuredNanos, correctedNanos, expectedNanos);
+    }
+
+    /**
+     * @return the stats of each kind of request sent, in the order of the
+     *         kinds
+     */
+    public Map<RequestMix.Kind, Stats> getByKind() {
+      return byKind;
+    }
+
+    /**
+     * @return the stats of all the requests together
+     */
+    public Stats getAll() {
+      return all;
+    }
+
+    /**
+     * @return how long the run took, in nanoseconds, from the first
+     *         request sent to the last response received
+     */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+  }
+
+  private final HttpClient client;
+  private final URI base;
+  private final RequestMix mix;
+  private final boolean gzip;
+
+  /**
+   * Construct a driver.
+   *
+   * @param base the server to send the requests to, like
+   *             "http://localhost:4567"
+   * @param mix  the requests to send
+   * @param gzip whether to ask for gzipped responses, as browsers do
+   */
+  public LoadDriver(URI base, RequestMix mix, boolean gzip) {
+    this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    this.base = base;
+    this.mix = mix;
+    this.gzip = gzip;
+  }
+
+  private HttpRequest request(RequestMix.Request request) {
+    HttpRequest.Builder builder = HttpRequest.newBuilder(base.resolve(request.getPath())).timeout(REQUEST_TIMEOUT);
+    if (gzip) {
+      builder.header("Accept-Encoding", "gzip");
+    }
+    return builder.build();
+  }
+
+  /**
+   * Run a closed loop: each connection sends a request, waits for the
+   * response, and sends the next, until the time is up.
+   *
+   * @param connections   how many requests to have on their way at once
+   * @param duration      how long to send requests for
+   * @param expectedNanos how long a request takes when nothing is slow, in
+   *                      nanoseconds, for correcting the latencies; 0 for
+   *                      no correction
+   * @return the stats of the run
+   * @throws InterruptedException if interrupted while waiting for the
+   *                              connections to finish
+   */
+  public Results runClosedLoop(int connections, Duration duration, long expectedNanos) throws InterruptedException {
+    Results results = new Results(mix.getKinds());
+    long start = System.nanoTime();
+    long end = start + duration.toNanos();
+    List<Thread> threads = new ArrayList<>();
+    for (int c = 0; c < connections; ++c) {
+      long seed = c;
+      Thread thread = new Thread(() -> {
+        Random random = new Random(seed);
+        while (System.nanoTime() < end) {
+          RequestMix.Request request = mix.next(random);
+          long sent = System.nanoTime();
+          int status;
+          try {
+            status = client.send(request(request), HttpResponse.BodyHandlers.discarding()).statusCode();
+          } catch (IOException e) {
+            status = NO_RESPONSE;
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+          long latency = System.nanoTime() - sent;
+          results.record(request.getKind(), status, latency, latency, expectedNanos);
+        }
+      }, "load-" + c);
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    results.elapsedNanos = System.nanoTime() - start;
+    return results;
+  }
+
+  /**
+   * Run an open loop: send requests at a steady rate, each at the time it's
+   * due, without waiting for the responses, until the time is up. Then
+   * wait for the responses still on their way.
+   *
+   * @param rate     how many requests to send each second
+   * @param duration how long to send requests for
+   * @return the stats of the run
+   * @throws InterruptedException if interrupted while sending or waiting
+   *                              for the responses
+   */
+  public Results runOpenLoop(double rate, Duration duration) throws InterruptedException {
+    Results results = new Results(mix.getKinds());
+    Random random = new Random(0);
+    long count = (long) (rate * duration.toNanos() / TimeUnit.SECONDS.toNanos(1));
+    List<CompletableFuture<?>> pending = new ArrayList<>();
+    long start = System.nanoTime();
+    for (long i = 0; i < count; ++i) {
+      long due = start + (long) (i * TimeUnit.SECONDS.toNanos(1) / rate);
+      for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+        LockSupport.parkNanos(wait);
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      RequestMix.Request request = mix.next(random);
+      long sent = System.nanoTime();
+      pending.add(client.sendAsync(request(request), HttpResponse.BodyHandlers.discarding())
+          .handle((response, failure) -> {
+            long now = System.nanoTime();
+            results.record(request.getKind(), failure == null ? response.statusCode() : NO_RESPONSE,
+                now - sent, now - due, 0);
+            return null;
+          }));
+      // Forget the responses that have arrived, so a long run doesn't keep
+      // them all.
+      if (pending.size() >= rate) {
+        pending.removeIf(CompletableFuture::isDone);
+      }
+    }
+    try {
+      CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+          .get(DRAIN_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      // The responses that didn't arrive in time aren't counted at all,
+      // but there's no hiding that the run went badly.
+      System.err.println("Not all the responses arrived: " + e);
+    }
+    results.elapsedNanos = System.nanoTime() - start;
+    return results;
+  }
+}
@@ -0,0 +1,267 @@
+package umm3601.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.javalin.Javalin;
+import umm3601.LatencyHistogram;
+import umm3601.Server;
+
+/**
+ * Load tests the server: generates todos and users (see `DataGenerator`),
+ * starts the server on them in this process, sends it a mix of requests
+ * (see `RequestMix` and `LoadDriver`), and reports the throughput and
+ * latencies of each kind of request.
+ * <p>
+ * Run it with `./gradlew loadTest`, giving options like
+ * `-PloadTest.args="--todos=1000000 --mode=open --rate=2000"`:
+ * <ul>
+ * <li>`--todos`, `--users`: how many to generate (100000 and 10000)
+ * <li>`--seed`: the seed for the data and the requests (3601)
+ * <li>`--mode`: `closed` (each connection sends its next request when its
+ * last response arrives) or `open` (requests are sent at `--rate` a
+ * second whatever the responses do)
+ * <li>`--connections`: how many connections the closed loop uses (16)
+ * <li>`--rate`: how many requests a second the open loop sends (1000)
+ * <li>`--warmup`, `--duration`: how many seconds to send requests before
+ * timing them (10), and while timing them (30)
+ * <li>`--mix`: the weight of each kind of request (`RequestMix.DEFAULT`)
+ * <li>`--limit`: how many todos a filtered list asks for (100)
+ * <li>`--expected-interval-ms`: how long a request takes when nothing is
+ * slow, for correcting the closed loop's latencies; by default the median
+ * latency of the warmup
+ * <li>`--gzip`: whether to ask for gzipped responses (true)
+ * <li>`--text-storage`: the server's `TEXT_STORAGE` (heap)
+ * <li>`--execution`: the server's `EXECUTION_MODE`, or several separated
+ * by commas (like `default,tuned,virtual`) to run the test against each in
+ * turn and compare them (`default`); `virtual` needs the server to run on
+ * JDK 21 or later (`-PjavaVersion=21`)
+ * <li>`--server-threads`, `--max-in-flight`: the server's `SERVER_THREADS`
+ * and `MAX_REQUESTS_IN_FLIGHT` (its own defaults)
+ * <li>`--data`: the directory to generate the data in (a temporary one)
+ * <li>`--report`: a file to write the results to as JSON, as well as
+ * printing them
+ * </ul>
+ * The latencies are reported both as they were measured and corrected for
+ * coordinated omission (see `LoadDriver`); only the corrected ones say how
+ * slow the server is for its clients. Requests the server turns away with
+ * a 503 are counted as shed rather than as errors, and aren't counted in
+ * the "ok/s" the execution modes are compared by, since they're cheap.
+ */
+public final class LoadTest {
+
+  private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+  private static final String[] QUANTILE_NAMES = {"p50", "p99", "p99.9"};
+
+  private static final Map<String, String> DEFAULTS = Map.ofEntries(
+      Map.entry("todos", "100000"),
+      Map.entry("users", "10000"),
+      Map.entry("seed", "3601"),
+      Map.entry("mode", "closed"),
+      Map.entry("connections", "16"),
+      Map.entry("rate", "1000"),
+      Map.entry("warmup", "10"),
+      Map.entry("duration", "30"),
+      Map.entry("mix", RequestMix.DEFAULT),
+      Map.entry("limit", Integer.toString(RequestMix.DEFAULT_LIMIT)),
+      Map.entry("gzip", "true"),
+      Map.entry("text-storage", "heap"),
+      Map.entry("execution", "default"));
+
+  private LoadTest() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Map<String, String> options = parseOptions(args);
+
+    Path dataDir = options.containsKey("data")
+        ? Files.createDirectories(Paths.get(options.get("data")))
+        : Files.createTempDirectory("loadtest");
+    Path todoFile = dataDir.resolve("todos.json");
+    Path userFile = dataDir.resolve("users.json");
+    System.out.println("Generating " + options.get("todos") + " todos and " + options.get("users")
+        + " users in " + dataDir);
+    DataGenerator generator = new DataGenerator(Long.parseLong(options.get("seed")));
+    String[] todoIds = generator.writeTodos(todoFile, Integer.parseInt(options.get("todos")));
+    String[] userIds = generator.writeUsers(userFile, Integer.parseInt(options.get("users")));
+
+    RequestMix mix = new RequestMix(options.get("mix"), generator, todoIds, userIds,
+        Integer.parseInt(options.get("limit")));
+
+    Map<String, LoadDriver.Results> resultsByMode = new LinkedHashMap<>();
+    for (String mode : options.get("execution").split(",")) {
+      resultsByMode.put(mode.trim(), run(mode.trim(), options, todoFile, userFile, mix));
+    }
+    if (resultsByMode.size() > 1) {
+      printComparison(resultsByMode);
+    }
+    if (options.containsKey("report")) {
+      new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+          .writeValue(Paths.get(options.get("report")).toFile(), report(options, resultsByMode));
+    }
+    // The servers' file watchers and the HTTP client's threads would
+    // otherwise keep running.
+    boolean sentAll = resultsByMode.values().stream().allMatch(results -> results.getAll().getRequests() > 0);
+    System.exit(sentAll ? 0 : 1);
+  }
+
+  /**
+   * Start the server in one execution mode, send it requests, print what
+   * happened, and stop it.
+   */
+  private static LoadDriver.Results run(String mode, Map<String, String> options, Path todoFile, Path userFile,
+      RequestMix mix) throws InterruptedException {
+    System.out.println("\nStarting the server in the " + mode + " execution mode");
+    Map<String, String> environment = new HashMap<>();
+    environment.put(Server.TODO_DATA_PATH_VARIABLE, todoFile.toString());
+    environment.put(Server.USER_DATA_PATH_VARIABLE, userFile.toString());
+    environment.put(Server.TEXT_STORAGE_VARIABLE, options.get("text-storage"));
+    environment.put(Server.EXECUTION_MODE_VARIABLE, mode);
+    if (options.containsKey("server-threads")) {
+      environment.put(Server.SERVER_THREADS_VARIABLE, options.get("server-threads"));
+    }
+    if (options.containsKey("max-in-flight")) {
+      environment.put(Server.MAX_REQUESTS_IN_FLIGHT_VARIABLE, options.get("max-in-flight"));
+    }
+    Javalin server = Server.start(0, environment::get);
+
+    LoadDriver driver = new LoadDriver(URI.create("http://localhost:" + server.port()), mix,
+        Boolean.parseBoolean(options.get("gzip")));
+    Duration warmup = Duration.ofSeconds(Long.parseLong(options.get("warmup")));
+    Duration duration = Duration.ofSeconds(Long.parseLong(options.get("duration")));
+
+    LoadDriver.Results results;
+    if ("open".equals(options.get("mode"))) {
+      double rate = Double.parseDouble(options.get("rate"));
+      System.out.println("Warming up for " + warmup.toSeconds() + "s");
+      driver.runOpenLoop(rate, warmup);
+      System.out.println("Sending " + rate + " requests/s for " + duration.toSeconds() + "s");
+      results = driver.runOpenLoop(rate, duration);
+    } else {
+      int connections = Integer.parseInt(options.get("connections"));
+      System.out.println("Warming up for " + warmup.toSeconds() + "s");
+      LoadDriver.Results warmupResults = driver.runClosedLoop(connections, warmup, 0);
+      long expectedNanos = options.containsKey("expected-interval-ms")
+          ? (long) (Double.parseDouble(options.get("expected-interval-ms")) * TimeUnit.MILLISECONDS.toNanos(1))
+          : warmupResults.getAll().getMeasured().getValueAtQuantile(0.5);
+      System.out.println("Sending requests on " + connections + " connections for " + duration.toSeconds()
+          + "s, correcting for an expected interval of " + millis(expectedNanos) + "ms");
+      results = driver.runClosedLoop(connections, duration, expectedNanos);
+    }
+    server.stop();
+
+    printReport(results);
+    return results;
+  }
+
+  private static Map<String, String> parseOptions(String[] args) {
+    Map<String, String> options = new TreeMap<>(DEFAULTS);
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("Specified option '" + arg + "' isn't of the form --name=value");
+      }
+      int equals = arg.indexOf('=');
+      options.put(arg.substring(2, equals), arg.substring(equals + 1));
+    }
+    return options;
+  }
+
+  private static void printReport(LoadDriver.Results results) {
+    double seconds = (double) results.getElapsedNanos() / TimeUnit.SECONDS.toNanos(1);
+    System.out.printf("%n%-12s %10s %10s %8s %8s   %-32s %s%n", "", "requests", "req/s", "errors", "shed",
+        "corrected p50/p99/p99.9/max ms", "measured p50/p99/p99.9/max ms");
+    for (Map.Entry<RequestMix.Kind, LoadDriver.Stats> entry : results.getByKind().entrySet()) {
+      printRow(entry.getKey().getLabel(), entry.getValue(), seconds);
+    }
+    printRow("all", results.getAll(), seconds);
+  }
+
+  private static void printRow(String label, LoadDriver.Stats stats, double seconds) {
+    System.out.printf("%-12s %10d %10.1f %8d %8d   %-32s %s%n", label, stats.getRequests(),
+        stats.getRequests() / seconds, stats.getErrors(), stats.getShed(), latencies(stats.getCorrected()),
+        latencies(stats.getMeasured()));
+  }
+
+  private static void printComparison(Map<String, LoadDriver.Results> resultsByMode) {
+    System.out.printf("%n%-12s %10s %8s %8s   %s%n", "execution", "ok/s", "errors", "shed",
+        "corrected p50/p99/p99.9/max ms");
+    resultsByMode.forEach((mode, results) -> {
+      LoadDriver.Stats all = results.getAll();
+      System.out.printf("%-12s %10.1f %8d %8d   %s%n", mode, okPerSecond(results), all.getErrors(), all.getShed(),
+          latencies(all.getCorrected()));
+    });
+  }
+
+  private static double okPerSecond(LoadDriver.Results results) {
+    LoadDriver.Stats all = results.getAll();
+    double seconds = (double) results.getElapsedNanos() / TimeUnit.SECONDS.toNanos(1);
+    return (all.getRequests() - all.getErrors() - all.getShed()) / seconds;
+  }
+
+  private static String latencies(LatencyHistogram histogram) {
+    StringBuilder latencies = new StringBuilder();
+    for (double quantile : QUANTILES) {
+      latencies.append(millis(histogram.getValueAtQuantile(quantile))).append('/');
+    }
+    return latencies.append(millis(histogram.getValueAtQuantile(1))).toString();
+  }
+
+  private static String millis(long nanos) {
+    return String.format("%.2f", (double) nanos / TimeUnit.MILLISECONDS.toNanos(1));
+  }
+
+  private static Map<String, Object> report(Map<String, String> options,
+      Map<String, LoadDriver.Results> resultsByMode) {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("options", options);
+    Map<String, Object> modes = new LinkedHashMap<>();
+    resultsByMode.forEach((mode, results) -> {
+      double seconds = (double) results.getElapsedNanos() / TimeUnit.SECONDS.toNanos(1);
+      Map<String, Object> modeReport = new LinkedHashMap<>();
+      modeReport.put("seconds", seconds);
+      modeReport.put("okPerSecond", okPerSecond(results));
+      Map<String, Object> kinds = new LinkedHashMap<>();
+      for (Map.Entry<RequestMix.Kind, LoadDriver.Stats> entry : results.getByKind().entrySet()) {
+        kinds.put(entry.getKey().getLabel(), statsReport(entry.getValue(), seconds));
+      }
+      kinds.put("all", statsReport(results.getAll(), seconds));
+      modeReport.put("requests", kinds);
+      modes.put(mode, modeReport);
+    });
+    report.put("executionModes", modes);
+    return report;
+  }
+
+  private static Map<String, Object> statsReport(LoadDriver.Stats stats, double seconds) {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("requests", stats.getRequests());
+    report.put("requestsPerSecond", stats.getRequests() / seconds);
+    report.put("errors", stats.getErrors());
+    report.put("shed", stats.getShed());
+    report.put("correctedMillis", latencyReport(stats.getCorrected()));
+    report.put("measuredMillis", latencyReport(stats.getMeasured()));
+    return report;
+  }
+
+  private static Map<String, Object> latencyReport(LatencyHistogram histogram) {
+    Map<String, Object> report = new LinkedHashMap<>();
+    for (int i = 0; i < QUANTILES.length; ++i) {
+      report.put(QUANTILE_NAMES[i], (double) histogram.getValueAtQuantile(QUANTILES[i])
+          / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    report.put("max", (double) histogram.getValueAtQuantile(1) / TimeUnit.MILLISECONDS.toNanos(1));
+    return report;
+  }
+}
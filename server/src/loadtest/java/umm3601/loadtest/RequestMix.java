@@ -0,0 +1,293 @@
+package umm3601.loadtest;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The requests the load test sends, in proportions like "todoFilter=40,
+ * todoById=25" (see `DEFAULT`): each kind of request is sent that many
+ * times in every hundred (or however many the weights add up to).
+ * <p>
+ * The values in the filters are drawn from the generated data the same way
+ * the data was (so "Fry" and "homework" are asked for about as often as
+ * they turn up), and the ids from the records actually written, so every
+ * request by id finds its record.
+ */
+public final class RequestMix {
+
+  /**
+   * The mix sent if no other is given: mostly filtered lists and requests
+   * by id, like a client's searches and the clicks on their results.
+   */
+  public static final String DEFAULT = "todoFilter=40,todoById=25,todoList=5,userFilter=15,userById=10,userList=5";
+
+  /**
+   * How many todos a filtered list asks for if no other limit is given.
+   */
+  public static final int DEFAULT_LIMIT = 100;
+
+  /**
+   * How many items a request for a whole list asks for at a time.
+   */
+  public static final int PAGE_SIZE = 50;
+
+  // How often a filtered list of todos is sorted, and filtered on two
+  // attributes rather than one.
+  private static final double ORDER_BY_CHANCE = 0.3;
+  private static final double TWO_FILTERS_CHANCE = 0.5;
+
+  private static final String[] TODO_FILTERS = {"owner", "category", "status", "contains"};
+  private static final String[] TODO_ORDERS = {"owner", "category", "status", "body"};
+  private static final String[] USER_FILTERS = {"age", "company", "role"};
+
+  /**
+   * The kinds of request.
+   */
+  public enum Kind {
+    /** A page of all the todos. */
+    TODO_LIST("todoList"),
+    /** The todos matching one or two filters, maybe sorted. */
+    TODO_FILTER("todoFilter"),
+    /** One todo, by id. */
+    TODO_BY_ID("todoById"),
+    /** A page of all the users. */
+    USER_LIST("userList"),
+    /** The users matching one filter. */
+    USER_FILTER("userFilter"),
+    /** One user, by id. */
+    USER_BY_ID("userById");
+
+    private final String label;
+
+    Kind(String label) {
+      this.label = label;
+    }
+
+    /**
+     * @return the name of this kind in a mix and in the report, like
+     *         "todoFilter"
+     */
+    public String getLabel() {
+      return label;
+    }
+
+    /**
+     * Find a kind of request by its label.
+     *
+     * @param label the label, like "todoFilter"
+     * @return the kind with that label
+     * @throws IllegalArgumentException if there's no such kind
+     */
+    public static Kind fromLabel(String label) {
+      for (Kind kind : values()) {
+        if (kind.label.equals(label)) {
+          return kind;
+        }
+      }
+      throw new IllegalArgumentException("There's no kind of request called '" + label + "'");
+    }
+  }
+
+  /**
+   * One request to send.
+   */
+  public static final class Request {
+    private final Kind kind;
+    private final String path;
+
+    private Request(Kind kind, String path) {
+      this.kind = kind;
+      this.path = path;
+    }
+
+    /**
+     * @return what kind of request it is
+     */
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * @return the path and query string to request, like
+     *         "/api/todos?owner=Fry"
+     */
+    public String getPath() {
+      return path;
+    }
+  }
+
+  private final Kind[] kinds;
+  private final int[] cumulativeWeights;
+  private final String[] owners;
+  private final String[] categories;
+  private final String[] words;
+  private final int[] ages;
+  private final String[] companies;
+  private final String[] roles;
+  private final String[] todoIds;
+  private final String[] userIds;
+  private final int limit;
+
+  /**
+   * Construct a mix of requests.
+   *
+   * @param mix     the weight of each kind of request, like "todoById=3,
+   *                userById=1"; kinds that aren't listed aren't sent
+   * @param data    the generator that generated the data, for the values
+   *                to filter on
+   * @param todoIds the ids of the generated todos
+   * @param userIds the ids of the generated users
+   * @param limit   how many todos a filtered list asks for
+   * @throws IllegalArgumentException if the mix can't be parsed
+   */
+  public RequestMix(String mix, DataGenerator data, String[] todoIds, String[] userIds, int limit) {
+    Map<Kind, Integer> weights = parse(mix);
+    this.kinds = weights.keySet().toArray(new Kind[0]);
+    this.cumulativeWeights = new int[kinds.length];
+    int total = 0;
+    for (int i = 0; i < kinds.length; ++i) {
+      total += weights.get(kinds[i]);
+      cumulativeWeights[i] = total;
+    }
+    if (total == 0) {
+      throw new IllegalArgumentException("The mix '" + mix + "' doesn't send any requests");
+    }
+    this.owners = data.getOwners();
+    this.categories = data.getCategories();
+    this.words = data.getWords();
+    this.ages = data.getAges();
+    this.companies = data.getCompanies();
+    this.roles = data.getRoles();
+    this.todoIds = todoIds;
+    this.userIds = userIds;
+    this.limit = limit;
+  }
+
+  private static Map<Kind, Integer> parse(String mix) {
+    Map<Kind, Integer> weights = new LinkedHashMap<>();
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Specified mix entry '" + entry + "' isn't of the form kind=weight");
+      }
+      int weight;
+      try {
+        weight = Integer.parseInt(parts[1].trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Specified weight '" + parts[1] + "' can't be parsed to an integer");
+      }
+      if (weight < 0) {
+        throw new IllegalArgumentException("Specified weight '" + parts[1] + "' can't be negative");
+      }
+      weights.put(Kind.fromLabel(parts[0].trim()), weight);
+    }
+    return weights;
+  }
+
+  /**
+   * @return the kinds of request this mix sends, in the order they were
+   *         given
+   */
+  public List<Kind> getKinds() {
+    List<Kind> sent = new ArrayList<>();
+    int previous = 0;
+    for (int i = 0; i < kinds.length; ++i) {
+      if (cumulativeWeights[i] > previous) {
+        sent.add(kinds[i]);
+      }
+      previous = cumulativeWeights[i];
+    }
+    return sent;
+  }
+
+  /**
+   * Pick the next request to send.
+   *
+   * @param random where to get the random numbers from; each thread sending
+   *               requests should have its own
+   * @return the request
+   */
+  public Request next(Random random) {
+    int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+    int i = 0;
+    while (pick >= cumulativeWeights[i]) {
+      ++i;
+    }
+    Kind kind = kinds[i];
+    switch (kind) {
+      case TODO_LIST:
+        return new Request(kind, "/api/todos?pageSize=" + PAGE_SIZE);
+      case TODO_FILTER:
+        return new Request(kind, todoFilter(random));
+      case TODO_BY_ID:
+        return new Request(kind, "/api/todos/" + todoIds[random.nextInt(todoIds.length)]);
+      case USER_LIST:
+        return new Request(kind, "/api/users?pageSize=" + PAGE_SIZE);
+      case USER_FILTER:
+        return new Request(kind, userFilter(random));
+      case USER_BY_ID:
+        return new Request(kind, "/api/users/" + userIds[random.nextInt(userIds.length)]);
+      default:
+        throw new IllegalStateException("Unknown kind of request " + kind);
+    }
+  }
+
+  private String todoFilter(Random random) {
+    StringBuilder path = new StringBuilder("/api/todos?limit=").append(limit);
+    int first = random.nextInt(TODO_FILTERS.length);
+    appendTodoFilter(path, TODO_FILTERS[first], random);
+    if (random.nextDouble() < TWO_FILTERS_CHANCE) {
+      int second = (first + 1 + random.nextInt(TODO_FILTERS.length - 1)) % TODO_FILTERS.length;
+      appendTodoFilter(path, TODO_FILTERS[second], random);
+    }
+    if (random.nextDouble() < ORDER_BY_CHANCE) {
+      path.append("&orderBy=").append(TODO_ORDERS[random.nextInt(TODO_ORDERS.length)]);
+    }
+    return path.toString();
+  }
+
+  private void appendTodoFilter(StringBuilder path, String filter, Random random) {
+    String value;
+    switch (filter) {
+      case "owner":
+        value = pick(owners, random);
+        break;
+      case "category":
+        value = pick(categories, random);
+        break;
+      case "status":
+        value = random.nextBoolean() ? "complete" : "incomplete";
+        break;
+      default:
+        value = pick(words, random);
+        break;
+    }
+    path.append('&').append(filter).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+  }
+
+  private String userFilter(Random random) {
+    String filter = USER_FILTERS[random.nextInt(USER_FILTERS.length)];
+    String value;
+    switch (filter) {
+      case "age":
+        value = Integer.toString(ages[random.nextInt(ages.length)]);
+        break;
+      case "company":
+        value = pick(companies, random);
+        break;
+      default:
+        value = pick(roles, random);
+        break;
+    }
+    return "/api/users?" + filter + "=" + URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private static String pick(String[] values, Random random) {
+    return values[random.nextInt(values.length)];
+  }
+}
@@ -0,0 +1,63 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import io.javalin.http.Context;
+import io.javalin.http.InternalServerErrorResponse;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.UserDatabase;
+
+/**
+ * Controller for administering the running server, such as reloading the
+ * "databases" after their data files have changed.
+ */
+public class AdminController {
+
+  private Reloadable<UserDatabase> userDatabases;
+  private Reloadable<TodoDatabase> todoDatabases;
+
+  /**
+   * Construct a controller for administering the server.
+   *
+   * @param userDatabases the reloadable `UserDatabase`
+   * @param todoDatabases the reloadable `TodoDatabase`
+   */
+  public AdminController(Reloadable<UserDatabase> userDatabases, Reloadable<TodoDatabase> todoDatabases) {
+    this.userDatabases = userDatabases;
+    this.todoDatabases = todoDatabases;
+  }
+
+  /**
+   * Reload both "databases" from their data files, and respond once the new
+   * ones are being served, with how many users and todos they hold.
+   * <p>
+   * The two are loaded at the same time, in the background, and requests
+   * keep being answered from the old ones until then. If either fails to
+   * load, the old one stays in place and the response is a `500`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void reload(Context ctx) {
+    long start = System.nanoTime();
+    CompletableFuture<UserDatabase> users = userDatabases.reload();
+    CompletableFuture<TodoDatabase> todos = todoDatabases.reload();
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("users", await("users", users).size());
+    result.put("todos", await("todos", todos).size());
+    result.put("millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    ctx.json(result);
+  }
+
+  private static <T> T await(String what, CompletableFuture<T> reload) {
+    try {
+      return reload.join();
+    } catch (CompletionException e) {
+      throw new InternalServerErrorResponse("Reloading the " + what + " failed: " + e.getCause());
+    }
+  }
+}
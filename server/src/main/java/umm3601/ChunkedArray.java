@@ -0,0 +1,166 @@
+package umm3601;
+
+import java.util.Arrays;
+
+/**
+ * An immutable array of objects, split into fixed-size chunks, that can be
+ * "changed" cheaply by making a copy that shares every chunk it didn't
+ * change (see `edit`). This is `ChunkedIntArray` for objects.
+ *
+ * @param <T> the type of the elements
+ */
+public final class ChunkedArray<T> {
+
+  // Chunks the same size as `ChunkedIntArray`'s.
+  private static final int CHUNK_BITS = ChunkedIntArray.CHUNK_BITS;
+  private static final int CHUNK_SIZE = ChunkedIntArray.CHUNK_SIZE;
+  private static final int CHUNK_MASK = ChunkedIntArray.CHUNK_MASK;
+
+  private final Object[][] chunks;
+  private final int size;
+
+  private ChunkedArray(Object[][] chunks, int size) {
+    this.chunks = chunks;
+    this.size = size;
+  }
+
+  /**
+   * @param <T>    the type of the elements
+   * @param values the elements, in order; they're copied
+   * @return an array of those elements
+   */
+  public static <T> ChunkedArray<T> of(T[] values) {
+    Object[][] chunks = new Object[ChunkedIntArray.chunkCount(values.length)][];
+    for (int c = 0; c < chunks.length; ++c) {
+      chunks[c] = Arrays.copyOfRange(values, c << CHUNK_BITS, (c + 1) << CHUNK_BITS, Object[].class);
+    }
+    return new ChunkedArray<>(chunks, values.length);
+  }
+
+  /**
+   * @param <T>  the type of the elements
+   * @param size the number of elements
+   * @return an array of that many nulls
+   */
+  public static <T> ChunkedArray<T> ofNulls(int size) {
+    Object[][] chunks = new Object[ChunkedIntArray.chunkCount(size)][CHUNK_SIZE];
+    return new ChunkedArray<>(chunks, size);
+  }
+
+  /**
+   * @return the number of elements
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param index the index of an element
+   * @return that element
+   */
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    return (T) chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+  }
+
+  /**
+   * @param values an array with room for all the elements (like `new
+   *               String[size()]`)
+   * @return that array, filled with all the elements in order
+   */
+  public T[] toArray(T[] values) {
+    for (int c = 0; c < chunks.length; ++c) {
+      System.arraycopy(chunks[c], 0, values, c << CHUNK_BITS, Math.min(CHUNK_SIZE, size - (c << CHUNK_BITS)));
+    }
+    return values;
+  }
+
+  /**
+   * Start a changed copy of this array. This array is left as it is.
+   *
+   * @return an editor whose `build` gives the copy
+   */
+  public Editor<T> edit() {
+    return new Editor<>(chunks, size);
+  }
+
+  /**
+   * Makes a changed copy of a `ChunkedArray`, copying each chunk the first
+   * time one of its elements is set.
+   *
+   * @param <T> the type of the elements
+   */
+  public static final class Editor<T> {
+    private Object[][] chunks;
+    private boolean[] owned;
+    private int size;
+
+    private Editor(Object[][] chunks, int size) {
+      this.chunks = chunks.clone();
+      this.owned = new boolean[chunks.length];
+      this.size = size;
+    }
+
+    /**
+     * @return the number of elements in the copy so far
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @param index the index of an element of the copy
+     * @return that element
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+      return (T) chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+
+    /**
+     * Set an element of the copy, growing the copy if the index is past its
+     * end. Elements added by growing it (other than the one set) are null.
+     *
+     * @param index the index of the element
+     * @param value its new value
+     */
+    public void set(int index, T value) {
+      if (index >= size) {
+        grow(index + 1);
+      }
+      int c = index >>> CHUNK_BITS;
+      if (!owned[c]) {
+        chunks[c] = chunks[c].clone();
+        owned[c] = true;
+      }
+      chunks[c][index & CHUNK_MASK] = value;
+    }
+
+    private void grow(int newSize) {
+      int count = ChunkedIntArray.chunkCount(newSize);
+      if (count > chunks.length) {
+        // Grow the table geometrically, so appending one element at a
+        // time doesn't copy it every time.
+        int capacity = Math.max(count, chunks.length + (chunks.length >> 1));
+        chunks = Arrays.copyOf(chunks, capacity);
+        owned = Arrays.copyOf(owned, capacity);
+      }
+      for (int c = ChunkedIntArray.chunkCount(size); c < count; ++c) {
+        chunks[c] = new Object[CHUNK_SIZE];
+        owned[c] = true;
+      }
+      size = newSize;
+    }
+
+    /**
+     * Finish the copy. Any further changes make another copy, leaving this
+     * one as it is.
+     *
+     * @return the changed copy
+     */
+    public ChunkedArray<T> build() {
+      Arrays.fill(owned, false);
+      return new ChunkedArray<>(Arrays.copyOf(chunks, ChunkedIntArray.chunkCount(size)), size);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package umm3601;
+
+import java.util.BitSet;
+
+/**
+ * An immutable set of bits, kept in a `ChunkedLongArray` of words, so that
+ * a copy with a few bits changed shares all the other words' chunks with
+ * this one (see `edit`). It answers the questions our indexes ask of a
+ * `BitSet`, and keeps count of its set bits as it changes.
+ */
+public final class ChunkedBitSet {
+
+  private static final int WORD_BITS = 6;
+
+  private final ChunkedLongArray words;
+  private final int cardinality;
+
+  private ChunkedBitSet(ChunkedLongArray words, int cardinality) {
+    this.words = words;
+    this.cardinality = cardinality;
+  }
+
+  /**
+   * @param bits the bits to set; they're copied
+   * @return a set of those bits
+   */
+  public static ChunkedBitSet of(BitSet bits) {
+    return new ChunkedBitSet(ChunkedLongArray.of(bits.toLongArray()), bits.cardinality());
+  }
+
+  /**
+   * @param index the index of a bit
+   * @return true if that bit is set
+   */
+  public boolean get(int index) {
+    int word = index >>> WORD_BITS;
+    return word < words.size() && (words.get(word) & (1L << index)) != 0;
+  }
+
+  /**
+   * @param from the index to start looking at
+   * @return the index of the first set bit at or after `from`, or -1 if
+   *         there isn't one
+   */
+  public int nextSetBit(int from) {
+    int word = from >>> WORD_BITS;
+    if (word >= words.size()) {
+      return -1;
+    }
+    // Ignore the bits before `from` in its word.
+    long bits = words.get(word) & (-1L << from);
+    while (bits == 0) {
+      if (++word == words.size()) {
+        return -1;
+      }
+      bits = words.get(word);
+    }
+    return (word << WORD_BITS) + Long.numberOfTrailingZeros(bits);
+  }
+
+  /**
+   * @return the number of set bits
+   */
+  public int cardinality() {
+    return cardinality;
+  }
+
+  /**
+   * Start a changed copy of this set. This set is left as it is.
+   *
+   * @return an editor whose `build` gives the copy
+   */
+  public Editor edit() {
+    return new Editor(words.edit(), cardinality);
+  }
+
+  /**
+   * Makes a changed copy of a `ChunkedBitSet`.
+   */
+  public static final class Editor {
+    private final ChunkedLongArray.Editor words;
+    private int cardinality;
+
+    private Editor(ChunkedLongArray.Editor words, int cardinality) {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    /**
+     * Set or clear a bit of the copy.
+     *
+     * @param index the index of the bit
+     * @param value true to set it, false to clear it
+     */
+    public void set(int index, boolean value) {
+      int word = index >>> WORD_BITS;
+      long old = word < words.size() ? words.get(word) : 0;
+      long changed = value ? old | (1L << index) : old & ~(1L << index);
+      if (changed != old) {
+        words.set(word, changed);
+        cardinality += value ? 1 : -1;
+      }
+    }
+
+    /**
+     * Finish the copy.
+     *
+     * @return the changed copy
+     */
+    public ChunkedBitSet build() {
+      return new ChunkedBitSet(words.build(), cardinality);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package umm3601;
+
+import java.util.Arrays;
+
+/**
+ * An immutable array of longs, split into fixed-size chunks, that can be
+ * "changed" cheaply by making a copy that shares every chunk it didn't
+ * change (see `edit`).
+ * <p>
+ * This is `ChunkedIntArray` for longs.
+ */
+public final class ChunkedLongArray {
+
+  // Chunks the same size as `ChunkedIntArray`'s.
+  private static final int CHUNK_BITS = ChunkedIntArray.CHUNK_BITS;
+  private static final int CHUNK_SIZE = ChunkedIntArray.CHUNK_SIZE;
+  private static final int CHUNK_MASK = ChunkedIntArray.CHUNK_MASK;
+
+  private final long[][] chunks;
+  private final int size;
+
+  private ChunkedLongArray(long[][] chunks, int size) {
+    this.chunks = chunks;
+    this.size = size;
+  }
+
+  /**
+   * @param values the elements, in order; they're copied
+   * @return an array of those elements
+   */
+  public static ChunkedLongArray of(long[] values) {
+    long[][] chunks = new long[ChunkedIntArray.chunkCount(values.length)][];
+    for (int c = 0; c < chunks.length; ++c) {
+      chunks[c] = Arrays.copyOfRange(values, c << CHUNK_BITS, (c + 1) << CHUNK_BITS);
+    }
+    return new ChunkedLongArray(chunks, values.length);
+  }
+
+  /**
+   * @return the number of elements
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param index the index of an element
+   * @return that element
+   */
+  public long get(int index) {
+    return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+  }
+
+  /**
+   * @return a plain array of all the elements, in order
+   */
+  public long[] toArray() {
+    long[] values = new long[size];
+    for (int c = 0; c < chunks.length; ++c) {
+      System.arraycopy(chunks[c], 0, values, c << CHUNK_BITS, Math.min(CHUNK_SIZE, size - (c << CHUNK_BITS)));
+    }
+    return values;
+  }
+
+  /**
+   * Start a changed copy of this array. This array is left as it is.
+   *
+   * @return an editor whose `build` gives the copy
+   */
+  public Editor edit() {
+    return new Editor(chunks, size);
+  }
+
+  /**
+   * Makes a changed copy of a `ChunkedLongArray`, copying each chunk the
+   * first time one of its elements is set.
+   */
+  public static final class Editor {
+    private long[][] chunks;
+    private boolean[] owned;
+    private int size;
+
+    private Editor(long[][] chunks, int size) {
+      this.chunks = chunks.clone();
+      this.owned = new boolean[chunks.length];
+      this.size = size;
+    }
+
+    /**
+     * @return the number of elements in the copy so far
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @param index the index of an element of the copy
+     * @return that element
+     */
+    public long get(int index) {
+      return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+
+    /**
+     * Set an element of the copy, growing the copy if the index is past its
+     * end. Elements added by growing it (other than the one set) are 0.
+     *
+     * @param index the index of the element
+     * @param value its new value
+     */
+    public void set(int index, long value) {
+      if (index >= size) {
+        grow(index + 1);
+      }
+      int c = index >>> CHUNK_BITS;
+      if (!owned[c]) {
+        chunks[c] = chunks[c].clone();
+        owned[c] = true;
+      }
+      chunks[c][index & CHUNK_MASK] = value;
+    }
+
+    private void grow(int newSize) {
+      int count = ChunkedIntArray.chunkCount(newSize);
+      if (count > chunks.length) {
+        // Grow the table geometrically, so appending one element at a
+        // time doesn't copy it every time.
+        int capacity = Math.max(count, chunks.length + (chunks.length >> 1));
+        chunks = Arrays.copyOf(chunks, capacity);
+        owned = Arrays.copyOf(owned, capacity);
+      }
+      for (int c = ChunkedIntArray.chunkCount(size); c < count; ++c) {
+        chunks[c] = new long[CHUNK_SIZE];
+        owned[c] = true;
+      }
+      size = newSize;
+    }
+
+    /**
+     * Finish the copy. Any further changes make another copy, leaving this
+     * one as it is.
+     *
+     * @return the changed copy
+     */
+    public ChunkedLongArray build() {
+      Arrays.fill(owned, false);
+      return new ChunkedLongArray(Arrays.copyOf(chunks, ChunkedIntArray.chunkCount(size)), size);
+    }
+  }
+}
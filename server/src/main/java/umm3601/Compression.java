@@ -0,0 +1,250 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+import io.javalin.http.Context;
+
+/**
+ * Negotiated gzip compression of JSON responses.
+ * <p>
+ * Javalin's own compression is turned off (see `Server`), because it would
+ * compress every response again on every request. Instead the responses we
+ * cache are compressed once, when they're cached, and only responses we
+ * can't cache (streamed lists and pages) are compressed as they're sent.
+ * Responses smaller than `MIN_COMPRESSED_SIZE` are never compressed, since
+ * the gzip header and the CPU aren't worth it for a few hundred bytes.
+ * <p>
+ * Only gzip is offered. The JDK has a gzip encoder but no Brotli encoder, and
+ * Javalin's Brotli support needs a native library we don't ship.
+ */
+public final class Compression {
+
+  /**
+   * Responses smaller than this many bytes are sent uncompressed.
+   */
+  public static final int MIN_COMPRESSED_SIZE = 1024;
+
+  /**
+   * How many bytes of gzipped results a database caches by default.
+   */
+  public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+  /**
+   * The request header listing the encodings the client accepts.
+   */
+  public static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+
+  /**
+   * The response header naming the encoding of the body.
+   */
+  public static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+  /**
+   * The response header naming the request headers the response depends on.
+   */
+  public static final String VARY_HEADER = "Vary";
+
+  private static final String GZIP = "gzip";
+  private static final int BUFFER_SIZE = 8192;
+
+  private Compression() {
+  }
+
+  /**
+   * Check whether the client accepts gzipped responses. This also marks the
+   * response as varying by `Accept-Encoding`, so shared caches don't hand a
+   * gzipped response to a client that didn't ask for one (or vice versa).
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if the response may be gzipped
+   */
+  public static boolean negotiateGzip(Context ctx) {
+    ctx.header(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+    String acceptEncoding = ctx.header(ACCEPT_ENCODING_HEADER);
+    return acceptEncoding != null && acceptsGzip(acceptEncoding);
+  }
+
+  /**
+   * Check whether an `Accept-Encoding` header allows gzip: it has to list
+   * "gzip" without giving it a quality of zero, or else list "*" without
+   * giving that a quality of zero.
+   *
+   * @param acceptEncoding the value of the `Accept-Encoding` header
+   * @return true if the header allows gzip
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    Boolean gzipAccepted = null;
+    Boolean anyAccepted = null;
+    for (String candidate : acceptEncoding.split(",")) {
+      String[] parts = candidate.split(";");
+      String coding = parts[0].trim();
+      if (coding.equalsIgnoreCase(GZIP)) {
+        gzipAccepted = hasNonzeroQuality(parts);
+      } else if (coding.equals("*")) {
+        anyAccepted = hasNonzeroQuality(parts);
+      }
+    }
+    if (gzipAccepted != null) {
+      return gzipAccepted;
+    }
+    return anyAccepted != null && anyAccepted;
+  }
+
+  private static boolean hasNonzeroQuality(String[] parts) {
+    for (int i = 1; i < parts.length; ++i) {
+      String parameter = parts[i].trim();
+      if (parameter.startsWith("q=")) {
+        try {
+          return Double.parseDouble(parameter.substring(2)) > 0;
+        } catch (NumberFormatException e) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compress a response ahead of time, so it can be cached compressed.
+   *
+   * @param json the UTF-8 JSON of the response
+   * @return the gzipped JSON, or null if the response is too small to be
+   *         worth compressing
+   */
+  public static byte[] precompress(byte[] json) {
+    if (json.length < MIN_COMPRESSED_SIZE) {
+      return null;
+    }
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+      gzip.write(json);
+    } catch (IOException e) {
+      // A `ByteArrayOutputStream` never actually throws.
+      throw new UncheckedIOException(e);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Send a JSON response that may have been compressed ahead of time.
+   *
+   * @param ctx           a Javalin HTTP context
+   * @param json          the UTF-8 JSON of the response
+   * @param precompressed the gzipped JSON of the response, or null if it
+   *                      wasn't worth compressing
+   */
+  public static void sendJson(Context ctx, byte[] json, byte[] precompressed) {
+    ctx.contentType("application/json");
+    if (negotiateGzip(ctx) && precompressed != null) {
+      sendGzipped(ctx, precompressed);
+    } else {
+      ctx.result(json);
+    }
+  }
+
+  /**
+   * Send a response that has already been gzipped. The caller is responsible
+   * for checking that the client accepts gzip, and for the content type.
+   *
+   * @param ctx     a Javalin HTTP context
+   * @param gzipped the gzipped response
+   */
+  public static void sendGzipped(Context ctx, byte[] gzipped) {
+    ctx.header(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+    ctx.header(CONTENT_ENCODING_HEADER, GZIP);
+    ctx.result(gzipped);
+  }
+
+  /**
+   * Send a JSON response that isn't cached, gzipping it if the client
+   * accepts that and it's big enough to be worth it.
+   *
+   * @param ctx   a Javalin HTTP context
+   * @param value the value to send as JSON
+   */
+  public static void json(Context ctx, Object value) {
+    if (negotiateGzip(ctx)) {
+      byte[] json = JsonBytes.toJson(value);
+      sendJson(ctx, json, precompress(json));
+    } else {
+      ctx.json(value);
+    }
+  }
+
+  /**
+   * Get the response's output stream, gzipping whatever is written to it if
+   * the client accepts that. Since a streamed response's size isn't known up
+   * front, the first `MIN_COMPRESSED_SIZE` bytes are held back, and only if
+   * the response grows past that is it compressed.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the stream to write the response to
+   */
+  public static OutputStream negotiateStream(Context ctx) {
+    OutputStream output = ctx.outputStream();
+    return negotiateGzip(ctx) ? new DeferredGzipOutputStream(ctx, output) : output;
+  }
+
+  /**
+   * An output stream that starts gzipping once enough has been written to
+   * it to be worth it, and otherwise passes the bytes through untouched.
+   */
+  private static final class DeferredGzipOutputStream extends OutputStream {
+    private final Context ctx;
+    private final OutputStream output;
+    private byte[] pending = new byte[MIN_COMPRESSED_SIZE];
+    private int pendingCount;
+    private GZIPOutputStream gzip;
+
+    DeferredGzipOutputStream(Context ctx, OutputStream output) {
+      this.ctx = ctx;
+      this.output = output;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      if (gzip == null) {
+        if (pendingCount + length < MIN_COMPRESSED_SIZE) {
+          System.arraycopy(bytes, offset, pending, pendingCount, length);
+          pendingCount += length;
+          return;
+        }
+        // Big enough to compress. Nothing has been sent yet, so it isn't
+        // too late to add the header.
+        ctx.header(CONTENT_ENCODING_HEADER, GZIP);
+        gzip = new GZIPOutputStream(output, BUFFER_SIZE);
+        gzip.write(pending, 0, pendingCount);
+        pending = null;
+      }
+      gzip.write(bytes, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      // Holding back the first bytes is the whole point, so there's
+      // nothing to flush until we've decided whether to compress.
+      if (gzip != null) {
+        gzip.flush();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (gzip != null) {
+        gzip.close();
+      } else {
+        output.write(pending, 0, pendingCount);
+        output.close();
+      }
+    }
+  }
+}
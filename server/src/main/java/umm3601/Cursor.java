@@ -0,0 +1,128 @@
+package umm3601;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * An opaque pagination cursor, used as the `after` query parameter to ask
+ * for the page following the last one a client received.
+ * <p>
+ * A cursor records the `orderBy` the page was sorted by and where the last
+ * item on the page fell in that order: its sort key (the value of the
+ * `orderBy` attribute) and its position, which breaks ties between items
+ * with the same key, along with its `_id`. Since every sort order is total,
+ * that pins down exactly where the next page starts, so the database can
+ * seek straight to it instead of recomputing all the earlier pages. The
+ * cursor doesn't depend on the item still being there, or still having that
+ * key: if it's since been updated or deleted, the next page still starts
+ * just after where it was.
+ */
+public final class Cursor {
+
+  private static final char SEPARATOR = '\n';
+  // The `_id` and the key may contain anything (even SEPARATOR), so the
+  // `_id` is preceded by its length and the key goes last, marked so a null
+  // key can be told apart from an empty one.
+  private static final char KEY_MARK = '=';
+
+  private final String orderBy;
+  private final String lastKey;
+  private final int lastPosition;
+  private final String lastId;
+
+  /**
+   * Create a cursor.
+   *
+   * @param orderBy      the attribute the pages are sorted by, or null if
+   *                     they're in "database" order
+   * @param lastKey      the sort key of the last item on the page, or null if
+   *                     it has none (or the pages aren't sorted)
+   * @param lastPosition the position of the last item on the page
+   * @param lastId       the `_id` of the last item on the page
+   */
+  public Cursor(String orderBy, String lastKey, int lastPosition, String lastId) {
+    this.orderBy = orderBy;
+    this.lastKey = lastKey;
+    this.lastPosition = lastPosition;
+    this.lastId = lastId;
+  }
+
+  /**
+   * Turn this cursor into the opaque string handed to clients.
+   *
+   * @return the encoded cursor
+   */
+  public String encode() {
+    String plain = (orderBy == null ? "" : orderBy) + SEPARATOR + lastPosition + SEPARATOR + lastId.length()
+        + SEPARATOR + lastId + (lastKey == null ? "" : KEY_MARK + lastKey);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Decode a cursor a client sent back to us.
+   *
+   * @param encoded the encoded cursor
+   * @return the decoded cursor
+   * @throws BadRequestResponse if the string isn't a cursor we made
+   */
+  public static Cursor decode(String encoded) {
+    String plain;
+    try {
+      plain = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("Specified cursor '" + encoded + "' is not a valid cursor");
+    }
+    String[] parts = plain.split(String.valueOf(SEPARATOR), 4);
+    if (parts.length < 4) {
+      throw new BadRequestResponse("Specified cursor '" + encoded + "' is not a valid cursor");
+    }
+    int lastPosition;
+    int idLength;
+    try {
+      lastPosition = Integer.parseInt(parts[1]);
+      idLength = Integer.parseInt(parts[2]);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified cursor '" + encoded + "' is not a valid cursor");
+    }
+    String rest = parts[3];
+    // The next page starts at lastPosition + 1, which has to be an int too.
+    if (lastPosition < 0 || lastPosition == Integer.MAX_VALUE || idLength < 0 || idLength > rest.length()
+        || !(idLength == rest.length() || rest.charAt(idLength) == KEY_MARK)) {
+      throw new BadRequestResponse("Specified cursor '" + encoded + "' is not a valid cursor");
+    }
+    String lastKey = idLength == rest.length() ? null : rest.substring(idLength + 1);
+    return new Cursor(parts[0].isEmpty() ? null : parts[0], lastKey, lastPosition, rest.substring(0, idLength));
+  }
+
+  /**
+   * @return the attribute the pages are sorted by, or null if they're in
+   *         "database" order
+   */
+  public String getOrderBy() {
+    return orderBy;
+  }
+
+  /**
+   * @return the sort key of the last item on the page, or null if it has
+   *         none
+   */
+  public String getLastKey() {
+    return lastKey;
+  }
+
+  /**
+   * @return the position of the last item on the page
+   */
+  public int getLastPosition() {
+    return lastPosition;
+  }
+
+  /**
+   * @return the `_id` of the last item on the page
+   */
+  public String getLastId() {
+    return lastId;
+  }
+}
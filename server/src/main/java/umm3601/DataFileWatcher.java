@@ -0,0 +1,89 @@
+package umm3601;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a data file, and calls back once it has changed.
+ * <p>
+ * Writing a big file produces a stream of change events, and reading it
+ * part way through would just fail, so the callback waits until the file has
+ * been quiet for `QUIET_MILLIS`. Replacing the file by renaming a complete
+ * new one over it avoids reading a half-written file altogether.
+ */
+public final class DataFileWatcher {
+
+  /**
+   * How long a changed file has to go without changing again before the
+   * callback is called.
+   */
+  public static final long QUIET_MILLIS = 500;
+
+  private DataFileWatcher() {
+  }
+
+  /**
+   * Start watching a file on a background (daemon) thread.
+   *
+   * @param file     the file to watch
+   * @param onChange what to do once the file has changed
+   * @return the thread doing the watching
+   * @throws IOException if the file's directory can't be watched
+   */
+  public static Thread watch(Path file, Runnable onChange) throws IOException {
+    Path absolute = file.toAbsolutePath();
+    Path directory = absolute.getParent();
+    Path name = absolute.getFileName();
+    WatchService watchService = directory.getFileSystem().newWatchService();
+    directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+
+    Thread thread = new Thread(() -> {
+      try (watchService) {
+        watchUntilInterrupted(watchService, name, onChange);
+      } catch (IOException e) {
+        e.printStackTrace(System.err);
+      }
+    }, "watch-" + name);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  private static void watchUntilInterrupted(WatchService watchService, Path name, Runnable onChange) {
+    boolean changed = false;
+    try {
+      while (true) {
+        WatchKey key = changed ? watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS) : watchService.take();
+        if (key == null) {
+          changed = false;
+          onChange.run();
+          continue;
+        }
+        changed |= concerns(key, name);
+        if (!key.reset()) {
+          // The directory itself is gone.
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static boolean concerns(WatchKey key, Path name) {
+    boolean result = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      // After an overflow we can't tell which files changed, so assume ours did.
+      result |= event.kind() == OVERFLOW || name.equals(event.context());
+    }
+    return result;
+  }
+}
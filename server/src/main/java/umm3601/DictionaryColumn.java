@@ -0,0 +1,236 @@
+package umm3601;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * One string field of every record, dictionary-encoded: each distinct value
+ * is stored once, and each record just holds the int code of its value.
+ * <p>
+ * This is for fields with only a handful of distinct values (like todo
+ * owners or user roles), where it replaces a reference (and usually a
+ * duplicate string) per record with four bytes, and lets a filter resolve
+ * its value against the dictionary once and then compare ints instead of
+ * strings. A null value is stored as the code -1.
+ * <p>
+ * The codes are a `ChunkedIntArray`, so a copy with a few records changed
+ * (see `withValues`) shares nearly all of them with this column.
+ */
+public final class DictionaryColumn {
+
+  /**
+   * The code of a null value.
+   */
+  public static final int NULL_CODE = -1;
+
+  private final String[] values;
+  private final ChunkedIntArray codes;
+  private final Map<String, Integer> codesByValue;
+
+  /**
+   * Wrap an already encoded column, like one read back from a snapshot.
+   *
+   * @param values the distinct values, indexed by code
+   * @param codes  the code of each record's value, in order
+   */
+  public DictionaryColumn(String[] values, int[] codes) {
+    // Twice the size keeps us under HashMap's default load factor.
+    this(values, ChunkedIntArray.of(codes), new HashMap<>(values.length * 2));
+    for (int code = 0; code < values.length; ++code) {
+      codesByValue.put(values[code], code);
+    }
+  }
+
+  private DictionaryColumn(String[] values, ChunkedIntArray codes, Map<String, Integer> codesByValue) {
+    this.values = values;
+    this.codes = codes;
+    this.codesByValue = codesByValue;
+  }
+
+  /**
+   * Dictionary-encode a column of strings.
+   *
+   * @param column the field's value in each record, in order
+   * @return the encoded column
+   */
+  public static DictionaryColumn encode(String[] column) {
+    Map<String, Integer> dictionary = new HashMap<>();
+    int[] codes = new int[column.length];
+    String[] values = new String[column.length];
+    for (int i = 0; i < column.length; ++i) {
+      if (column[i] == null) {
+        codes[i] = NULL_CODE;
+      } else {
+        Integer code = dictionary.putIfAbsent(column[i], dictionary.size());
+        if (code == null) {
+          code = dictionary.size() - 1;
+          values[code] = column[i];
+        }
+        codes[i] = code;
+      }
+    }
+    return new DictionaryColumn(Arrays.copyOf(values, dictionary.size()), ChunkedIntArray.of(codes), dictionary);
+  }
+
+  /**
+   * Get a copy of this column with some records' values replaced, or added
+   * at the end. This column is left as it is, and shares its dictionary with
+   * the copy unless one of the new values isn't in it yet, and every chunk of
+   * codes that no changed record is in.
+   *
+   * @param size    the number of records in the copy
+   * @param records the positions of the records to set, which may be past
+   *                the end of this column (in which case every position
+   *                between its end and `size` must be set)
+   * @param column  the new value of each of those records, which may be null
+   * @return the changed copy
+   */
+  public DictionaryColumn withValues(int size, int[] records, String[] column) {
+    ChunkedIntArray.Editor newCodes = codes.edit();
+    String[] newValues = values;
+    Map<String, Integer> newCodesByValue = codesByValue;
+    for (int i = 0; i < records.length; ++i) {
+      if (column[i] == null) {
+        newCodes.set(records[i], NULL_CODE);
+        continue;
+      }
+      Integer code = newCodesByValue.get(column[i]);
+      if (code == null) {
+        if (newValues == values) {
+          newValues = Arrays.copyOf(values, values.length + records.length);
+          newCodesByValue = new HashMap<>(codesByValue);
+        }
+        code = newCodesByValue.size();
+        newCodesByValue.put(column[i], code);
+        newValues[code] = column[i];
+      }
+      newCodes.set(records[i], code);
+    }
+    if (newValues != values) {
+      newValues = Arrays.copyOf(newValues, newCodesByValue.size());
+    }
+    return new DictionaryColumn(newValues, newCodes.build(), newCodesByValue);
+  }
+
+  /**
+   * @return the number of records
+   */
+  public int size() {
+    return codes.size();
+  }
+
+  /**
+   * @return the number of distinct (non-null) values
+   */
+  public int cardinality() {
+    return values.length;
+  }
+
+  /**
+   * @param record the position of a record
+   * @return the code of that record's value
+   */
+  public int code(int record) {
+    return codes.get(record);
+  }
+
+  /**
+   * @param record the position of a record
+   * @return that record's value, which may be null
+   */
+  public String get(int record) {
+    int code = codes.get(record);
+    return code == NULL_CODE ? null : values[code];
+  }
+
+  /**
+   * @param code the code of a value
+   * @return the value with that code
+   */
+  public String value(int code) {
+    return values[code];
+  }
+
+  /**
+   * @return the distinct values, indexed by code; must not be modified
+   */
+  public String[] values() {
+    return values;
+  }
+
+  /**
+   * Look a value up in the dictionary.
+   *
+   * @param value the value to look for
+   * @return its code, or -1 if no record has that value
+   */
+  public int codeOf(String value) {
+    Integer code = codesByValue.get(value);
+    return code == null ? NULL_CODE : code;
+  }
+
+  /**
+   * Check every distinct value against a test, so it doesn't have to be
+   * checked against every record.
+   *
+   * @param test the test each matching value passes
+   * @return a table, indexed by code, of the values that pass
+   */
+  public boolean[] matchingCodes(Predicate<String> test) {
+    boolean[] matching = new boolean[values.length];
+    for (int code = 0; code < values.length; ++code) {
+      matching[code] = test.test(values[code]);
+    }
+    return matching;
+  }
+
+  /**
+   * @param record        the position of a record
+   * @param matchingCodes a table from `matchingCodes`
+   * @return true if that record's value is one of the matching values
+   */
+  public boolean hasMatchingCode(int record, boolean[] matchingCodes) {
+    int code = codes.get(record);
+    return code != NULL_CODE && matchingCodes[code];
+  }
+
+  /**
+   * Get the positions of the records sorted by value, with the nulls first.
+   * <p>
+   * Only the distinct values need a comparison sort; the records are then
+   * placed with a (stable) counting sort on the rank of their value, so
+   * records with equal values stay in their original order.
+   *
+   * @return the positions of all the records, in sorted order
+   */
+  public int[] sortedPositions() {
+    Integer[] byValue = new Integer[values.length];
+    for (int code = 0; code < values.length; ++code) {
+      byValue[code] = code;
+    }
+    Arrays.sort(byValue, (x, y) -> values[x].compareTo(values[y]));
+    // Rank 0 is for the nulls.
+    int[] ranks = new int[values.length];
+    for (int rank = 0; rank < byValue.length; ++rank) {
+      ranks[byValue[rank]] = rank + 1;
+    }
+
+    int size = codes.size();
+    int[] starts = new int[values.length + 2];
+    for (int i = 0; i < size; ++i) {
+      int code = codes.get(i);
+      starts[(code == NULL_CODE ? 0 : ranks[code]) + 1]++;
+    }
+    for (int rank = 1; rank < starts.length; ++rank) {
+      starts[rank] += starts[rank - 1];
+    }
+    int[] positions = new int[size];
+    for (int i = 0; i < size; ++i) {
+      int code = codes.get(i);
+      positions[starts[code == NULL_CODE ? 0 : ranks[code]]++] = i;
+    }
+    return positions;
+  }
+}
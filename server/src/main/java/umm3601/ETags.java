@@ -0,0 +1,176 @@
+package umm3601;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.function.IntFunction;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpCode;
+
+/**
+ * Entity tags for responses built from data that never changes once it's
+ * loaded.
+ * <p>
+ * Each database hashes its whole content when it's loaded. The tag of a
+ * response is then a hash of the database's content hash together with the
+ * canonical form of the request, so it can be computed from the request
+ * alone. A client that polls with `If-None-Match` gets a `304 Not Modified`
+ * without any filtering or serializing being done at all.
+ * <p>
+ * The tags are strong, so a gzipped body and the identity body of the same
+ * response can't share one: the hash also covers whether the client accepts
+ * gzip. Given that, the body (and whether it's gzipped at all, which depends
+ * on its size) is completely determined, since the same JSON always gzips
+ * to the same bytes.
+ */
+public final class ETags {
+
+  /**
+   * The response header carrying the entity tag.
+   */
+  public static final String ETAG_HEADER = "ETag";
+
+  /**
+   * The request header carrying the tags the client already has.
+   */
+  public static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+  // 128 bits is plenty to tell datasets (and responses) apart.
+  private static final int HASH_BYTES = 16;
+
+  private ETags() {
+  }
+
+  /**
+   * Hash the content of a dataset.
+   *
+   * @param records the serialized records of the dataset, in order
+   * @return a short, URL-safe hash of all of the records
+   */
+  public static String contentHash(byte[][] records) {
+    return contentHash(records.length, record -> records[record]);
+  }
+
+  /**
+   * Hash the content of a dataset whose records are serialized one at a
+   * time, rather than all held at once.
+   *
+   * @param count   the number of records in the dataset
+   * @param records the serialized record at each position
+   * @return a short, URL-safe hash of all of the records, the same as
+   *         `contentHash(byte[][])` gives for the same records
+   */
+  public static String contentHash(int count, IntFunction<byte[]> records) {
+    MessageDigest digest = newDigest();
+    byte[] separator = {'\n'};
+    for (int i = 0; i < count; ++i) {
+      digest.update(records.apply(i));
+      digest.update(separator);
+    }
+    return encode(digest.digest());
+  }
+
+  /**
+   * Hash the content of a dataset straight from its fields, so no record
+   * has to be serialized just to be hashed (loading a database this way
+   * costs no JSON at all).
+   *
+   * @param count  the number of records in the dataset
+   * @param fields the fields of the record at each position, always in the
+   *               same order; any of them may be null
+   * @return a short, URL-safe hash of all of the records
+   */
+  public static String contentHashOfFields(int count, IntFunction<String[]> fields) {
+    MessageDigest digest = newDigest();
+    ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+    for (int i = 0; i < count; ++i) {
+      for (String field : fields.apply(i)) {
+        // Each field is preceded by its length (-1 for null), so no two
+        // different records hash the same bytes.
+        byte[] utf8 = field == null ? new byte[0] : field.getBytes(StandardCharsets.UTF_8);
+        length.clear();
+        digest.update(length.putInt(field == null ? -1 : utf8.length).array());
+        digest.update(utf8);
+      }
+    }
+    return encode(digest.digest());
+  }
+
+  /**
+   * Get the entity tag of a response.
+   *
+   * @param contentHash the content hash of the dataset the response comes from
+   * @param requestKey  the canonical form of the request
+   * @param gzip        whether the client accepts gzip (see
+   *                    `Compression.negotiateGzip`)
+   * @return the (quoted) entity tag of the response
+   */
+  public static String forResponse(String contentHash, String requestKey, boolean gzip) {
+    MessageDigest digest = newDigest();
+    digest.update(contentHash.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) '\n');
+    digest.update(requestKey.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) '\n');
+    digest.update((gzip ? "gzip" : "identity").getBytes(StandardCharsets.UTF_8));
+    return '"' + encode(digest.digest()) + '"';
+  }
+
+  /**
+   * Tag the response, and answer with `304 Not Modified` if the client
+   * already has a response with that tag.
+   *
+   * @param ctx  a Javalin HTTP context
+   * @param etag the entity tag of the response
+   * @return true if the response has been answered with a 304, in which case
+   *         there is nothing more to send
+   */
+  public static boolean checkNotModified(Context ctx, String etag) {
+    ctx.header(ETAG_HEADER, etag);
+    String ifNoneMatch = ctx.header(IF_NONE_MATCH_HEADER);
+    if (ifNoneMatch != null && matches(ifNoneMatch, etag)) {
+      ctx.status(HttpCode.NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Check whether an `If-None-Match` header matches an entity tag. The header
+   * is either "*" or a comma-separated list of tags, any of which may be weak
+   * ("W/" followed by the tag); `If-None-Match` uses the weak comparison, so a
+   * weak tag matches too.
+   *
+   * @param ifNoneMatch the value of the `If-None-Match` header
+   * @param etag        the (quoted) entity tag of the response
+   * @return true if the header matches the tag
+   */
+  static boolean matches(String ifNoneMatch, String etag) {
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      if (tag.startsWith("W/")) {
+        tag = tag.substring(2);
+      }
+      if (tag.equals("*") || tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String encode(byte[] hash) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, HASH_BYTES));
+  }
+}
@@ -0,0 +1,53 @@
+package umm3601;
+
+import java.util.Locale;
+
+/**
+ * How the server runs its requests: on which threads, and what it does
+ * when more arrive than it can handle at once.
+ */
+public enum ExecutionMode {
+
+  /**
+   * Javalin's own Jetty thread pool (up to 250 threads, with an unbounded
+   * queue), taking every request that arrives. Once all the threads are
+   * busy (say, writing big lists to slow clients), new requests wait in
+   * the queue for as long as that takes.
+   */
+  DEFAULT,
+
+  /**
+   * A fixed-size Jetty thread pool, all of whose threads are started up
+   * front, with a bounded queue, and a `LoadShedder` that answers the
+   * requests beyond what the threads can run at once with a 503 (Service
+   * Unavailable) and a `Retry-After` straight away, instead of queueing
+   * them. Clients hear quickly that the server is busy, and the requests
+   * it does take stay fast.
+   */
+  TUNED,
+
+  /**
+   * A virtual thread per task (see `VirtualThreadPool`), so a request
+   * blocked writing to a slow client holds up no platform thread, with a
+   * `LoadShedder` limiting how many requests are in flight at once to
+   * protect memory. This needs a JDK with virtual threads (21 or later).
+   */
+  VIRTUAL;
+
+  /**
+   * Parse the name of an execution mode, like the value of an environment
+   * variable.
+   *
+   * @param name "default", "tuned" or "virtual" (in any case), or null for
+   *             the default
+   * @return the execution mode with that name
+   * @throws IllegalArgumentException if there's no execution mode with that
+   *                                  name
+   */
+  public static ExecutionMode parse(String name) {
+    if (name == null) {
+      return DEFAULT;
+    }
+    return valueOf(name.trim().toUpperCase(Locale.ROOT));
+  }
+}
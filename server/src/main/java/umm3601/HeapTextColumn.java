@@ -0,0 +1,59 @@
+package umm3601;
+
+import java.util.function.IntPredicate;
+
+/**
+ * A `TextColumn` kept as a `String` per record, on the heap.
+ */
+public final class HeapTextColumn implements TextColumn {
+
+  private final ChunkedArray<String> values;
+
+  /**
+   * @param values the field's value in each record, in order
+   */
+  public HeapTextColumn(String[] values) {
+    this(ChunkedArray.of(values));
+  }
+
+  private HeapTextColumn(ChunkedArray<String> values) {
+    this.values = values;
+  }
+
+  @Override
+  public int size() {
+    return values.size();
+  }
+
+  @Override
+  public String get(int record) {
+    return values.get(record);
+  }
+
+  @Override
+  public IntPredicate containing(String lowercaseTarget) {
+    return record -> {
+      String value = values.get(record);
+      return value != null && TextColumn.containsIgnoreCase(value, lowercaseTarget);
+    };
+  }
+
+  @Override
+  public HeapTextColumn withValues(int size, int[] records, String[] newValues) {
+    ChunkedArray.Editor<String> copy = values.edit();
+    for (int i = 0; i < records.length; ++i) {
+      copy.set(records[i], newValues[i]);
+    }
+    return new HeapTextColumn(copy.build());
+  }
+
+  @Override
+  public TextStorage storage() {
+    return TextStorage.HEAP;
+  }
+
+  @Override
+  public long offHeapBytes() {
+    return 0;
+  }
+}
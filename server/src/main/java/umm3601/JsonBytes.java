@@ -0,0 +1,89 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Serializes todos and users to UTF-8 JSON, and writes JSON arrays of
+ * records that are already serialized. The databases cache each record's
+ * bytes the first time it's served (see `RecordCache`), so Jackson doesn't
+ * serialize the same (unchanging) record on every request.
+ */
+public final class JsonBytes {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private JsonBytes() {
+  }
+
+  /**
+   * Serialize a record to UTF-8 JSON.
+   *
+   * @param record the todo or user to serialize
+   * @return the record as UTF-8 JSON
+   */
+  public static byte[] toJson(Object record) {
+    try {
+      return MAPPER.writeValueAsBytes(record);
+    } catch (JsonProcessingException e) {
+      // Todos and users are plain public fields, so this can't happen
+      // unless something is very wrong.
+      throw new UncheckedIOException("Couldn't serialize " + record, e);
+    }
+  }
+
+  /**
+   * Write a JSON array of already serialized elements.
+   *
+   * @param output   where to write the array
+   * @param producer passes the UTF-8 JSON of every element of the array, in
+   *                 order, to the consumer it's given
+   * @throws IOException if writing to the output fails
+   */
+  public static void writeArray(OutputStream output, Consumer<Consumer<byte[]>> producer) throws IOException {
+    output.write('[');
+    // A one-element array, since the lambda can't update a local variable.
+    boolean[] first = {true};
+    try {
+      producer.accept(element -> {
+        try {
+          if (!first[0]) {
+            output.write(',');
+          }
+          first[0] = false;
+          output.write(element);
+        } catch (IOException e) {
+          // `Consumer` can't throw checked exceptions, so smuggle it out.
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    output.write(']');
+  }
+
+  /**
+   * Build a JSON array out of already serialized elements.
+   *
+   * @param producer passes the UTF-8 JSON of every element of the array, in
+   *                 order, to the consumer it's given
+   * @return the whole array as UTF-8 JSON
+   */
+  public static byte[] toJsonArray(Consumer<Consumer<byte[]>> producer) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try {
+      writeArray(output, producer);
+    } catch (IOException e) {
+      // A `ByteArrayOutputStream` never actually throws.
+      throw new UncheckedIOException(e);
+    }
+    return output.toByteArray();
+  }
+}
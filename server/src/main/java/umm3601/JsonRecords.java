@@ -0,0 +1,116 @@
+package umm3601;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * The pieces shared by the token-streaming todo and user loaders.
+ * <p>
+ * Data binding (`objectMapper.readValue(reader, Todo[].class)`) collects
+ * every record into a list before copying it into the array, and goes
+ * through reflection for every field of every record. The loaders instead
+ * walk the parser's tokens and assign the fields directly, so the only
+ * things allocated are the records themselves, their strings, and the
+ * array that holds them.
+ */
+public final class JsonRecords {
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private JsonRecords() {
+  }
+
+  /**
+   * @return the factory the loaders create their parsers with
+   */
+  public static JsonFactory factory() {
+    return FACTORY;
+  }
+
+  /**
+   * Move the parser onto the start of the top-level array of records.
+   *
+   * @param parser a parser at the very start of its input
+   * @param what   what the records are, for the error message
+   * @throws IOException if the input doesn't start with an array
+   */
+  public static void startArray(JsonParser parser, String what) throws IOException {
+    if (parser.nextToken() != JsonToken.START_ARRAY) {
+      throw new JsonParseException(parser, "Expected an array of " + what);
+    }
+  }
+
+  /**
+   * Move the parser onto the start of the next record in the array.
+   *
+   * @param parser a parser just after the end of the previous record (or the
+   *               start of the array)
+   * @param what   what the records are, for the error message
+   * @return true if there's another record, false at the end of the array
+   * @throws IOException if the next value isn't a record
+   */
+  public static boolean nextRecord(JsonParser parser, String what) throws IOException {
+    JsonToken token = parser.nextToken();
+    if (token == JsonToken.END_ARRAY) {
+      return false;
+    }
+    if (token != JsonToken.START_OBJECT) {
+      throw new JsonParseException(parser, "Expected one of the " + what + ", but found " + token);
+    }
+    return true;
+  }
+
+  /**
+   * Get the current string value, the way data binding would: `null` for a
+   * JSON null, and the text of any other scalar.
+   *
+   * @param parser a parser on a scalar value
+   * @return the value as a string, or null
+   * @throws IOException if the value can't be read
+   */
+  public static String text(JsonParser parser) throws IOException {
+    return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getText();
+  }
+
+  /**
+   * Complain about a field we don't know what to do with. Data binding
+   * rejects unknown properties, and so do the loaders.
+   *
+   * @param parser a parser on the unknown field's value
+   * @param field  the name of the field
+   * @param what   what kind of record the field is in
+   * @return never returns; declared to return an exception so callers can
+   *         `throw` it and keep the compiler happy
+   * @throws IOException always
+   */
+  public static IOException unknownField(JsonParser parser, String field, String what) throws IOException {
+    throw new JsonParseException(parser, "Unrecognized field \"" + field + "\" in " + what);
+  }
+
+  /**
+   * Shares one copy of each of the distinct values of a field that only has
+   * a handful of them (like a todo's owner or category), instead of keeping
+   * a separate copy of the same string in every record.
+   */
+  public static final class StringPool {
+    private final Map<String, String> strings = new HashMap<>();
+
+    /**
+     * @param value a value of the field
+     * @return the shared copy of that value
+     */
+    public String intern(String value) {
+      if (value == null) {
+        return null;
+      }
+      String shared = strings.putIfAbsent(value, value);
+      return shared == null ? value : shared;
+    }
+  }
+}
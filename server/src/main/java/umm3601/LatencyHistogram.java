@@ -0,0 +1,162 @@
+package umm3601;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, in the style of HdrHistogram: the buckets are
+ * fixed when it's made, with each power of two split into the same number
+ * of equal sub-buckets, so every latency lands in a bucket within about 3%
+ * of it, from nanoseconds up to minutes.
+ * <p>
+ * Recording a latency is a few arithmetic operations and two atomic
+ * increments, and never allocates or takes a lock, so it can be done on
+ * every request from any number of threads at once. Reading the histogram
+ * (for quantiles, or the Prometheus buckets) walks all the buckets, and
+ * may see a recording that's half done; that's fine for monitoring.
+ */
+public final class LatencyHistogram {
+
+  // Each power of two is split into 2^SUB_BUCKET_BITS sub-buckets.
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Anything slower is counted as this slow (about 18 minutes).
+  private static final long MAX_NANOS = 1L << 40;
+
+  private final AtomicLongArray counts = new AtomicLongArray(index(MAX_NANOS) + 1);
+  private final AtomicLong sumNanos = new AtomicLong();
+
+  /**
+   * Find the bucket for a latency. The first 2 * SUB_BUCKETS buckets are
+   * one nanosecond wide; after that, each power of two has SUB_BUCKETS
+   * buckets, each twice as wide as the last power's.
+   */
+  private static int index(long nanos) {
+    long value = Math.min(Math.max(nanos, 0), MAX_NANOS);
+    int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(value | SUB_BUCKETS);
+    int shift = magnitude - SUB_BUCKET_BITS;
+    return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+  }
+
+  /**
+   * @return the smallest latency that lands in a bucket
+   */
+  private static long lowestNanos(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+  }
+
+  /**
+   * @return the largest latency that lands in a bucket
+   */
+  private static long highestNanos(int index) {
+    return lowestNanos(index + 1) - 1;
+  }
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos the latency, in nanoseconds
+   */
+  public void record(long nanos) {
+    counts.incrementAndGet(index(nanos));
+    sumNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Record a latency measured by a load generator that waits for each
+   * response before sending its next request, correcting for coordinated
+   * omission the way HdrHistogram does. While a slow response held the
+   * generator up, the requests it would have sent every `expectedNanos`
+   * weren't sent, so they're recorded as if they had been, each waiting
+   * that much less than the slow one.
+   *
+   * @param nanos         the latency, in nanoseconds
+   * @param expectedNanos how often requests are sent when nothing is slow,
+   *                      in nanoseconds; 0 for no correction
+   */
+  public void recordWithExpectedInterval(long nanos, long expectedNanos) {
+    record(nanos);
+    if (expectedNanos <= 0) {
+      return;
+    }
+    for (long missed = nanos - expectedNanos; missed >= expectedNanos; missed -= expectedNanos) {
+      record(missed);
+    }
+  }
+
+  /**
+   * @return how many latencies have been recorded
+   */
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < counts.length(); ++i) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * @return the total of all the latencies recorded, in nanoseconds
+   */
+  public long getSumNanos() {
+    return sumNanos.get();
+  }
+
+  /**
+   * Count the latencies recorded that were no more than a limit, to within
+   * the precision of the buckets: a latency in the same bucket as the limit
+   * is counted.
+   *
+   * @param nanos the limit, in nanoseconds
+   * @return how many of the latencies were at most that
+   */
+  public long getCountAtOrBelow(long nanos) {
+    long count = 0;
+    int last = index(nanos);
+    for (int i = 0; i <= last; ++i) {
+      count += counts.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * Get the latency that a given fraction of the recorded latencies were no
+   * more than, like the median (0.5) or the 99th percentile (0.99). As with
+   * HdrHistogram, it's the highest latency in the bucket it falls in, so it
+   * may overstate (but never understates) the real one by a few percent.
+   *
+   * @param quantile the fraction, from 0 to 1
+   * @return the latency, in nanoseconds, or 0 if nothing has been recorded
+   */
+  public long getValueAtQuantile(double quantile) {
+    long total = getCount();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); ++i) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return highestNanos(i);
+      }
+    }
+    return MAX_NANOS;
+  }
+
+  /**
+   * Convert nanoseconds to (fractional) seconds, the unit Prometheus
+   * expects latencies in.
+   *
+   * @param nanos the latency, in nanoseconds
+   * @return the latency, in seconds
+   */
+  public static double toSeconds(long nanos) {
+    return (double) nanos / TimeUnit.SECONDS.toNanos(1);
+  }
+}
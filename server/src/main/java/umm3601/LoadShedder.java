@@ -0,0 +1,93 @@
+package umm3601;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/**
+ * A Jetty handler that turns requests for the API away with a 503 (Service
+ * Unavailable) and a `Retry-After` when too many are already in flight,
+ * rather than letting them queue up behind the ones being handled.
+ * <p>
+ * It wraps the handler Javalin installs (Javalin puts its own handlers
+ * inside a server's `HandlerWrapper`), so a request that's turned away
+ * costs no more than a counter and a few headers, and never reaches
+ * Javalin at all. Our handlers write their responses before they return
+ * (even the streamed ones), so a request is in flight until the last of
+ * its response has been handed to Jetty. Requests outside `/api` (like
+ * `/metrics`) are never turned away, so the server can still be watched
+ * while it's overloaded.
+ */
+public final class LoadShedder extends HandlerWrapper {
+
+  /**
+   * How many seconds a client that's been turned away is told to wait
+   * before trying again.
+   */
+  public static final int RETRY_AFTER_SECONDS = 1;
+
+  private static final String SHED_PREFIX = "/api/";
+
+  private final int limit;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong shed = new AtomicLong();
+
+  /**
+   * Construct a load shedder.
+   *
+   * @param limit how many requests for the API to handle at once
+   */
+  public LoadShedder(int limit) {
+    this.limit = limit;
+  }
+
+  @Override
+  public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+      throws IOException, ServletException {
+    if (!target.startsWith(SHED_PREFIX)) {
+      super.handle(target, baseRequest, request, response);
+      return;
+    }
+    if (inFlight.incrementAndGet() > limit) {
+      inFlight.decrementAndGet();
+      shed.incrementAndGet();
+      response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      response.setHeader("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+      baseRequest.setHandled(true);
+      return;
+    }
+    try {
+      super.handle(target, baseRequest, request, response);
+    } finally {
+      inFlight.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return how many requests for the API are handled at once
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return how many requests for the API are being handled right now
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return how many requests have been turned away so far
+   */
+  public long getShedCount() {
+    return shed.get();
+  }
+}
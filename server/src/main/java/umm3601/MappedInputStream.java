@@ -0,0 +1,82 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An input stream over a memory-mapped file.
+ * <p>
+ * The file is mapped read-only with `FileChannel.map`, so reading it never
+ * goes through a `read` system call or a copy into a Java-side buffer: the
+ * loader's parser reads straight out of the operating system's page cache.
+ * Several server processes on the same host loading the same file share
+ * those pages instead of each keeping its own copy.
+ * <p>
+ * A single mapping can't be bigger than 2GB, so bigger files are mapped in
+ * 1GB regions, one after another.
+ */
+public final class MappedInputStream extends InputStream {
+
+  private static final long REGION_SIZE = 1L << 30;
+
+  private final MappedByteBuffer[] regions;
+  private int current;
+
+  /**
+   * Map the given file.
+   *
+   * @param file the file to read
+   * @throws IOException if the file can't be opened or mapped
+   */
+  public MappedInputStream(Path file) throws IOException {
+    // The mappings stay valid after the channel is closed.
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+      for (int i = 0; i < regions.length; ++i) {
+        long start = i * REGION_SIZE;
+        regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, size - start));
+      }
+    }
+  }
+
+  /**
+   * @return the region with bytes left in it, or null at the end of the file
+   */
+  private MappedByteBuffer region() {
+    while (current < regions.length && !regions[current].hasRemaining()) {
+      ++current;
+    }
+    return current < regions.length ? regions[current] : null;
+  }
+
+  @Override
+  public int read() {
+    MappedByteBuffer region = region();
+    return region == null ? -1 : Byte.toUnsignedInt(region.get());
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) {
+    if (length == 0) {
+      return 0;
+    }
+    MappedByteBuffer region = region();
+    if (region == null) {
+      return -1;
+    }
+    int count = Math.min(length, region.remaining());
+    region.get(bytes, offset, count);
+    return count;
+  }
+
+  @Override
+  public int available() {
+    MappedByteBuffer region = region();
+    return region == null ? 0 : region.remaining();
+  }
+}
@@ -0,0 +1,310 @@
+package umm3601;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.server.Response;
+
+import io.javalin.http.Context;
+
+/**
+ * Controller that measures how long the requests for todos and users take,
+ * and serves those measurements (and counts of errors, and of the bytes
+ * sent) to Prometheus.
+ * <p>
+ * `start` is installed as a before handler, and notes the `System.nanoTime`
+ * each request starts at. `record` is installed as Javalin's request
+ * logger, so it's called once for every request, after the response has
+ * been written, and takes the request's latency as the nanoseconds since
+ * then (rather than the milliseconds Javalin passes it, as a boxed `Float`
+ * that can't hold them to the nanosecond). The requests for the routes in
+ * `INSTRUMENTED_ROUTES` are recorded in a `LatencyHistogram` per route and
+ * method; everything else is ignored.
+ * <p>
+ * Recording takes no lock and allocates nothing (the routes are looked up
+ * in maps that never change once they're built), so it adds well under a
+ * microsecond to each request; see `RecordLatencyBenchmark`. The only
+ * allocation is the start time itself, which is boxed to be kept among the
+ * request's attributes.
+ * <p>
+ * The list queries' stage timings (see `QueryProfiler`) are reported
+ * alongside.
+ */
+public class MetricsController {
+
+  /**
+   * The routes whose requests are measured, as they're given to Javalin.
+   */
+  public static final List<String> INSTRUMENTED_ROUTES = List.of(
+      "/api/todos", "/api/todos/{id}", "/api/users", "/api/users/{id}");
+
+  private static final List<String> METHODS = List.of("GET", "POST", "PUT", "PATCH", "DELETE");
+
+  // The upper bounds of the Prometheus histogram buckets, in nanoseconds:
+  // from 100 microseconds to 10 seconds, in 1-2.5-5 steps.
+  private static final long[] BUCKET_NANOS = {
+      100_000L, 250_000L, 500_000L,
+      1_000_000L, 2_500_000L, 5_000_000L,
+      10_000_000L, 25_000_000L, 50_000_000L,
+      100_000_000L, 250_000_000L, 500_000_000L,
+      1_000_000_000L, 2_500_000_000L, 5_000_000_000L,
+      10_000_000_000L
+  };
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final String START_NANOS = "metrics-start-nanos";
+  private static final int CLIENT_ERRORS = 400;
+  private static final int SERVER_ERRORS = 500;
+
+  // By route, then by method; never changed once it's built.
+  private final Map<String, Map<String, RouteMetrics>> routes = new LinkedHashMap<>();
+  private final List<QueryProfiler> queryProfilers;
+  private final LoadShedder loadShedder;
+
+  /**
+   * Construct a controller that measures the requests for the
+   * `INSTRUMENTED_ROUTES`.
+   */
+  public MetricsController() {
+    this(INSTRUMENTED_ROUTES);
+  }
+
+  /**
+   * Construct a controller that measures the requests for the given routes.
+   *
+   * @param instrumentedRoutes the routes to measure, as they're given to
+   *                           Javalin (like "/api/todos/{id}")
+   */
+  public MetricsController(List<String> instrumentedRoutes) {
+    this(instrumentedRoutes, List.of());
+  }
+
+  /**
+   * Construct a controller that measures the requests for the given routes,
+   * and also reports the stage timings of the list queries added up by the
+   * given profilers.
+   *
+   * @param instrumentedRoutes the routes to measure, as they're given to
+   *                           Javalin (like "/api/todos/{id}")
+   * @param queryProfilers     the profilers of the list queries, one per
+   *                           collection
+   */
+  public MetricsController(List<String> instrumentedRoutes, List<QueryProfiler> queryProfilers) {
+    this(instrumentedRoutes, queryProfilers, null);
+  }
+
+  /**
+   * Construct a controller that measures the requests for the given routes,
+   * reports the stage timings of the list queries added up by the given
+   * profilers, and reports the requests turned away by a load shedder.
+   *
+   * @param instrumentedRoutes the routes to measure, as they're given to
+   *                           Javalin (like "/api/todos/{id}")
+   * @param queryProfilers     the profilers of the list queries, one per
+   *                           collection
+   * @param loadShedder        the load shedder, or null if the server takes
+   *                           every request
+   */
+  public MetricsController(List<String> instrumentedRoutes, List<QueryProfiler> queryProfilers,
+      LoadShedder loadShedder) {
+    this.queryProfilers = queryProfilers;
+    this.loadShedder = loadShedder;
+    for (String route : instrumentedRoutes) {
+      Map<String, RouteMetrics> byMethod = new HashMap<>();
+      for (String method : METHODS) {
+        byMethod.put(method, new RouteMetrics());
+      }
+      routes.put(route, byMethod);
+    }
+  }
+
+  /**
+   * Note when a request starts, for `record`. This has the signature of a
+   * Javalin `Handler`, to be installed before every other handler.
+   *
+   * @param ctx the request's Javalin HTTP context
+   */
+  public void start(Context ctx) {
+    ctx.attribute(START_NANOS, System.nanoTime());
+  }
+
+  /**
+   * Record a finished request, if it's for one of the instrumented routes.
+   * This has the signature of Javalin's `RequestLogger`.
+   *
+   * @param ctx             the request's Javalin HTTP context
+   * @param executionTimeMs how long Javalin says the request took, in
+   *                        milliseconds; only used if `start` wasn't called
+   *                        for the request
+   */
+  public void record(Context ctx, Float executionTimeMs) {
+    Long startNanos = ctx.attribute(START_NANOS);
+    long nanos = startNanos == null
+        ? (long) (executionTimeMs * TimeUnit.MILLISECONDS.toNanos(1))
+        : System.nanoTime() - startNanos;
+    // Jetty counts what's been written to the response, however it was
+    // written (all at once, or streamed).
+    long responseBytes = ctx.res instanceof Response ? ((Response) ctx.res).getHttpOutput().getWritten() : 0;
+    record(ctx.endpointHandlerPath(), ctx.method(), ctx.status(), nanos, responseBytes);
+  }
+
+  /**
+   * Record a finished request, if it's for one of the instrumented routes.
+   *
+   * @param route         the route the request matched, as it was given to
+   *                      Javalin
+   * @param method        the HTTP method, like "GET"
+   * @param status        the response's status
+   * @param nanos         how long the request took, in nanoseconds
+   * @param responseBytes the bytes sent in response
+   */
+  void record(String route, String method, int status, long nanos, long responseBytes) {
+    Map<String, RouteMetrics> byMethod = routes.get(route);
+    if (byMethod == null) {
+      return;
+    }
+    RouteMetrics metrics = byMethod.get(method);
+    if (metrics == null) {
+      return;
+    }
+    metrics.latency.record(nanos);
+    if (status >= SERVER_ERRORS) {
+      metrics.serverErrors.incrementAndGet();
+    } else if (status >= CLIENT_ERRORS) {
+      metrics.clientErrors.incrementAndGet();
+    }
+    metrics.responseBytes.addAndGet(responseBytes);
+  }
+
+  /**
+   * Get the latency histogram of a route, for one method.
+   *
+   * @param route  the route, as it was given to Javalin
+   * @param method the HTTP method, like "GET"
+   * @return the histogram, or null if that route and method aren't
+   *         instrumented
+   */
+  public LatencyHistogram getLatencies(String route, String method) {
+    Map<String, RouteMetrics> byMethod = routes.get(route);
+    RouteMetrics metrics = byMethod == null ? null : byMethod.get(method);
+    return metrics == null ? null : metrics.latency;
+  }
+
+  /**
+   * Get the measurements in the Prometheus text exposition format: for each
+   * route and method that has had any requests, a histogram of how long
+   * they took (`http_request_duration_seconds`), its median, 90th, 99th and
+   * 99.9th percentiles (`http_request_duration_quantile_seconds`), the bytes
+   * sent in response (`http_response_bytes_total`), and the number of
+   * requests that got a `4xx` or `5xx` status (`http_request_errors_total`).
+   * Then, for each stage of the list queries that weren't answered from a
+   * cache, a summary of how long it took (`query_stage_duration_seconds`),
+   * by collection, stage and detail, so (for instance) the filters that
+   * cost the most across all the requests can be found. Finally, if there's
+   * a load shedder, how many requests it's turned away with a 503
+   * (`http_requests_shed_total`; these never reach Javalin, so they aren't
+   * in the measurements of the routes), and how many are in flight
+   * (`http_requests_in_flight`).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getMetrics(Context ctx) {
+    StringBuilder text = new StringBuilder();
+    text.append("# HELP http_request_duration_seconds How long requests took, until the response was written.\n");
+    text.append("# TYPE http_request_duration_seconds histogram\n");
+    forEachRoute((labels, metrics) -> {
+      LatencyHistogram latency = metrics.latency;
+      for (long bucketNanos : BUCKET_NANOS) {
+        sample(text, "http_request_duration_seconds_bucket", labels + ",le=\""
+            + LatencyHistogram.toSeconds(bucketNanos) + "\"", latency.getCountAtOrBelow(bucketNanos));
+      }
+      long count = latency.getCount();
+      sample(text, "http_request_duration_seconds_bucket", labels + ",le=\"+Inf\"", count);
+      sample(text, "http_request_duration_seconds_sum", labels, LatencyHistogram.toSeconds(latency.getSumNanos()));
+      sample(text, "http_request_duration_seconds_count", labels, count);
+    });
+
+    text.append("# HELP http_request_duration_quantile_seconds Percentiles of how long requests took.\n");
+    text.append("# TYPE http_request_duration_quantile_seconds gauge\n");
+    forEachRoute((labels, metrics) -> {
+      for (double quantile : QUANTILES) {
+        sample(text, "http_request_duration_quantile_seconds", labels + ",quantile=\"" + quantile + "\"",
+            LatencyHistogram.toSeconds(metrics.latency.getValueAtQuantile(quantile)));
+      }
+    });
+
+    text.append("# HELP http_response_bytes_total The bytes sent in response to requests.\n");
+    text.append("# TYPE http_response_bytes_total counter\n");
+    forEachRoute((labels, metrics) -> sample(text, "http_response_bytes_total", labels, metrics.responseBytes.get()));
+
+    text.append("# HELP http_request_errors_total Requests that got an error status.\n");
+    text.append("# TYPE http_request_errors_total counter\n");
+    forEachRoute((labels, metrics) -> {
+      sample(text, "http_request_errors_total", labels + ",kind=\"client\"", metrics.clientErrors.get());
+      sample(text, "http_request_errors_total", labels + ",kind=\"server\"", metrics.serverErrors.get());
+    });
+
+    text.append("# HELP query_stage_duration_seconds How long each stage of the uncached list queries took.\n");
+    text.append("# TYPE query_stage_duration_seconds summary\n");
+    for (QueryProfiler profiler : queryProfilers) {
+      profiler.getStageLatencies().forEach((stage, byDetail) -> byDetail.forEach((detail, latency) -> {
+        String labels = "collection=\"" + profiler.getCollection() + "\",stage=\"" + stage
+            + "\",detail=\"" + detail + "\"";
+        for (double quantile : QUANTILES) {
+          sample(text, "query_stage_duration_seconds", labels + ",quantile=\"" + quantile + "\"",
+              LatencyHistogram.toSeconds(latency.getValueAtQuantile(quantile)));
+        }
+        sample(text, "query_stage_duration_seconds_sum", labels, LatencyHistogram.toSeconds(latency.getSumNanos()));
+        sample(text, "query_stage_duration_seconds_count", labels, latency.getCount());
+      }));
+    }
+
+    if (loadShedder != null) {
+      text.append("# HELP http_requests_shed_total Requests turned away with a 503 because too many were in flight.\n");
+      text.append("# TYPE http_requests_shed_total counter\n");
+      text.append("http_requests_shed_total ").append(loadShedder.getShedCount()).append('\n');
+      text.append("# HELP http_requests_in_flight Requests for the API being handled right now.\n");
+      text.append("# TYPE http_requests_in_flight gauge\n");
+      text.append("http_requests_in_flight ").append(loadShedder.getInFlight()).append('\n');
+    }
+
+    ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+    ctx.result(text.toString());
+  }
+
+  private void forEachRoute(RouteAction action) {
+    routes.forEach((route, byMethod) -> {
+      for (String method : METHODS) {
+        RouteMetrics metrics = byMethod.get(method);
+        if (metrics.latency.getCount() > 0) {
+          action.accept("method=\"" + method + "\",route=\"" + route + "\"", metrics);
+        }
+      }
+    });
+  }
+
+  private static void sample(StringBuilder text, String name, String labels, Object value) {
+    text.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  /**
+   * Something to do with the measurements of a route and method.
+   */
+  @FunctionalInterface
+  private interface RouteAction {
+    void accept(String labels, RouteMetrics metrics);
+  }
+
+  /**
+   * The measurements of one route and method.
+   */
+  private static final class RouteMetrics {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong clientErrors = new AtomicLong();
+    private final AtomicLong serverErrors = new AtomicLong();
+  }
+}
@@ -0,0 +1,282 @@
+package umm3601;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * A `TextColumn` kept as UTF-8 in direct `ByteBuffer` segments, outside the
+ * heap.
+ * <p>
+ * The heap only holds (chunked) primitive arrays: where each record's bytes
+ * start (the segment in the high 32 bits, the offset within it in the low
+ * ones), how many there are, and which records aren't pure ASCII. The
+ * garbage collector never has to look at the text itself, and a `String` is
+ * only built when a record is asked for.
+ * <p>
+ * Searches for ASCII text (nearly all of them) run straight over the bytes of
+ * ASCII records, lowercasing a byte at a time, which is what
+ * `TextColumn.foldCase` does to ASCII characters. Anything else is decoded
+ * and searched as a string, since a few non-ASCII characters (like the
+ * Kelvin sign, or the dotless i) fold to ASCII ones.
+ */
+public final class OffHeapTextColumn implements TextColumn {
+
+  /**
+   * The most bytes a segment grows to before a new one is started (a single
+   * value bigger than this gets a segment of its own).
+   */
+  static final int SEGMENT_SIZE = 1 << 26;
+
+  private static final int INITIAL_SEGMENT_SIZE = 1 << 16;
+  private static final int OFFSET_BITS = 32;
+  private static final long OFFSET_MASK = 0xFFFF_FFFFL;
+  private static final int NULL_LENGTH = -1;
+
+  private final ChunkedArray<ByteBuffer> segments;
+  private final ChunkedLongArray starts;
+  private final ChunkedIntArray lengths;
+  private final ChunkedBitSet nonAscii;
+  private final long bytes;
+
+  private OffHeapTextColumn(ChunkedArray<ByteBuffer> segments, ChunkedLongArray starts, ChunkedIntArray lengths,
+      ChunkedBitSet nonAscii, long bytes) {
+    this.segments = segments;
+    this.starts = starts;
+    this.lengths = lengths;
+    this.nonAscii = nonAscii;
+    this.bytes = bytes;
+  }
+
+  @Override
+  public int size() {
+    return lengths.size();
+  }
+
+  @Override
+  public String get(int record) {
+    int length = lengths.get(record);
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    // A duplicate has its own position, so concurrent readers don't
+    // disturb each other.
+    long start = starts.get(record);
+    ByteBuffer segment = segments.get((int) (start >>> OFFSET_BITS)).duplicate();
+    segment.position((int) (start & OFFSET_MASK));
+    byte[] utf8 = new byte[length];
+    segment.get(utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public IntPredicate containing(String lowercaseTarget) {
+    byte[] target = lowercaseTarget.getBytes(StandardCharsets.UTF_8);
+    if (!isAscii(target)) {
+      return record -> lengths.get(record) != NULL_LENGTH
+          && TextColumn.containsIgnoreCase(get(record), lowercaseTarget);
+    }
+    return record -> {
+      if (lengths.get(record) == NULL_LENGTH) {
+        return false;
+      }
+      if (nonAscii.get(record)) {
+        return TextColumn.containsIgnoreCase(get(record), lowercaseTarget);
+      }
+      return containsAscii(record, target);
+    };
+  }
+
+  /**
+   * Search an ASCII record's bytes for an ASCII target, ignoring case.
+   *
+   * @param record the position of a pure ASCII record
+   * @param target the lowercase ASCII bytes to look for
+   * @return true if the target appears somewhere in the record
+   */
+  private boolean containsAscii(int record, byte[] target) {
+    if (target.length == 0) {
+      return true;
+    }
+    long packed = starts.get(record);
+    ByteBuffer segment = segments.get((int) (packed >>> OFFSET_BITS));
+    int start = (int) (packed & OFFSET_MASK);
+    int last = start + lengths.get(record) - target.length;
+    byte first = target[0];
+    for (int i = start; i <= last; ++i) {
+      if (toLowerCase(segment.get(i)) == first) {
+        int j = 1;
+        while (j < target.length && toLowerCase(segment.get(i + j)) == target[j]) {
+          ++j;
+        }
+        if (j == target.length) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static byte toLowerCase(byte b) {
+    return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+  }
+
+  private static boolean isAscii(byte[] utf8) {
+    for (byte b : utf8) {
+      if (b < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The new values go in new segments; the existing segments are shared with
+   * the copy, including the bytes of any values it replaces, which stay
+   * there (and count towards `offHeapBytes`) until the column is rebuilt.
+   */
+  @Override
+  public OffHeapTextColumn withValues(int size, int[] records, String[] values) {
+    Builder builder = new Builder(records.length);
+    for (String value : values) {
+      builder.add(value);
+    }
+    OffHeapTextColumn added = builder.build();
+
+    ChunkedArray.Editor<ByteBuffer> newSegments = segments.edit();
+    for (int i = 0; i < added.segments.size(); ++i) {
+      newSegments.set(segments.size() + i, added.segments.get(i));
+    }
+    ChunkedLongArray.Editor newStarts = starts.edit();
+    ChunkedIntArray.Editor newLengths = lengths.edit();
+    ChunkedBitSet.Editor newNonAscii = nonAscii.edit();
+    long segmentShift = (long) segments.size() << OFFSET_BITS;
+    for (int i = 0; i < records.length; ++i) {
+      newStarts.set(records[i], added.starts.get(i) + segmentShift);
+      newLengths.set(records[i], added.lengths.get(i));
+      newNonAscii.set(records[i], added.nonAscii.get(i));
+    }
+    return new OffHeapTextColumn(newSegments.build(), newStarts.build(), newLengths.build(), newNonAscii.build(),
+        bytes + added.bytes);
+  }
+
+  @Override
+  public TextStorage storage() {
+    return TextStorage.OFF_HEAP;
+  }
+
+  @Override
+  public long offHeapBytes() {
+    return bytes;
+  }
+
+  /**
+   * Builds an `OffHeapTextColumn` a record at a time, copying each value
+   * into the current segment. Segments start small and double (up to
+   * `SEGMENT_SIZE`) as they fill, so a small column doesn't reserve a lot
+   * of memory it never uses.
+   */
+  public static final class Builder {
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final long[] starts;
+    private final int[] lengths;
+    private final BitSet nonAscii = new BitSet();
+    private ByteBuffer current;
+    private int size;
+    private long bytes;
+
+    /**
+     * @param size the number of records the column will have
+     */
+    public Builder(int size) {
+      starts = new long[size];
+      lengths = new int[size];
+    }
+
+    /**
+     * Add the next record's value.
+     *
+     * @param value the value, which may be null
+     */
+    public void add(String value) {
+      if (value == null) {
+        addNull();
+      } else {
+        add(ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+      }
+    }
+
+    /**
+     * Add the next record's value, already encoded.
+     *
+     * @param utf8 the UTF-8 bytes of the value, from its position to its
+     *             limit; they're copied, and the position is moved to the
+     *             limit
+     */
+    public void add(ByteBuffer utf8) {
+      int length = utf8.remaining();
+      for (int i = utf8.position(); i < utf8.limit(); ++i) {
+        if (utf8.get(i) < 0) {
+          nonAscii.set(size);
+          break;
+        }
+      }
+      ensureRoom(length);
+      starts[size] = ((long) (segments.size() - 1) << OFFSET_BITS) | current.position();
+      lengths[size] = length;
+      current.put(utf8);
+      bytes += length;
+      ++size;
+    }
+
+    /**
+     * Add a null as the next record's value.
+     */
+    public void addNull() {
+      lengths[size] = NULL_LENGTH;
+      ++size;
+    }
+
+    private void ensureRoom(int length) {
+      if (current != null && current.remaining() >= length) {
+        return;
+      }
+      if (current != null && current.position() + length <= SEGMENT_SIZE) {
+        // Grow the current segment, doubling so the copying stays linear.
+        int capacity = current.capacity();
+        while (capacity < current.position() + length) {
+          capacity = Math.min(capacity * 2, SEGMENT_SIZE);
+        }
+        replaceCurrent(capacity);
+      } else {
+        current = ByteBuffer.allocateDirect(Math.max(INITIAL_SEGMENT_SIZE, length));
+        segments.add(current);
+      }
+    }
+
+    private void replaceCurrent(int capacity) {
+      ByteBuffer replacement = ByteBuffer.allocateDirect(capacity);
+      current.flip();
+      replacement.put(current);
+      current = replacement;
+      segments.set(segments.size() - 1, replacement);
+    }
+
+    /**
+     * @return the column of all the records added
+     */
+    public OffHeapTextColumn build() {
+      // Don't hold on to the unused end of the last segment.
+      if (current != null && current.hasRemaining()) {
+        replaceCurrent(current.position());
+      }
+      return new OffHeapTextColumn(ChunkedArray.of(segments.toArray(new ByteBuffer[0])), ChunkedLongArray.of(starts),
+          ChunkedIntArray.of(lengths), ChunkedBitSet.of(nonAscii), bytes);
+    }
+  }
+}
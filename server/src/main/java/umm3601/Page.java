@@ -0,0 +1,82 @@
+package umm3601;
+
+import io.javalin.http.Context;
+
+/**
+ * One page of a paginated list of todos or users.
+ * <p>
+ * The items themselves are the response body, just like an unpaginated list,
+ * and the cursor for the next page and the total count (if asked for) are
+ * sent in response headers.
+ *
+ * @param <T> the type of the items on the page
+ */
+public final class Page<T> {
+
+  /**
+   * The response header holding the cursor for the next page.
+   */
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  /**
+   * The response header holding the total number of matching items.
+   */
+  public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+  private final T[] items;
+  private final String nextCursor;
+  private final long totalCount;
+
+  /**
+   * Create a page.
+   *
+   * @param items      the items on this page
+   * @param nextCursor the encoded cursor for the next page, or null if this
+   *                   is the last page
+   * @param totalCount the number of items on all the pages, or -1 if it
+   *                   wasn't asked for
+   */
+  public Page(T[] items, String nextCursor, long totalCount) {
+    this.items = items;
+    this.nextCursor = nextCursor;
+    this.totalCount = totalCount;
+  }
+
+  /**
+   * @return the items on this page
+   */
+  public T[] getItems() {
+    return items;
+  }
+
+  /**
+   * @return the encoded cursor for the next page, or null if this is the
+   *         last page
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  /**
+   * @return the number of items on all the pages, or -1 if it wasn't asked
+   *         for
+   */
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  /**
+   * Add the next-page cursor and total count headers (where there are any)
+   * to the response.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addHeaders(Context ctx) {
+    if (nextCursor != null) {
+      ctx.header(NEXT_CURSOR_HEADER, nextCursor);
+    }
+    if (totalCount >= 0) {
+      ctx.header(TOTAL_COUNT_HEADER, Long.toString(totalCount));
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package umm3601;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * The pagination part of a list query: `?after=<cursor>&pageSize=N`, plus
+ * `count=true` to ask for the total number of matching items.
+ */
+public final class Pagination {
+
+  /**
+   * How many items are on a page when `after` is given without `pageSize`.
+   */
+  public static final int DEFAULT_PAGE_SIZE = 100;
+
+  private static final String AFTER = "after";
+  private static final String PAGE_SIZE = "pageSize";
+  private static final String COUNT = "count";
+
+  private final Cursor after;
+  private final int pageSize;
+  private final boolean countTotal;
+
+  private Pagination(Cursor after, int pageSize, boolean countTotal) {
+    this.after = after;
+    this.pageSize = pageSize;
+    this.countTotal = countTotal;
+  }
+
+  /**
+   * Get the pagination part of a list query, if there is one.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @param orderBy     the attribute the query sorts by, or null if it isn't
+   *                    sorted; a cursor is only valid for the order it was
+   *                    made for
+   * @return the pagination for the query, or null if the query isn't paginated
+   * @throws BadRequestResponse if any of the parameters have illegal values
+   */
+  public static Pagination fromQueryParams(Map<String, List<String>> queryParams, String orderBy) {
+    if (!queryParams.containsKey(AFTER) && !queryParams.containsKey(PAGE_SIZE)) {
+      return null;
+    }
+    if (queryParams.containsKey("limit")) {
+      throw new BadRequestResponse("Specify either a limit or a pageSize, not both");
+    }
+
+    int pageSize = DEFAULT_PAGE_SIZE;
+    if (queryParams.containsKey(PAGE_SIZE)) {
+      String pageSizeParam = queryParams.get(PAGE_SIZE).get(0);
+      try {
+        pageSize = Integer.parseInt(pageSizeParam);
+      } catch (NumberFormatException e) {
+        throw new BadRequestResponse("Specified pageSize '" + pageSizeParam + "' can't be parsed to an integer");
+      }
+      if (pageSize <= 0) {
+        throw new BadRequestResponse("Specified pageSize '" + pageSizeParam + "' must be positive");
+      }
+    }
+
+    Cursor after = null;
+    if (queryParams.containsKey(AFTER)) {
+      after = Cursor.decode(queryParams.get(AFTER).get(0));
+      if (!Objects.equals(after.getOrderBy(), orderBy)) {
+        throw new BadRequestResponse("Specified cursor was made for a different orderBy");
+      }
+    }
+
+    boolean countTotal = queryParams.containsKey(COUNT) && Boolean.parseBoolean(queryParams.get(COUNT).get(0));
+    return new Pagination(after, pageSize, countTotal);
+  }
+
+  /**
+   * @return the cursor to start after, or null for the first page
+   */
+  public Cursor getAfter() {
+    return after;
+  }
+
+  /**
+   * @return the number of items on each page
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * @return true if the total number of matching items should be counted
+   */
+  public boolean isCountTotal() {
+    return countTotal;
+  }
+
+  /**
+   * @return the canonical form of this pagination, for use as part of the
+   *         canonical form of a query
+   */
+  public String getCacheKey() {
+    return QueryCache.key(after == null ? null : after.encode(), pageSize, countTotal);
+  }
+}
@@ -0,0 +1,187 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * A bounded, least-recently-used cache of query results.
+ * <p>
+ * The cache holds at most `maxEntries` results, and at most `maxWeight`
+ * records across all of them, so a few huge results can't crowd out memory.
+ * A result heavier than `maxWeight` on its own is never cached at all. Hits,
+ * misses and evictions are counted so they can be reported in `/api/stats`.
+ * <p>
+ * Every entry records when it was last used, and when the cache is over
+ * its bounds the least recently used entries are evicted, found by scanning
+ * all of them. That only happens on a miss, which has just run a query
+ * costing far more than a scan of a few hundred entries. Under concurrent
+ * misses the eviction is approximate: two requests may each evict an entry
+ * for the same overflow, or pick entries used at nearly the same moment.
+ * <p>
+ * Each database owns its own cache, so replacing a database with a freshly
+ * loaded one throws away every cached result along with the old data.
+ *
+ * @param <V> the type of the cached results
+ */
+public final class QueryCache<V> {
+
+  /**
+   * How many results a database's cache holds by default.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 256;
+
+  /**
+   * How many records, across all of its results, a database's cache holds by
+   * default.
+   */
+  public static final long DEFAULT_MAX_WEIGHT = 1_000_000;
+
+  private final int maxEntries;
+  private final long maxWeight;
+  private final ToIntFunction<V> weigher;
+
+  // Reads never lock: a hit is a lookup in a concurrent map plus a write to
+  // the entry's own timestamp, and the counters are `LongAdder`s, so
+  // concurrent requests don't contend on anything but the entries they
+  // share.
+  private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+  private final AtomicLong weight = new AtomicLong();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Construct an empty cache.
+   *
+   * @param maxEntries the most results to hold at once
+   * @param maxWeight  the most records to hold at once, across all results
+   * @param weigher    how many records a result holds
+   */
+  public QueryCache(int maxEntries, long maxWeight, ToIntFunction<V> weigher) {
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+  }
+
+  /**
+   * Build a cache key out of the parts of a parsed query.
+   * <p>
+   * Each part is written with its length in front of it, so no choice of
+   * values can make two different queries produce the same key; a missing
+   * (null) part is written as "-".
+   *
+   * @param parts the parts of the query, always in the same order
+   * @return the cache key for a query with those parts
+   */
+  public static String key(Object... parts) {
+    StringBuilder key = new StringBuilder();
+    for (Object part : parts) {
+      if (part == null) {
+        key.append('-');
+      } else {
+        String value = part.toString();
+        key.append(value.length()).append(':').append(value);
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Get the cached result for the given key, computing (and caching) it if
+   * there isn't one.
+   * <p>
+   * Nothing is locked, so neither a hit nor a slow query holds up any other
+   * request. Two requests that miss on the same key at the same time may
+   * both compute it, which is harmless.
+   *
+   * @param key     the canonical form of the query
+   * @param compute computes the result of the query
+   * @return the (possibly cached) result of the query
+   */
+  public V get(String key, Supplier<V> compute) {
+    Entry<V> cached = entries.get(key);
+    if (cached != null) {
+      cached.lastUsed = System.nanoTime();
+      hits.increment();
+      return cached.value;
+    }
+    misses.increment();
+
+    V result = compute.get();
+    int resultWeight = weigher.applyAsInt(result);
+    if (resultWeight <= maxWeight) {
+      put(key, new Entry<>(result, resultWeight));
+    }
+    return result;
+  }
+
+  /**
+   * Check whether a result is cached, without counting it as a hit or a
+   * miss, or as a use of the result.
+   *
+   * @param key the canonical form of the query
+   * @return true if the result of that query is cached
+   */
+  public boolean contains(String key) {
+    return entries.containsKey(key);
+  }
+
+  private void put(String key, Entry<V> entry) {
+    Entry<V> previous = entries.put(key, entry);
+    weight.addAndGet(previous == null ? entry.weight : entry.weight - previous.weight);
+
+    while (entries.size() > maxEntries || weight.get() > maxWeight) {
+      Map.Entry<String, Entry<V>> eldest = null;
+      for (Map.Entry<String, Entry<V>> candidate : entries.entrySet()) {
+        if (eldest == null || candidate.getValue().lastUsed < eldest.getValue().lastUsed) {
+          eldest = candidate;
+        }
+      }
+      if (eldest == null) {
+        return;
+      }
+      // Only count the eviction if no other request got there first.
+      if (entries.remove(eldest.getKey(), eldest.getValue())) {
+        weight.addAndGet(-eldest.getValue().weight);
+        evictions.increment();
+      }
+    }
+  }
+
+  /**
+   * Get the current size of the cache and how well it's been doing.
+   *
+   * @return a map from the name of each statistic to its value
+   */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("entries", entries.size());
+    stats.put("records", weight.get());
+    stats.put("hits", hits.sum());
+    stats.put("misses", misses.sum());
+    stats.put("evictions", evictions.sum());
+    return stats;
+  }
+
+  /**
+   * A cached result, with its weight and when it was last used (by
+   * `System.nanoTime`).
+   *
+   * @param <V> the type of the result
+   */
+  private static final class Entry<V> {
+    private final V value;
+    private final int weight;
+    private volatile long lastUsed = System.nanoTime();
+
+    Entry(V value, int weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+}
@@ -0,0 +1,273 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * What happened while one list query was answered: the stages it went
+ * through (finding the candidates in an index, checking them against the
+ * filters, sorting, building the result), and how many rows went into and
+ * came out of each stage, and how long each one took.
+ * <p>
+ * Every list request is profiled, and the stage timings are added up
+ * across all the requests by a `QueryProfiler`, so profiling is kept cheap:
+ * a clock reading at the end of each stage and a counter per row checked.
+ * A request with `?explain=true` gets an explaining profile instead, which
+ * also records the plan the database chose (which index, which way to
+ * sort, whether the result was cached) and how many of the candidates
+ * each filter on its own lets through, and is sent back instead of the
+ * results (see `toMap`).
+ * <p>
+ * A stage that hands its matches on as it finds them (for instance to be
+ * streamed to the client) includes the time taken with them in its own.
+ */
+public final class QueryProfile {
+
+  /**
+   * A profile that records nothing, for queries that aren't being profiled.
+   */
+  public static final QueryProfile NONE = new QueryProfile(false, false);
+
+  private final boolean enabled;
+  private final boolean explaining;
+  private final Map<String, Object> plan = new LinkedHashMap<>();
+  private final List<Stage> stages = new ArrayList<>();
+  private final List<Stage> filters = new ArrayList<>();
+
+  // When the current stage started, and the rows it's counted (see
+  // `counting`).
+  private long stageStart;
+  private long rowsIn;
+  private long rowsOut;
+
+  /**
+   * Construct a profile for one query.
+   *
+   * @param explaining whether to record the plan and each filter's
+   *                   selectivity as well as the stages
+   */
+  public QueryProfile(boolean explaining) {
+    this(true, explaining);
+  }
+
+  private QueryProfile(boolean enabled, boolean explaining) {
+    this.enabled = enabled;
+    this.explaining = explaining;
+  }
+
+  /**
+   * @return true if this profile records anything
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return true if this profile records the plan and the selectivity of
+   *         each filter, for `?explain=true`
+   */
+  public boolean isExplaining() {
+    return explaining;
+  }
+
+  /**
+   * Start timing the first stage.
+   */
+  public void start() {
+    if (enabled) {
+      stageStart = System.nanoTime();
+      rowsIn = 0;
+      rowsOut = 0;
+    }
+  }
+
+  /**
+   * Record that a stage has just finished, having taken the time since the
+   * last one finished (or since `start`), and start timing the next.
+   *
+   * @param name   what the stage does, like "filter"
+   * @param detail how it did it, like the filters it checked; this must be
+   *               one of a few fixed values, since the stage timings are
+   *               added up by name and detail
+   * @param in     how many rows the stage started with
+   * @param out    how many rows it passed on
+   */
+  public void stage(String name, String detail, long in, long out) {
+    if (enabled) {
+      long now = System.nanoTime();
+      stages.add(new Stage(name, detail, in, out, now - stageStart));
+      stageStart = now;
+      rowsIn = 0;
+      rowsOut = 0;
+    }
+  }
+
+  /**
+   * Record that a stage has just finished, with the rows counted by the
+   * check returned by `counting` since the last stage finished.
+   *
+   * @param name   what the stage does, like "filter"
+   * @param detail how it did it (see `stage`)
+   */
+  public void countedStage(String name, String detail) {
+    stage(name, detail, rowsIn, rowsOut);
+  }
+
+  /**
+   * Wrap a check on rows so the rows it's asked about, and the rows that
+   * pass, are counted towards the current stage. If this profile records
+   * nothing the check is returned as it is, so it costs nothing.
+   *
+   * @param check a test of whether the row at a position should be kept
+   * @return the same test, counting the rows it sees
+   */
+  public IntPredicate counting(IntPredicate check) {
+    if (!enabled) {
+      return check;
+    }
+    return position -> {
+      ++rowsIn;
+      if (!check.test(position)) {
+        return false;
+      }
+      ++rowsOut;
+      return true;
+    };
+  }
+
+  /**
+   * Record part of the plan, if this profile is explaining.
+   *
+   * @param key   what was decided, like "candidates"
+   * @param value what it was decided to do
+   */
+  public void plan(String key, Object value) {
+    if (explaining) {
+      plan.put(key, value);
+    }
+  }
+
+  /**
+   * Record how many of the candidates one filter lets through on its own,
+   * if this profile is explaining.
+   *
+   * @param name  the filter, like "owner"
+   * @param in    how many candidates it was checked against
+   * @param out   how many of them it let through
+   * @param nanos how long checking them all took, in nanoseconds
+   */
+  public void filter(String name, long in, long out, long nanos) {
+    if (explaining) {
+      filters.add(new Stage(name, null, in, out, nanos));
+    }
+  }
+
+  /**
+   * @return the stages recorded, in the order they finished
+   */
+  public List<Stage> getStages() {
+    return Collections.unmodifiableList(stages);
+  }
+
+  /**
+   * Get the profile in the form it's sent to the client in: the plan, then
+   * each stage with its rows and time, then the rows each filter lets
+   * through on its own, and the total time of the stages.
+   *
+   * @return a map (of lists and maps) that serializes to JSON
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> explanation = new LinkedHashMap<>();
+    explanation.put("plan", plan);
+    List<Map<String, Object>> stageMaps = new ArrayList<>();
+    long totalNanos = 0;
+    for (Stage stage : stages) {
+      stageMaps.add(stage.toMap("stage"));
+      totalNanos += stage.nanos;
+    }
+    explanation.put("stages", stageMaps);
+    List<Map<String, Object>> filterMaps = new ArrayList<>();
+    for (Stage filter : filters) {
+      filterMaps.add(filter.toMap("filter"));
+    }
+    explanation.put("filters", filterMaps);
+    explanation.put("totalMicros", micros(totalNanos));
+    return explanation;
+  }
+
+  private static double micros(long nanos) {
+    return (double) nanos / TimeUnit.MICROSECONDS.toNanos(1);
+  }
+
+  /**
+   * One stage of answering a query (or, for the filters, one filter
+   * checked on its own).
+   */
+  public static final class Stage {
+    private final String name;
+    private final String detail;
+    private final long rowsIn;
+    private final long rowsOut;
+    private final long nanos;
+
+    private Stage(String name, String detail, long rowsIn, long rowsOut, long nanos) {
+      this.name = name;
+      this.detail = detail;
+      this.rowsIn = rowsIn;
+      this.rowsOut = rowsOut;
+      this.nanos = nanos;
+    }
+
+    /**
+     * @return what the stage does, like "filter"
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return how the stage did it, like the filters it checked, or null
+     */
+    public String getDetail() {
+      return detail;
+    }
+
+    /**
+     * @return how many rows the stage started with
+     */
+    public long getRowsIn() {
+      return rowsIn;
+    }
+
+    /**
+     * @return how many rows the stage passed on
+     */
+    public long getRowsOut() {
+      return rowsOut;
+    }
+
+    /**
+     * @return how long the stage took, in nanoseconds
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+    private Map<String, Object> toMap(String kind) {
+      Map<String, Object> map = new LinkedHashMap<>();
+      map.put(kind, name);
+      if (detail != null) {
+        map.put("detail", detail);
+      }
+      map.put("rowsIn", rowsIn);
+      map.put("rowsOut", rowsOut);
+      map.put("micros", micros(nanos));
+      return map;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adds up the stage timings of every list query for one collection (like
+ * the todos), so the stages and filters that cost the most across all the
+ * traffic can be found (see `MetricsController`).
+ * <p>
+ * Each stage is timed in a `LatencyHistogram` of its own per name and
+ * detail (like "filter" and "owner,contains"). The details come from a
+ * small fixed set (never from the values in a query), so there are only
+ * ever a few dozen histograms.
+ */
+public final class QueryProfiler {
+
+  private final String collection;
+  // By stage name, then by detail.
+  private final Map<String, Map<String, LatencyHistogram>> stages = new ConcurrentHashMap<>();
+
+  /**
+   * Construct a profiler that hasn't timed anything yet.
+   *
+   * @param collection what's being queried, like "todos"
+   */
+  public QueryProfiler(String collection) {
+    this.collection = collection;
+  }
+
+  /**
+   * @return what's being queried, like "todos"
+   */
+  public String getCollection() {
+    return collection;
+  }
+
+  /**
+   * Add the stage timings of a query. A query answered from a cache has
+   * no stages, so adds nothing.
+   *
+   * @param profile the profile of the query
+   */
+  public void record(QueryProfile profile) {
+    for (QueryProfile.Stage stage : profile.getStages()) {
+      stages.computeIfAbsent(stage.getName(), name -> new ConcurrentHashMap<>())
+          .computeIfAbsent(stage.getDetail() == null ? "" : stage.getDetail(), detail -> new LatencyHistogram())
+          .record(stage.getNanos());
+    }
+  }
+
+  /**
+   * Get the timings of the stages, sorted by name and then by detail.
+   *
+   * @return the histogram of each stage's times, by name and then by detail
+   *         (which is empty for a stage without one)
+   */
+  public Map<String, Map<String, LatencyHistogram>> getStageLatencies() {
+    Map<String, Map<String, LatencyHistogram>> sorted = new TreeMap<>();
+    stages.forEach((name, byDetail) -> sorted.put(name, new TreeMap<>(byDetail)));
+    return sorted;
+  }
+}
@@ -0,0 +1,116 @@
+package umm3601;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache of something computed from each record of a database (like the
+ * record's serialized JSON), filled in the first time each record asks for
+ * it rather than all at once when the database is loaded.
+ * <p>
+ * The cache is kept in chunks like a `ChunkedArray`, and a database that
+ * gets a new version on every write gives the new version a copy of the
+ * cache (see `withCleared`) that shares every chunk none of the changed
+ * records are in. A shared chunk is for the very same records in both
+ * versions, so whichever version fills in one of its entries, the other
+ * gets the benefit.
+ *
+ * @param <T> the type of the cached values
+ */
+public final class RecordCache<T> {
+
+  // Chunks the same size as `ChunkedIntArray`'s.
+  private static final int CHUNK_BITS = ChunkedIntArray.CHUNK_BITS;
+  private static final int CHUNK_SIZE = ChunkedIntArray.CHUNK_SIZE;
+  private static final int CHUNK_MASK = ChunkedIntArray.CHUNK_MASK;
+
+  // Filled in by whichever request gets to a record first, so every entry
+  // is read and written atomically.
+  private final AtomicReferenceArray<T>[] chunks;
+
+  private RecordCache(AtomicReferenceArray<T>[] chunks) {
+    this.chunks = chunks;
+  }
+
+  /**
+   * @param <T>  the type of the cached values
+   * @param size the number of records
+   * @return an empty cache for that many records
+   */
+  public static <T> RecordCache<T> empty(int size) {
+    @SuppressWarnings("unchecked")
+    AtomicReferenceArray<T>[] chunks = new AtomicReferenceArray[ChunkedIntArray.chunkCount(size)];
+    for (int c = 0; c < chunks.length; ++c) {
+      chunks[c] = new AtomicReferenceArray<>(CHUNK_SIZE);
+    }
+    return new RecordCache<>(chunks);
+  }
+
+  /**
+   * Get the cached value for a record, computing (and caching) it if it
+   * isn't cached yet. Two requests for the same record at once may both
+   * compute it, and either value may be kept.
+   *
+   * @param record  the index of a record
+   * @param compute computes the value for a record
+   * @return the value for that record
+   */
+  public T get(int record, IntFunction<T> compute) {
+    AtomicReferenceArray<T> chunk = chunks[record >>> CHUNK_BITS];
+    T value = chunk.get(record & CHUNK_MASK);
+    if (value == null) {
+      value = compute.apply(record);
+      chunk.set(record & CHUNK_MASK, value);
+    }
+    return value;
+  }
+
+  /**
+   * @param weigh how big a cached value is
+   * @return the total size of all the cached values
+   */
+  public long weight(ToLongFunction<T> weigh) {
+    long total = 0;
+    for (AtomicReferenceArray<T> chunk : chunks) {
+      for (int i = 0; i < CHUNK_SIZE; ++i) {
+        T value = chunk.get(i);
+        if (value != null) {
+          total += weigh.applyAsLong(value);
+        }
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Get a copy of this cache for a new version of the database, with
+   * nothing cached for some changed records. This cache is left as it is.
+   *
+   * @param newSize the number of records in the new version; any past the
+   *                end of this cache are added with nothing cached
+   * @param records the indexes of the records that changed
+   * @return the copy
+   */
+  public RecordCache<T> withCleared(int newSize, Iterable<Integer> records) {
+    AtomicReferenceArray<T>[] copy = Arrays.copyOf(chunks, ChunkedIntArray.chunkCount(newSize));
+    for (int c = chunks.length; c < copy.length; ++c) {
+      copy[c] = new AtomicReferenceArray<>(CHUNK_SIZE);
+    }
+    boolean[] owned = new boolean[copy.length];
+    for (int record : records) {
+      int c = record >>> CHUNK_BITS;
+      if (!owned[c]) {
+        AtomicReferenceArray<T> chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+        for (int i = 0; i < CHUNK_SIZE; ++i) {
+          chunk.set(i, copy[c].get(i));
+        }
+        copy[c] = chunk;
+        owned[c] = true;
+      }
+      copy[c].set(record & CHUNK_MASK, null);
+    }
+    return new RecordCache<>(copy);
+  }
+}
@@ -0,0 +1,209 @@
+package umm3601;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * The current snapshot of a "database" that can be reloaded while it's being
+ * served.
+ * <p>
+ * A reload builds a complete new database (indexes, caches and all) on a
+ * background thread, while requests keep being answered from the current
+ * one, and only then swaps it in. The swap is a single volatile write, so
+ * reading the current database never takes a lock, and a request that got
+ * hold of the old database keeps reading it, unchanged, until it's done;
+ * the old one is garbage once the last such request finishes. If loading
+ * the new database fails, the current one stays in place.
+ * <p>
+ * The database can also be replaced by one derived from it (like a copy
+ * with some changes made) with `update`. Updates and reloads take turns
+ * swapping in their databases, so neither is lost to the other; a reload
+ * replaces everything, though, including any earlier updates, unless it's
+ * given a way to catch the newly loaded database up with them (like
+ * replaying a journal of the changes), which runs in its turn, just before
+ * the swap.
+ * <p>
+ * Reloads run one at a time. Asking for a reload while one is waiting to
+ * start just joins that one, so a burst of requests (or of file change
+ * events) costs at most one reload in progress and one more after it. Each
+ * reload is reported on standard out (or, if it fails, standard error).
+ *
+ * @param <T> the type of the database
+ */
+public final class Reloadable<T> implements Supplier<T> {
+
+  /**
+   * Loads a complete new database.
+   *
+   * @param <T> the type of the database
+   */
+  @FunctionalInterface
+  public interface Loader<T> {
+    T load() throws IOException;
+  }
+
+  private final String name;
+  private final Loader<T> loader;
+  private final UnaryOperator<T> catchUp;
+  private final Executor executor;
+
+  private volatile T current;
+  private volatile long loadedAtMillis;
+  private volatile long reloads;
+
+  // The reload that's been asked for but hasn't started yet, if any. Only
+  // touched while holding the lock on `this`, which reads never take.
+  private CompletableFuture<T> queued;
+
+  // Held while swapping in a new database, so an update can't be computed
+  // from a database that's about to be replaced. Reads never take it.
+  private final Object swapLock = new Object();
+
+  /**
+   * Construct a reloadable database that reloads on its own background
+   * thread.
+   *
+   * @param name    what's loaded, like "todos", for the reports
+   * @param initial the database to serve until the first reload
+   * @param loader  how to load a new database
+   */
+  public Reloadable(String name, T initial, Loader<T> loader) {
+    this(name, initial, loader, backgroundExecutor(name));
+  }
+
+  /**
+   * Construct a reloadable database that reloads on the given executor.
+   *
+   * @param name     what's loaded, like "todos", for the reports
+   * @param initial  the database to serve until the first reload
+   * @param loader   how to load a new database
+   * @param executor where to run the reloads; it must run them one at a time
+   */
+  public Reloadable(String name, T initial, Loader<T> loader, Executor executor) {
+    this(name, initial, loader, UnaryOperator.identity(), executor);
+  }
+
+  /**
+   * Construct a reloadable database that catches each newly loaded database
+   * up with the updates made since its data was written.
+   *
+   * @param name     what's loaded, like "todos", for the reports
+   * @param initial  the database to serve until the first reload
+   * @param loader   how to load a new database
+   * @param catchUp  makes the database to swap in from a newly loaded one,
+   *                 in the same turn as the swap, so no update can come
+   *                 between the two
+   * @param executor where to run the reloads; it must run them one at a time
+   */
+  public Reloadable(String name, T initial, Loader<T> loader, UnaryOperator<T> catchUp, Executor executor) {
+    this.name = name;
+    this.current = initial;
+    this.loader = loader;
+    this.catchUp = catchUp;
+    this.executor = executor;
+    this.loadedAtMillis = System.currentTimeMillis();
+  }
+
+  /**
+   * Make an executor that runs reloads one at a time on a background thread,
+   * which doesn't keep the JVM running.
+   *
+   * @param name what's loaded, like "todos", to name the thread after
+   * @return the executor
+   */
+  public static ExecutorService backgroundExecutor(String name) {
+    return Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "reload-" + name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Get the current database. A caller that needs several answers to agree
+   * with each other (like a content hash and the content) should call this
+   * once and use the result for all of them.
+   *
+   * @return the current database
+   */
+  @Override
+  public T get() {
+    return current;
+  }
+
+  /**
+   * Replace the current database with one derived from it. The new database
+   * is computed while holding a lock that only updates and reloads take, so
+   * readers carry on with the current database in the meantime.
+   *
+   * @param change makes the new database from the current one, which it
+   *               mustn't modify
+   * @return the new database, which has been swapped in
+   */
+  public T update(UnaryOperator<T> change) {
+    synchronized (swapLock) {
+      T updated = change.apply(current);
+      current = updated;
+      return updated;
+    }
+  }
+
+  /**
+   * Load a new database in the background and swap it in once it's complete.
+   *
+   * @return the new database, once it has been swapped in, or the exception
+   *         that loading it failed with
+   */
+  public synchronized CompletableFuture<T> reload() {
+    if (queued != null) {
+      return queued;
+    }
+    CompletableFuture<T> future = new CompletableFuture<>();
+    queued = future;
+    executor.execute(() -> load(future));
+    return future;
+  }
+
+  private void load(CompletableFuture<T> future) {
+    synchronized (this) {
+      queued = null;
+    }
+    long start = System.nanoTime();
+    try {
+      T loaded = loader.load();
+      synchronized (swapLock) {
+        loaded = catchUp.apply(loaded);
+        current = loaded;
+      }
+      loadedAtMillis = System.currentTimeMillis();
+      ++reloads;
+      System.out.printf("Reloaded %s in %d ms%n", name, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      future.complete(loaded);
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Reloading " + name + " failed; still serving the old " + name + ".");
+      e.printStackTrace(System.err);
+      future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * @return when the current database was swapped in (or constructed), in
+   *         milliseconds since the epoch
+   */
+  public long getLoadedAtMillis() {
+    return loadedAtMillis;
+  }
+
+  /**
+   * @return how many times a new database has been swapped in
+   */
+  public long getReloads() {
+    return reloads;
+  }
+}
@@ -1,26 +1,124 @@
 package umm3601;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 
 import io.javalin.Javalin;
+import io.javalin.core.compression.CompressionStrategy;
 import io.javalin.core.util.RouteOverviewPlugin;
 import io.javalin.http.InternalServerErrorResponse;
 import umm3601.user.UserDatabase;
 import umm3601.user.UserController;
 import umm3601.todo.TodoDatabase;
 import umm3601.todo.TodoController;
+import umm3601.todo.TodoJournal;
+import umm3601.todo.TodoWriter;
 
 public class Server {
 
   private static final int PORT_NUMBER = 4567;
+  private static final long BYTES_PER_MIB = 1024 * 1024;
   public static final String USER_DATA_FILE = "/users.json";
   public static final String TODO_DATA_FILE = "/todos.json";
 
+  // Set these environment variables to the paths of (possibly huge) JSON
+  // files to serve those instead of the data bundled into the jar. Changes
+  // to the todos in a file are journaled next to it (see `TodoJournal`), so
+  // they survive a restart; changes to the bundled todos don't.
+  public static final String USER_DATA_PATH_VARIABLE = "USER_DATA_PATH";
+  public static final String TODO_DATA_PATH_VARIABLE = "TODO_DATA_PATH";
+
+  // Set this environment variable to "off-heap" to keep the free text
+  // (todo bodies, user emails and avatars) outside the heap; see
+  // `TextStorage`.
+  public static final String TEXT_STORAGE_VARIABLE = "TEXT_STORAGE";
+
+  // Set this environment variable to "tuned" or "virtual" to change how
+  // requests are run (see `ExecutionMode`). In those modes, requests for
+  // the API beyond `MAX_REQUESTS_IN_FLIGHT` at once are answered with a 503
+  // (see `LoadShedder`), and the tuned mode's thread pool has
+  // `SERVER_THREADS` threads.
+  public static final String EXECUTION_MODE_VARIABLE = "EXECUTION_MODE";
+  public static final String MAX_REQUESTS_IN_FLIGHT_VARIABLE = "MAX_REQUESTS_IN_FLIGHT";
+  public static final String SERVER_THREADS_VARIABLE = "SERVER_THREADS";
+
+  private static final int DEFAULT_SERVER_THREADS = 200;
+  // Virtual threads are cheap, but every request in flight holds its
+  // query's results until they're written.
+  private static final int DEFAULT_VIRTUAL_REQUESTS_IN_FLIGHT = 10_000;
+  // Jetty's own threads (accepting connections, and selecting the ones
+  // with something to read) come out of the pool too: about one per core.
+  private static final int JETTY_THREADS = Runtime.getRuntime().availableProcessors() + 2;
+  // The tuned pool's queue holds the connections waiting to be read from,
+  // not the requests (the load shedder turns those away first), so it
+  // should never fill; if it does, Jetty closes the connections it can't
+  // queue.
+  private static final int QUEUED_TASKS_PER_THREAD = 4;
+  private static final int IDLE_TIMEOUT_MS = 60_000;
+
   public static void main(String[] args) {
+    start(PORT_NUMBER, System::getenv);
+  }
+
+  /**
+   * Start the server on a port, configured by a set of environment
+   * variables (the ones above). `main` uses the real environment, and the
+   * load test (in `src/loadtest`) its own, with a port of 0 so the server
+   * listens on any free port.
+   *
+   * @param port        the port to listen on, or 0 for any free one
+   * @param environment looks up an environment variable by name, returning
+   *                    null if it isn't set
+   * @return the running server; its `port()` is the port it listens on
+   */
+  public static Javalin start(int port, UnaryOperator<String> environment) {
 
     // Initialize dependencies
-    UserController userController = buildUserController();
-    TodoController todoController = buildTodoController();
+    TextStorage textStorage = textStorage(environment);
+    ExecutionMode executionMode = executionMode(environment);
+    int serverThreads = intVariable(environment, SERVER_THREADS_VARIABLE, DEFAULT_SERVER_THREADS);
+    LoadShedder loadShedder = loadShedder(executionMode, serverThreads, environment);
+    Reloadable<UserDatabase> userDatabases = new Reloadable<>("users",
+        buildUserDatabase(textStorage, environment), () -> loadUserDatabase(textStorage, environment));
+    TodoJournal todoJournal = openTodoJournal(textStorage, environment);
+    Reloadable<TodoDatabase> todoDatabases;
+    if (todoJournal == null) {
+      todoDatabases = new Reloadable<>("todos", buildTodoDatabase(() -> loadTodoDatabase(textStorage, environment)),
+          () -> loadTodoDatabase(textStorage, environment));
+    } else {
+      // A reload loads the JSON file, and replays the journal in the same
+      // turn as it's swapped in, so no change made in between is lost.
+      todoDatabases = new Reloadable<>("todos", buildTodoDatabase(todoJournal::recover),
+          todoJournal::loadBase, todoJournal::catchUp, Reloadable.backgroundExecutor("todos"));
+    }
+    watchDataFile(environment.apply(USER_DATA_PATH_VARIABLE), userDatabases::reload);
+    watchDataFile(environment.apply(TODO_DATA_PATH_VARIABLE), () -> {
+      // Compacting the journal rewrites the file, but that doesn't change
+      // the todos.
+      if (todoJournal == null || !todoJournal.wroteDataFile()) {
+        todoDatabases.reload();
+      }
+    });
+    QueryProfiler userQueryProfiler = new QueryProfiler("users");
+    QueryProfiler todoQueryProfiler = new QueryProfiler("todos");
+    UserController userController = new UserController(userDatabases, UserController.DEFAULT_STREAMING_THRESHOLD,
+        userQueryProfiler);
+    TodoController todoController = new TodoController(todoDatabases, new TodoWriter(todoDatabases, todoJournal),
+        TodoController.DEFAULT_STREAMING_THRESHOLD, todoQueryProfiler);
+    StatsController statsController = new StatsController(userDatabases, todoDatabases, todoJournal);
+    AdminController adminController = new AdminController(userDatabases, todoDatabases);
+    MetricsController metricsController = new MetricsController(MetricsController.INSTRUMENTED_ROUTES,
+        List.of(userQueryProfiler, todoQueryProfiler), loadShedder);
 
     Javalin server = Javalin.create(
       config -> {
@@ -28,8 +126,24 @@ public class Server {
         // return an overview of the various paths that this
         // Javalin server supports.
         config.registerPlugin(new RouteOverviewPlugin("/api"));
+
+        // Compression is handled by `Compression`, which caches the
+        // compressed responses instead of recompressing them every time.
+        config.compressionStrategy(CompressionStrategy.NONE);
+
+        // Record every request once its response is written (see
+        // `MetricsController`).
+        config.requestLogger(metricsController::record);
+
+        // Run the requests the way the `EXECUTION_MODE` says.
+        if (executionMode != ExecutionMode.DEFAULT) {
+          config.server(() -> jettyServer(executionMode, serverThreads, loadShedder));
+        }
       }
-    ).start(PORT_NUMBER);
+    ).start(port);
+
+    // Note when every request starts, for the request logger above.
+    server.before(metricsController::start);
 
     // API endpoints
 
@@ -45,6 +159,25 @@ public class Server {
     // List todos, filtered using query parameters
     server.get("/api/todos", todoController::getTodos);
 
+    // Add new todo with the info in the JSON body of the HTTP request
+    server.post("/api/todos", todoController::addNewTodo);
+
+    // Replace the todo with the given ID with the JSON body of the request
+    server.put("/api/todos/{id}", todoController::updateTodo);
+
+    // Delete the specified todo
+    server.delete("/api/todos/{id}", todoController::deleteTodo);
+
+    // Get statistics about the user and todo "databases"
+    server.get("/api/stats", statsController::getStats);
+
+    // Reload the user and todo "databases" from their data files
+    server.post("/api/admin/reload", adminController::reload);
+
+    // Request latencies, error counts and query stage timings, for
+    // Prometheus to scrape
+    server.get("/metrics", metricsController::getMetrics);
+
     // This catches any uncaught exceptions thrown in the server
     // code and turns them into a 500 response ("Internal Server
     // Error Response"). In general you'll like to *never* actually
@@ -53,26 +186,33 @@ public class Server {
     // unhelpful to them. In a production system you'd almost
     // certainly want to use a logging library to log all errors
     // caught here so you'd know about them and could try to address
-    // them.
+    // them. We at least print them, and `MetricsController` counts
+    // the 500s.
     server.exception(Exception.class, (e, ctx) -> {
+      System.err.println("Unhandled exception for " + ctx.method() + " " + ctx.path() + ":");
+      e.printStackTrace(System.err);
       throw new InternalServerErrorResponse(e.toString());
     });
+
+    return server;
   }
 
   /**
-   * Create a database using the json file, use it as data source for a new
-   * UserController
+   * Create a database of users using the json file: the one named by the
+   * `USER_DATA_PATH` environment variable if it's set, and otherwise
+   * the one bundled into the jar.
    *
-   * Constructing the controller might throw an IOException if there are problems
+   * Constructing the database might throw an IOException if there are problems
    * reading from the JSON "database" file. If that happens we'll print out an
    * error message exit the program.
    */
-  private static UserController buildUserController() {
-    UserController userController = null;
+  private static UserDatabase buildUserDatabase(TextStorage textStorage, UnaryOperator<String> environment) {
+    UserDatabase userDatabase = null;
 
     try {
-      UserDatabase userDatabase = new UserDatabase(USER_DATA_FILE);
-      userController = new UserController(userDatabase);
+      long start = System.nanoTime();
+      userDatabase = loadUserDatabase(textStorage, environment);
+      reportLoad(userDatabase.size() + " users", start);
     } catch (IOException e) {
       System.err.println("The server failed to load the user data; shutting down.");
       e.printStackTrace(System.err);
@@ -81,23 +221,25 @@ public class Server {
       System.exit(1);
     }
 
-    return userController;
+    return userDatabase;
   }
 
   /**
-   * Create a database using the json file, use it as data source for a new
-   * TodoController
+   * Create a database of todos using the json file: the one named by the
+   * `TODO_DATA_PATH` environment variable if it's set (with the changes in
+   * its journal replayed), and otherwise the one bundled into the jar.
    *
-   * Constructing the controller might throw an IOException if there are problems
+   * Constructing the database might throw an IOException if there are problems
    * reading from the JSON "database" file. If that happens we'll print out an
    * error message exit the program.
    */
-  private static TodoController buildTodoController() {
-    TodoController todoController = null;
+  private static TodoDatabase buildTodoDatabase(Reloadable.Loader<TodoDatabase> loader) {
+    TodoDatabase todoDatabase = null;
 
     try {
-      TodoDatabase todoDatabase = new TodoDatabase(TODO_DATA_FILE);
-      todoController = new TodoController(todoDatabase);
+      long start = System.nanoTime();
+      todoDatabase = loader.load();
+      reportLoad(todoDatabase.size() + " todos", start);
     } catch (IOException e) {
       System.err.println("The server failed to load the todo data; shutting down.");
       e.printStackTrace(System.err);
@@ -106,6 +248,197 @@ public class Server {
       System.exit(1);
     }
 
-    return todoController;
+    return todoDatabase;
+  }
+
+  /**
+   * Load the users from the file named by the `USER_DATA_PATH` environment
+   * variable if it's set, and otherwise from the one bundled into the jar.
+   */
+  private static UserDatabase loadUserDatabase(TextStorage textStorage, UnaryOperator<String> environment)
+      throws IOException {
+    String userDataPath = environment.apply(USER_DATA_PATH_VARIABLE);
+    return userDataPath == null
+        ? new UserDatabase(USER_DATA_FILE, textStorage)
+        : UserDatabase.fromFile(Paths.get(userDataPath), textStorage);
+  }
+
+  /**
+   * Load the todos from the file named by the `TODO_DATA_PATH` environment
+   * variable if it's set, and otherwise from the one bundled into the jar.
+   */
+  private static TodoDatabase loadTodoDatabase(TextStorage textStorage, UnaryOperator<String> environment)
+      throws IOException {
+    String todoDataPath = environment.apply(TODO_DATA_PATH_VARIABLE);
+    return todoDataPath == null
+        ? new TodoDatabase(TODO_DATA_FILE, textStorage)
+        : TodoDatabase.fromFile(Paths.get(todoDataPath), textStorage);
+  }
+
+  /**
+   * Open the journal of changes to the todos in the file named by the
+   * `TODO_DATA_PATH` environment variable. The data bundled into the jar
+   * can't be rewritten, so if the variable isn't set there's no journal,
+   * and this returns null.
+   *
+   * If the journal can't be opened we'll print out an error message and
+   * exit the program, rather than accept changes that would be lost.
+   */
+  private static TodoJournal openTodoJournal(TextStorage textStorage, UnaryOperator<String> environment) {
+    String todoDataPath = environment.apply(TODO_DATA_PATH_VARIABLE);
+    if (todoDataPath == null) {
+      return null;
+    }
+    try {
+      return new TodoJournal(Paths.get(todoDataPath), textStorage);
+    } catch (IOException e) {
+      System.err.println("The server failed to open the todo journal; shutting down.");
+      e.printStackTrace(System.err);
+      System.exit(1);
+      return null;
+    }
+  }
+
+  /**
+   * Run a reload whenever a data file (named by an environment variable)
+   * changes. The data bundled into the jar can't change, so if the
+   * variable isn't set (the path is null) there's nothing to watch. If the file can't be
+   * watched we'll print out an error message, and it can still be reloaded
+   * with `POST /api/admin/reload`.
+   */
+  private static void watchDataFile(String dataPath, Runnable reload) {
+    if (dataPath == null) {
+      return;
+    }
+    try {
+      DataFileWatcher.watch(Paths.get(dataPath), reload);
+    } catch (IOException e) {
+      System.err.println("Can't watch " + dataPath + " for changes; it won't be reloaded automatically.");
+      e.printStackTrace(System.err);
+    }
+  }
+
+  /**
+   * Get the text storage named by the `TEXT_STORAGE` environment variable,
+   * which defaults to the heap. If it names something else, we'll print out
+   * an error message and exit the program.
+   */
+  private static TextStorage textStorage(UnaryOperator<String> environment) {
+    String name = environment.apply(TEXT_STORAGE_VARIABLE);
+    try {
+      return TextStorage.parse(name);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Unknown " + TEXT_STORAGE_VARIABLE + " '" + name + "'; it should be 'heap' or 'off-heap'.");
+      System.exit(1);
+      return null;
+    }
+  }
+
+  /**
+   * Get the execution mode named by the `EXECUTION_MODE` environment
+   * variable, which defaults to Javalin's own. If it names something else,
+   * or virtual threads when the JDK doesn't have them, we'll print out an
+   * error message and exit the program.
+   */
+  private static ExecutionMode executionMode(UnaryOperator<String> environment) {
+    String name = environment.apply(EXECUTION_MODE_VARIABLE);
+    ExecutionMode mode = null;
+    try {
+      mode = ExecutionMode.parse(name);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Unknown " + EXECUTION_MODE_VARIABLE + " '" + name
+          + "'; it should be 'default', 'tuned' or 'virtual'.");
+      System.exit(1);
+    }
+    if (mode == ExecutionMode.VIRTUAL && !VirtualThreadPool.isAvailable()) {
+      System.err.println("This JDK (" + Runtime.version() + ") doesn't have virtual threads; run the server on"
+          + " JDK 21 or later to use the virtual " + EXECUTION_MODE_VARIABLE + ".");
+      System.exit(1);
+    }
+    return mode;
+  }
+
+  /**
+   * Get a positive number from an environment variable, or a default if
+   * it isn't set. If it isn't a positive number, we'll print out an error
+   * message and exit the program.
+   */
+  private static int intVariable(UnaryOperator<String> environment, String name, int defaultValue) {
+    String value = environment.apply(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    int number;
+    try {
+      number = Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      number = 0;
+    }
+    if (number <= 0) {
+      System.err.println(name + " '" + value + "' should be a positive number.");
+      System.exit(1);
+    }
+    return number;
+  }
+
+  /**
+   * Build the load shedder for an execution mode: none for the default
+   * mode, which takes every request. In the tuned mode it lets in as many
+   * requests as there are threads to spare from Jetty's own, unless the
+   * `MAX_REQUESTS_IN_FLIGHT` environment variable says otherwise.
+   */
+  private static LoadShedder loadShedder(ExecutionMode mode, int serverThreads, UnaryOperator<String> environment) {
+    switch (mode) {
+      case TUNED:
+        return new LoadShedder(intVariable(environment, MAX_REQUESTS_IN_FLIGHT_VARIABLE,
+            Math.max(1, serverThreads - JETTY_THREADS)));
+      case VIRTUAL:
+        return new LoadShedder(intVariable(environment, MAX_REQUESTS_IN_FLIGHT_VARIABLE,
+            DEFAULT_VIRTUAL_REQUESTS_IN_FLIGHT));
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Build the Jetty server for the tuned or virtual execution mode: its
+   * thread pool, with the load shedder as its handler (Javalin adds its
+   * own handlers inside).
+   */
+  private static org.eclipse.jetty.server.Server jettyServer(ExecutionMode mode, int serverThreads,
+      LoadShedder loadShedder) {
+    ThreadPool threadPool;
+    if (mode == ExecutionMode.VIRTUAL) {
+      threadPool = new VirtualThreadPool();
+    } else {
+      // All the threads are started up front, so a burst of requests isn't
+      // slowed down by starting threads for it.
+      QueuedThreadPool queuedThreadPool = new QueuedThreadPool(serverThreads, serverThreads, IDLE_TIMEOUT_MS,
+          new BlockingArrayQueue<>(serverThreads, serverThreads, serverThreads * QUEUED_TASKS_PER_THREAD));
+      queuedThreadPool.setName("JettyServerThreadPool");
+      threadPool = queuedThreadPool;
+    }
+    org.eclipse.jetty.server.Server jettyServer = new org.eclipse.jetty.server.Server(threadPool);
+    jettyServer.setHandler(loadShedder);
+    return jettyServer;
+  }
+
+  /**
+   * Print how long loading a "database" took, and the most heap that's been
+   * in use at once so far, which for a big data file is reached while it's
+   * being loaded.
+   *
+   * @param what       what was loaded, like "300 todos"
+   * @param startNanos `System.nanoTime()` from just before the load started
+   */
+  private static void reportLoad(String what, long startNanos) {
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    long peakHeap = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peakHeap += pool.getPeakUsage().getUsed();
+      }
+    }
+    System.out.printf("Loaded %s in %d ms (peak heap so far: %d MiB)%n", what, millis, peakHeap / BYTES_PER_MIB);
   }
 }
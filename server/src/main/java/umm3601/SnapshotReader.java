@@ -0,0 +1,191 @@
+package umm3601;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a binary snapshot written by `SnapshotWriter`.
+ * <p>
+ * The whole snapshot is mapped into memory with a single `FileChannel.map`,
+ * and loading it is mostly bulk copies of int columns out of the mapping,
+ * plus decoding the distinct strings. A snapshot is only used if it was made
+ * from the JSON file as it is now (same size and modification time) by the
+ * same version of the snapshot format; otherwise `open` returns null and the
+ * caller falls back to the JSON.
+ */
+public final class SnapshotReader {
+
+  /**
+   * The biggest snapshot that fits in a single mapping.
+   */
+  static final long MAX_SNAPSHOT_SIZE = Integer.MAX_VALUE;
+
+  private final ByteBuffer buffer;
+
+  private SnapshotReader(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Get the path of the snapshot of a JSON file, which lives right next to
+   * it: the snapshot of `todos.json` is `todos.json.snapshot`.
+   *
+   * @param source the JSON file
+   * @return the path of its snapshot
+   */
+  public static Path snapshotPathFor(Path source) {
+    return source.resolveSibling(source.getFileName() + ".snapshot");
+  }
+
+  /**
+   * Open the snapshot of a JSON file, if there's an up-to-date one.
+   *
+   * @param source the JSON file
+   * @param magic  identifies the kind of snapshot (and its version)
+   * @return a reader positioned just after the header, or null if there's no
+   *         snapshot, or it's of the wrong kind or version, or it's stale
+   * @throws IOException if the snapshot or JSON file can't be read
+   */
+  public static SnapshotReader open(Path source, int magic) throws IOException {
+    Path snapshot = snapshotPathFor(source);
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+      if (channel.size() > MAX_SNAPSHOT_SIZE) {
+        return null;
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+
+    if (buffer.remaining() < Integer.BYTES + 2 * Long.BYTES
+        || buffer.getInt() != magic
+        || buffer.getLong() != Files.size(source)
+        || buffer.getLong() != Files.getLastModifiedTime(source).toMillis()) {
+      return null;
+    }
+    return new SnapshotReader(buffer);
+  }
+
+  /**
+   * @return the next byte
+   */
+  public byte readByte() {
+    return buffer.get();
+  }
+
+  /**
+   * @return the next int
+   */
+  public int readInt() {
+    return buffer.getInt();
+  }
+
+  /**
+   * @return the next long
+   */
+  public long readLong() {
+    return buffer.getLong();
+  }
+
+  /**
+   * Read an array of ints written by `SnapshotWriter.writeInts`.
+   *
+   * @return the ints
+   */
+  public int[] readInts() {
+    int[] values = new int[buffer.getInt()];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + Integer.BYTES * values.length);
+    return values;
+  }
+
+  /**
+   * Read a string written by `SnapshotWriter.writeString`.
+   *
+   * @return the string, which may be null
+   */
+  public String readString() {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read a column written by `SnapshotWriter.writeStringColumn`. Records with
+   * the same value share a single copy of it.
+   *
+   * @return the field's value in each record, in order
+   */
+  public String[] readStringColumn() {
+    String[] dictionary = readDictionary();
+    int[] encoded = readInts();
+    String[] column = new String[encoded.length];
+    for (int i = 0; i < encoded.length; ++i) {
+      column[i] = encoded[i] == DictionaryColumn.NULL_CODE ? null : dictionary[encoded[i]];
+    }
+    return column;
+  }
+
+  /**
+   * Read a column written by `SnapshotWriter.writeStringColumn` (or
+   * `writeDictionaryColumn`) without decoding it.
+   *
+   * @return the dictionary-encoded column
+   */
+  public DictionaryColumn readDictionaryColumn() {
+    String[] values = readDictionary();
+    return new DictionaryColumn(values, readInts());
+  }
+
+  /**
+   * Read a column written by `SnapshotWriter.writeTextColumn`. Off the heap,
+   * the UTF-8 bytes are copied straight out of the snapshot without ever
+   * being decoded.
+   *
+   * @param storage where to keep the text
+   * @return the column
+   */
+  public TextColumn readTextColumn(TextStorage storage) {
+    int size = buffer.getInt();
+    if (storage == TextStorage.HEAP) {
+      String[] values = new String[size];
+      for (int i = 0; i < size; ++i) {
+        values[i] = readString();
+      }
+      return new HeapTextColumn(values);
+    }
+    OffHeapTextColumn.Builder builder = new OffHeapTextColumn.Builder(size);
+    for (int i = 0; i < size; ++i) {
+      int length = buffer.getInt();
+      if (length < 0) {
+        builder.addNull();
+      } else {
+        ByteBuffer utf8 = buffer.slice();
+        utf8.limit(length);
+        builder.add(utf8);
+        buffer.position(buffer.position() + length);
+      }
+    }
+    return builder.build();
+  }
+
+  private String[] readDictionary() {
+    String[] dictionary = new String[buffer.getInt()];
+    for (int i = 0; i < dictionary.length; ++i) {
+      dictionary[i] = readString();
+    }
+    return dictionary;
+  }
+}
@@ -0,0 +1,205 @@
+package umm3601;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a binary snapshot of a "database", so the next server to start can
+ * load it with `SnapshotReader` instead of parsing the JSON and rebuilding
+ * the indexes.
+ * <p>
+ * A snapshot starts with a header identifying what kind of snapshot it is
+ * and the JSON file it was made from; everything after that is up to the
+ * kind of snapshot. All numbers are little-endian. The snapshot is written
+ * to a temporary file that only replaces the real one once `commit` is
+ * called, so a server that dies partway through never leaves a half-written
+ * snapshot behind.
+ */
+public final class SnapshotWriter implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final Path snapshot;
+  private final Path temporary;
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private boolean committed;
+
+  /**
+   * Start writing the snapshot of the given JSON file.
+   *
+   * @param source the JSON file the snapshot is made from
+   * @param magic  identifies the kind of snapshot (and its version)
+   * @throws IOException if the snapshot can't be created
+   */
+  public SnapshotWriter(Path source, int magic) throws IOException {
+    snapshot = SnapshotReader.snapshotPathFor(source);
+    temporary = Files.createTempFile(snapshot.toAbsolutePath().getParent(), snapshot.getFileName().toString(), ".tmp");
+    channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    writeInt(magic);
+    writeLong(Files.size(source));
+    writeLong(Files.getLastModifiedTime(source).toMillis());
+  }
+
+  private void ensureRoom(int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * @param value the byte to write
+   * @throws IOException if writing fails
+   */
+  public void writeByte(byte value) throws IOException {
+    ensureRoom(Byte.BYTES);
+    buffer.put(value);
+  }
+
+  /**
+   * @param value the int to write
+   * @throws IOException if writing fails
+   */
+  public void writeInt(int value) throws IOException {
+    ensureRoom(Integer.BYTES);
+    buffer.putInt(value);
+  }
+
+  /**
+   * @param value the long to write
+   * @throws IOException if writing fails
+   */
+  public void writeLong(long value) throws IOException {
+    ensureRoom(Long.BYTES);
+    buffer.putLong(value);
+  }
+
+  /**
+   * Write an array of ints, preceded by its length.
+   *
+   * @param values the ints to write
+   * @throws IOException if writing fails
+   */
+  public void writeInts(int[] values) throws IOException {
+    writeInt(values.length);
+    for (int value : values) {
+      writeInt(value);
+    }
+  }
+
+  /**
+   * Write a string (which may be null) as its length in UTF-8 bytes followed
+   * by those bytes. Null is written as a length of -1.
+   *
+   * @param value the string to write
+   * @throws IOException if writing fails
+   */
+  public void writeString(String value) throws IOException {
+    if (value == null) {
+      writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeInt(bytes.length);
+    int written = 0;
+    while (written < bytes.length) {
+      ensureRoom(1);
+      int count = Math.min(buffer.remaining(), bytes.length - written);
+      buffer.put(bytes, written, count);
+      written += count;
+    }
+  }
+
+  /**
+   * Write one string field of every record, dictionary-encoded: first the
+   * distinct values, then the position of each record's value among them.
+   * Fields with few distinct values (like owners) take four bytes a record,
+   * and the reader ends up sharing one copy of each value.
+   *
+   * @param column the field's value in each record, in order
+   * @throws IOException if writing fails
+   */
+  public void writeStringColumn(String[] column) throws IOException {
+    writeDictionaryColumn(DictionaryColumn.encode(column));
+  }
+
+  /**
+   * Write a column that's already dictionary-encoded, in the same format as
+   * `writeStringColumn`.
+   *
+   * @param column the encoded column
+   * @throws IOException if writing fails
+   */
+  public void writeDictionaryColumn(DictionaryColumn column) throws IOException {
+    writeInt(column.cardinality());
+    for (String value : column.values()) {
+      writeString(value);
+    }
+    // The same format as `writeInts`.
+    writeInt(column.size());
+    for (int i = 0; i < column.size(); ++i) {
+      writeInt(column.code(i));
+    }
+  }
+
+  /**
+   * Write a free-text field of every record: the number of records, then
+   * each value as by `writeString`. There's nothing to share, so unlike
+   * `writeStringColumn` there's no dictionary.
+   *
+   * @param column the field's value in each record
+   * @throws IOException if writing fails
+   */
+  public void writeTextColumn(TextColumn column) throws IOException {
+    writeInt(column.size());
+    for (int i = 0; i < column.size(); ++i) {
+      writeString(column.get(i));
+    }
+  }
+
+  /**
+   * Finish the snapshot and put it in place of any older one.
+   *
+   * @throws IOException if the snapshot can't be written, or is too big to
+   *                     be mapped back in by `SnapshotReader`
+   */
+  public void commit() throws IOException {
+    flush();
+    if (channel.size() > SnapshotReader.MAX_SNAPSHOT_SIZE) {
+      throw new IOException("The snapshot is too big to map (" + channel.size() + " bytes)");
+    }
+    channel.force(true);
+    channel.close();
+    Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    committed = true;
+  }
+
+  /**
+   * Abandon the snapshot, unless it has been committed.
+   *
+   * @throws IOException if the temporary file can't be cleaned up
+   */
+  @Override
+  public void close() throws IOException {
+    if (!committed) {
+      channel.close();
+      Files.deleteIfExists(temporary);
+    }
+  }
+}
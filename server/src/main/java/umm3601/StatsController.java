@@ -0,0 +1,74 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import io.javalin.http.Context;
+import umm3601.todo.TodoDatabase;
+import umm3601.todo.TodoJournal;
+import umm3601.user.UserDatabase;
+
+/**
+ * Controller that reports statistics about the "databases", such as how big
+ * they are and how much memory their indexes use, and about the journal of
+ * changes to the todos, such as how long forcing it to the disk takes.
+ */
+public class StatsController {
+
+  private Supplier<UserDatabase> userDatabases;
+  private Supplier<TodoDatabase> todoDatabases;
+  private TodoJournal todoJournal;
+
+  /**
+   * Construct a controller for statistics.
+   *
+   * @param userDatabase the `UserDatabase` to report on
+   * @param todoDatabase the `TodoDatabase` to report on
+   */
+  public StatsController(UserDatabase userDatabase, TodoDatabase todoDatabase) {
+    this(() -> userDatabase, () -> todoDatabase);
+  }
+
+  /**
+   * Construct a controller for statistics about whichever "databases" are
+   * current at the time of each request (see `Reloadable`).
+   *
+   * @param userDatabases supplies the current `UserDatabase`
+   * @param todoDatabases supplies the current `TodoDatabase`
+   */
+  public StatsController(Supplier<UserDatabase> userDatabases, Supplier<TodoDatabase> todoDatabases) {
+    this(userDatabases, todoDatabases, null);
+  }
+
+  /**
+   * Construct a controller for statistics that also reports on the journal
+   * of changes to the todos.
+   *
+   * @param userDatabases supplies the current `UserDatabase`
+   * @param todoDatabases supplies the current `TodoDatabase`
+   * @param todoJournal   the `TodoJournal` to report on, or null if the
+   *                      changes aren't journaled
+   */
+  public StatsController(Supplier<UserDatabase> userDatabases, Supplier<TodoDatabase> todoDatabases,
+      TodoJournal todoJournal) {
+    this.userDatabases = userDatabases;
+    this.todoDatabases = todoDatabases;
+    this.todoJournal = todoJournal;
+  }
+
+  /**
+   * Get a JSON response with statistics about the user and todo "databases".
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getStats(Context ctx) {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("users", userDatabases.get().getStats());
+    stats.put("todos", todoDatabases.get().getStats());
+    if (todoJournal != null) {
+      stats.put("todoJournal", todoJournal.getStats());
+    }
+    ctx.json(stats);
+  }
+}
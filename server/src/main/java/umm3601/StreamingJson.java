@@ -0,0 +1,87 @@
+package umm3601;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.javalin.http.Context;
+
+/**
+ * Writes JSON to the response, including arrays that are written one element
+ * at a time, as the elements are produced.
+ * <p>
+ * `ctx.json(...)` serializes the whole result into memory before the first
+ * byte is sent, which is fine for small results but not for huge ones. Here
+ * a Jackson `JsonGenerator` writes each element into a small buffer that is
+ * flushed to the response whenever it fills up. Since the response has no
+ * `Content-Length`, Jetty sends it with chunked transfer encoding, and the
+ * memory used doesn't depend on the size of the result. The stream is
+ * gzipped on the way out when the client accepts it (see `Compression`).
+ */
+public final class StreamingJson {
+
+  // Don't flush after every element; let the generator and Jetty buffers
+  // decide when a chunk is big enough to send.
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+  // How much of the response to collect before handing it to Jetty.
+  private static final int BUFFER_SIZE = 8192;
+
+  private StreamingJson() {
+  }
+
+  /**
+   * Stream a JSON array to the response.
+   *
+   * @param <T>      the type of the array elements
+   * @param ctx      a Javalin HTTP context
+   * @param producer passes every element of the array, in order, to the
+   *                 consumer it's given
+   * @throws IOException if writing to the response fails
+   */
+  public static <T> void writeArray(Context ctx, Consumer<Consumer<T>> producer) throws IOException {
+    ctx.contentType("application/json");
+    OutputStream output = Compression.negotiateStream(ctx);
+    try (JsonGenerator generator = MAPPER.getFactory().createGenerator(output, JsonEncoding.UTF8)) {
+      generator.writeStartArray();
+      producer.accept(element -> {
+        try {
+          MAPPER.writeValue(generator, element);
+        } catch (IOException e) {
+          // `Consumer` can't throw checked exceptions, so smuggle it out.
+          throw new UncheckedIOException(e);
+        }
+      });
+      generator.writeEndArray();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Stream a JSON array of already serialized elements to the response.
+   * <p>
+   * This is just like `writeArray`, except that no serialization happens at
+   * all: the cached bytes of each element are copied straight to the
+   * response.
+   *
+   * @param ctx      a Javalin HTTP context
+   * @param producer passes the UTF-8 JSON of every element of the array, in
+   *                 order, to the consumer it's given
+   * @throws IOException if writing to the response fails
+   */
+  public static void writeRawArray(Context ctx, Consumer<Consumer<byte[]>> producer) throws IOException {
+    ctx.contentType("application/json");
+    try (OutputStream output = new BufferedOutputStream(Compression.negotiateStream(ctx), BUFFER_SIZE)) {
+      JsonBytes.writeArray(output, producer);
+    }
+  }
+}
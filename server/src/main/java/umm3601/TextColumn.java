@@ -0,0 +1,140 @@
+package umm3601;
+
+import java.util.function.IntPredicate;
+
+/**
+ * One free-text field of every record, like the todo bodies: values that are
+ * (nearly) all different, so unlike a `DictionaryColumn` there's nothing to
+ * share, just a lot of text to keep somewhere.
+ * <p>
+ * Where it's kept depends on the `TextStorage`: as strings on the heap
+ * (`HeapTextColumn`), or as UTF-8 in direct buffers (`OffHeapTextColumn`).
+ */
+public interface TextColumn {
+
+  /**
+   * Store a column of text.
+   *
+   * @param values  the field's value in each record, in order; may contain
+   *                nulls
+   * @param storage where to keep the text
+   * @return the stored column
+   */
+  static TextColumn of(String[] values, TextStorage storage) {
+    if (storage == TextStorage.HEAP) {
+      return new HeapTextColumn(values);
+    }
+    OffHeapTextColumn.Builder builder = new OffHeapTextColumn.Builder(values.length);
+    for (String value : values) {
+      builder.add(value);
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the number of records
+   */
+  int size();
+
+  /**
+   * @param record the position of a record
+   * @return that record's value, which may be null
+   */
+  String get(int record);
+
+  /**
+   * Get a test of which records contain the given text, ignoring case. Any
+   * work that only depends on the text (like encoding it) is done once, here.
+   *
+   * @param lowercaseTarget the (already folded, see `foldCase`) text to
+   *                        search for
+   * @return a test of whether the record at a position contains that text
+   */
+  IntPredicate containing(String lowercaseTarget);
+
+  /**
+   * Get a copy of this column with some records' values replaced, or added
+   * at the end. This column is left as it is, and shares all of its
+   * unchanged text with the copy (in chunks, like a `ChunkedIntArray`, so
+   * the copy costs about as much as the records it changes).
+   *
+   * @param size    the number of records in the copy
+   * @param records the positions of the records to set, which may be past
+   *                the end of this column (in which case every position
+   *                between its end and `size` must be set)
+   * @param values  the new value of each of those records, which may be null
+   * @return the changed copy
+   */
+  TextColumn withValues(int size, int[] records, String[] values);
+
+  /**
+   * @return where the text is kept
+   */
+  TextStorage storage();
+
+  /**
+   * @return how many bytes of text are stored outside the heap
+   */
+  long offHeapBytes();
+
+  /**
+   * Fold a character's case, the one way every case-insensitive match
+   * (scans, indexes and filters alike) compares characters. This is what
+   * `String.equalsIgnoreCase` does a character at a time, so, unlike
+   * `String.toLowerCase`, it doesn't depend on the default locale and never
+   * changes the length of the text: 'I', 'i', the dotted capital I (U+0130)
+   * and the dotless i (U+0131) all fold to 'i'.
+   *
+   * @param c the character to fold
+   * @return the folded character
+   */
+  static char foldCase(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  /**
+   * Fold the case of every character of some text (see `foldCase(char)`).
+   *
+   * @param text the text to fold
+   * @return the folded text, which is just as long
+   */
+  static String foldCase(String text) {
+    char[] folded = new char[text.length()];
+    for (int i = 0; i < folded.length; ++i) {
+      folded[i] = foldCase(text.charAt(i));
+    }
+    return new String(folded);
+  }
+
+  /**
+   * Check whether `text` contains `lowercaseTarget`, ignoring case, without
+   * allocating a folded copy of `text`.
+   *
+   * @param text            the text to search in
+   * @param lowercaseTarget the (already folded, see `foldCase`) text to
+   *                        search for
+   * @return true if the target appears somewhere in the text
+   */
+  static boolean containsIgnoreCase(String text, String lowercaseTarget) {
+    int targetLength = lowercaseTarget.length();
+    if (targetLength == 0) {
+      return true;
+    }
+    // Only bother comparing the rest of the target where the first
+    // character matches.
+    char first = lowercaseTarget.charAt(0);
+    int last = text.length() - targetLength;
+    for (int i = 0; i <= last; ++i) {
+      if (foldCase(text.charAt(i)) == first) {
+        int j = 1;
+        while (j < targetLength && foldCase(text.charAt(i + j)) == lowercaseTarget.charAt(j)) {
+          ++j;
+        }
+        if (j == targetLength) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,40 @@
+package umm3601;
+
+import java.util.Locale;
+
+/**
+ * Where a "database" keeps the text of its free-text fields (todo bodies,
+ * user emails and avatars); see `TextColumn`.
+ */
+public enum TextStorage {
+
+  /**
+   * A `String` per record, on the heap, with every record's JSON cached
+   * alongside. This is the fastest to serve.
+   */
+  HEAP,
+
+  /**
+   * UTF-8 bytes in direct (off-heap) buffers, with nothing but primitive
+   * arrays on the heap. Records are only turned into strings (and JSON) when
+   * they're serialized, which keeps a big dataset from filling the heap and
+   * lengthening garbage collection pauses.
+   */
+  OFF_HEAP;
+
+  /**
+   * Parse the name of a storage mode, like the value of an environment
+   * variable.
+   *
+   * @param name "heap" or "off-heap" (in any case), or null for the default
+   * @return the storage mode with that name
+   * @throws IllegalArgumentException if there's no storage mode with that
+   *                                  name
+   */
+  public static TextStorage parse(String name) {
+    if (name == null) {
+      return HEAP;
+    }
+    return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+  }
+}
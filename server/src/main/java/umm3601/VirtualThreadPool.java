@@ -0,0 +1,88 @@
+package umm3601;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * A Jetty thread pool that runs every task on a virtual thread of its own,
+ * for `ExecutionMode.VIRTUAL`.
+ * <p>
+ * Virtual threads are cheap enough that there's no pool to size: a
+ * request blocked writing to a slow client parks its virtual thread, and
+ * the platform thread under it goes on to run others. The server is built
+ * for Java 11, which has no virtual threads, so the executor is looked up
+ * by reflection when the pool starts; `isAvailable` says whether the JDK
+ * running the server has them (21 or later).
+ */
+public final class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+  private static final int FIRST_JDK_WITH_VIRTUAL_THREADS = 21;
+
+  private final AtomicInteger running = new AtomicInteger();
+  private volatile ExecutorService executor;
+
+  /**
+   * @return true if the JDK running the server has virtual threads
+   */
+  public static boolean isAvailable() {
+    return Runtime.version().feature() >= FIRST_JDK_WITH_VIRTUAL_THREADS;
+  }
+
+  @Override
+  protected void doStart() throws Exception {
+    executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    super.doStart();
+  }
+
+  @Override
+  protected void doStop() throws Exception {
+    super.doStop();
+    executor.shutdownNow();
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    executor.execute(() -> {
+      running.incrementAndGet();
+      try {
+        task.run();
+      } finally {
+        running.decrementAndGet();
+      }
+    });
+  }
+
+  @Override
+  public void join() throws InterruptedException {
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return how many tasks are running (each on its own virtual thread)
+   */
+  @Override
+  public int getThreads() {
+    return running.get();
+  }
+
+  /**
+   * @return 0, since a virtual thread never waits around for a task
+   */
+  @Override
+  public int getIdleThreads() {
+    return 0;
+  }
+
+  /**
+   * @return false, since there's always another virtual thread
+   */
+  @Override
+  public boolean isLowOnThreads() {
+    return false;
+  }
+}
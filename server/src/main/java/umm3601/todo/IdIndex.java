@@ -0,0 +1,110 @@
+package umm3601.todo;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+import umm3601.ChunkedArray;
+
+/**
+ * The position of each todo by `_id`: an open-addressing hash table of
+ * positions, which looks an `_id` up by its `String.hashCode` and checks it
+ * against the `_id` column.
+ * <p>
+ * Unlike a `HashMap`, the table is just an int array, so `TodoSnapshot`
+ * can save it and load it back without hashing a single `_id` (the hash of
+ * a string is the same in every JVM).
+ */
+final class IdIndex {
+
+  private static final int NO_TODO = -1;
+
+  private final ChunkedArray<String> ids;
+  // The position of a todo, or NO_TODO, in each slot; a todo's `_id`
+  // starts looking at the slot of its hash, and goes on through the
+  // following slots (wrapping around) until it finds the todo or NO_TODO.
+  // At most half the slots are in use, so every search ends quickly.
+  private final int[] table;
+  private final int size;
+
+  /**
+   * Rebuild an index from its table, as saved by `TodoSnapshot`.
+   *
+   * @param ids   the `_id` of each position
+   * @param table the table (see `table`)
+   */
+  IdIndex(ChunkedArray<String> ids, int[] table) {
+    this.ids = ids;
+    this.table = table;
+    int count = 0;
+    for (int position : table) {
+      if (position != NO_TODO) {
+        ++count;
+      }
+    }
+    size = count;
+  }
+
+  /**
+   * Build an index of some of the positions of an `_id` column (leaving out
+   * any without an `_id`). If two of those positions have the same `_id`,
+   * the first one is kept, which is what a linear scan would have found.
+   *
+   * @param ids      the `_id` of each position
+   * @param included whether to index each position
+   * @return the index
+   */
+  static IdIndex of(ChunkedArray<String> ids, IntPredicate included) {
+    int capacity = Integer.highestOneBit(Math.max(1, ids.size())) * 4;
+    int[] table = new int[capacity];
+    Arrays.fill(table, NO_TODO);
+    for (int position = 0; position < ids.size(); ++position) {
+      if (ids.get(position) == null || !included.test(position)) {
+        continue;
+      }
+      int slot = find(ids, table, ids.get(position));
+      if (table[slot] == NO_TODO) {
+        table[slot] = position;
+      }
+    }
+    return new IdIndex(ids, table);
+  }
+
+  /**
+   * @return the slot holding the todo with the given `_id`, or the empty
+   *         slot where it would go
+   */
+  private static int find(ChunkedArray<String> ids, int[] table, String id) {
+    int mask = table.length - 1;
+    // Spread the hash's high bits into the low ones, as HashMap does.
+    int hash = id.hashCode();
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while (table[slot] != NO_TODO && !id.equals(ids.get(table[slot]))) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * @param id the `_id` of a todo
+   * @return the position of that todo, or null if it isn't in the index
+   */
+  Integer get(String id) {
+    int position = table[find(ids, table, id)];
+    return position == NO_TODO ? null : position;
+  }
+
+  /**
+   * @return the number of todos in the index
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the table of positions, for `TodoSnapshot` to save; it must not
+   *         be modified
+   */
+  int[] table() {
+    return table;
+  }
+}
@@ -0,0 +1,246 @@
+package umm3601.todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * The ascending positions of the todos listed under one key of an index
+ * (see `PostingLists`), kept in blocks of at most a couple of thousand
+ * positions.
+ * <p>
+ * A posting list never changes once it's built. Changing a few of its
+ * positions (see `withChanges`) rebuilds just the blocks they fall in and
+ * shares the rest, so even the list of a trigram that's in most of the
+ * bodies costs little more to change than a short one.
+ */
+final class PostingList {
+
+  /**
+   * The list with no positions.
+   */
+  static final PostingList EMPTY = new PostingList(new int[0][], 0);
+
+  // A block that grows past MAX_BLOCK positions is split into blocks of
+  // HALF_BLOCK, which leaves room for it to grow again before it's split.
+  private static final int MAX_BLOCK = 2048;
+  private static final int HALF_BLOCK = MAX_BLOCK / 2;
+
+  // No block is empty, and every position in a block is less than every
+  // position in the next one.
+  private final int[][] blocks;
+  private final int size;
+
+  private PostingList(int[][] blocks, int size) {
+    this.blocks = blocks;
+    this.size = size;
+  }
+
+  /**
+   * @param positions the ascending positions to list; a short array may be
+   *                  kept as it is, so it mustn't be changed afterwards
+   * @return a list of those positions
+   */
+  static PostingList of(int[] positions) {
+    List<int[]> blocks = new ArrayList<>();
+    addBlocks(blocks, positions, positions.length);
+    return new PostingList(blocks.toArray(new int[0][]), positions.length);
+  }
+
+  /**
+   * Wrap the (freshly computed) positions of a query's candidates in a list
+   * of a single block, however long. Such a list is only read, never
+   * changed.
+   *
+   * @param positions the ascending positions
+   * @param count     how many of them there are
+   * @return a list of those positions
+   */
+  private static PostingList wrap(int[] positions, int count) {
+    if (count == 0) {
+      return EMPTY;
+    }
+    int[] block = count == positions.length ? positions : Arrays.copyOf(positions, count);
+    return new PostingList(new int[][] {block}, count);
+  }
+
+  /**
+   * Add the first `count` positions to a list of blocks, split into blocks
+   * of at most `HALF_BLOCK` positions if there are more than `MAX_BLOCK`.
+   */
+  private static void addBlocks(List<int[]> blocks, int[] positions, int count) {
+    if (count <= MAX_BLOCK) {
+      if (count > 0) {
+        blocks.add(count == positions.length ? positions : Arrays.copyOf(positions, count));
+      }
+      return;
+    }
+    for (int from = 0; from < count; from += HALF_BLOCK) {
+      blocks.add(Arrays.copyOfRange(positions, from, Math.min(count, from + HALF_BLOCK)));
+    }
+  }
+
+  /**
+   * @return the number of positions in the list
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return all the positions in the list, in order
+   */
+  int[] toArray() {
+    int[] positions = new int[size];
+    int count = 0;
+    for (int[] block : blocks) {
+      System.arraycopy(block, 0, positions, count, block.length);
+      count += block.length;
+    }
+    return positions;
+  }
+
+  /**
+   * Pass the positions in the list, in order, starting from the first one
+   * that's at least `start`, to the given action, until it returns false.
+   *
+   * @param start  the least position to pass on
+   * @param action what to do with each position; returns false when no more
+   *               positions are wanted
+   */
+  void forEachFrom(int start, IntPredicate action) {
+    // Find the first block whose last position is at least `start`.
+    int low = 0;
+    int high = blocks.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      int[] block = blocks[middle];
+      if (block[block.length - 1] < start) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    for (int b = low; b < blocks.length; ++b) {
+      int[] block = blocks[b];
+      int from = 0;
+      if (b == low) {
+        from = Arrays.binarySearch(block, start);
+        from = from >= 0 ? from : -from - 1;
+      }
+      for (int i = from; i < block.length; ++i) {
+        if (!action.test(block[i])) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Intersect this list with another.
+   *
+   * @param other another list
+   * @return a list of the positions that are in both
+   */
+  PostingList intersect(PostingList other) {
+    int[] result = new int[Math.min(size, other.size)];
+    int count = 0;
+    int b = 0;
+    int i = 0;
+    int otherB = 0;
+    int otherI = 0;
+    while (b < blocks.length && otherB < other.blocks.length) {
+      int position = blocks[b][i];
+      int otherPosition = other.blocks[otherB][otherI];
+      if (position <= otherPosition) {
+        if (position == otherPosition) {
+          result[count++] = position;
+        }
+        if (++i == blocks[b].length) {
+          ++b;
+          i = 0;
+        }
+      }
+      if (otherPosition <= position) {
+        if (++otherI == other.blocks[otherB].length) {
+          ++otherB;
+          otherI = 0;
+        }
+      }
+    }
+    return wrap(result, count);
+  }
+
+  /**
+   * Get a copy of this list with some positions removed and others added.
+   * This list is left as it is, and shares with the copy every block that
+   * none of those positions fall in.
+   *
+   * @param removed the ascending positions to remove, all of them in this
+   *                list
+   * @param added   the ascending positions to add, none of them in this list
+   *                once the removed ones are gone
+   * @return the changed copy
+   */
+  PostingList withChanges(int[] removed, int[] added) {
+    if (removed.length == 0 && added.length == 0) {
+      return this;
+    }
+    List<int[]> result = new ArrayList<>(blocks.length + 1);
+    int r = 0;
+    int a = 0;
+    for (int b = 0; b < blocks.length; ++b) {
+      // This block takes the positions up to the start of the next one
+      // (and the first block, any before its own start).
+      int end = b + 1 < blocks.length ? blocks[b + 1][0] : Integer.MAX_VALUE;
+      int removedEnd = r;
+      while (removedEnd < removed.length && removed[removedEnd] < end) {
+        ++removedEnd;
+      }
+      int addedEnd = a;
+      while (addedEnd < added.length && added[addedEnd] < end) {
+        ++addedEnd;
+      }
+      if (removedEnd == r && addedEnd == a) {
+        result.add(blocks[b]);
+        continue;
+      }
+      int[] merged = new int[blocks[b].length + (addedEnd - a)];
+      int count = 0;
+      for (int position : blocks[b]) {
+        while (r < removedEnd && removed[r] < position) {
+          ++r;
+        }
+        if (r < removedEnd && removed[r] == position) {
+          ++r;
+          continue;
+        }
+        while (a < addedEnd && added[a] < position) {
+          merged[count++] = added[a++];
+        }
+        merged[count++] = position;
+      }
+      while (a < addedEnd) {
+        merged[count++] = added[a++];
+      }
+      r = removedEnd;
+      addBlocks(result, merged, count);
+    }
+    if (blocks.length == 0) {
+      addBlocks(result, added, added.length);
+    }
+    int newSize = 0;
+    for (int[] block : result) {
+      newSize += block.length;
+    }
+    return newSize == 0 ? EMPTY : new PostingList(result.toArray(new int[0][]), newSize);
+  }
+
+  /**
+   * @return roughly how many bytes the positions take up
+   */
+  long bytes() {
+    return (long) Integer.BYTES * size;
+  }
+}
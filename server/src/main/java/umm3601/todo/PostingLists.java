@@ -0,0 +1,123 @@
+package umm3601.todo;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of posting lists: for each key, the ascending positions of the
+ * todos listed under it (see `PostingList`).
+ * <p>
+ * An index never changes once it's built. Changing it for a batch of
+ * changed todos (see `withChanges`) only touches the lists of the keys that
+ * a changed todo was or is now listed under. Those lists go in a (much
+ * smaller) map of changed keys that's checked before the shared map of all
+ * the others, so a change doesn't have to copy every key either, just as
+ * `TodoDatabase` does with its `_id` index; once enough keys have changed,
+ * they're folded into a new shared map.
+ *
+ * @param <K> the type of the keys
+ */
+final class PostingLists<K> {
+
+  // Once more than this many keys (and at least 1/CHANGED_KEYS_RATIO of all
+  // of them) have changed, they're folded into a new `lists`.
+  private static final int MIN_CHANGED_KEYS = 1024;
+  private static final int CHANGED_KEYS_RATIO = 8;
+
+  private final Map<K, PostingList> lists;
+  // The lists of the keys that have changed since `lists` was built, with
+  // `PostingList.EMPTY` for a key whose list is now empty.
+  private final Map<K, PostingList> changedKeys;
+  private final int keyCount;
+
+  private PostingLists(Map<K, PostingList> lists, Map<K, PostingList> changedKeys, int keyCount) {
+    this.lists = lists;
+    this.changedKeys = changedKeys;
+    this.keyCount = keyCount;
+  }
+
+  /**
+   * @param <K>   the type of the keys
+   * @param lists a map from each key to the ascending positions listed under
+   *              it (see `PostingList.of`)
+   * @return an index of those lists
+   */
+  static <K> PostingLists<K> of(Map<K, int[]> lists) {
+    // Twice the size keeps us under HashMap's default load factor.
+    Map<K, PostingList> index = new HashMap<>(lists.size() * 2);
+    for (Map.Entry<K, int[]> entry : lists.entrySet()) {
+      index.put(entry.getKey(), PostingList.of(entry.getValue()));
+    }
+    return new PostingLists<>(index, Map.of(), index.size());
+  }
+
+  /**
+   * @param key a key
+   * @return the positions listed under that key, or null if there are none
+   */
+  PostingList get(K key) {
+    PostingList list = changedKeys.get(key);
+    if (list == null) {
+      return lists.get(key);
+    }
+    return list == PostingList.EMPTY ? null : list;
+  }
+
+  /**
+   * @return the number of keys with at least one position listed under them
+   */
+  int size() {
+    return keyCount;
+  }
+
+  /**
+   * @return a map from each key with at least one position listed under it
+   *         to its list
+   */
+  Map<K, PostingList> asMap() {
+    Map<K, PostingList> map = new HashMap<>(lists);
+    for (Map.Entry<K, PostingList> entry : changedKeys.entrySet()) {
+      if (entry.getValue() == PostingList.EMPTY) {
+        map.remove(entry.getKey());
+      } else {
+        map.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Get a copy of this index with the positions of a batch of changed todos
+   * moved. This index is left as it is, and shares with the copy every list
+   * that none of the changed todos were or are now listed under.
+   *
+   * @param removed for each key, the positions of the updated and deleted
+   *                todos that were listed under it
+   * @param added   for each key, the ascending positions of the updated and
+   *                added todos to list under it now
+   * @return the changed copy
+   */
+  PostingLists<K> withChanges(Map<K, List<Integer>> removed, Map<K, List<Integer>> added) {
+    Map<K, PostingList> changed = new HashMap<>(changedKeys);
+    int count = keyCount;
+    Set<K> keys = new HashSet<>(removed.keySet());
+    keys.addAll(added.keySet());
+    for (K key : keys) {
+      PostingList before = get(key);
+      int[] removedPositions = removed.getOrDefault(key, List.of()).stream().mapToInt(Integer::intValue).sorted()
+          .toArray();
+      int[] addedPositions = added.getOrDefault(key, List.of()).stream().mapToInt(Integer::intValue).toArray();
+      PostingList after = (before == null ? PostingList.EMPTY : before).withChanges(removedPositions, addedPositions);
+      count += (after.size() > 0 ? 1 : 0) - (before != null ? 1 : 0);
+      changed.put(key, after);
+    }
+
+    if (changed.size() > Math.max(MIN_CHANGED_KEYS, lists.size() / CHANGED_KEYS_RATIO)) {
+      return new PostingLists<>(new PostingLists<>(lists, changed, count).asMap(), Map.of(), count);
+    }
+    return new PostingLists<>(lists, changed, count);
+  }
+}
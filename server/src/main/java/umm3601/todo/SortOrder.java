@@ -0,0 +1,367 @@
+package umm3601.todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+import umm3601.ChunkedIntArray;
+
+/**
+ * The positions of the todos, sorted by one `orderBy` key, along with the
+ * inverse: where each position falls in that order (its rank).
+ * <p>
+ * The order is kept in blocks of at most `MAX_BLOCK` positions, and each
+ * position's slot records which block it's in (by the block's id, which
+ * doesn't change as blocks come and go around it) and where in that block.
+ * A rank is the block's index in the order and the offset in it, packed
+ * into an int. Ranks aren't consecutive, but they do increase along the
+ * order, which is all a query needs of them.
+ * <p>
+ * A sort order never changes once it's built. Moving a few todos (see
+ * `withChanges`) rebuilds just the blocks they leave and join, and the
+ * slots of the positions in those blocks, and shares the rest; the only
+ * thing copied whole is the (small) table of blocks.
+ */
+final class SortOrder {
+
+  // A rank or a slot is a block (its index or its id) shifted left by
+  // BLOCK_BITS, plus an offset in that block.
+  private static final int BLOCK_BITS = 11;
+  private static final int MAX_BLOCK = 1 << BLOCK_BITS;
+  private static final int OFFSET_MASK = MAX_BLOCK - 1;
+  // A block that grows past MAX_BLOCK positions is split in half, and an
+  // order is built in blocks of HALF_BLOCK, which leaves every block room
+  // to grow before it's split.
+  private static final int HALF_BLOCK = MAX_BLOCK / 2;
+  private static final int NOT_SORTED = -1;
+
+  // No block is empty.
+  private final int[][] blocks;
+  private final int[] blockIds;
+  // The index in `blocks` of each block id, or -1 for an id not in use.
+  private final int[] blockIndexById;
+  // For each position, its block's id and its offset in that block, or -1
+  // for a position that isn't in the order (a deleted todo).
+  private final ChunkedIntArray slots;
+  private final int size;
+
+  private SortOrder(int[][] blocks, int[] blockIds, int[] blockIndexById, ChunkedIntArray slots, int size) {
+    this.blocks = blocks;
+    this.blockIds = blockIds;
+    this.blockIndexById = blockIndexById;
+    this.slots = slots;
+    this.size = size;
+  }
+
+  /**
+   * @param sorted        the positions of the todos in sorted order
+   * @param positionCount the number of positions, including those of deleted
+   *                      todos that aren't in the order
+   * @return that sort order
+   */
+  static SortOrder of(int[] sorted, int positionCount) {
+    int[][] blocks = new int[(sorted.length + HALF_BLOCK - 1) / HALF_BLOCK][];
+    int[] blockIds = new int[blocks.length];
+    int[] slots = new int[positionCount];
+    Arrays.fill(slots, NOT_SORTED);
+    for (int b = 0; b < blocks.length; ++b) {
+      blocks[b] = Arrays.copyOfRange(sorted, b * HALF_BLOCK, Math.min(sorted.length, (b + 1) * HALF_BLOCK));
+      blockIds[b] = b;
+      for (int offset = 0; offset < blocks[b].length; ++offset) {
+        slots[blocks[b][offset]] = b << BLOCK_BITS | offset;
+      }
+    }
+    return new SortOrder(blocks, blockIds, blockIds.clone(), ChunkedIntArray.of(slots), sorted.length);
+  }
+
+  /**
+   * Rebuild a sort order from what `toArray` and `slots` give, as saved by
+   * `TodoSnapshot`.
+   *
+   * @param sorted the positions of the todos in sorted order
+   * @param slots  the slot of each position (see `slots`)
+   * @return that sort order
+   */
+  static SortOrder of(int[] sorted, int[] slots) {
+    // Each block is a run of positions with the same block id.
+    List<int[]> blocks = new ArrayList<>();
+    List<Integer> blockIds = new ArrayList<>();
+    int maxId = NOT_SORTED;
+    for (int start = 0; start < sorted.length;) {
+      int id = slots[sorted[start]] >>> BLOCK_BITS;
+      int end = start + 1;
+      while (end < sorted.length && slots[sorted[end]] >>> BLOCK_BITS == id) {
+        ++end;
+      }
+      blocks.add(Arrays.copyOfRange(sorted, start, end));
+      blockIds.add(id);
+      maxId = Math.max(maxId, id);
+      start = end;
+    }
+    int[] indexById = new int[maxId + 1];
+    Arrays.fill(indexById, NOT_SORTED);
+    for (int b = 0; b < blockIds.size(); ++b) {
+      indexById[blockIds.get(b)] = b;
+    }
+    return new SortOrder(blocks.toArray(new int[0][]), blockIds.stream().mapToInt(Integer::intValue).toArray(),
+        indexById, ChunkedIntArray.of(slots), sorted.length);
+  }
+
+  /**
+   * @return the number of todos in the order
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param position the position of a todo
+   * @return the rank of that todo, or -1 if it isn't in the order
+   */
+  int rank(int position) {
+    int slot = slots.get(position);
+    if (slot == NOT_SORTED) {
+      return NOT_SORTED;
+    }
+    return blockIndexById[slot >>> BLOCK_BITS] << BLOCK_BITS | (slot & OFFSET_MASK);
+  }
+
+  /**
+   * @param rank the rank of a todo in the order
+   * @return the position of that todo
+   */
+  int position(int rank) {
+    return blocks[rank >>> BLOCK_BITS][rank & OFFSET_MASK];
+  }
+
+  /**
+   * Find where a place in the order falls now, by a binary search: the rank
+   * of the last todo that comes at or before it. Nothing need be at that
+   * place any more (it may be where a todo was before it was changed or
+   * deleted), so this is where to pick up after it.
+   *
+   * @param compare compares the todo at a position with the place: negative,
+   *                zero or positive as the todo comes before, at, or after it
+   * @return the rank of the last todo at or before the place, or -1 if every
+   *         todo comes after it
+   */
+  int lastRankAtOrBefore(IntUnaryOperator compare) {
+    // Find the first block whose last todo comes after the place...
+    int low = 0;
+    int high = blocks.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      int[] block = blocks[middle];
+      if (compare.applyAsInt(block[block.length - 1]) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    if (low == blocks.length) {
+      return blocks.length == 0 ? NOT_SORTED : (low - 1) << BLOCK_BITS | (blocks[low - 1].length - 1);
+    }
+    // ...and the first todo in it that does.
+    int[] block = blocks[low];
+    int from = 0;
+    int to = block.length;
+    while (from < to) {
+      int middle = (from + to) >>> 1;
+      if (compare.applyAsInt(block[middle]) <= 0) {
+        from = middle + 1;
+      } else {
+        to = middle;
+      }
+    }
+    if (from > 0) {
+      return low << BLOCK_BITS | (from - 1);
+    }
+    return low == 0 ? NOT_SORTED : (low - 1) << BLOCK_BITS | (blocks[low - 1].length - 1);
+  }
+
+  /**
+   * Pass the positions of the todos ranked after the given rank, in order,
+   * to the given action, until it returns false.
+   *
+   * @param afterRank only pass on todos ranked after this; -1 for all of them
+   * @param action    what to do with each position; returns false when no
+   *                  more positions are wanted
+   */
+  void forEachAfter(int afterRank, IntPredicate action) {
+    int from = 0;
+    int offset = 0;
+    if (afterRank >= 0) {
+      from = afterRank >>> BLOCK_BITS;
+      offset = (afterRank & OFFSET_MASK) + 1;
+    }
+    for (int b = from; b < blocks.length; ++b) {
+      int[] block = blocks[b];
+      for (int i = b == from ? offset : 0; i < block.length; ++i) {
+        if (!action.test(block[i])) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the positions of the todos in sorted order
+   */
+  int[] toArray() {
+    int[] sorted = new int[size];
+    int count = 0;
+    for (int[] block : blocks) {
+      System.arraycopy(block, 0, sorted, count, block.length);
+      count += block.length;
+    }
+    return sorted;
+  }
+
+  /**
+   * @return the slot of each position: its block's id shifted left by
+   *         `BLOCK_BITS` plus its offset in that block, or -1 for a position
+   *         that isn't in the order
+   */
+  int[] slots() {
+    return slots.toArray();
+  }
+
+  /**
+   * @return roughly how many bytes the order and its ranks take up
+   */
+  long bytes() {
+    return (long) Integer.BYTES * (size + slots.size() + blockIds.length + blockIndexById.length);
+  }
+
+  /**
+   * Get a copy of this order with a batch of changed todos moved: the
+   * removed positions are dropped, and the inserted ones go where they now
+   * belong (each by a binary search, so only the changed todos are ever
+   * compared). This order is left as it is, and shares with the copy every
+   * block none of those todos leave or join.
+   *
+   * @param removed       the positions of the updated and deleted todos
+   * @param inserted      the positions of the updated and added todos
+   * @param positionCount the number of positions after the changes,
+   *                      including deleted todos
+   * @param compare       compares the todos at two positions after the
+   *                      changes
+   * @return the changed copy
+   */
+  SortOrder withChanges(List<Integer> removed, int[] inserted, int positionCount, IntBinaryOperator compare) {
+    List<int[]> newBlocks = new ArrayList<>(Arrays.asList(blocks));
+    List<Integer> newIds = new ArrayList<>(blockIds.length + 1);
+    for (int id : blockIds) {
+      newIds.add(id);
+    }
+    ChunkedIntArray.Editor newSlots = slots.edit();
+    // The ids of the blocks whose positions' slots need rewriting.
+    Set<Integer> touched = new HashSet<>();
+    int newSize = size;
+
+    // Drop the removed positions from their blocks, and then drop the
+    // blocks that are left empty.
+    Set<Integer> removedPositions = new HashSet<>();
+    for (int position : removed) {
+      int slot = slots.get(position);
+      if (slot != NOT_SORTED && removedPositions.add(position)) {
+        touched.add(slot >>> BLOCK_BITS);
+        newSlots.set(position, NOT_SORTED);
+        --newSize;
+      }
+    }
+    for (int id : touched) {
+      int b = blockIndexById[id];
+      newBlocks.set(b, Arrays.stream(blocks[b]).filter(position -> !removedPositions.contains(position)).toArray());
+    }
+    for (int b = newBlocks.size() - 1; b >= 0; --b) {
+      if (newBlocks.get(b).length == 0) {
+        touched.remove(newIds.get(b));
+        newBlocks.remove(b);
+        newIds.remove(b);
+      }
+    }
+    BitSet usedIds = new BitSet();
+    newIds.forEach(usedIds::set);
+
+    int[] sorted = Arrays.stream(inserted)
+        .boxed()
+        .sorted(compare::applyAsInt)
+        .mapToInt(Integer::intValue)
+        .toArray();
+    for (int position : sorted) {
+      if (newBlocks.isEmpty()) {
+        newBlocks.add(new int[0]);
+        newIds.add(usedIds.nextClearBit(0));
+        usedIds.set(newIds.get(0));
+      }
+      // Find the first block whose last todo isn't before this one (or the
+      // last block, if they all are)...
+      int low = 0;
+      int high = newBlocks.size() - 1;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        int[] block = newBlocks.get(middle);
+        if (compare.applyAsInt(block[block.length - 1], position) < 0) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      // ...and the first todo in it that isn't before this one.
+      int[] block = newBlocks.get(low);
+      int from = 0;
+      int to = block.length;
+      while (from < to) {
+        int middle = (from + to) >>> 1;
+        if (compare.applyAsInt(block[middle], position) < 0) {
+          from = middle + 1;
+        } else {
+          to = middle;
+        }
+      }
+      int[] grown = new int[block.length + 1];
+      System.arraycopy(block, 0, grown, 0, from);
+      grown[from] = position;
+      System.arraycopy(block, from, grown, from + 1, block.length - from);
+      touched.add(newIds.get(low));
+      ++newSize;
+
+      if (grown.length <= MAX_BLOCK) {
+        newBlocks.set(low, grown);
+      } else {
+        // The left half keeps the block's id, and the right half gets a
+        // new one.
+        int id = usedIds.nextClearBit(0);
+        usedIds.set(id);
+        newBlocks.set(low, Arrays.copyOf(grown, HALF_BLOCK));
+        newBlocks.add(low + 1, Arrays.copyOfRange(grown, HALF_BLOCK, grown.length));
+        newIds.add(low + 1, id);
+        touched.add(id);
+      }
+    }
+
+    int[] ids = newIds.stream().mapToInt(Integer::intValue).toArray();
+    int[] indexById = new int[usedIds.length()];
+    Arrays.fill(indexById, NOT_SORTED);
+    for (int b = 0; b < ids.length; ++b) {
+      indexById[ids[b]] = b;
+    }
+    if (newSlots.size() < positionCount) {
+      newSlots.set(positionCount - 1, NOT_SORTED);
+    }
+    for (int id : touched) {
+      int[] block = newBlocks.get(indexById[id]);
+      for (int offset = 0; offset < block.length; ++offset) {
+        newSlots.set(block[offset], id << BLOCK_BITS | offset);
+      }
+    }
+    return new SortOrder(newBlocks.toArray(new int[0][]), ids, indexById, newSlots.build(), newSize);
+  }
+}
@@ -1,5 +1,7 @@
 package umm3601.todo;
 
+import java.util.Objects;
+
 // There are two examples of suppressing CheckStyle
 // warnings in this class. If you create new classes
 // that mirror data in the database and that will be managed
@@ -27,4 +29,24 @@ public class Todo {
   public boolean status;
   public String body;
   public String category;
+
+  // A "todoDatabase" builds a new Todo from its columns every time one is
+  // asked for, so two Todos are equal if their fields are.
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof Todo)) {
+      return false;
+    }
+    Todo other = (Todo) obj;
+    return Objects.equals(_id, other._id)
+        && Objects.equals(owner, other.owner)
+        && status == other.status
+        && Objects.equals(body, other.body)
+        && Objects.equals(category, other.category);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(_id, owner, status, body, category);
+  }
 }
@@ -0,0 +1,295 @@
+package umm3601.todo;
+
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.ChunkedArray;
+import umm3601.ChunkedBitSet;
+import umm3601.DictionaryColumn;
+import umm3601.TextColumn;
+import umm3601.TextStorage;
+
+/**
+ * The todos of a `TodoDatabase`, stored a column per field instead of an
+ * object per todo.
+ * <p>
+ * There are only a handful of distinct owners and categories, so those
+ * columns are dictionary-encoded (see `DictionaryColumn`): each todo holds an
+ * int code rather than a reference to its own string. The statuses are
+ * packed one bit per todo. The `_id`s are kept as a string per todo, and the
+ * bodies, which are most of the data, as a `TextColumn` (on or off the heap,
+ * depending on the `TextStorage`). `Todo` objects are only built when a
+ * caller asks for one.
+ * <p>
+ * Every column is chunked (see `ChunkedIntArray`), so changing a few todos
+ * (see `withTodos`) copies only the chunks holding them.
+ */
+final class TodoColumns {
+
+  private static final Comparator<String> NULLS_FIRST = Comparator.nullsFirst(Comparator.naturalOrder());
+
+  private final ChunkedArray<String> ids;
+  private final DictionaryColumn owners;
+  private final ChunkedBitSet statuses;
+  private final TextColumn bodies;
+  private final DictionaryColumn categories;
+
+  /**
+   * @param ids        the `_id` of each todo
+   * @param owners     the owner of each todo
+   * @param statuses   a bit for each todo, set if it's complete
+   * @param bodies     the body of each todo
+   * @param categories the category of each todo
+   */
+  TodoColumns(String[] ids, DictionaryColumn owners, BitSet statuses, TextColumn bodies, DictionaryColumn categories) {
+    this(ChunkedArray.of(ids), owners, ChunkedBitSet.of(statuses), bodies, categories);
+  }
+
+  private TodoColumns(ChunkedArray<String> ids, DictionaryColumn owners, ChunkedBitSet statuses, TextColumn bodies,
+      DictionaryColumn categories) {
+    this.ids = ids;
+    this.owners = owners;
+    this.statuses = statuses;
+    this.bodies = bodies;
+    this.categories = categories;
+  }
+
+  /**
+   * Split todos up into columns.
+   *
+   * @param todos   the todos to store
+   * @param storage where to keep the bodies
+   * @return the todos' columns
+   */
+  static TodoColumns of(Todo[] todos, TextStorage storage) {
+    String[] ids = new String[todos.length];
+    String[] owners = new String[todos.length];
+    BitSet statuses = new BitSet(todos.length);
+    String[] bodies = new String[todos.length];
+    String[] categories = new String[todos.length];
+    for (int i = 0; i < todos.length; ++i) {
+      ids[i] = todos[i]._id;
+      owners[i] = todos[i].owner;
+      statuses.set(i, todos[i].status);
+      bodies[i] = todos[i].body;
+      categories[i] = todos[i].category;
+    }
+    return new TodoColumns(ids, DictionaryColumn.encode(owners), statuses, TextColumn.of(bodies, storage),
+        DictionaryColumn.encode(categories));
+  }
+
+  /**
+   * Get a copy of these columns with some todos replaced, or added at the
+   * end. These columns are left as they are, so anyone still reading them
+   * isn't disturbed.
+   *
+   * @param size      the number of todos (including any that have been
+   *                  deleted) in the copy
+   * @param positions the positions of the todos to set, which may be past the
+   *                  end of these columns
+   * @param todos     the new todo at each of those positions
+   * @return the changed copy
+   */
+  TodoColumns withTodos(int size, int[] positions, Todo[] todos) {
+    ChunkedArray.Editor<String> newIds = ids.edit();
+    ChunkedBitSet.Editor newStatuses = statuses.edit();
+    String[] newOwners = new String[todos.length];
+    String[] newBodies = new String[todos.length];
+    String[] newCategories = new String[todos.length];
+    for (int i = 0; i < todos.length; ++i) {
+      newIds.set(positions[i], todos[i]._id);
+      newStatuses.set(positions[i], todos[i].status);
+      newOwners[i] = todos[i].owner;
+      newBodies[i] = todos[i].body;
+      newCategories[i] = todos[i].category;
+    }
+    return new TodoColumns(newIds.build(), owners.withValues(size, positions, newOwners), newStatuses.build(),
+        bodies.withValues(size, positions, newBodies), categories.withValues(size, positions, newCategories));
+  }
+
+  int size() {
+    return ids.size();
+  }
+
+  String id(int position) {
+    return ids.get(position);
+  }
+
+  String body(int position) {
+    return bodies.get(position);
+  }
+
+  TextStorage storage() {
+    return bodies.storage();
+  }
+
+  // The whole columns, for `TodoSnapshot` and the filters; none of them
+  // may be modified.
+  ChunkedArray<String> ids() {
+    return ids;
+  }
+
+  DictionaryColumn owners() {
+    return owners;
+  }
+
+  ChunkedBitSet statuses() {
+    return statuses;
+  }
+
+  TextColumn bodies() {
+    return bodies;
+  }
+
+  DictionaryColumn categories() {
+    return categories;
+  }
+
+  /**
+   * Build the `Todo` at a position.
+   *
+   * @param position the position of the todo
+   * @return a new `Todo` holding that todo's fields
+   */
+  Todo toTodo(int position) {
+    Todo todo = new Todo();
+    todo._id = ids.get(position);
+    todo.owner = owners.get(position);
+    todo.status = statuses.get(position);
+    todo.body = bodies.get(position);
+    todo.category = categories.get(position);
+    return todo;
+  }
+
+  /**
+   * Get every field of the todo at a position as a string, in a fixed
+   * order, for `ETags.contentHashOfFields`.
+   *
+   * @param position the position of the todo
+   * @return that todo's fields
+   */
+  String[] fields(int position) {
+    return new String[] {ids.get(position), owners.get(position), Boolean.toString(statuses.get(position)),
+        bodies.get(position), categories.get(position)};
+  }
+
+  /**
+   * Compare the todos at two positions by the given attribute, the way
+   * `sortedPositions` orders them: nulls first, and todos that are otherwise
+   * equal by their positions.
+   *
+   * @param key the attribute to compare by
+   * @param x   the position of one todo
+   * @param y   the position of another todo
+   * @return a negative number, zero or a positive number as the todo at `x`
+   *         comes before, at the same place as, or after the todo at `y`
+   * @throws BadRequestResponse if todos can't be sorted by that attribute
+   */
+  int compare(String key, int x, int y) {
+    int result;
+    switch (key) {
+      case TodoQuery.OWNER:
+        result = NULLS_FIRST.compare(owners.get(x), owners.get(y));
+        break;
+      case TodoQuery.CATEGORY:
+        result = NULLS_FIRST.compare(categories.get(x), categories.get(y));
+        break;
+      case TodoQuery.STATUS:
+        result = Boolean.compare(statuses.get(x), statuses.get(y));
+        break;
+      case TodoQuery.BODY:
+        result = NULLS_FIRST.compare(bodies.get(x), bodies.get(y));
+        break;
+      default:
+        throw new BadRequestResponse("Specified order '" + key + "' is not an applicable todo attribute");
+    }
+    return result != 0 ? result : Integer.compare(x, y);
+  }
+
+  /**
+   * Get the value of the todo at a position that it's sorted by, as a
+   * string for a `Cursor` to hold.
+   *
+   * @param key      the attribute to sort by
+   * @param position the position of a todo
+   * @return the value of that attribute, or null if the todo has none
+   * @throws BadRequestResponse if todos can't be sorted by that attribute
+   */
+  String sortKey(String key, int position) {
+    switch (key) {
+      case TodoQuery.OWNER:
+        return owners.get(position);
+      case TodoQuery.CATEGORY:
+        return categories.get(position);
+      case TodoQuery.STATUS:
+        return String.valueOf(statuses.get(position));
+      case TodoQuery.BODY:
+        return bodies.get(position);
+      default:
+        throw new BadRequestResponse("Specified order '" + key + "' is not an applicable todo attribute");
+    }
+  }
+
+  /**
+   * Compare the todo at a position with a place in the order by the given
+   * attribute, the way `compare` does: a sort key (see `sortKey`), and a
+   * position to break ties with. Nothing need be at that place any more.
+   *
+   * @param key         the attribute to compare by
+   * @param position    the position of a todo
+   * @param sortKey     the sort key of the place
+   * @param tiePosition the position of the place
+   * @return a negative number, zero or a positive number as the todo comes
+   *         before, at, or after the place
+   * @throws BadRequestResponse if todos can't be sorted by that attribute
+   */
+  int compareTo(String key, int position, String sortKey, int tiePosition) {
+    int result;
+    if (TodoQuery.STATUS.equals(key)) {
+      result = Boolean.compare(statuses.get(position), Boolean.parseBoolean(sortKey));
+    } else {
+      result = NULLS_FIRST.compare(sortKey(key, position), sortKey);
+    }
+    return result != 0 ? result : Integer.compare(position, tiePosition);
+  }
+
+  /**
+   * Get the positions of all the todos sorted by the given attribute. The
+   * sort is stable, so todos that compare equal stay in their original
+   * order, just as they do with `TodoQuery.comparatorFor`.
+   *
+   * @param key the attribute to sort by
+   * @return the positions of all the todos in that order
+   * @throws BadRequestResponse if todos can't be sorted by that attribute
+   */
+  int[] sortedPositions(String key) {
+    switch (key) {
+      case TodoQuery.OWNER:
+        return owners.sortedPositions();
+      case TodoQuery.CATEGORY:
+        return categories.sortedPositions();
+      case TodoQuery.STATUS:
+        // Incomplete (false) todos first, then complete ones.
+        return IntStream.concat(
+            IntStream.range(0, size()).filter(i -> !statuses.get(i)),
+            IntStream.range(0, size()).filter(statuses::get))
+            .toArray();
+      case TodoQuery.BODY:
+        // Decode every body once, rather than twice per comparison. Like
+        // `compare`, this puts the todos without a body first.
+        String[] values = new String[size()];
+        for (int i = 0; i < values.length; ++i) {
+          values[i] = bodies.get(i);
+        }
+        return IntStream.range(0, values.length)
+            .boxed()
+            .sorted((x, y) -> NULLS_FIRST.compare(values[x], values[y]))
+            .mapToInt(Integer::intValue)
+            .toArray();
+      default:
+        throw new BadRequestResponse("Specified order '" + key + "' is not an applicable todo attribute");
+    }
+  }
+}
@@ -1,15 +1,40 @@
 package umm3601.todo;
 
+import java.io.IOException;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpCode;
 import io.javalin.http.NotFoundResponse;
+import umm3601.Compression;
+import umm3601.ETags;
+import umm3601.Page;
+import umm3601.QueryProfile;
+import umm3601.QueryProfiler;
+import umm3601.Reloadable;
+import umm3601.StreamingJson;
 
 /**
  * Controller that manages requests for info about todos.
  */
 public class TodoController {
 
-  private TodoDatabase todoDatabase;
+  /**
+   * By default, lists are streamed to the client (instead of being built in
+   * memory first, and cached) once they could hold at least this many todos.
+   */
+  public static final int DEFAULT_STREAMING_THRESHOLD = 10_000;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private Reloadable<TodoDatabase> todoDatabases;
+  private TodoWriter todoWriter;
+  private int streamingThreshold;
+  private QueryProfiler queryProfiler;
 
   /**
    * Construct a controller for todos.
@@ -21,19 +46,89 @@ public class TodoController {
    * @param todoDatabase the `TodoDatabase` containing todo data
    */
   public TodoController(TodoDatabase todoDatabase) {
-    this.todoDatabase = todoDatabase;
+    this(todoDatabase, DEFAULT_STREAMING_THRESHOLD);
+  }
+
+  /**
+   * Construct a controller for todos that streams lists once they could
+   * hold at least `streamingThreshold` todos.
+   *
+   * @param todoDatabase       the `TodoDatabase` containing todo data
+   * @param streamingThreshold how many todos a list must be able to hold
+   *                           before it's streamed
+   */
+  public TodoController(TodoDatabase todoDatabase, int streamingThreshold) {
+    this(new Reloadable<>("todos", todoDatabase, () -> todoDatabase), streamingThreshold);
+  }
+
+  /**
+   * Construct a controller for todos that answers each request from
+   * whichever "todoDatabase" is current at the time, so the todos can be
+   * changed, or reloaded, while they're being served (see `Reloadable`).
+   *
+   * @param todoDatabases      the current `TodoDatabase`
+   * @param streamingThreshold how many todos a list must be able to hold
+   *                           before it's streamed
+   */
+  public TodoController(Reloadable<TodoDatabase> todoDatabases, int streamingThreshold) {
+    this(todoDatabases, new TodoWriter(todoDatabases), streamingThreshold);
+  }
+
+  /**
+   * Construct a controller for todos that makes its changes with the given
+   * writer (for instance, one that journals them; see `TodoJournal`).
+   *
+   * @param todoDatabases      the current `TodoDatabase`
+   * @param todoWriter         changes `todoDatabases`
+   * @param streamingThreshold how many todos a list must be able to hold
+   *                           before it's streamed
+   */
+  public TodoController(Reloadable<TodoDatabase> todoDatabases, TodoWriter todoWriter, int streamingThreshold) {
+    this(todoDatabases, todoWriter, streamingThreshold, new QueryProfiler("todos"));
+  }
+
+  /**
+   * Construct a controller for todos that adds up how long each stage of
+   * the list queries takes in the given profiler (for instance, one that
+   * `MetricsController` reports).
+   *
+   * @param todoDatabases      the current `TodoDatabase`
+   * @param todoWriter         changes `todoDatabases`
+   * @param streamingThreshold how many todos a list must be able to hold
+   *                           before it's streamed
+   * @param queryProfiler      adds up the stage timings of the list queries
+   */
+  public TodoController(Reloadable<TodoDatabase> todoDatabases, TodoWriter todoWriter, int streamingThreshold,
+      QueryProfiler queryProfiler) {
+    this.todoDatabases = todoDatabases;
+    this.todoWriter = todoWriter;
+    this.streamingThreshold = streamingThreshold;
+    this.queryProfiler = queryProfiler;
   }
 
   /**
    * Get the single todo specified by the `id` parameter in the request.
+   * <p>
+   * The todo is serialized the first time it's asked for, and after that
+   * the response is just a copy of those bytes (gzipped, if the client
+   * accepts gzip and the todo is big enough to be worth it, which few are).
+   * The response is tagged, and a client that already has it gets a
+   * `304 Not Modified` instead.
    *
    * @param ctx a Javalin HTTP context
    */
   public void getTodo(Context ctx) {
     String id = ctx.pathParam("id");
-    Todo todo = todoDatabase.getTodo(id);
-    if (todo != null) {
-      ctx.json(todo);
+    // One snapshot answers the whole request, even if a reload swaps in
+    // another one part way through.
+    TodoDatabase todoDatabase = todoDatabases.get();
+    byte[] todoJson = todoDatabase.getTodoJson(id);
+    if (todoJson != null) {
+      boolean gzip = Compression.negotiateGzip(ctx);
+      if (ETags.checkNotModified(ctx, ETags.forResponse(todoDatabase.getContentHash(), id, gzip))) {
+        return;
+      }
+      Compression.sendJson(ctx, todoJson, gzip ? Compression.precompress(todoJson) : null);
       ctx.status(HttpCode.OK);
     } else {
       throw new NotFoundResponse("No todo with id " + id + " was found.");
@@ -42,12 +137,134 @@ public class TodoController {
 
   /**
    * Get a JSON response with a list of all the todos in the "database".
+   * <p>
+   * Lists that could hold a lot of todos (see
+   * `TodoDatabase.maxResultSize`) are streamed to the client as they're
+   * found, so memory use stays bounded however many of them match, unless
+   * the result is already cached. Smaller ones are built once and cached,
+   * along with their gzipped JSON. Paginated
+   * requests (`?after=...&pageSize=...`) get a single page of todos, with the
+   * cursor for the next page in the `X-Next-Cursor` header.
+   * <p>
+   * Every response is tagged with an `ETag` that's computed from the request
+   * alone, so a repeat poll with `If-None-Match` gets a `304 Not Modified`
+   * before any todos are even looked at.
+   * <p>
+   * With `?explain=true`, the response is instead an explanation of how the
+   * query was answered (see `TodoDatabase.explainTodos`). Either way, the
+   * time each stage of the query took is added to the `QueryProfiler`.
    *
    * @param ctx a Javalin HTTP context
+   * @throws IOException if streaming the response fails
    */
-  public void getTodos(Context ctx) {
-    Todo[] todos = todoDatabase.listTodos(ctx.queryParamMap());
-    ctx.json(todos);
+  public void getTodos(Context ctx) throws IOException {
+    TodoQuery query = TodoQuery.fromQueryParams(ctx.queryParamMap());
+    TodoDatabase todoDatabase = todoDatabases.get();
+    if ("true".equals(ctx.queryParam("explain"))) {
+      ctx.json(todoDatabase.explainTodos(query).toMap());
+      return;
+    }
+    boolean gzip = Compression.negotiateGzip(ctx);
+    if (ETags.checkNotModified(ctx, ETags.forResponse(todoDatabase.getContentHash(), query.getCacheKey(), gzip))) {
+      return;
+    }
+    QueryProfile profile = new QueryProfile(false);
+    if (query.getPagination() != null) {
+      Page<Todo> page = todoDatabase.listTodoPage(query, profile);
+      page.addHeaders(ctx);
+      Compression.json(ctx, page.getItems());
+    } else if (todoDatabase.maxResultSize(query) >= streamingThreshold && !todoDatabase.isCached(query, gzip)) {
+      StreamingJson.writeRawArray(ctx, sink -> todoDatabase.forEachTodoJson(query, profile, sink));
+    } else {
+      byte[] gzipped = gzip ? todoDatabase.listTodosGzip(query, profile) : null;
+      if (gzipped != null) {
+        ctx.contentType("application/json");
+        Compression.sendGzipped(ctx, gzipped);
+      } else {
+        Todo[] todos = todoDatabase.listTodos(query, profile);
+        ctx.json(todos);
+      }
+    }
+    queryProfiler.record(profile);
   }
 
+  /**
+   * Add the todo in the request body, with a new `_id`, and respond with
+   * that `_id`.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws BadRequestResponse if the request body isn't a valid todo
+   */
+  public void addNewTodo(Context ctx) {
+    Todo added = todoWriter.addTodo(validTodo(ctx));
+    ctx.json(Map.of("id", added._id));
+    ctx.status(HttpCode.CREATED);
+  }
+
+  /**
+   * Replace the todo specified by the `id` parameter in the request with
+   * the todo in the request body, and respond with the todo as it is now.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws BadRequestResponse if the request body isn't a valid todo, or
+   *                            has a different `_id`
+   * @throws NotFoundResponse   if there's no todo with that `_id`
+   */
+  public void updateTodo(Context ctx) {
+    String id = ctx.pathParam("id");
+    Todo todo = validTodo(ctx);
+    if (todo._id != null && !todo._id.equals(id)) {
+      throw new BadRequestResponse("The todo's _id (" + todo._id + ") doesn't match the path (" + id + ").");
+    }
+    Todo updated = todoWriter.updateTodo(id, todo);
+    if (updated == null) {
+      throw new NotFoundResponse("No todo with id " + id + " was found.");
+    }
+    ctx.json(updated);
+    ctx.status(HttpCode.OK);
+  }
+
+  /**
+   * Delete the todo specified by the `id` parameter in the request.
+   *
+   * @param ctx a Javalin HTTP context
+   * @throws NotFoundResponse if there's no todo with that `_id`
+   */
+  public void deleteTodo(Context ctx) {
+    String id = ctx.pathParam("id");
+    if (!todoWriter.deleteTodo(id)) {
+      throw new NotFoundResponse("No todo with id " + id + " was found.");
+    }
+    ctx.status(HttpCode.OK);
+  }
+
+  /**
+   * Read the todo in the request body, checking that it has an owner, a
+   * body and a category.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the todo in the request body
+   * @throws BadRequestResponse if the request body isn't a valid todo
+   */
+  private static Todo validTodo(Context ctx) {
+    Todo todo;
+    try {
+      todo = MAPPER.readValue(ctx.body(), Todo.class);
+    } catch (JsonProcessingException e) {
+      throw new BadRequestResponse("The request body isn't a todo: " + e.getOriginalMessage());
+    }
+    if (todo == null) {
+      throw new BadRequestResponse("The request body isn't a todo.");
+    }
+    requireText(todo.owner, "owner");
+    requireText(todo.body, "body");
+    requireText(todo.category, "category");
+    return todo;
+  }
+
+  private static void requireText(String value, String field) {
+    if (value == null || value.isBlank()) {
+      throw new BadRequestResponse("A todo must have a non-empty " + field + ".");
+    }
+  }
 }
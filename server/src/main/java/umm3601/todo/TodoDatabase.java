@@ -1,14 +1,36 @@
 package umm3601.todo;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import io.javalin.http.BadRequestResponse;
+import umm3601.ChunkedBitSet;
+import umm3601.Compression;
+import umm3601.Cursor;
+import umm3601.DictionaryColumn;
+import umm3601.ETags;
+import umm3601.JsonBytes;
+import umm3601.MappedInputStream;
+import umm3601.Page;
+import umm3601.Pagination;
+import umm3601.QueryCache;
+import umm3601.QueryProfile;
+import umm3601.RecordCache;
+import umm3601.TextColumn;
+import umm3601.TextStorage;
 
 /**
  * A fake "todoDatabase" of todo info
@@ -17,33 +39,623 @@ import io.javalin.http.BadRequestResponse;
  * to instead just read a bunch of todo data from a specified JSON file, and
  * then provide various database-like methods that allow the `TodoController` to
  * "query" the "todoDatabase".
+ * <p>
+ * A "todoDatabase" never changes once it's built. Adding, updating or
+ * deleting todos (see `withChanges`) makes a new one, which shares
+ * everything it can with the old one, so a request that's reading the old
+ * one isn't disturbed and never has to wait.
  */
 public class TodoDatabase {
 
-  private static final String OWNER = "owner";
-  private static final String STATUS = "status";
-  private static final String CATEGORY = "category";
-  private Todo[] allTodos;
+  // If no more than 1/SORTED_WALK_RATIO of the todos are candidates for a
+  // sorted query, it's cheaper to sort the candidates' ranks than to walk
+  // the whole precomputed order looking for them.
+  private static final int SORTED_WALK_RATIO = 16;
+  private static final int INITIAL_BUFFER_SIZE = 16;
+
+  // Once more than this many `_id`s (and at least 1/CHANGED_IDS_RATIO of
+  // the todos) have changed, they're folded into a new `todosById`.
+  private static final int MIN_CHANGED_IDS = 1024;
+  private static final int CHANGED_IDS_RATIO = 8;
+  private static final int DELETED = -1;
+
+  // The todos themselves, a column per field (see `TodoColumns`). Deleting
+  // a todo just clears its bit in `live`, so the other todos keep their
+  // positions (and their places in every index).
+  private TodoColumns columns;
+  private ChunkedBitSet live;
+  private int liveCount;
+  // The position of each todo by `_id`. The `_id`s that have changed since
+  // `todosById` was built are in the (much smaller) `changedIds`, with -1
+  // for a deleted todo, so a change doesn't have to copy the whole index.
+  private IdIndex todosById;
+  private Map<String, Integer> changedIds;
+
+  // Secondary indexes, built at load time and updated for just the changed
+  // todos by `withChanges`; deleted todos are left out of all of them. The
+  // owner and category indexes map the case-folded value (see
+  // `TextColumn.foldCase`) to the (ascending) positions of the todos having
+  // that value, `bodyIndex` does the same for every trigram in the bodies,
+  // and `completeTodos` has a bit set for every position whose todo is
+  // complete.
+  // Like the columns, every index is chunked (see `ChunkedIntArray`), so a
+  // change copies the few chunks and blocks it touches and the tables of
+  // all the others, not whole indexes.
+  private PostingLists<String> todosByOwner;
+  private PostingLists<String> todosByCategory;
+  private TrigramIndex bodyIndex;
+  private ChunkedBitSet completeTodos;
+  private ChunkedBitSet incompleteTodos;
+  private int completeCount;
+
+  // Sort orders, also built at load time. For each `orderBy` key, the
+  // positions of all the todos in sorted order, and where each position
+  // falls in that order (see `SortOrder`). A change only moves the changed
+  // todos within each order, so sorted queries never need a comparison sort.
+  private Map<String, SortOrder> sortOrders;
+
+  // Every todo that's been served, serialized to UTF-8 JSON. A todo never
+  // changes once it's in a "todoDatabase", so there's no reason to
+  // serialize one twice, but there's no reason to serialize the ones nobody
+  // asks for (at load time, say) either.
+  // The JSON holds a copy of every body, though, so when the bodies are
+  // kept off the heap this is null and each todo is serialized as it's
+  // served instead (see `json`).
+  private RecordCache<byte[]> todoJson;
+  private String contentHash;
+
+  // Recent `listTodos` results. The cache belongs to this "todoDatabase",
+  // so loading new todos (into a new "todoDatabase") starts a new cache.
+  private QueryCache<Todo[]> listCache =
+      new QueryCache<>(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_WEIGHT, todos -> todos.length);
+  // The same results, as gzipped JSON. Results too small to be worth
+  // compressing are cached as an empty array.
+  private QueryCache<byte[]> gzipCache =
+      new QueryCache<>(QueryCache.DEFAULT_MAX_ENTRIES, Compression.DEFAULT_CACHE_BYTES, gzipped -> gzipped.length);
 
   public TodoDatabase(String todoDataFile) throws IOException {
-    InputStreamReader reader = new InputStreamReader(getClass().getResourceAsStream(todoDataFile));
-    ObjectMapper objectMapper = new ObjectMapper();
-    allTodos = objectMapper.readValue(reader, Todo[].class);
+    this(todoDataFile, TextStorage.HEAP);
+  }
+
+  /**
+   * Load a "todoDatabase" from a JSON file bundled into the jar.
+   *
+   * @param todoDataFile the name of the JSON resource of todos
+   * @param storage      where to keep the todos' bodies
+   * @throws IOException if the resource can't be read or isn't an array of
+   *                     todos
+   */
+  public TodoDatabase(String todoDataFile, TextStorage storage) throws IOException {
+    this(readTodos(todoDataFile), storage);
+  }
+
+  /**
+   * Load a "todoDatabase" from a JSON file outside the jar, which can be far
+   * bigger than anything we'd want to bundle.
+   * <p>
+   * If there's an up-to-date binary snapshot of the file (see
+   * `TodoSnapshot`), the todos and their indexes are loaded from that.
+   * Otherwise the JSON file is memory-mapped (see `MappedInputStream`) and
+   * parsed, and a snapshot is written for next time.
+   *
+   * @param todoDataFile the path of the JSON file of todos
+   * @return a "todoDatabase" of the todos in that file
+   * @throws IOException if the file can't be read or isn't an array of todos
+   */
+  public static TodoDatabase fromFile(Path todoDataFile) throws IOException {
+    return fromFile(todoDataFile, TextStorage.HEAP);
+  }
+
+  /**
+   * Load a "todoDatabase" from a JSON file outside the jar (see
+   * `fromFile(Path)`), keeping the todos' bodies in the given storage.
+   *
+   * @param todoDataFile the path of the JSON file of todos
+   * @param storage      where to keep the todos' bodies
+   * @return a "todoDatabase" of the todos in that file
+   * @throws IOException if the file can't be read or isn't an array of todos
+   */
+  public static TodoDatabase fromFile(Path todoDataFile, TextStorage storage) throws IOException {
+    return TodoSnapshot.load(todoDataFile, storage);
+  }
+
+  /**
+   * Construct a "todoDatabase" around todos that have already been loaded.
+   * <p>
+   * This is where the primary key index is built, so `getTodo` can look a
+   * todo up by `_id` without scanning every todo on every request.
+   *
+   * @param todos the todos to serve from this "todoDatabase"
+   */
+  public TodoDatabase(Todo[] todos) {
+    this(todos, TextStorage.HEAP);
+  }
+
+  /**
+   * Construct a "todoDatabase" around todos that have already been loaded,
+   * keeping their bodies in the given storage.
+   *
+   * @param todos   the todos to serve from this "todoDatabase"
+   * @param storage where to keep the todos' bodies
+   */
+  public TodoDatabase(Todo[] todos, TextStorage storage) {
+    this(TodoColumns.of(todos, storage));
+  }
+
+  private TodoDatabase(TodoColumns columns) {
+    this(columns, IdIndex.of(columns.ids(), position -> true), buildPostingLists(columns.owners()),
+        buildPostingLists(columns.categories()), buildSortOrders(columns), new TrigramIndex(columns), null);
+  }
+
+  /**
+   * Construct a "todoDatabase" around todos whose indexes have already been
+   * built, possibly by an earlier server that saved them in a snapshot.
+   *
+   * @param columns         the todos to serve from this "todoDatabase"
+   * @param todosById       the position of each todo by `_id`
+   * @param todosByOwner    the posting list of each case-folded owner
+   * @param todosByCategory the posting list of each case-folded category
+   * @param sortOrders      the sort order for each `orderBy` key
+   * @param bodyIndex       the trigram index of the todos' bodies
+   * @param contentHash     the content hash of the todos, or null to compute
+   *                        it
+   */
+  TodoDatabase(TodoColumns columns, IdIndex todosById, PostingLists<String> todosByOwner,
+      PostingLists<String> todosByCategory, Map<String, SortOrder> sortOrders, TrigramIndex bodyIndex,
+      String contentHash) {
+    this.columns = columns;
+    int size = columns.size();
+    BitSet all = new BitSet(size);
+    all.set(0, size);
+    live = ChunkedBitSet.of(all);
+    liveCount = size;
+    this.todosById = todosById;
+    changedIds = Map.of();
+
+    this.todosByOwner = todosByOwner;
+    this.todosByCategory = todosByCategory;
+    this.bodyIndex = bodyIndex;
+    completeTodos = columns.statuses();
+    BitSet incomplete = new BitSet(size);
+    for (int i = 0; i < size; ++i) {
+      incomplete.set(i, !completeTodos.get(i));
+    }
+    incompleteTodos = ChunkedBitSet.of(incomplete);
+    completeCount = completeTodos.cardinality();
+
+    this.sortOrders = sortOrders;
+
+    if (columns.storage() == TextStorage.HEAP) {
+      todoJson = RecordCache.empty(size);
+    }
+    this.contentHash = contentHash == null ? ETags.contentHashOfFields(size, columns::fields) : contentHash;
+  }
+
+  /**
+   * Start a copy of another "todoDatabase" that shares all of its columns and
+   * indexes, for `withChanges` to replace the ones that change. Only the
+   * query caches are new.
+   *
+   * @param other the "todoDatabase" to copy
+   */
+  private TodoDatabase(TodoDatabase other) {
+    columns = other.columns;
+    live = other.live;
+    liveCount = other.liveCount;
+    todosById = other.todosById;
+    changedIds = other.changedIds;
+    todosByOwner = other.todosByOwner;
+    todosByCategory = other.todosByCategory;
+    bodyIndex = other.bodyIndex;
+    completeTodos = other.completeTodos;
+    incompleteTodos = other.incompleteTodos;
+    completeCount = other.completeCount;
+    sortOrders = other.sortOrders;
+    todoJson = other.todoJson;
+    contentHash = other.contentHash;
+  }
+
+  /**
+   * Build the sorted permutation of the todos for every `orderBy` key. The
+   * sorts are stable, so todos that compare equal stay in their original
+   * order, just as they did with `sortTodos`.
+   *
+   * @param columns the todos to sort
+   * @return a map from each `orderBy` key to the todos' order
+   */
+  private static Map<String, SortOrder> buildSortOrders(TodoColumns columns) {
+    Map<String, SortOrder> sortOrders = new HashMap<>();
+    for (String key : TodoQuery.SORT_KEYS) {
+      sortOrders.put(key, SortOrder.of(columns.sortedPositions(key), columns.size()));
+    }
+    return sortOrders;
+  }
+
+  /**
+   * Build an index from the case-folded value of a dictionary-encoded field
+   * to the positions of all the todos having that value.
+   * <p>
+   * Only the distinct values are folded and hashed; the todos themselves
+   * are counted and placed by their int codes. Values that differ only in
+   * case share a posting list.
+   *
+   * @param column the field to index
+   * @return an index from each case-folded value to its posting list
+   */
+  private static PostingLists<String> buildPostingLists(DictionaryColumn column) {
+    // Count first so every posting list can be allocated at its exact size.
+    int[] codeCounts = new int[column.cardinality()];
+    for (int i = 0; i < column.size(); ++i) {
+      if (column.code(i) != DictionaryColumn.NULL_CODE) {
+        codeCounts[column.code(i)]++;
+      }
+    }
+    Map<String, int[]> counts = new HashMap<>();
+    for (int code = 0; code < codeCounts.length; ++code) {
+      counts.computeIfAbsent(TextColumn.foldCase(column.value(code)), key -> new int[1])[0] += codeCounts[code];
+    }
+    Map<String, int[]> postingLists = new HashMap<>(counts.size() * 2);
+    for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+      postingLists.put(entry.getKey(), new int[entry.getValue()[0]]);
+      entry.getValue()[0] = 0;
+    }
+    // Where each code's todos go, and how full that posting list is so far
+    // (shared by all the codes with the same folded value).
+    int[][] lists = new int[codeCounts.length][];
+    int[][] fill = new int[codeCounts.length][];
+    for (int code = 0; code < codeCounts.length; ++code) {
+      String key = TextColumn.foldCase(column.value(code));
+      lists[code] = postingLists.get(key);
+      fill[code] = counts.get(key);
+    }
+    for (int i = 0; i < column.size(); ++i) {
+      int code = column.code(i);
+      if (code != DictionaryColumn.NULL_CODE) {
+        lists[code][fill[code][0]++] = i;
+      }
+    }
+    return PostingLists.of(postingLists);
+  }
+
+  static Todo[] readTodos(Path todoDataFile) throws IOException {
+    try (InputStream input = new MappedInputStream(todoDataFile)) {
+      return TodoLoader.readJson(input);
+    }
+  }
+
+  private static Todo[] readTodos(String todoDataFile) throws IOException {
+    try (InputStream input = TodoDatabase.class.getResourceAsStream(todoDataFile)) {
+      if (input == null) {
+        throw new FileNotFoundException("There's no todo data file at " + todoDataFile);
+      }
+      return TodoLoader.readJson(input);
+    }
+  }
+
+  /**
+   * Get a new "todoDatabase" with a batch of changes made to the todos in
+   * this one, which is left as it is for anyone still reading it.
+   * <p>
+   * Rather than being built from scratch, the new "todoDatabase" shares
+   * everything it can with this one, and each index is only updated for the
+   * changed todos: an updated todo keeps its position, an added one goes on
+   * the end, and a deleted one is dropped from every index. The query caches
+   * start out empty, and the content hash is chained from this one's, so
+   * every response gets a new `ETag`.
+   *
+   * @param changes for each `_id` to add or update, the new todo (with that
+   *                `_id`), and for each `_id` to delete, null; deleting a todo
+   *                that doesn't exist does nothing
+   * @return the changed "todoDatabase"
+   */
+  TodoDatabase withChanges(Map<String, Todo> changes) {
+    // Work out which positions change: the updated and deleted todos'
+    // positions lose their old todos, and the updated and added todos'
+    // positions (in ascending order) get new ones.
+    int size = columns.size();
+    List<Integer> removed = new ArrayList<>();
+    TreeMap<Integer, Todo> written = new TreeMap<>();
+    Map<String, Integer> ids = new HashMap<>(changedIds);
+    for (Map.Entry<String, Todo> change : changes.entrySet()) {
+      Integer position = position(change.getKey());
+      if (position != null) {
+        removed.add(position);
+      }
+      if (change.getValue() != null) {
+        int target = position == null ? size++ : position;
+        written.put(target, change.getValue());
+        ids.put(change.getKey(), target);
+      } else if (position != null) {
+        ids.put(change.getKey(), DELETED);
+      }
+    }
+    int[] positions = written.keySet().stream().mapToInt(Integer::intValue).toArray();
+    Todo[] todos = written.values().toArray(new Todo[0]);
+
+    TodoDatabase next = new TodoDatabase(this);
+    next.columns = columns.withTodos(size, positions, todos);
+    ChunkedBitSet.Editor nextLive = live.edit();
+    ChunkedBitSet.Editor nextComplete = completeTodos.edit();
+    ChunkedBitSet.Editor nextIncomplete = incompleteTodos.edit();
+    for (int position : removed) {
+      nextLive.set(position, false);
+      nextComplete.set(position, false);
+      nextIncomplete.set(position, false);
+    }
+    for (int i = 0; i < positions.length; ++i) {
+      nextLive.set(positions[i], true);
+      nextComplete.set(positions[i], todos[i].status);
+      nextIncomplete.set(positions[i], !todos[i].status);
+    }
+    next.live = nextLive.build();
+    next.completeTodos = nextComplete.build();
+    next.incompleteTodos = nextIncomplete.build();
+    next.liveCount = next.live.cardinality();
+    next.completeCount = next.completeTodos.cardinality();
+
+    next.changedIds = ids;
+    if (ids.size() > Math.max(MIN_CHANGED_IDS, todosById.size() / CHANGED_IDS_RATIO)) {
+      // Index every position that an `_id` leads to now (so a deleted
+      // todo's `_id` doesn't lead to another todo with the same `_id`).
+      TodoColumns nextColumns = next.columns;
+      IdIndex folded = IdIndex.of(nextColumns.ids(),
+          position -> Integer.valueOf(position).equals(next.position(nextColumns.id(position))));
+      next.todosById = folded;
+      next.changedIds = Map.of();
+    }
+
+    next.todosByOwner = updatePostingLists(todosByOwner, removed, columns.owners(), positions,
+        next.columns.owners());
+    next.todosByCategory = updatePostingLists(todosByCategory, removed, columns.categories(), positions,
+        next.columns.categories());
+    List<String> oldBodies = new ArrayList<>();
+    for (int position : removed) {
+      oldBodies.add(columns.body(position));
+    }
+    String[] bodies = Arrays.stream(todos).map(todo -> todo.body).toArray(String[]::new);
+    next.bodyIndex = bodyIndex.withChanges(removed, oldBodies, positions, bodies);
+
+    next.sortOrders = new HashMap<>();
+    for (String key : TodoQuery.SORT_KEYS) {
+      next.sortOrders.put(key, sortOrders.get(key).withChanges(removed, positions, size,
+          (x, y) -> next.columns.compare(key, x, y)));
+    }
+
+    if (todoJson != null) {
+      List<Integer> cleared = new ArrayList<>(removed);
+      Arrays.stream(positions).forEach(cleared::add);
+      next.todoJson = todoJson.withCleared(size, cleared);
+    }
+
+    // Hash the old hash followed by each change, so the new hash depends on
+    // all of the todos without having to read them all again.
+    List<byte[]> hashed = new ArrayList<>();
+    hashed.add(contentHash.getBytes(StandardCharsets.UTF_8));
+    for (Map.Entry<String, Todo> change : changes.entrySet()) {
+      hashed.add(change.getKey().getBytes(StandardCharsets.UTF_8));
+      hashed.add(change.getValue() == null ? new byte[0] : JsonBytes.toJson(change.getValue()));
+    }
+    next.contentHash = ETags.contentHash(hashed.size(), hashed::get);
+    return next;
   }
 
+  /**
+   * Update an owner or category index for a batch of changed todos (see
+   * `PostingLists`).
+   *
+   * @param lists     the index to update
+   * @param removed   the positions of the updated and deleted todos
+   * @param before    the indexed column before the changes
+   * @param positions the ascending positions of the updated and added todos
+   * @param after     the indexed column after the changes
+   * @return the updated index
+   */
+  private static PostingLists<String> updatePostingLists(PostingLists<String> lists, List<Integer> removed,
+      DictionaryColumn before, int[] positions, DictionaryColumn after) {
+    Map<String, List<Integer>> removedByKey = new HashMap<>();
+    for (int position : removed) {
+      if (before.get(position) != null) {
+        removedByKey.computeIfAbsent(TextColumn.foldCase(before.get(position)), key -> new ArrayList<>()).add(position);
+      }
+    }
+    Map<String, List<Integer>> added = new HashMap<>();
+    for (int position : positions) {
+      if (after.get(position) != null) {
+        added.computeIfAbsent(TextColumn.foldCase(after.get(position)), key -> new ArrayList<>()).add(position);
+      }
+    }
+    return lists.withChanges(removedByKey, added);
+  }
+
+  /**
+   * @return the number of todos
+   */
   public int size() {
-    return allTodos.length;
+    return liveCount;
+  }
+
+  /**
+   * @param id the `_id` of a todo
+   * @return true if there's a todo with that `_id`
+   */
+  boolean contains(String id) {
+    return position(id) != null;
+  }
+
+  /**
+   * @param id the `_id` of a todo
+   * @return the position of that todo, or null if there is no todo with that
+   *         `_id`
+   */
+  private Integer position(String id) {
+    Integer position = changedIds.get(id);
+    if (position == null) {
+      return todosById.get(id);
+    }
+    return position == DELETED ? null : position;
+  }
+
+  // What `TodoSnapshot` needs to save this "todoDatabase".
+  TodoColumns columns() {
+    return columns;
+  }
+
+  IdIndex todosById() {
+    return todosById;
+  }
+
+  PostingLists<String> todosByOwner() {
+    return todosByOwner;
+  }
+
+  PostingLists<String> todosByCategory() {
+    return todosByCategory;
+  }
+
+  Map<String, SortOrder> sortOrders() {
+    return sortOrders;
+  }
+
+  TrigramIndex bodyIndex() {
+    return bodyIndex;
+  }
+
+  /**
+   * Get statistics about this "todoDatabase", including how much memory its
+   * precomputed sort orders take up.
+   *
+   * @return a map of statistic names to values
+   */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("size", liveCount);
+    stats.put("deletedTodos", columns.size() - liveCount);
+    stats.put("contentHash", contentHash);
+
+    Map<String, Long> sortOrderBytes = new LinkedHashMap<>();
+    long totalSortOrderBytes = 0;
+    for (String key : TodoQuery.SORT_KEYS) {
+      long bytes = sortOrders.get(key).bytes();
+      sortOrderBytes.put(key, bytes);
+      totalSortOrderBytes += bytes;
+    }
+    stats.put("sortOrderBytes", sortOrderBytes);
+    stats.put("totalSortOrderBytes", totalSortOrderBytes);
+    stats.put("bodyTrigrams", bodyIndex.trigramCount());
+    stats.put("bodyIndexBytes", bodyIndex.postingBytes());
+    stats.put("textStorage", columns.storage());
+    stats.put("offHeapTextBytes", columns.bodies().offHeapBytes());
+    stats.put("jsonCacheBytes", todoJson == null ? 0 : todoJson.weight(json -> json.length));
+    stats.put("queryCache", listCache.getStats());
+    stats.put("gzipCache", gzipCache.getStats());
+    return stats;
+  }
+
+  /**
+   * Get a hash of all of the todos in this "todoDatabase". Since a
+   * "todoDatabase" never changes once it's built, a response built from it
+   * is completely determined by this hash and the request.
+   *
+   * @return a short, URL-safe hash of the content of this "todoDatabase"
+   */
+  public String getContentHash() {
+    return contentHash;
   }
 
   /**
    * Get the single todo specified by the given ID. Return `null` if there is no
    * todo with that ID.
+   * <p>
+   * The todo is built from the columns on every call, so changing it has no
+   * effect on this "todoDatabase".
    *
    * @param id the ID of the desired todo
    * @return the todo with the given ID, or null if there is no todo with that ID
    */
   public Todo getTodo(String id) {
-    return Arrays.stream(allTodos).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+    Integer position = position(id);
+    return position == null ? null : columns.toTodo(position);
+  }
+
+  /**
+   * Get the serialized JSON of the single todo specified by the given ID.
+   * Return `null` if there is no todo with that ID.
+   *
+   * @param id the ID of the desired todo
+   * @return the UTF-8 JSON of the todo with the given ID, or null if there is
+   *         no todo with that ID
+   */
+  public byte[] getTodoJson(String id) {
+    Integer position = position(id);
+    return position == null ? null : json(position);
+  }
+
+  /**
+   * @param position the position of a todo
+   * @return the UTF-8 JSON of that todo, from the cache if there is one
+   */
+  private byte[] json(int position) {
+    if (todoJson == null) {
+      return JsonBytes.toJson(columns.toTodo(position));
+    }
+    return todoJson.get(position, p -> JsonBytes.toJson(columns.toTodo(p)));
+  }
+
+  /**
+   * Get the gzipped JSON array of all the todos satisfying the given query
+   * plan. Like `listTodos`, recent results are cached, so a repeated query
+   * costs neither the search nor the compression.
+   *
+   * @param query the query plan to evaluate
+   * @return the gzipped JSON array of all the todos matching the given
+   *         criteria, or null if it's too small to be worth compressing
+   */
+  public byte[] listTodosGzip(TodoQuery query) {
+    return listTodosGzip(query, QueryProfile.NONE);
+  }
+
+  /**
+   * `listTodosGzip`, recording the stages of the search in a profile if the
+   * result isn't cached.
+   *
+   * @param query   the query plan to evaluate
+   * @param profile where to record the stages
+   * @return the gzipped JSON array of all the todos matching the given
+   *         criteria, or null if it's too small to be worth compressing
+   */
+  public byte[] listTodosGzip(TodoQuery query, QueryProfile profile) {
+    byte[] gzipped = gzipCache.get(query.getCacheKey(), () -> {
+      byte[] compressed = Compression.precompress(JsonBytes.toJsonArray(sink -> forEachTodoJson(query, profile, sink)));
+      return compressed == null ? new byte[0] : compressed;
+    });
+    return gzipped.length == 0 ? null : gzipped;
+  }
+
+  /**
+   * Get the most todos a query can return, without running it: the number
+   * of candidates its most selective index gives, or its limit if that's
+   * smaller. This is how the `TodoController` decides whether a result is
+   * small enough to build (and cache) or big enough to stream.
+   *
+   * @param query the query plan
+   * @return an upper bound on the number of todos matching the query
+   */
+  public int maxResultSize(TodoQuery query) {
+    int count = candidateCount(query, smallestPostingList(query));
+    return query.hasLimit() ? Math.min(count, query.getLimit()) : count;
+  }
+
+  /**
+   * Check whether the result of a query is cached, in the form a client
+   * would be sent, without counting it as a hit or a miss.
+   *
+   * @param query the query plan
+   * @param gzip  whether to look for the gzipped result (see
+   *              `listTodosGzip`) rather than the todos themselves
+   * @return true if that result is cached
+   */
+  public boolean isCached(TodoQuery query, boolean gzip) {
+    return (gzip ? gzipCache : listCache).contains(query.getCacheKey());
   }
 
   /**
@@ -53,45 +665,487 @@ public class TodoDatabase {
    * @return an array of all the todos matching the given criteria
    */
   public Todo[] listTodos(Map<String, List<String>> queryParams) {
-    Todo[] filteredTodos = allTodos;
-
-    // Filter status if defined
-    if (queryParams.containsKey("status")) {
-      String targetStatus = queryParams.get("status").get(0);
-      filteredTodos = filterTodosByStatus(filteredTodos, targetStatus);
-    }
-    // Filter body if defined
-    if (queryParams.containsKey("contains")) {
-      String targetBody = queryParams.get("contains").get(0);
-      filteredTodos = filterTodosByBody(filteredTodos, targetBody);
-    }
-    // Filter owner if defined
-    if (queryParams.containsKey(OWNER)) {
-      String targetOwner = queryParams.get(OWNER).get(0);
-      filteredTodos = filterTodosByOwner(filteredTodos, targetOwner);
-    }
-    // Filter category if defined
-    if (queryParams.containsKey(CATEGORY)) {
-      String targetCategory = queryParams.get(CATEGORY).get(0);
-      filteredTodos = filterTodosByCategory(filteredTodos, targetCategory);
-    }
-    // Sort todo with specific order if defined
-    if (queryParams.containsKey("orderBy")) {
-      String targetOrder = queryParams.get("orderBy").get(0);
-      filteredTodos = sortTodos(filteredTodos, targetOrder);
-    }
-    // Filter todos within specific limit if defined
-    if (queryParams.containsKey("limit")) {
-      String limitParam = queryParams.get("limit").get(0);
-      try {
-        int targetLimit = Integer.parseInt(limitParam);
-        filteredTodos = filterTodosByLimit(filteredTodos, targetLimit);
-      } catch (NumberFormatException e) {
-        throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be parsed to an integer");
+    return listTodos(TodoQuery.fromQueryParams(queryParams));
+  }
+
+  /**
+   * Get an array of all the todos satisfying the given query plan.
+   * <p>
+   * The most selective index available (owner, category, body trigrams or
+   * status) picks the candidate todos, and each candidate is checked against
+   * the rest of the filters in the same pass, so the only array built is the
+   * result.
+   * <p>
+   * Recent results are cached by the canonical form of their query, so a
+   * repeated query is just a lookup. The returned array may be shared with
+   * other callers, so it must not be modified.
+   *
+   * @param query the query plan to evaluate
+   * @return an array of all the todos matching the given criteria
+   */
+  public Todo[] listTodos(TodoQuery query) {
+    return listTodos(query, QueryProfile.NONE);
+  }
+
+  /**
+   * `listTodos`, recording the stages of the search in a profile if the
+   * result isn't cached.
+   *
+   * @param query   the query plan to evaluate
+   * @param profile where to record the stages
+   * @return an array of all the todos matching the given criteria
+   */
+  public Todo[] listTodos(TodoQuery query, QueryProfile profile) {
+    return listCache.get(query.getCacheKey(), () -> findTodos(query, profile));
+  }
+
+  private Todo[] findTodos(TodoQuery query, QueryProfile profile) {
+    PositionBuffer matches = new PositionBuffer(query.hasLimit() ? query.getLimit() : Integer.MAX_VALUE);
+    findMatches(query, -1, profile, matches::add);
+    Todo[] todos = matches.toTodos(columns);
+    profile.stage("materialize", null, todos.length, todos.length);
+    return todos;
+  }
+
+  /**
+   * Explain how a query is answered, for `?explain=true`: which index picks
+   * the candidate todos, how they're sorted, and for each stage, the todos
+   * that went into and came out of it and how long it took. On top of that,
+   * each of the query's filters is checked on its own against all the
+   * candidates, to show how selective it is.
+   * <p>
+   * The query is run from scratch, whether or not its result is cached (the
+   * explanation says whether it was), and the result is thrown away.
+   *
+   * @param query the query plan to explain
+   * @return the profile of the query, with its plan
+   */
+  public QueryProfile explainTodos(TodoQuery query) {
+    QueryProfile profile = new QueryProfile(true);
+    profile.plan("cached", listCache.contains(query.getCacheKey()) || gzipCache.contains(query.getCacheKey()));
+    if (query.getPagination() != null) {
+      listTodoPage(query, profile);
+    } else {
+      findTodos(query, profile);
+    }
+
+    PostingList postingList = smallestPostingList(query);
+    int candidates = candidateCount(query, postingList);
+    filters(query).forEach((name, filter) -> {
+      // A one-element array, since the lambda can't update a local variable.
+      long[] passed = new long[1];
+      long start = System.nanoTime();
+      forEachMatch(filter, query, postingList, 0, position -> {
+        passed[0]++;
+        return true;
+      });
+      profile.filter(name, candidates, passed[0], System.nanoTime() - start);
+    });
+    return profile;
+  }
+
+  /**
+   * Get one page of the todos satisfying the given (paginated) query plan.
+   * <p>
+   * The cursor in the query records the sort key and position of the last
+   * todo of the previous page, so the page is found by seeking to just after
+   * that place in the sort order, rather than by recomputing all the earlier
+   * pages. Since the cursor doesn't need the todo to still be there, paging
+   * carries on where it left off even if that todo has since been updated or
+   * deleted.
+   *
+   * @param query the query plan to evaluate, which must have a pagination
+   * @return the requested page of matching todos
+   */
+  public Page<Todo> listTodoPage(TodoQuery query) {
+    return listTodoPage(query, QueryProfile.NONE);
+  }
+
+  /**
+   * `listTodoPage`, recording the stages of the search in a profile.
+   *
+   * @param query   the query plan to evaluate, which must have a pagination
+   * @param profile where to record the stages
+   * @return the requested page of matching todos
+   */
+  public Page<Todo> listTodoPage(TodoQuery query, QueryProfile profile) {
+    Pagination pagination = query.getPagination();
+    int afterRank = -1;
+    Cursor after = pagination.getAfter();
+    if (after != null) {
+      // Seek to where the cursor's todo was, by its sort key and position,
+      // rather than to where it is now: it may have moved or gone since.
+      String orderBy = query.getOrderBy();
+      afterRank = orderBy == null
+          ? after.getLastPosition()
+          : sortOrders.get(orderBy).lastRankAtOrBefore(
+              position -> columns.compareTo(orderBy, position, after.getLastKey(), after.getLastPosition()));
+    }
+
+    // Ask for one more todo than fits on the page, so we know whether
+    // there's a next page.
+    int pageSize = pagination.getPageSize();
+    PositionBuffer matches = new PositionBuffer(pageSize + 1);
+    findMatches(query, afterRank, profile, matches::add);
+    Todo[] todos = matches.toTodos(columns);
+    profile.stage("materialize", null, todos.length, todos.length);
+
+    String nextCursor = null;
+    if (todos.length > pageSize) {
+      todos = Arrays.copyOf(todos, pageSize);
+      int last = matches.get(pageSize - 1);
+      String lastKey = query.getOrderBy() == null ? null : columns.sortKey(query.getOrderBy(), last);
+      nextCursor = new Cursor(query.getOrderBy(), lastKey, last, todos[pageSize - 1]._id).encode();
+    }
+    long totalCount = -1;
+    if (pagination.isCountTotal()) {
+      // A one-element array, since the lambda can't update a local variable.
+      long[] count = new long[1];
+      forEachMatch(profile.counting(matcher(query)), query, smallestPostingList(query), 0, position -> {
+        count[0]++;
+        return true;
+      });
+      totalCount = count[0];
+      profile.countedStage("count", query.getFilterNames());
+    }
+    return new Page<>(todos, nextCursor, totalCount);
+  }
+
+  /**
+   * Pass each of the todos satisfying the given query plan, in order, to the
+   * given action, as they're found.
+   * <p>
+   * Unlike `listTodos`, this never holds on to the matching todos, which lets
+   * the `TodoController` stream very large results straight to the client.
+   *
+   * @param query  the query plan to evaluate
+   * @param action what to do with each matching todo
+   */
+  public void forEachTodo(TodoQuery query, Consumer<Todo> action) {
+    forEachPosition(query, QueryProfile.NONE, position -> action.accept(columns.toTodo(position)));
+  }
+
+  /**
+   * Pass the serialized JSON of each of the todos satisfying the given query
+   * plan, in order, to the given action, as they're found.
+   * <p>
+   * This is `forEachTodo` for callers that are just going to write the todos
+   * out as JSON anyway; they get the cached bytes instead of having to
+   * serialize every todo again.
+   *
+   * @param query  the query plan to evaluate
+   * @param action what to do with the UTF-8 JSON of each matching todo
+   */
+  public void forEachTodoJson(TodoQuery query, Consumer<byte[]> action) {
+    forEachTodoJson(query, QueryProfile.NONE, action);
+  }
+
+  /**
+   * `forEachTodoJson`, recording the stages of the search in a profile.
+   * The time taken by the action is part of the stage that finds the
+   * todos.
+   *
+   * @param query   the query plan to evaluate
+   * @param profile where to record the stages
+   * @param action  what to do with the UTF-8 JSON of each matching todo
+   */
+  public void forEachTodoJson(TodoQuery query, QueryProfile profile, Consumer<byte[]> action) {
+    forEachPosition(query, profile, position -> action.accept(json(position)));
+  }
+
+  private void forEachPosition(TodoQuery query, QueryProfile profile, IntConsumer action) {
+    int limit = query.hasLimit() ? query.getLimit() : Integer.MAX_VALUE;
+    // A one-element array, since the lambda can't update a local variable.
+    int[] count = new int[1];
+    findMatches(query, -1, profile, position -> {
+      action.accept(position);
+      count[0]++;
+      return count[0] < limit;
+    });
+  }
+
+  /**
+   * Pass the positions of the todos satisfying the given query plan, in the
+   * order they should be returned, to the given action, until the action
+   * returns false (which it should do once it has `limit` positions).
+   * <p>
+   * Only todos that come after `afterRank` in the query's order are passed
+   * on. For a sorted query that's a rank in the precomputed sort order, and
+   * for an unsorted query it's just a position.
+   * <p>
+   * The profile gets an "index" stage (picking the candidates), a "filter"
+   * stage (checking them, and passing on the matches), and for a sorted
+   * query with only a few candidates, a "sort" stage.
+   *
+   * @param query     the query plan to evaluate
+   * @param afterRank only pass on todos ranked after this; -1 for all of them
+   * @param profile   where to record the stages
+   * @param action    what to do with the position of each matching todo;
+   *                  returns false when no more positions are wanted
+   */
+  private void findMatches(TodoQuery query, int afterRank, QueryProfile profile, IntPredicate action) {
+    profile.start();
+    if (query.hasLimit() && query.getLimit() == 0) {
+      profile.plan("limit", "0, so nothing is searched");
+      return;
+    }
+
+    PostingList postingList = smallestPostingList(query);
+    int candidates = candidateCount(query, postingList);
+    if (profile.isEnabled()) {
+      String index = indexName(query, postingList);
+      profile.plan("candidates", candidates + " todos, from the " + index + " index");
+      profile.stage("index", index, liveCount, candidates);
+    }
+    if (query.hasLimit()) {
+      profile.plan("limit", query.getLimit() + ", so the search stops once it has that many todos");
+    }
+
+    IntPredicate matcher = profile.counting(matcher(query));
+    if (query.getOrderBy() == null) {
+      profile.plan("order", "by position, the order the todos were loaded in");
+      forEachMatch(matcher, query, postingList, afterRank + 1, action);
+      profile.countedStage("filter", query.getFilterNames());
+    } else if (candidates <= liveCount / SORTED_WALK_RATIO) {
+      // Only a few candidates, so sort the matching ones by their rank in
+      // the precomputed order (a primitive sort, not a comparison sort).
+      profile.plan("order", "by " + query.getOrderBy() + ", sorting the matches' ranks in the precomputed order");
+      forEachSortedMatch(matcher, query, postingList, afterRank, profile, action);
+    } else {
+      // Lots of candidates, so walk the precomputed order and keep the
+      // matches, stopping as soon as we have enough of them.
+      profile.plan("order", "by " + query.getOrderBy() + ", walking the precomputed order");
+      sortOrders.get(query.getOrderBy()).forEachAfter(afterRank,
+          position -> !matcher.test(position) || action.test(position));
+      profile.countedStage("filter", query.getFilterNames());
+    }
+  }
+
+  /**
+   * Pass the positions of all the todos matching the query to the action in
+   * the query's sort order, by sorting their ranks.
+   *
+   * @param matcher     the query's filters (see `matcher`)
+   * @param query       the query plan to evaluate
+   * @param postingList the most selective posting list for the query, or null
+   * @param afterRank   only pass on todos ranked after this; -1 for all of them
+   * @param profile     where to record the stages
+   * @param action      what to do with the position of each matching todo;
+   *                    returns false when no more positions are wanted
+   */
+  private void forEachSortedMatch(IntPredicate matcher, TodoQuery query, PostingList postingList, int afterRank,
+      QueryProfile profile, IntPredicate action) {
+    SortOrder order = sortOrders.get(query.getOrderBy());
+    PositionBuffer matchRanks = new PositionBuffer(Integer.MAX_VALUE);
+    forEachMatch(matcher, query, postingList, 0,
+        position -> order.rank(position) <= afterRank || matchRanks.add(order.rank(position)));
+    profile.countedStage("filter", query.getFilterNames());
+
+    int[] sortedRanks = matchRanks.toArray();
+    Arrays.sort(sortedRanks);
+    int passed = 0;
+    for (int rank : sortedRanks) {
+      ++passed;
+      if (!action.test(order.position(rank))) {
+        break;
       }
     }
+    profile.stage("sort", query.getOrderBy(), sortedRanks.length, passed);
+  }
 
-    return filteredTodos;
+  /**
+   * Pass the position of every todo matching the query's filters, in
+   * ascending order, to the given action, until the action returns false.
+   * <p>
+   * The most selective index available (the given posting list or the status
+   * bitset) picks the candidate todos, and each candidate is checked against
+   * all of the filters.
+   *
+   * @param matcher       the query's filters (see `matcher`)
+   * @param query         the query plan whose filters should be applied
+   * @param postingList   the most selective posting list for the query, or null
+   * @param startPosition the first position to consider
+   * @param action        what to do with the position of each matching todo;
+   *                      returns false when no more positions are wanted
+   */
+  private void forEachMatch(IntPredicate matcher, TodoQuery query, PostingList postingList, int startPosition,
+      IntPredicate action) {
+    ChunkedBitSet statusBits = query.getStatus() == null ? null : query.getStatus() ? completeTodos : incompleteTodos;
+
+    if (usesPostingList(query, postingList)) {
+      postingList.forEachFrom(startPosition, i -> !matcher.test(i) || action.test(i));
+    } else if (statusBits != null) {
+      for (int i = statusBits.nextSetBit(startPosition); i >= 0; i = statusBits.nextSetBit(i + 1)) {
+        if (matcher.test(i) && !action.test(i)) {
+          return;
+        }
+      }
+    } else {
+      for (int i = live.nextSetBit(startPosition); i >= 0; i = live.nextSetBit(i + 1)) {
+        if (matcher.test(i) && !action.test(i)) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if `forEachMatch` takes its candidates from the posting
+   *         list, rather than the status bitset or every todo
+   */
+  private boolean usesPostingList(TodoQuery query, PostingList postingList) {
+    return postingList != null && (query.getStatus() == null || postingList.size() <= statusCount(query.getStatus()));
+  }
+
+  /**
+   * Compile the filters of a query into a check on a todo's position.
+   * <p>
+   * The owner and category filters are resolved against their column's
+   * dictionary once, up front, so checking a todo is a table lookup by its
+   * int code rather than a string comparison. The body filter is handed to
+   * the body column, which (off the heap) searches the UTF-8 bytes without
+   * building a string.
+   *
+   * @param query the query plan whose filters should be applied
+   * @return a test of whether the todo at a position passes every filter
+   */
+  private IntPredicate matcher(TodoQuery query) {
+    boolean statusFiltered = query.getStatus() != null;
+    boolean status = statusFiltered && query.getStatus();
+    DictionaryColumn owners = columns.owners();
+    boolean[] ownerCodes = query.getOwner() == null
+        ? null
+        : owners.matchingCodes(owner -> TextColumn.foldCase(owner).equals(query.getOwner()));
+    DictionaryColumn categories = columns.categories();
+    boolean[] categoryCodes = query.getCategory() == null
+        ? null
+        : categories.matchingCodes(category -> TextColumn.foldCase(category).equals(query.getCategory()));
+    IntPredicate contains = query.getContains() == null ? null : columns.bodies().containing(query.getContains());
+
+    return position -> (!statusFiltered || completeTodos.get(position) == status)
+        && (ownerCodes == null || owners.hasMatchingCode(position, ownerCodes))
+        && (categoryCodes == null || categories.hasMatchingCode(position, categoryCodes))
+        && (contains == null || contains.test(position));
+  }
+
+  /**
+   * Compile each of the filters of a query into a check of its own, for
+   * `explainTodos`. (`matcher` checks them all at once, which is quicker.)
+   *
+   * @param query the query plan whose filters should be applied
+   * @return a test for each filter, by name, in the order `matcher` applies
+   *         them
+   */
+  private Map<String, IntPredicate> filters(TodoQuery query) {
+    Map<String, IntPredicate> filters = new LinkedHashMap<>();
+    if (query.getStatus() != null) {
+      ChunkedBitSet statusBits = query.getStatus() ? completeTodos : incompleteTodos;
+      filters.put(TodoQuery.STATUS, statusBits::get);
+    }
+    if (query.getOwner() != null) {
+      DictionaryColumn owners = columns.owners();
+      boolean[] ownerCodes = owners.matchingCodes(owner -> TextColumn.foldCase(owner).equals(query.getOwner()));
+      filters.put(TodoQuery.OWNER, position -> owners.hasMatchingCode(position, ownerCodes));
+    }
+    if (query.getCategory() != null) {
+      DictionaryColumn categories = columns.categories();
+      boolean[] categoryCodes = categories.matchingCodes(
+          category -> TextColumn.foldCase(category).equals(query.getCategory()));
+      filters.put(TodoQuery.CATEGORY, position -> categories.hasMatchingCode(position, categoryCodes));
+    }
+    if (query.getContains() != null) {
+      filters.put(TodoQuery.CONTAINS, columns.bodies().containing(query.getContains()));
+    }
+    return filters;
+  }
+
+  /**
+   * Get the number of candidate todos `forEachMatch` will look at for this
+   * query, i.e., the size of the most selective index that applies.
+   *
+   * @param query       the query plan
+   * @param postingList the most selective posting list for the query, or null
+   * @return the number of candidate todos
+   */
+  private int candidateCount(TodoQuery query, PostingList postingList) {
+    int count = liveCount;
+    if (postingList != null) {
+      count = postingList.size();
+    }
+    if (query.getStatus() != null) {
+      count = Math.min(count, statusCount(query.getStatus()));
+    }
+    return count;
+  }
+
+  private int statusCount(Boolean status) {
+    if (status == null) {
+      return liveCount;
+    }
+    return status ? completeCount : liveCount - completeCount;
+  }
+
+  /**
+   * Find the shortest posting list among the indexed owner, category and body
+   * filters in the query.
+   *
+   * @param query the query plan
+   * @return the shortest posting list, an empty list if an indexed value
+   *         doesn't appear in the "todoDatabase", or null if there are no
+   *         indexed filters (other than status) in the query
+   */
+  private PostingList smallestPostingList(TodoQuery query) {
+    PostingList smallest = null;
+    if (query.getOwner() != null) {
+      smallest = postingList(todosByOwner, query.getOwner());
+    }
+    if (query.getCategory() != null) {
+      smallest = shorter(smallest, postingList(todosByCategory, query.getCategory()));
+    }
+    if (query.getContains() != null && (smallest == null || smallest.size() > 0)) {
+      smallest = shorter(smallest, bodyIndex.candidates(query.getContains()));
+    }
+    return smallest;
+  }
+
+  /**
+   * @return the posting list of a value, or `PostingList.EMPTY` for a value
+   *         no todo has
+   */
+  private static PostingList postingList(PostingLists<String> lists, String value) {
+    PostingList list = lists.get(value);
+    return list == null ? PostingList.EMPTY : list;
+  }
+
+  private static PostingList shorter(PostingList current, PostingList candidate) {
+    if (current == null || (candidate != null && candidate.size() < current.size())) {
+      return candidate;
+    }
+    return current;
+  }
+
+  /**
+   * Name the index `forEachMatch` takes a query's candidates from, for
+   * profiling.
+   *
+   * @param query       the query plan
+   * @param postingList the most selective posting list for the query, or null
+   * @return the name of the filter whose index it is, or "none" if every
+   *         todo is a candidate
+   */
+  private String indexName(TodoQuery query, PostingList postingList) {
+    if (!usesPostingList(query, postingList)) {
+      return query.getStatus() == null ? "none" : TodoQuery.STATUS;
+    }
+    // `smallestPostingList` prefers owner, then category, on a tie, and a
+    // value that isn't in the index gets `PostingList.EMPTY` itself.
+    if (query.getOwner() != null && postingList == postingList(todosByOwner, query.getOwner())) {
+      return TodoQuery.OWNER;
+    }
+    if (query.getCategory() != null && postingList == postingList(todosByCategory, query.getCategory())) {
+      return TodoQuery.CATEGORY;
+    }
+    return TodoQuery.CONTAINS;
   }
 
   /**
@@ -103,14 +1157,8 @@ public class TodoDatabase {
    *         status
    */
   public Todo[] filterTodosByStatus(Todo[] todos, String targetStatus) {
-    switch (targetStatus.toLowerCase()) {
-      case "complete":
-        return Arrays.stream(todos).filter(x -> x.status).toArray(Todo[]::new);
-      case "incomplete":
-        return Arrays.stream(todos).filter(x -> !x.status).toArray(Todo[]::new);
-      default:
-        throw new BadRequestResponse("Specified status '" + targetStatus + "' is not a valid todo status");
-    }
+    boolean status = TodoQuery.parseStatus(targetStatus);
+    return Arrays.stream(todos).filter(x -> x.status == status).toArray(Todo[]::new);
   }
 
   /**
@@ -122,24 +1170,26 @@ public class TodoDatabase {
    *         body
    */
   public Todo[] filterTodosByBody(Todo[] todos, String targetBody) {
+    String lowercaseTarget = TextColumn.foldCase(targetBody);
     return Arrays
         .stream(todos)
-        .filter(todo -> todo.body.toLowerCase().contains(targetBody.toLowerCase()))
+        .filter(todo -> TextColumn.containsIgnoreCase(todo.body, lowercaseTarget))
         .toArray(Todo[]::new);
   }
 
   /**
-   * Get an array of all the todos having the target body.
+   * Get an array of all the todos having the target owner (ignoring case).
    *
-   * @param todos       the list of todos to filter by body
-   * @param targetBody  the target body to look for
+   * @param todos        the list of todos to filter by owner
+   * @param targetOwner  the target owner to look for
    * @return an array of all the todos from the given list that have the target
-   *         body
+   *         owner
    */
   public Todo[] filterTodosByOwner(Todo[] todos, String targetOwner) {
+    String lowercaseTarget = TextColumn.foldCase(targetOwner);
     return Arrays
         .stream(todos)
-        .filter(todo -> todo.owner.equalsIgnoreCase(targetOwner.toLowerCase()))
+        .filter(todo -> TextColumn.foldCase(todo.owner).equals(lowercaseTarget))
         .toArray(Todo[]::new);
   }
 
@@ -152,9 +1202,10 @@ public class TodoDatabase {
    *         category
    */
   public Todo[] filterTodosByCategory(Todo[] todos, String targetCategory) {
+    String lowercaseTarget = TextColumn.foldCase(targetCategory);
     return Arrays
         .stream(todos)
-        .filter(todo -> todo.category.equalsIgnoreCase(targetCategory.toLowerCase()))
+        .filter(todo -> TextColumn.foldCase(todo.category).equals(lowercaseTarget))
         .toArray(Todo[]::new);
   }
 
@@ -166,18 +1217,7 @@ public class TodoDatabase {
    * @return an array of all the todos from the given list sorted in the given order
    */
   public Todo[] sortTodos(Todo[] todos, String targetOrder) {
-    switch (targetOrder) {
-      case OWNER:
-        return Arrays.stream(todos).sorted((x, y) -> x.owner.compareTo(y.owner)).toArray(Todo[]::new);
-      case "body":
-        return Arrays.stream(todos).sorted((x, y) -> x.body.compareTo(y.body)).toArray(Todo[]::new);
-      case STATUS:
-        return Arrays.stream(todos).sorted((x, y) -> Boolean.compare(x.status, y.status)).toArray(Todo[]::new);
-      case CATEGORY:
-        return Arrays.stream(todos).sorted((x, y) -> x.category.compareTo(y.category)).toArray(Todo[]::new);
-      default:
-        throw new BadRequestResponse("Specified order '" + targetOrder + "' is not an applicable todo attribute");
-    }
+    return Arrays.stream(todos).sorted(TodoQuery.comparatorFor(targetOrder)).toArray(Todo[]::new);
   }
 
   /**
@@ -188,6 +1228,50 @@ public class TodoDatabase {
    * @return an array of all the todos from the given list within the target limit
    */
   public Todo[] filterTodosByLimit(Todo[] todos, int targetLimit) {
-    return Arrays.copyOfRange(Arrays.stream(todos).toArray(Todo[]::new), 0, targetLimit);
+    return Arrays.copyOf(todos, Math.min(targetLimit, todos.length));
+  }
+
+  /**
+   * A growable buffer of todo positions that stops accepting positions once
+   * it's full.
+   */
+  private static final class PositionBuffer {
+    private final int capacity;
+    private int[] positions = new int[INITIAL_BUFFER_SIZE];
+    private int size;
+
+    PositionBuffer(int capacity) {
+      this.capacity = capacity;
+    }
+
+    /**
+     * Add a position to the buffer.
+     *
+     * @param position the position to add
+     * @return true if the buffer can take more positions
+     */
+    boolean add(int position) {
+      if (size == positions.length) {
+        positions = Arrays.copyOf(positions, positions.length * 2);
+      }
+      positions[size++] = position;
+      return size < capacity;
+    }
+
+    int get(int index) {
+      return positions[index];
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(positions, size);
+    }
+
+    Todo[] toTodos(TodoColumns columns) {
+      Todo[] result = new Todo[size];
+      for (int i = 0; i < size; ++i) {
+        result[i] = columns.toTodo(positions[i]);
+      }
+      return result;
+    }
   }
 }
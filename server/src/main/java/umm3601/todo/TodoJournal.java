@@ -0,0 +1,521 @@
+package umm3601.todo;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.JsonBytes;
+import umm3601.Reloadable;
+import umm3601.TextStorage;
+
+/**
+ * An append-only journal of the changes made to the todos in a JSON file, so
+ * they survive a restart without rewriting the whole file for every change.
+ * <p>
+ * The journal of `todos.json` lives right next to it, in
+ * `todos.json.journal`. Each batch of changes that `TodoWriter` makes is
+ * appended as a single record, and the journal is forced to the disk before
+ * the changes are swapped in (or their writers told they've been made), so
+ * a batch costs one `fsync` however many writers' changes are in it. After
+ * a 4-byte magic number, a record is the length of its payload, the CRC-32
+ * of the payload, and the payload: the number of changes, then the `_id` and
+ * the JSON of the todo (or a length of -1, for a deletion) of each. All
+ * numbers are little-endian. A server that dies part way through appending
+ * leaves a record that's short or fails its CRC; it and anything after it
+ * are dropped on recovery, and those changes were never acknowledged.
+ * <p>
+ * Recovering loads the todos in the JSON file (see `TodoDatabase.fromFile`)
+ * and replays the journal on top of them. Replaying is idempotent: each
+ * change just sets or deletes the todo with its `_id`.
+ * <p>
+ * Once the journal is as big as the JSON file (and at least the compaction
+ * threshold), it's compacted in the background: the journal is renamed to
+ * `todos.json.journal.compacting` (new changes go to a new journal), the
+ * todos as of the end of the old journal are written to a new JSON file,
+ * which atomically replaces the old one, and then the old journal is
+ * deleted. The directory is forced to the disk after each of those steps,
+ * so none of them can be undone by a crash once the next has started. A
+ * server that dies part way through replays both journals, in order, on
+ * top of whichever JSON file is in place.
+ */
+public final class TodoJournal implements Closeable {
+
+  // "TDJ" and the version of the format.
+  private static final int MAGIC = 0x54444A01;
+  private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+  private static final int DELETED = -1;
+
+  /**
+   * By default, the journal is compacted once it's at least this big, and
+   * at least as big as the JSON file.
+   */
+  public static final long DEFAULT_COMPACTION_BYTES = 16L * 1024 * 1024;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final boolean WINDOWS = System.getProperty("os.name").startsWith("Windows");
+
+  private final Path todoDataFile;
+  private final Path journalFile;
+  private final Path compactingFile;
+  private final TextStorage storage;
+  private final long compactionBytes;
+
+  // Only touched in a `Reloadable` turn (an update, or the catch-up after a
+  // reload), so appends, replays and renames never overlap; it's only
+  // volatile for the stats.
+  private volatile FileChannel channel;
+
+  // Incremented each time compaction replaces the JSON file. A reload whose
+  // JSON file was replaced before it caught up reads it again, since the
+  // journal it was paired with is gone.
+  private volatile long generation;
+  private volatile long loadedGeneration;
+
+  private final AtomicBoolean compacting = new AtomicBoolean();
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "compact-todos");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // For the stats; only written in a `Reloadable` turn.
+  private volatile long commits;
+  private volatile long changes;
+  private volatile long syncNanos;
+  private volatile long replayedChanges;
+  private volatile long recoveryMillis;
+  private volatile long compactions;
+  private volatile long writtenDataFileMillis = -1;
+
+  /**
+   * Open the journal of a JSON file of todos, creating it if there isn't
+   * one. Nothing is replayed until `recover` or `catchUp` is called.
+   *
+   * @param todoDataFile    the JSON file of todos
+   * @param storage         where to keep the todos' bodies
+   * @param compactionBytes how big the journal gets before it's compacted
+   * @throws IOException if the journal can't be opened
+   */
+  public TodoJournal(Path todoDataFile, TextStorage storage, long compactionBytes) throws IOException {
+    this.todoDataFile = todoDataFile;
+    this.journalFile = todoDataFile.resolveSibling(todoDataFile.getFileName() + ".journal");
+    this.compactingFile = journalFile.resolveSibling(journalFile.getFileName() + ".compacting");
+    this.storage = storage;
+    this.compactionBytes = compactionBytes;
+    this.channel = openJournal(journalFile);
+  }
+
+  /**
+   * Open the journal of a JSON file of todos (see above), compacting it once
+   * it reaches `DEFAULT_COMPACTION_BYTES`.
+   *
+   * @param todoDataFile the JSON file of todos
+   * @param storage      where to keep the todos' bodies
+   * @throws IOException if the journal can't be opened
+   */
+  public TodoJournal(Path todoDataFile, TextStorage storage) throws IOException {
+    this(todoDataFile, storage, DEFAULT_COMPACTION_BYTES);
+  }
+
+  private static FileChannel openJournal(Path file) throws IOException {
+    FileChannel opened = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE);
+    if (opened.size() < Integer.BYTES) {
+      ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC);
+      header.flip();
+      opened.truncate(0);
+      opened.write(header, 0);
+      opened.force(true);
+      // A new file isn't there after a crash until its directory is forced.
+      forceDirectory(file);
+    }
+    opened.position(opened.size());
+    return opened;
+  }
+
+  /**
+   * Force the directory holding a file to the disk, so a rename, creation
+   * or deletion of the file survives a crash. Forcing the file itself
+   * doesn't cover its directory entry.
+   *
+   * @param file the file whose directory to force
+   * @throws IOException if the directory can't be forced
+   */
+  private static void forceDirectory(Path file) throws IOException {
+    if (WINDOWS) {
+      // Windows won't open a directory, and its renames are journaled
+      // by the file system anyway.
+      return;
+    }
+    try (FileChannel directory = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+      directory.force(true);
+    }
+  }
+
+  /**
+   * Load the todos as they were when the last change was journaled: the
+   * todos in the JSON file, with the journal replayed on top of them. This
+   * is for starting up, before the todos are being served; after that, see
+   * `loadBase`.
+   *
+   * @return the recovered "todoDatabase"
+   * @throws IOException if the JSON file or the journal can't be read
+   */
+  public TodoDatabase recover() throws IOException {
+    try {
+      return catchUp(loadBase());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Load the todos in the JSON file, without replaying the journal; that's
+   * up to `catchUp`. This and `catchUp` are the loader and catch-up of a
+   * `Reloadable`, so a reload never loses the journaled changes.
+   *
+   * @return a "todoDatabase" of the todos in the JSON file
+   * @throws IOException if the JSON file can't be read
+   */
+  public TodoDatabase loadBase() throws IOException {
+    loadedGeneration = generation;
+    return TodoDatabase.fromFile(todoDataFile, storage);
+  }
+
+  /**
+   * Replay the journal on top of the todos `loadBase` loaded. Must only be
+   * called in a `Reloadable` turn.
+   *
+   * @param loaded the "todoDatabase" that `loadBase` returned
+   * @return the todos as they were when the last change was journaled
+   * @throws UncheckedIOException if the journal (or, if it has been compacted
+   *                              since, the JSON file) can't be read
+   */
+  public TodoDatabase catchUp(TodoDatabase loaded) {
+    long start = System.nanoTime();
+    try {
+      TodoDatabase base = loadedGeneration == generation ? loaded : loadBase();
+      Map<String, Todo> journaled = new LinkedHashMap<>();
+      if (Files.exists(compactingFile)) {
+        try (FileChannel old = FileChannel.open(compactingFile, StandardOpenOption.READ)) {
+          replay(old, compactingFile, journaled);
+        }
+      }
+      long end = replay(channel, journalFile, journaled);
+      if (end < channel.size()) {
+        System.err.printf("Dropping a partly written record at the end of %s (%d bytes)%n", journalFile,
+            channel.size() - end);
+        channel.truncate(end);
+        channel.force(true);
+      }
+      channel.position(end);
+      replayedChanges = journaled.size();
+      recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      if (journaled.isEmpty()) {
+        return base;
+      }
+      TodoDatabase caughtUp = base.withChanges(journaled);
+      System.out.printf("Replayed %d journaled changes to the todos in %d ms%n", journaled.size(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      return caughtUp;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Read every complete record in a journal.
+   *
+   * @param journal   the journal to read
+   * @param file      the journal's path, for error messages
+   * @param journaled where to put the changes, in order, with later changes
+   *                  to a todo replacing earlier ones
+   * @return the offset just past the last complete record
+   * @throws IOException if the journal can't be read, or isn't a journal
+   */
+  private static long replay(FileChannel journal, Path file, Map<String, Todo> journaled) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(journal, header.limit(Integer.BYTES), 0);
+    if (header.position() < Integer.BYTES || header.getInt(0) != MAGIC) {
+      throw new IOException(file + " isn't a todo journal");
+    }
+    long size = journal.size();
+    long offset = Integer.BYTES;
+    CRC32 crc = new CRC32();
+    while (offset + RECORD_HEADER_BYTES <= size) {
+      header.clear();
+      readFully(journal, header, offset);
+      int length = header.getInt(0);
+      int checksum = header.getInt(Integer.BYTES);
+      if (length < 0 || length > size - offset - RECORD_HEADER_BYTES) {
+        break;
+      }
+      ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(journal, payload, offset + RECORD_HEADER_BYTES);
+      crc.reset();
+      crc.update(payload.array());
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+      payload.flip();
+      for (int count = payload.getInt(); count > 0; --count) {
+        String id = getString(payload);
+        String json = getString(payload);
+        journaled.put(id, json == null ? null : MAPPER.readValue(json, Todo.class));
+      }
+      offset += RECORD_HEADER_BYTES + length;
+    }
+    return offset;
+  }
+
+  private static void readFully(FileChannel journal, ByteBuffer buffer, long offset) throws IOException {
+    long position = offset;
+    while (buffer.hasRemaining()) {
+      int read = journal.read(buffer, position);
+      if (read < 0) {
+        return;
+      }
+      position += read;
+    }
+  }
+
+  private static String getString(ByteBuffer payload) {
+    int length = payload.getInt();
+    if (length == DELETED) {
+      return null;
+    }
+    String value = new String(payload.array(), payload.position(), length, StandardCharsets.UTF_8);
+    payload.position(payload.position() + length);
+    return value;
+  }
+
+  /**
+   * Append a batch of changes to the journal as a single record, and force
+   * it to the disk. Must only be called in a `Reloadable` turn.
+   *
+   * @param batch for each `_id` to add or update, the new todo, and for each
+   *              `_id` to delete, null
+   * @throws IOException if the record can't be written and forced
+   */
+  void append(Map<String, Todo> batch) throws IOException {
+    List<byte[]> encoded = new ArrayList<>();
+    int length = Integer.BYTES;
+    for (Map.Entry<String, Todo> change : batch.entrySet()) {
+      byte[] id = change.getKey().getBytes(StandardCharsets.UTF_8);
+      byte[] json = change.getValue() == null ? null : JsonBytes.toJson(change.getValue());
+      encoded.add(id);
+      encoded.add(json);
+      length += Integer.BYTES + id.length + Integer.BYTES + (json == null ? 0 : json.length);
+    }
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + length).order(ByteOrder.LITTLE_ENDIAN);
+    record.putInt(length).putInt(0).putInt(batch.size());
+    for (byte[] bytes : encoded) {
+      if (bytes == null) {
+        record.putInt(DELETED);
+      } else {
+        record.putInt(bytes.length).put(bytes);
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), RECORD_HEADER_BYTES, length);
+    record.putInt(Integer.BYTES, (int) crc.getValue());
+    record.flip();
+
+    long start = channel.position();
+    try {
+      while (record.hasRemaining()) {
+        channel.write(record);
+      }
+      long syncStart = System.nanoTime();
+      // Just the data (and the length, which `fdatasync` covers too); the
+      // other metadata, like the modification time, doesn't matter.
+      channel.force(false);
+      syncNanos += System.nanoTime() - syncStart;
+    } catch (IOException e) {
+      // Don't leave half a record for the next one to be appended after.
+      channel.truncate(start);
+      channel.position(start);
+      throw e;
+    }
+    ++commits;
+    changes += batch.size();
+  }
+
+  /**
+   * Compact the journal in the background if it's due (see above) and a
+   * compaction isn't already running.
+   *
+   * @param todoDatabases the current todos, which this journal is keeping
+   */
+  void compactIfDue(Reloadable<TodoDatabase> todoDatabases) {
+    try {
+      long journalSize = channel.size();
+      if (journalSize < compactionBytes || journalSize < Files.size(todoDataFile)) {
+        return;
+      }
+    } catch (IOException e) {
+      return;
+    }
+    if (!compacting.compareAndSet(false, true)) {
+      return;
+    }
+    compactor.execute(() -> {
+      try {
+        compact(todoDatabases);
+      } catch (IOException | RuntimeException e) {
+        System.err.println("Compacting " + journalFile + " failed; it'll be tried again after the next change.");
+        e.printStackTrace(System.err);
+      } finally {
+        compacting.set(false);
+      }
+    });
+  }
+
+  /**
+   * Fold the journal into a new JSON file of todos. Writers carry on while
+   * the new file is written; they only wait for the journal to be renamed,
+   * and for the new file to be renamed into place.
+   *
+   * @param todoDatabases the current todos, which this journal is keeping
+   * @throws IOException if the new file can't be written
+   */
+  public synchronized void compact(Reloadable<TodoDatabase> todoDatabases) throws IOException {
+    long start = System.nanoTime();
+    // The todos as of the end of the journal being compacted. If a
+    // compaction failed part way through, the journal it was compacting is
+    // still there, and this one folds in both.
+    TodoDatabase folded;
+    try {
+      folded = todoDatabases.update(current -> {
+        rotate();
+        return current;
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    Path temporary = Files.createTempFile(todoDataFile.toAbsolutePath().getParent(),
+        todoDataFile.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel output = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(output));
+        JsonBytes.writeArray(stream, sink -> folded.forEachTodoJson(TodoQuery.fromQueryParams(Map.of()), sink));
+        stream.flush();
+        output.force(true);
+      }
+      todoDatabases.update(current -> {
+        install(temporary);
+        return current;
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    System.out.printf("Compacted the todo journal into %d todos in %d ms%n", folded.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Start a new journal, keeping the old one to compact. Must only be called
+   * in a `Reloadable` turn.
+   */
+  private void rotate() {
+    if (Files.exists(compactingFile)) {
+      return;
+    }
+    try {
+      channel.close();
+      Files.move(journalFile, compactingFile, StandardCopyOption.ATOMIC_MOVE);
+      forceDirectory(journalFile);
+      channel = openJournal(journalFile);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Replace the JSON file with a compacted one, and drop the journal that
+   * was compacted into it. Must only be called in a `Reloadable` turn.
+   */
+  private void install(Path compacted) {
+    try {
+      Files.move(compacted, todoDataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      // The new file has to be in place for good before the journal folded
+      // into it is dropped.
+      forceDirectory(todoDataFile);
+      writtenDataFileMillis = Files.getLastModifiedTime(todoDataFile).toMillis();
+      ++generation;
+      Files.deleteIfExists(compactingFile);
+      forceDirectory(compactingFile);
+      ++compactions;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return whether the JSON file is the one the last compaction wrote, so
+   *         it doesn't need to be reloaded just because it changed
+   */
+  public boolean wroteDataFile() {
+    try {
+      return Files.getLastModifiedTime(todoDataFile).toMillis() == writtenDataFileMillis;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Get statistics about the journal: how many records (`commits`) and
+   * changes have been appended, how long forcing each record to the disk
+   * took on average, and how long the last recovery took.
+   *
+   * @return the statistics, by name
+   */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    long committed = commits;
+    stats.put("commits", committed);
+    stats.put("changes", changes);
+    stats.put("averageChangesPerCommit", committed == 0 ? 0.0 : (double) changes / committed);
+    stats.put("averageSyncMicros", committed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(syncNanos / committed));
+    try {
+      stats.put("journalBytes", channel.size());
+    } catch (IOException e) {
+      stats.put("journalBytes", -1);
+    }
+    stats.put("compactions", compactions);
+    stats.put("replayedChanges", replayedChanges);
+    stats.put("recoveryMillis", recoveryMillis);
+    return stats;
+  }
+
+  @Override
+  public void close() throws IOException {
+    compactor.shutdown();
+    channel.close();
+  }
+}
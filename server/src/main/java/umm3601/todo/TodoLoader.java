@@ -0,0 +1,73 @@
+package umm3601.todo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import umm3601.JsonRecords;
+
+/**
+ * Reads todos from JSON by walking the parser's tokens (see `JsonRecords`),
+ * filling the todo array as it goes.
+ */
+final class TodoLoader {
+
+  private static final String WHAT = "todos";
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private TodoLoader() {
+  }
+
+  /**
+   * Read a JSON array of todos.
+   *
+   * @param input the UTF-8 (or UTF-16/32, which Jackson detects) JSON
+   * @return the todos, in the order they appear in the input
+   * @throws IOException if the input can't be read or isn't an array of todos
+   */
+  static Todo[] readJson(InputStream input) throws IOException {
+    // Owners and categories only have a few distinct values each, so share
+    // them instead of keeping a copy in every todo.
+    JsonRecords.StringPool owners = new JsonRecords.StringPool();
+    JsonRecords.StringPool categories = new JsonRecords.StringPool();
+
+    Todo[] todos = new Todo[INITIAL_CAPACITY];
+    int count = 0;
+    try (JsonParser parser = JsonRecords.factory().createParser(input)) {
+      JsonRecords.startArray(parser, WHAT);
+      while (JsonRecords.nextRecord(parser, WHAT)) {
+        Todo todo = new Todo();
+        while (parser.nextFieldName() != null) {
+          String field = parser.getCurrentName();
+          parser.nextToken();
+          switch (field) {
+            case "_id":
+              todo._id = JsonRecords.text(parser);
+              break;
+            case "owner":
+              todo.owner = owners.intern(JsonRecords.text(parser));
+              break;
+            case "status":
+              todo.status = parser.getValueAsBoolean();
+              break;
+            case "body":
+              todo.body = JsonRecords.text(parser);
+              break;
+            case "category":
+              todo.category = categories.intern(JsonRecords.text(parser));
+              break;
+            default:
+              throw JsonRecords.unknownField(parser, field, "a todo");
+          }
+        }
+        if (count == todos.length) {
+          todos = Arrays.copyOf(todos, count * 2);
+        }
+        todos[count++] = todo;
+      }
+    }
+    return Arrays.copyOf(todos, count);
+  }
+}
@@ -0,0 +1,236 @@
+package umm3601.todo;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.Pagination;
+import umm3601.QueryCache;
+import umm3601.TextColumn;
+
+/**
+ * A parsed and validated `listTodos` query.
+ * <p>
+ * The query parameters are turned into a plan once, up front: the filters to
+ * apply, the order to sort in, and how many todos to return. `TodoDatabase`
+ * then evaluates the whole plan in a single pass over the todos instead of
+ * building a new array for every parameter.
+ */
+public final class TodoQuery {
+
+  static final String OWNER = "owner";
+  static final String BODY = "body";
+  static final String STATUS = "status";
+  static final String CATEGORY = "category";
+  static final String CONTAINS = "contains";
+
+  /**
+   * The attributes todos can be sorted by.
+   */
+  static final List<String> SORT_KEYS = List.of(OWNER, BODY, STATUS, CATEGORY);
+
+  private static final Comparator<String> NULLS_FIRST = Comparator.nullsFirst(Comparator.naturalOrder());
+
+  private Boolean status;
+  private String owner;
+  private String category;
+  private String contains;
+  private String orderBy;
+  private int limit;
+  private boolean limited;
+  private Pagination pagination;
+  private String cacheKey;
+  private String filterNames;
+
+  private TodoQuery() {
+  }
+
+  /**
+   * Build a query plan from the query parameters of a request.
+   * <p>
+   * The status, owner, category and contains values are all matched without
+   * regard to case, so they are case-folded (see `TextColumn.foldCase`) here
+   * once rather than on every todo.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the query plan for the given parameters
+   * @throws BadRequestResponse if any of the parameters have illegal values
+   */
+  public static TodoQuery fromQueryParams(Map<String, List<String>> queryParams) {
+    TodoQuery query = new TodoQuery();
+
+    if (queryParams.containsKey(STATUS)) {
+      query.status = parseStatus(queryParams.get(STATUS).get(0));
+    }
+    if (queryParams.containsKey(CONTAINS)) {
+      query.contains = TextColumn.foldCase(queryParams.get(CONTAINS).get(0));
+    }
+    if (queryParams.containsKey(OWNER)) {
+      query.owner = TextColumn.foldCase(queryParams.get(OWNER).get(0));
+    }
+    if (queryParams.containsKey(CATEGORY)) {
+      query.category = TextColumn.foldCase(queryParams.get(CATEGORY).get(0));
+    }
+    if (queryParams.containsKey("orderBy")) {
+      query.orderBy = queryParams.get("orderBy").get(0);
+      if (!SORT_KEYS.contains(query.orderBy)) {
+        throw new BadRequestResponse("Specified order '" + query.orderBy + "' is not an applicable todo attribute");
+      }
+    }
+    if (queryParams.containsKey("limit")) {
+      String limitParam = queryParams.get("limit").get(0);
+      try {
+        query.limit = Integer.parseInt(limitParam);
+        query.limited = true;
+      } catch (NumberFormatException e) {
+        throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be parsed to an integer");
+      }
+      if (query.limit < 0) {
+        throw new BadRequestResponse("Specified limit '" + limitParam + "' can't be negative");
+      }
+    }
+    query.filterNames = filterNames(query);
+    query.pagination = Pagination.fromQueryParams(queryParams, query.orderBy);
+    query.cacheKey = QueryCache.key(query.status, query.owner, query.category, query.contains, query.orderBy,
+        query.limited ? query.limit : null, query.pagination == null ? null : query.pagination.getCacheKey());
+
+    return query;
+  }
+
+  private static String filterNames(TodoQuery query) {
+    StringBuilder names = new StringBuilder();
+    appendName(names, query.status != null, STATUS);
+    appendName(names, query.owner != null, OWNER);
+    appendName(names, query.category != null, CATEGORY);
+    appendName(names, query.contains != null, CONTAINS);
+    return names.length() == 0 ? "none" : names.toString();
+  }
+
+  private static void appendName(StringBuilder names, boolean filtered, String name) {
+    if (filtered) {
+      names.append(names.length() == 0 ? "" : ",").append(name);
+    }
+  }
+
+  /**
+   * Parse a status query value.
+   *
+   * @param targetStatus the target status ("complete" or "incomplete")
+   * @return true for complete, false for incomplete
+   * @throws BadRequestResponse if the status isn't one of the two legal values
+   */
+  static boolean parseStatus(String targetStatus) {
+    switch (targetStatus.toLowerCase(Locale.ROOT)) {
+      case "complete":
+        return true;
+      case "incomplete":
+        return false;
+      default:
+        throw new BadRequestResponse("Specified status '" + targetStatus + "' is not a valid todo status");
+    }
+  }
+
+  /**
+   * Get the comparator that sorts todos by the given attribute, the way the
+   * `TodoDatabase` sort orders do: todos without a value first.
+   *
+   * @param targetOrder the attribute to sort by
+   * @return a comparator that orders todos by that attribute
+   * @throws BadRequestResponse if todos can't be sorted by that attribute
+   */
+  static Comparator<Todo> comparatorFor(String targetOrder) {
+    switch (targetOrder) {
+      case OWNER:
+        return Comparator.comparing(todo -> todo.owner, NULLS_FIRST);
+      case BODY:
+        return Comparator.comparing(todo -> todo.body, NULLS_FIRST);
+      case STATUS:
+        return (x, y) -> Boolean.compare(x.status, y.status);
+      case CATEGORY:
+        return Comparator.comparing(todo -> todo.category, NULLS_FIRST);
+      default:
+        throw new BadRequestResponse("Specified order '" + targetOrder + "' is not an applicable todo attribute");
+    }
+  }
+
+  /**
+   * @return the status to filter on, or null if status isn't filtered
+   */
+  public Boolean getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the case-folded owner to filter on, or null if owner isn't
+   *         filtered
+   */
+  public String getOwner() {
+    return owner;
+  }
+
+  /**
+   * @return the case-folded category to filter on, or null if category isn't
+   *         filtered
+   */
+  public String getCategory() {
+    return category;
+  }
+
+  /**
+   * @return the case-folded text bodies must contain, or null if body isn't
+   *         filtered
+   */
+  public String getContains() {
+    return contains;
+  }
+
+  /**
+   * @return the attribute to sort by, or null if the todos aren't sorted
+   */
+  public String getOrderBy() {
+    return orderBy;
+  }
+
+  /**
+   * @return the maximum number of todos to return, if `hasLimit()`
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return true if this query limits the number of todos returned
+   */
+  public boolean hasLimit() {
+    return limited;
+  }
+
+  /**
+   * Get the canonical form of this query. It's built from the parsed values
+   * rather than the raw query parameters, so two queries that differ only in
+   * the order of their parameters, the case of their case-insensitive values,
+   * or in parameters that aren't used at all, have the same key.
+   *
+   * @return the key of this query in a result cache
+   */
+  public String getCacheKey() {
+    return cacheKey;
+  }
+
+  /**
+   * @return the filters this query applies, in the order they're checked
+   *         (like "status,owner"), or "none"
+   */
+  public String getFilterNames() {
+    return filterNames;
+  }
+
+  /**
+   * @return the pagination of this query, or null if it isn't paginated
+   */
+  public Pagination getPagination() {
+    return pagination;
+  }
+}
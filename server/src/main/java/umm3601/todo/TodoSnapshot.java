@@ -0,0 +1,191 @@
+package umm3601.todo;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import umm3601.DictionaryColumn;
+import umm3601.SnapshotReader;
+import umm3601.SnapshotWriter;
+import umm3601.TextColumn;
+import umm3601.TextStorage;
+
+/**
+ * A binary snapshot of a `TodoDatabase` loaded from a JSON file.
+ * <p>
+ * After the header (see `SnapshotWriter`), a todo snapshot holds:
+ * <ul>
+ * <li>the content hash of the todos;</li>
+ * <li>the number of todos;</li>
+ * <li>the `_id`, owner and category columns, each dictionary-encoded;</li>
+ * <li>the body column, as plain UTF-8 (see `SnapshotWriter.writeTextColumn`);</li>
+ * <li>the status column, one byte per todo;</li>
+ * <li>the `_id` index, as its hash table (see `IdIndex`);</li>
+ * <li>the owner and category indexes, each as the number of values followed
+ * by each case-folded value and its posting list;</li>
+ * <li>the sort order for each `orderBy` key, as its key followed by the
+ * positions in order and the slot of each position (see `SortOrder`);
+ * and</li>
+ * <li>the body trigram index, as the number of trigrams followed by each
+ * packed trigram and its posting list.</li>
+ * </ul>
+ * Every index is saved, so loading a snapshot is just reading it back: no
+ * todo is hashed, sorted or serialized (the JSON of each todo is only built
+ * once it's asked for).
+ */
+final class TodoSnapshot {
+
+  // "TDS" and the version of the format; bump the version whenever the
+  // format (or the indexes saved in it) change.
+  private static final int MAGIC = 0x54445305;
+
+  private TodoSnapshot() {
+  }
+
+  /**
+   * Load the todos in a JSON file, from its snapshot if there's an
+   * up-to-date one, and otherwise from the JSON (writing a new snapshot).
+   *
+   * @param source  the JSON file of todos
+   * @param storage where to keep the todos' bodies
+   * @return a "todoDatabase" of the todos in that file
+   * @throws IOException if the file can't be read or isn't an array of todos
+   */
+  static TodoDatabase load(Path source, TextStorage storage) throws IOException {
+    TodoDatabase snapshot = read(source, storage);
+    if (snapshot != null) {
+      return snapshot;
+    }
+
+    // Start the snapshot before reading the JSON, so the snapshot is
+    // stamped with the JSON file as it was when we read it.
+    SnapshotWriter writer = null;
+    try {
+      writer = new SnapshotWriter(source, MAGIC);
+    } catch (IOException e) {
+      System.err.println("Can't write a snapshot of " + source + ", so it'll be parsed again next time: " + e);
+    }
+    try {
+      TodoDatabase todoDatabase = new TodoDatabase(TodoDatabase.readTodos(source), storage);
+      if (writer != null) {
+        try {
+          write(todoDatabase, writer);
+          writer.commit();
+        } catch (IOException e) {
+          System.err.println("Failed to write a snapshot of " + source + ": " + e);
+        }
+      }
+      return todoDatabase;
+    } finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Read the snapshot of a JSON file of todos.
+   *
+   * @param source  the JSON file of todos
+   * @param storage where to keep the todos' bodies
+   * @return a "todoDatabase" of the todos in the snapshot, or null if there's
+   *         no up-to-date snapshot of the file
+   * @throws IOException if the snapshot can't be read
+   */
+  static TodoDatabase read(Path source, TextStorage storage) throws IOException {
+    SnapshotReader reader = SnapshotReader.open(source, MAGIC);
+    if (reader == null) {
+      return null;
+    }
+    try {
+      String contentHash = reader.readString();
+      int size = reader.readInt();
+      String[] ids = reader.readStringColumn();
+      DictionaryColumn owners = reader.readDictionaryColumn();
+      TextColumn bodies = reader.readTextColumn(storage);
+      DictionaryColumn categories = reader.readDictionaryColumn();
+      BitSet statuses = new BitSet(size);
+      for (int i = 0; i < size; ++i) {
+        statuses.set(i, reader.readByte() != 0);
+      }
+      TodoColumns columns = new TodoColumns(ids, owners, statuses, bodies, categories);
+      IdIndex todosById = new IdIndex(columns.ids(), reader.readInts());
+      PostingLists<String> todosByOwner = PostingLists.of(readPostingLists(reader));
+      PostingLists<String> todosByCategory = PostingLists.of(readPostingLists(reader));
+
+      Map<String, SortOrder> sortOrders = new HashMap<>();
+      int sortKeys = reader.readInt();
+      for (int i = 0; i < sortKeys; ++i) {
+        String key = reader.readString();
+        int[] sorted = reader.readInts();
+        sortOrders.put(key, SortOrder.of(sorted, reader.readInts()));
+      }
+
+      int trigrams = reader.readInt();
+      Map<Long, int[]> postingLists = new HashMap<>(trigrams * 2);
+      for (int i = 0; i < trigrams; ++i) {
+        long gram = reader.readLong();
+        postingLists.put(gram, reader.readInts());
+      }
+
+      return new TodoDatabase(columns, todosById, todosByOwner, todosByCategory, sortOrders,
+          new TrigramIndex(postingLists), contentHash);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      // The snapshot is damaged; the JSON is still there.
+      return null;
+    }
+  }
+
+  private static Map<String, int[]> readPostingLists(SnapshotReader reader) {
+    int values = reader.readInt();
+    Map<String, int[]> postingLists = new HashMap<>(values * 2);
+    for (int i = 0; i < values; ++i) {
+      String value = reader.readString();
+      postingLists.put(value, reader.readInts());
+    }
+    return postingLists;
+  }
+
+  private static void writePostingLists(PostingLists<String> lists, SnapshotWriter writer) throws IOException {
+    Map<String, PostingList> postingLists = lists.asMap();
+    writer.writeInt(postingLists.size());
+    for (Map.Entry<String, PostingList> entry : postingLists.entrySet()) {
+      writer.writeString(entry.getKey());
+      writer.writeInts(entry.getValue().toArray());
+    }
+  }
+
+  private static void write(TodoDatabase todoDatabase, SnapshotWriter writer) throws IOException {
+    TodoColumns columns = todoDatabase.columns();
+    writer.writeString(todoDatabase.getContentHash());
+    writer.writeInt(columns.size());
+    writer.writeStringColumn(columns.ids().toArray(new String[columns.size()]));
+    writer.writeDictionaryColumn(columns.owners());
+    writer.writeTextColumn(columns.bodies());
+    writer.writeDictionaryColumn(columns.categories());
+    for (int i = 0; i < columns.size(); ++i) {
+      writer.writeByte(columns.statuses().get(i) ? (byte) 1 : (byte) 0);
+    }
+    writer.writeInts(todoDatabase.todosById().table());
+    writePostingLists(todoDatabase.todosByOwner(), writer);
+    writePostingLists(todoDatabase.todosByCategory(), writer);
+
+    Map<String, SortOrder> sortOrders = todoDatabase.sortOrders();
+    writer.writeInt(sortOrders.size());
+    for (Map.Entry<String, SortOrder> entry : sortOrders.entrySet()) {
+      writer.writeString(entry.getKey());
+      writer.writeInts(entry.getValue().toArray());
+      writer.writeInts(entry.getValue().slots());
+    }
+
+    Map<Long, PostingList> postingLists = todoDatabase.bodyIndex().postingLists();
+    writer.writeInt(postingLists.size());
+    for (Map.Entry<Long, PostingList> entry : postingLists.entrySet()) {
+      writer.writeLong(entry.getKey());
+      writer.writeInts(entry.getValue().toArray());
+    }
+  }
+}
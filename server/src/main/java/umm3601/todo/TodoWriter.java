@@ -0,0 +1,233 @@
+package umm3601.todo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+import umm3601.Reloadable;
+
+/**
+ * Adds, updates and deletes todos.
+ * <p>
+ * Every change makes a new `TodoDatabase` (see `TodoDatabase.withChanges`)
+ * and swaps it in, so readers never wait for a writer, and never see a
+ * change half made. Writers take turns, and making a new "todoDatabase"
+ * copies its columns however few todos change, so writers don't each make
+ * their own: whichever writer gets the next turn makes all of the changes
+ * that are waiting by then, as a single new "todoDatabase", and the writers
+ * that were waiting just return (a "group commit"). The busier the writers
+ * are, the more changes share each copy.
+ * <p>
+ * Given a `TodoJournal`, each batch is also appended to the journal, and
+ * forced to the disk, once its new "todoDatabase" has been made but before
+ * it's swapped in, so a change that has been made survives a restart, a
+ * batch that couldn't be made is never journaled (to come back on the next
+ * restart), and the batching shares each `fsync` the same way. Without
+ * one, the changes last until the server stops (or the todos are
+ * reloaded).
+ */
+public final class TodoWriter {
+
+  private final Reloadable<TodoDatabase> todoDatabases;
+  private final TodoJournal journal;
+  private final Queue<Change<?>> waiting = new ConcurrentLinkedQueue<>();
+  private final ReentrantLock turn = new ReentrantLock();
+
+  /**
+   * Construct a writer for the todos that doesn't journal its changes.
+   *
+   * @param todoDatabases the "todoDatabase" to change
+   */
+  public TodoWriter(Reloadable<TodoDatabase> todoDatabases) {
+    this(todoDatabases, null);
+  }
+
+  /**
+   * Construct a writer for the todos that journals its changes.
+   *
+   * @param todoDatabases the "todoDatabase" to change
+   * @param journal       where to journal the changes, or null not to
+   */
+  public TodoWriter(Reloadable<TodoDatabase> todoDatabases, TodoJournal journal) {
+    this.todoDatabases = todoDatabases;
+    this.journal = journal;
+  }
+
+  /**
+   * Add a todo, with a new `_id`.
+   *
+   * @param todo the todo to add; its `_id`, if any, is ignored, and it isn't
+   *             modified
+   * @return the todo that was added, with its new `_id`
+   */
+  public Todo addTodo(Todo todo) {
+    return submit((current, changes) -> {
+      String id = newId();
+      while (exists(current, changes, id)) {
+        id = newId();
+      }
+      Todo added = copy(todo, id);
+      changes.put(id, added);
+      return added;
+    });
+  }
+
+  /**
+   * Replace a todo.
+   *
+   * @param id   the `_id` of the todo to replace
+   * @param todo the new todo; its `_id`, if any, is ignored, and it isn't
+   *             modified
+   * @return the todo as it is now, or null if there's no todo with that
+   *         `_id`
+   */
+  public Todo updateTodo(String id, Todo todo) {
+    return submit((current, changes) -> {
+      if (!exists(current, changes, id)) {
+        return null;
+      }
+      Todo updated = copy(todo, id);
+      changes.put(id, updated);
+      return updated;
+    });
+  }
+
+  /**
+   * Delete a todo.
+   *
+   * @param id the `_id` of the todo to delete
+   * @return true if the todo was deleted, or false if there's no todo with
+   *         that `_id`
+   */
+  public boolean deleteTodo(String id) {
+    return submit((current, changes) -> {
+      if (!exists(current, changes, id)) {
+        return false;
+      }
+      changes.put(id, null);
+      return true;
+    });
+  }
+
+  /**
+   * Wait for a turn to make changes, unless another writer makes this one
+   * first.
+   *
+   * @param <R>    the type of the change's result
+   * @param change the change to make
+   * @return the result of the change
+   */
+  private <R> R submit(BiFunction<TodoDatabase, Map<String, Todo>, R> change) {
+    Change<R> waitingChange = new Change<>(change);
+    waiting.add(waitingChange);
+    turn.lock();
+    try {
+      if (!waitingChange.done) {
+        makeWaitingChanges();
+      }
+    } finally {
+      turn.unlock();
+    }
+    if (waitingChange.failure != null) {
+      throw waitingChange.failure;
+    }
+    return waitingChange.result;
+  }
+
+  /**
+   * Make every change that's waiting, as a single new "todoDatabase". Must
+   * only be called by the writer whose turn it is.
+   */
+  private void makeWaitingChanges() {
+    List<Change<?>> batch = new ArrayList<>();
+    for (Change<?> change = waiting.poll(); change != null; change = waiting.poll()) {
+      batch.add(change);
+    }
+    try {
+      todoDatabases.update(current -> {
+        // Later changes in the batch see the earlier ones.
+        Map<String, Todo> changes = new LinkedHashMap<>();
+        for (Change<?> change : batch) {
+          change.make(current, changes);
+        }
+        TodoDatabase next = current.withChanges(changes);
+        if (journal != null && !changes.isEmpty()) {
+          try {
+            journal.append(changes);
+          } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't journal the changes to the todos", e);
+          }
+        }
+        return next;
+      });
+      if (journal != null) {
+        journal.compactIfDue(todoDatabases);
+      }
+    } catch (RuntimeException e) {
+      for (Change<?> change : batch) {
+        change.failure = e;
+      }
+    }
+    for (Change<?> change : batch) {
+      change.done = true;
+    }
+  }
+
+  /**
+   * @return whether there's a todo with the given `_id`, once the changes
+   *         so far in a batch have been made
+   */
+  private static boolean exists(TodoDatabase current, Map<String, Todo> changes, String id) {
+    return changes.containsKey(id) ? changes.get(id) != null : current.contains(id);
+  }
+
+  /**
+   * Make a new `_id`, shaped like the existing ones (and like a MongoDB
+   * ObjectId): 24 hex digits, starting with the time in seconds.
+   */
+  private static String newId() {
+    long seconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    return String.format("%08x%016x", seconds, ThreadLocalRandom.current().nextLong());
+  }
+
+  private static Todo copy(Todo todo, String id) {
+    Todo copy = new Todo();
+    copy._id = id;
+    copy.owner = todo.owner;
+    copy.status = todo.status;
+    copy.body = todo.body;
+    copy.category = todo.category;
+    return copy;
+  }
+
+  /**
+   * A change waiting for a writer to make it. Its fields are only touched by
+   * the writer whose turn it is, and read by the change's own writer once it
+   * has had its turn.
+   *
+   * @param <R> the type of the change's result
+   */
+  private static final class Change<R> {
+    private final BiFunction<TodoDatabase, Map<String, Todo>, R> change;
+    private R result;
+    private RuntimeException failure;
+    private boolean done;
+
+    Change(BiFunction<TodoDatabase, Map<String, Todo>, R> change) {
+      this.change = change;
+    }
+
+    void make(TodoDatabase current, Map<String, Todo> changes) {
+      result = change.apply(current, changes);
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package umm3601.todo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import umm3601.TextColumn;
+
+/**
+ * An inverted index from every three-character sequence (trigram) of the
+ * case-folded (see `TextColumn.foldCase`) todo bodies to the positions of the
+ * todos containing it.
+ * <p>
+ * Any body containing a search string must contain every trigram of that
+ * string, so intersecting the posting lists of the search string's trigrams
+ * gives a (usually small) set of candidates. Those candidates still have to be
+ * checked, since having all the trigrams doesn't mean having them in the
+ * right order.
+ */
+final class TrigramIndex {
+
+  /**
+   * Trigrams are three characters long, so shorter searches can't use the
+   * index.
+   */
+  static final int GRAM_LENGTH = 3;
+
+  private static final int BITS_PER_CHAR = 16;
+
+  private final PostingLists<Long> postingLists;
+
+  /**
+   * Build the index over the bodies of the given todos.
+   *
+   * @param todos the todos to index; positions refer to these columns
+   */
+  TrigramIndex(TodoColumns todos) {
+    // First count how many todos contain each trigram, so every posting
+    // list can be allocated at its exact size.
+    Map<Long, int[]> counts = new HashMap<>();
+    for (int i = 0; i < todos.size(); ++i) {
+      for (long gram : distinctTrigrams(todos.body(i))) {
+        counts.computeIfAbsent(gram, key -> new int[1])[0]++;
+      }
+    }
+    Map<Long, int[]> lists = new HashMap<>(counts.size() * 2);
+    for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+      lists.put(entry.getKey(), new int[entry.getValue()[0]]);
+      entry.getValue()[0] = 0;
+    }
+    for (int i = 0; i < todos.size(); ++i) {
+      for (long gram : distinctTrigrams(todos.body(i))) {
+        lists.get(gram)[counts.get(gram)[0]++] = i;
+      }
+    }
+    postingLists = PostingLists.of(lists);
+  }
+
+  /**
+   * Rebuild an index from its posting lists, as saved by `TodoSnapshot`.
+   *
+   * @param postingLists a map from each packed trigram to the sorted
+   *                     positions of the todos whose bodies contain it
+   */
+  TrigramIndex(Map<Long, int[]> postingLists) {
+    this(PostingLists.of(postingLists));
+  }
+
+  private TrigramIndex(PostingLists<Long> postingLists) {
+    this.postingLists = postingLists;
+  }
+
+  /**
+   * Get a copy of this index with some todos' bodies replaced, removed or
+   * added. This index is left as it is, and shares with the copy the posting
+   * lists of every trigram that none of those bodies contain (and the
+   * unchanged blocks of the rest; see `PostingLists`).
+   *
+   * @param removed   the positions of the updated and deleted todos
+   * @param oldBodies the body of each of those todos before
+   * @param positions the ascending positions of the updated and added todos
+   * @param bodies    the body of each of those todos now
+   * @return the changed copy
+   */
+  TrigramIndex withChanges(List<Integer> removed, List<String> oldBodies, int[] positions, String[] bodies) {
+    Map<Long, List<Integer>> removedByGram = new HashMap<>();
+    for (int i = 0; i < removed.size(); ++i) {
+      for (long gram : distinctTrigrams(oldBodies.get(i))) {
+        removedByGram.computeIfAbsent(gram, key -> new ArrayList<>()).add(removed.get(i));
+      }
+    }
+    Map<Long, List<Integer>> added = new HashMap<>();
+    for (int i = 0; i < positions.length; ++i) {
+      for (long gram : distinctTrigrams(bodies[i])) {
+        added.computeIfAbsent(gram, key -> new ArrayList<>()).add(positions[i]);
+      }
+    }
+    return new TrigramIndex(postingLists.withChanges(removedByGram, added));
+  }
+
+  /**
+   * @return a map from each packed trigram to the positions of the todos
+   *         whose bodies contain it
+   */
+  Map<Long, PostingList> postingLists() {
+    return postingLists.asMap();
+  }
+
+  /**
+   * Get the positions of the todos whose bodies might contain the given
+   * text. Every todo that does contain it is included, but the candidates
+   * still need to be checked.
+   *
+   * @param lowercaseTarget the (already folded) text to search for
+   * @return the candidate positions, or null if the text is too short to
+   *         narrow the search down
+   */
+  PostingList candidates(String lowercaseTarget) {
+    long[] grams = distinctTrigrams(lowercaseTarget);
+    if (grams.length == 0) {
+      return null;
+    }
+
+    PostingList[] lists = new PostingList[grams.length];
+    for (int i = 0; i < grams.length; ++i) {
+      lists[i] = postingLists.get(grams[i]);
+      if (lists[i] == null) {
+        // No todo has this trigram, so no todo can match.
+        return PostingList.EMPTY;
+      }
+    }
+    // Intersect the shortest lists first so the intermediate results
+    // shrink as quickly as possible.
+    Arrays.sort(lists, (x, y) -> Integer.compare(x.size(), y.size()));
+    PostingList result = lists[0];
+    for (int i = 1; i < lists.length && result.size() > 0; ++i) {
+      result = result.intersect(lists[i]);
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of distinct trigrams in the index
+   */
+  int trigramCount() {
+    return postingLists.size();
+  }
+
+  /**
+   * @return roughly how many bytes the posting lists take up
+   */
+  long postingBytes() {
+    long bytes = 0;
+    for (PostingList list : postingLists.asMap().values()) {
+      bytes += list.bytes();
+    }
+    return bytes;
+  }
+
+  /**
+   * Get the distinct, case-folded trigrams of some text, each packed into a
+   * long. Characters are folded one at a time with `TextColumn.foldCase`,
+   * just as `TextColumn.containsIgnoreCase` compares them.
+   *
+   * @param text the text to split into trigrams, or null for a todo with no
+   *             body
+   * @return the sorted, distinct trigrams of the text (none for null, so a
+   *         todo with no body is never a candidate)
+   */
+  private static long[] distinctTrigrams(String text) {
+    if (text == null) {
+      return new long[0];
+    }
+    int count = text.length() - GRAM_LENGTH + 1;
+    if (count <= 0) {
+      return new long[0];
+    }
+    long[] grams = new long[count];
+    for (int i = 0; i < count; ++i) {
+      long gram = 0;
+      for (int j = 0; j < GRAM_LENGTH; ++j) {
+        gram = (gram << BITS_PER_CHAR) | TextColumn.foldCase(text.charAt(i + j));
+      }
+      grams[i] = gram;
+    }
+    Arrays.sort(grams);
+    int distinct = 0;
+    for (int i = 0; i < count; ++i) {
+      if (i == 0 || grams[i] != grams[i - 1]) {
+        grams[distinct++] = grams[i];
+      }
+    }
+    return Arrays.copyOf(grams, distinct);
+  }
+}
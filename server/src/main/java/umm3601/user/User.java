@@ -1,5 +1,7 @@
 package umm3601.user;
 
+import java.util.Objects;
+
 // There are two examples of suppressing CheckStyle
 // warnings in this class. If you create new classes
 // that mirror data in the database and that will be managed
@@ -29,4 +31,26 @@ public class User {
   public String email;
   public String avatar;
   public String role;
+
+  // A "userDatabase" builds a new User from its columns every time one is
+  // asked for, so two Users are equal if their fields are.
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof User)) {
+      return false;
+    }
+    User other = (User) obj;
+    return Objects.equals(_id, other._id)
+        && Objects.equals(name, other.name)
+        && age == other.age
+        && Objects.equals(company, other.company)
+        && Objects.equals(email, other.email)
+        && Objects.equals(avatar, other.avatar)
+        && Objects.equals(role, other.role);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(_id, name, age, company, email, avatar, role);
+  }
 }
@@ -0,0 +1,146 @@
+package umm3601.user;
+
+import umm3601.DictionaryColumn;
+import umm3601.TextColumn;
+import umm3601.TextStorage;
+
+/**
+ * The users of a `UserDatabase`, stored a column per field instead of an
+ * object per user.
+ * <p>
+ * There are only a handful of distinct companies and roles, so those columns
+ * are dictionary-encoded (see `DictionaryColumn`), and the ages are a plain
+ * `int[]`. The `_id`s and names are kept as a string per user, and the emails
+ * and avatar URLs as `TextColumn`s (on or off the heap, depending on the
+ * `TextStorage`). `User` objects are only built when a caller asks for one.
+ */
+final class UserColumns {
+
+  private final String[] ids;
+  private final String[] names;
+  private final int[] ages;
+  private final DictionaryColumn companies;
+  private final TextColumn emails;
+  private final TextColumn avatars;
+  private final DictionaryColumn roles;
+
+  /**
+   * @param ids       the `_id` of each user
+   * @param names     the name of each user
+   * @param ages      the age of each user
+   * @param companies the company of each user
+   * @param emails    the email address of each user
+   * @param avatars   the avatar URL of each user
+   * @param roles     the role of each user
+   */
+  UserColumns(String[] ids, String[] names, int[] ages, DictionaryColumn companies, TextColumn emails,
+      TextColumn avatars, DictionaryColumn roles) {
+    this.ids = ids;
+    this.names = names;
+    this.ages = ages;
+    this.companies = companies;
+    this.emails = emails;
+    this.avatars = avatars;
+    this.roles = roles;
+  }
+
+  /**
+   * Split users up into columns.
+   *
+   * @param users   the users to store
+   * @param storage where to keep the emails and avatar URLs
+   * @return the users' columns
+   */
+  static UserColumns of(User[] users, TextStorage storage) {
+    String[] ids = new String[users.length];
+    String[] names = new String[users.length];
+    int[] ages = new int[users.length];
+    String[] companies = new String[users.length];
+    String[] emails = new String[users.length];
+    String[] avatars = new String[users.length];
+    String[] roles = new String[users.length];
+    for (int i = 0; i < users.length; ++i) {
+      ids[i] = users[i]._id;
+      names[i] = users[i].name;
+      ages[i] = users[i].age;
+      companies[i] = users[i].company;
+      emails[i] = users[i].email;
+      avatars[i] = users[i].avatar;
+      roles[i] = users[i].role;
+    }
+    return new UserColumns(ids, names, ages, DictionaryColumn.encode(companies), TextColumn.of(emails, storage),
+        TextColumn.of(avatars, storage), DictionaryColumn.encode(roles));
+  }
+
+  int size() {
+    return ids.length;
+  }
+
+  String id(int position) {
+    return ids[position];
+  }
+
+  TextStorage storage() {
+    return emails.storage();
+  }
+
+  // The whole columns, for `UserSnapshot` and the filters; none of them
+  // may be modified.
+  String[] ids() {
+    return ids;
+  }
+
+  String[] names() {
+    return names;
+  }
+
+  int[] ages() {
+    return ages;
+  }
+
+  DictionaryColumn companies() {
+    return companies;
+  }
+
+  TextColumn emails() {
+    return emails;
+  }
+
+  TextColumn avatars() {
+    return avatars;
+  }
+
+  DictionaryColumn roles() {
+    return roles;
+  }
+
+  /**
+   * Build the `User` at a position.
+   *
+   * @param position the position of the user
+   * @return a new `User` holding that user's fields
+   */
+  User toUser(int position) {
+    User user = new User();
+    user._id = ids[position];
+    user.name = names[position];
+    user.age = ages[position];
+    user.company = companies.get(position);
+    user.email = emails.get(position);
+    user.avatar = avatars.get(position);
+    user.role = roles.get(position);
+    return user;
+  }
+
+  /**
+   * Get every field of the user at a position as a string, in a fixed
+   * order, for `ETags.contentHashOfFields`.
+   *
+   * @param position the position of the user
+   * @return that user's fields
+   */
+  String[] fields(int position) {
+    return new String[] {ids[position], names[position], Integer.toString(ages[position]), companies.get(position),
+        emails.get(position), avatars.get(position), roles.get(position)};
+  }
+}
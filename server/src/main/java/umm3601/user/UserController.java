@@ -1,15 +1,32 @@
 package umm3601.user;
 
+import java.io.IOException;
+import java.util.function.Supplier;
+
 import io.javalin.http.Context;
 import io.javalin.http.HttpCode;
 import io.javalin.http.NotFoundResponse;
+import umm3601.Compression;
+import umm3601.ETags;
+import umm3601.Page;
+import umm3601.QueryProfile;
+import umm3601.QueryProfiler;
+import umm3601.StreamingJson;
 
 /**
  * Controller that manages requests for info about users.
  */
 public class UserController {
 
-  private UserDatabase userDatabase;
+  /**
+   * By default, lists are streamed to the client (instead of being built in
+   * memory first, and cached) once they could hold at least this many users.
+   */
+  public static final int DEFAULT_STREAMING_THRESHOLD = 10_000;
+
+  private Supplier<UserDatabase> userDatabases;
+  private int streamingThreshold;
+  private QueryProfiler queryProfiler;
 
   /**
    * Construct a controller for users.
@@ -21,19 +38,72 @@ public class UserController {
    * @param userDatabase the `UserDatabase` containing user data
    */
   public UserController(UserDatabase userDatabase) {
-    this.userDatabase = userDatabase;
+    this(userDatabase, DEFAULT_STREAMING_THRESHOLD);
+  }
+
+  /**
+   * Construct a controller for users that streams lists once they could
+   * hold at least `streamingThreshold` users.
+   *
+   * @param userDatabase       the `UserDatabase` containing user data
+   * @param streamingThreshold how many users a list must be able to hold
+   *                           before it's streamed
+   */
+  public UserController(UserDatabase userDatabase, int streamingThreshold) {
+    this(() -> userDatabase, streamingThreshold);
+  }
+
+  /**
+   * Construct a controller for users that answers each request from
+   * whichever "userDatabase" `userDatabases` supplies at the time, so the
+   * users can be reloaded while they're being served (see `Reloadable`).
+   *
+   * @param userDatabases      supplies the current `UserDatabase`
+   * @param streamingThreshold how many users a list must be able to hold
+   *                           before it's streamed
+   */
+  public UserController(Supplier<UserDatabase> userDatabases, int streamingThreshold) {
+    this(userDatabases, streamingThreshold, new QueryProfiler("users"));
+  }
+
+  /**
+   * Construct a controller for users that adds up how long each stage of
+   * the list queries takes in the given profiler (for instance, one that
+   * `MetricsController` reports).
+   *
+   * @param userDatabases      supplies the current `UserDatabase`
+   * @param streamingThreshold how many users a list must be able to hold
+   *                           before it's streamed
+   * @param queryProfiler      adds up the stage timings of the list queries
+   */
+  public UserController(Supplier<UserDatabase> userDatabases, int streamingThreshold, QueryProfiler queryProfiler) {
+    this.userDatabases = userDatabases;
+    this.streamingThreshold = streamingThreshold;
+    this.queryProfiler = queryProfiler;
   }
 
   /**
    * Get the single user specified by the `id` parameter in the request.
+   * <p>
+   * The user was serialized when the "userDatabase" was loaded, so the
+   * response is just a copy of those bytes (or of the gzipped bytes, if the
+   * client accepts gzip and the user is big enough to be worth it). The response is tagged, and a
+   * client that already has it gets a `304 Not Modified` instead.
    *
    * @param ctx a Javalin HTTP context
    */
   public void getUser(Context ctx) {
     String id = ctx.pathParam("id");
-    User user = userDatabase.getUser(id);
-    if (user != null) {
-      ctx.json(user);
+    // One snapshot answers the whole request, even if a reload swaps in
+    // another one part way through.
+    UserDatabase userDatabase = userDatabases.get();
+    byte[] userJson = userDatabase.getUserJson(id);
+    if (userJson != null) {
+      boolean gzip = Compression.negotiateGzip(ctx);
+      if (ETags.checkNotModified(ctx, ETags.forResponse(userDatabase.getContentHash(), id, gzip))) {
+        return;
+      }
+      Compression.sendJson(ctx, userJson, gzip ? Compression.precompress(userJson) : null);
       ctx.status(HttpCode.OK);
     } else {
       throw new NotFoundResponse("No user with id " + id + " was found.");
@@ -42,12 +112,55 @@ public class UserController {
 
   /**
    * Get a JSON response with a list of all the users in the "database".
+   * <p>
+   * Lists that could hold a lot of users (see
+   * `UserDatabase.maxResultSize`) are streamed to the client as they're
+   * found, so memory use stays bounded however many of them match, unless
+   * the result is already cached. Smaller ones are built once and cached,
+   * along with their gzipped JSON. Paginated
+   * requests (`?after=...&pageSize=...`) get a single page of users, with the
+   * cursor for the next page in the `X-Next-Cursor` header.
+   * <p>
+   * Every response is tagged with an `ETag` that's computed from the request
+   * alone, so a repeat poll with `If-None-Match` gets a `304 Not Modified`
+   * before any users are even looked at.
+   * <p>
+   * With `?explain=true`, the response is instead an explanation of how the
+   * query was answered (see `UserDatabase.explainUsers`). Either way, the
+   * time each stage of the query took is added to the `QueryProfiler`.
    *
    * @param ctx a Javalin HTTP context
+   * @throws IOException if streaming the response fails
    */
-  public void getUsers(Context ctx) {
-    User[] users = userDatabase.listUsers(ctx.queryParamMap());
-    ctx.json(users);
+  public void getUsers(Context ctx) throws IOException {
+    UserQuery query = UserQuery.fromQueryParams(ctx.queryParamMap());
+    UserDatabase userDatabase = userDatabases.get();
+    if ("true".equals(ctx.queryParam("explain"))) {
+      ctx.json(userDatabase.explainUsers(query).toMap());
+      return;
+    }
+    boolean gzip = Compression.negotiateGzip(ctx);
+    if (ETags.checkNotModified(ctx, ETags.forResponse(userDatabase.getContentHash(), query.getCacheKey(), gzip))) {
+      return;
+    }
+    QueryProfile profile = new QueryProfile(false);
+    if (query.getPagination() != null) {
+      Page<User> page = userDatabase.listUserPage(query, profile);
+      page.addHeaders(ctx);
+      Compression.json(ctx, page.getItems());
+    } else if (userDatabase.maxResultSize(query) >= streamingThreshold && !userDatabase.isCached(query, gzip)) {
+      StreamingJson.writeRawArray(ctx, sink -> userDatabase.forEachUserJson(query, profile, sink));
+    } else {
+      byte[] gzipped = gzip ? userDatabase.listUsersGzip(query, profile) : null;
+      if (gzipped != null) {
+        ctx.contentType("application/json");
+        Compression.sendGzipped(ctx, gzipped);
+      } else {
+        User[] users = userDatabase.listUsers(query, profile);
+        ctx.json(users);
+      }
+    }
+    queryProfiler.record(profile);
   }
 
 }
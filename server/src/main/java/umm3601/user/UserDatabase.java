@@ -1,14 +1,32 @@
 package umm3601.user;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import io.javalin.http.BadRequestResponse;
+import umm3601.Compression;
+import umm3601.Cursor;
+import umm3601.DictionaryColumn;
+import umm3601.ETags;
+import umm3601.JsonBytes;
+import umm3601.MappedInputStream;
+import umm3601.Page;
+import umm3601.Pagination;
+import umm3601.QueryCache;
+import umm3601.QueryProfile;
+import umm3601.RecordCache;
+import umm3601.TextStorage;
 
 /**
  * A fake "userDatabase" of user info
@@ -20,27 +38,296 @@ import io.javalin.http.BadRequestResponse;
  */
 public class UserDatabase {
 
-  private User[] allUsers;
+  // The users themselves, a column per field (see `UserColumns`).
+  private UserColumns columns;
+  private Map<String, Integer> usersById;
+  // How many users have each company and role code, so `maxResultSize` can
+  // bound a result without running its query.
+  private int[] companyCounts;
+  private int[] roleCounts;
+
+  // Every user that's been served, serialized to UTF-8 JSON. The users
+  // never change once they're loaded, so there's no reason to serialize one
+  // twice, but there's no reason to serialize the ones nobody asks for (at
+  // load time, say) either.
+  // The JSON holds a copy of every email and avatar URL, though, so when
+  // those are kept off the heap this is null and each user is serialized
+  // as it's served instead (see `json`).
+  private RecordCache<byte[]> userJson;
+  private String contentHash;
+
+  // Recent `listUsers` results. The cache belongs to this "userDatabase",
+  // so loading new users (into a new "userDatabase") starts a new cache.
+  private QueryCache<User[]> listCache =
+      new QueryCache<>(QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_WEIGHT, users -> users.length);
+  // The same results, as gzipped JSON. Results too small to be worth
+  // compressing are cached as an empty array.
+  private QueryCache<byte[]> gzipCache =
+      new QueryCache<>(QueryCache.DEFAULT_MAX_ENTRIES, Compression.DEFAULT_CACHE_BYTES, gzipped -> gzipped.length);
 
   public UserDatabase(String userDataFile) throws IOException {
-    InputStreamReader reader = new InputStreamReader(getClass().getResourceAsStream(userDataFile));
-    ObjectMapper objectMapper = new ObjectMapper();
-    allUsers = objectMapper.readValue(reader, User[].class);
+    this(userDataFile, TextStorage.HEAP);
+  }
+
+  /**
+   * Load a "userDatabase" from a JSON file bundled into the jar.
+   *
+   * @param userDataFile the name of the JSON resource of users
+   * @param storage      where to keep the users' emails and avatar URLs
+   * @throws IOException if the resource can't be read or isn't an array of
+   *                     users
+   */
+  public UserDatabase(String userDataFile, TextStorage storage) throws IOException {
+    this(readUsers(userDataFile), storage);
+  }
+
+  /**
+   * Load a "userDatabase" from a JSON file outside the jar, which can be far
+   * bigger than anything we'd want to bundle.
+   * <p>
+   * If there's an up-to-date binary snapshot of the file (see
+   * `UserSnapshot`), the users are loaded from that. Otherwise the JSON file
+   * is memory-mapped (see `MappedInputStream`) and parsed, and a snapshot is
+   * written for next time.
+   *
+   * @param userDataFile the path of the JSON file of users
+   * @return a "userDatabase" of the users in that file
+   * @throws IOException if the file can't be read or isn't an array of users
+   */
+  public static UserDatabase fromFile(Path userDataFile) throws IOException {
+    return fromFile(userDataFile, TextStorage.HEAP);
+  }
+
+  /**
+   * Load a "userDatabase" from a JSON file outside the jar (see
+   * `fromFile(Path)`), keeping the users' emails and avatar URLs in the
+   * given storage.
+   *
+   * @param userDataFile the path of the JSON file of users
+   * @param storage      where to keep the users' emails and avatar URLs
+   * @return a "userDatabase" of the users in that file
+   * @throws IOException if the file can't be read or isn't an array of users
+   */
+  public static UserDatabase fromFile(Path userDataFile, TextStorage storage) throws IOException {
+    return UserSnapshot.load(userDataFile, storage);
+  }
+
+  /**
+   * Construct a "userDatabase" around users that have already been loaded.
+   * <p>
+   * This is where the primary key index is built, so `getUser` can look a
+   * user up by `_id` without scanning every user on every request.
+   *
+   * @param users the users to serve from this "userDatabase"
+   */
+  public UserDatabase(User[] users) {
+    this(users, TextStorage.HEAP);
+  }
+
+  /**
+   * Construct a "userDatabase" around users that have already been loaded,
+   * keeping their emails and avatar URLs in the given storage.
+   *
+   * @param users   the users to serve from this "userDatabase"
+   * @param storage where to keep the users' emails and avatar URLs
+   */
+  public UserDatabase(User[] users, TextStorage storage) {
+    this(UserColumns.of(users, storage), null);
+  }
+
+  /**
+   * Construct a "userDatabase" around users whose content hash is already
+   * known, because an earlier server saved it in a snapshot.
+   *
+   * @param columns     the users to serve from this "userDatabase"
+   * @param contentHash the content hash of the users, or null to compute it
+   */
+  UserDatabase(UserColumns columns, String contentHash) {
+    this.columns = columns;
+    int size = columns.size();
+    // Twice the size keeps us under HashMap's default load factor,
+    // so the index is never rehashed while it's being filled.
+    usersById = new HashMap<>(size * 2);
+    for (int i = 0; i < size; ++i) {
+      // Keep the first user with a given ID, which is what the old
+      // linear scan would have found.
+      usersById.putIfAbsent(columns.id(i), i);
+    }
+    companyCounts = codeCounts(columns.companies());
+    roleCounts = codeCounts(columns.roles());
+
+    if (columns.storage() == TextStorage.HEAP) {
+      userJson = RecordCache.empty(size);
+    }
+    this.contentHash = contentHash == null ? ETags.contentHashOfFields(size, columns::fields) : contentHash;
+  }
+
+  private static int[] codeCounts(DictionaryColumn column) {
+    int[] counts = new int[column.cardinality()];
+    for (int i = 0; i < column.size(); ++i) {
+      if (column.code(i) != DictionaryColumn.NULL_CODE) {
+        counts[column.code(i)]++;
+      }
+    }
+    return counts;
+  }
+
+  static User[] readUsers(Path userDataFile) throws IOException {
+    try (InputStream input = new MappedInputStream(userDataFile)) {
+      return UserLoader.readJson(input);
+    }
+  }
+
+  private static User[] readUsers(String userDataFile) throws IOException {
+    try (InputStream input = UserDatabase.class.getResourceAsStream(userDataFile)) {
+      if (input == null) {
+        throw new FileNotFoundException("There's no user data file at " + userDataFile);
+      }
+      return UserLoader.readJson(input);
+    }
   }
 
   public int size() {
-    return allUsers.length;
+    return columns.size();
+  }
+
+  // What `UserSnapshot` needs to save this "userDatabase".
+  UserColumns columns() {
+    return columns;
+  }
+
+  /**
+   * Get statistics about this "userDatabase".
+   *
+   * @return a map of statistic names to values
+   */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("size", columns.size());
+    stats.put("contentHash", contentHash);
+    stats.put("textStorage", columns.storage());
+    stats.put("offHeapTextBytes", columns.emails().offHeapBytes() + columns.avatars().offHeapBytes());
+    stats.put("jsonCacheBytes", userJson == null ? 0 : userJson.weight(json -> json.length));
+    stats.put("queryCache", listCache.getStats());
+    stats.put("gzipCache", gzipCache.getStats());
+    return stats;
+  }
+
+  /**
+   * Get a hash of all of the users in this "userDatabase". Since the users
+   * never change once they're loaded, a response built from this
+   * "userDatabase" is completely determined by this hash and the request.
+   *
+   * @return a short, URL-safe hash of the content of this "userDatabase"
+   */
+  public String getContentHash() {
+    return contentHash;
   }
 
   /**
    * Get the single user specified by the given ID. Return `null` if there is no
    * user with that ID.
+   * <p>
+   * The user is built from the columns on every call, so changing it has no
+   * effect on this "userDatabase".
    *
    * @param id the ID of the desired user
    * @return the user with the given ID, or null if there is no user with that ID
    */
   public User getUser(String id) {
-    return Arrays.stream(allUsers).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+    Integer position = usersById.get(id);
+    return position == null ? null : columns.toUser(position);
+  }
+
+  /**
+   * Get the serialized JSON of the single user specified by the given ID.
+   * Return `null` if there is no user with that ID.
+   *
+   * @param id the ID of the desired user
+   * @return the UTF-8 JSON of the user with the given ID, or null if there is
+   *         no user with that ID
+   */
+  public byte[] getUserJson(String id) {
+    Integer position = usersById.get(id);
+    return position == null ? null : json(position);
+  }
+
+  /**
+   * @param position the position of a user
+   * @return the UTF-8 JSON of that user, from the cache if there is one
+   */
+  private byte[] json(int position) {
+    if (userJson == null) {
+      return JsonBytes.toJson(columns.toUser(position));
+    }
+    return userJson.get(position, p -> JsonBytes.toJson(columns.toUser(p)));
+  }
+
+  /**
+   * Get the gzipped JSON array of all the users satisfying the given query
+   * plan. Like `listUsers`, recent results are cached, so a repeated query
+   * costs neither the search nor the compression.
+   *
+   * @param query the query plan to evaluate
+   * @return the gzipped JSON array of all the users matching the given
+   *         criteria, or null if it's too small to be worth compressing
+   */
+  public byte[] listUsersGzip(UserQuery query) {
+    return listUsersGzip(query, QueryProfile.NONE);
+  }
+
+  /**
+   * `listUsersGzip`, recording the stages of the search in a profile if the
+   * result isn't cached.
+   *
+   * @param query   the query plan to evaluate
+   * @param profile where to record the stages
+   * @return the gzipped JSON array of all the users matching the given
+   *         criteria, or null if it's too small to be worth compressing
+   */
+  public byte[] listUsersGzip(UserQuery query, QueryProfile profile) {
+    byte[] gzipped = gzipCache.get(query.getCacheKey(), () -> {
+      byte[] compressed = Compression.precompress(JsonBytes.toJsonArray(sink -> forEachUserJson(query, profile, sink)));
+      return compressed == null ? new byte[0] : compressed;
+    });
+    return gzipped.length == 0 ? null : gzipped;
+  }
+
+  /**
+   * Get the most users a query can return, without running it: the number
+   * of users with the company or role it asks for, if it asks for one.
+   * This is how the `UserController` decides whether a result is small
+   * enough to build (and cache) or big enough to stream.
+   *
+   * @param query the query plan
+   * @return an upper bound on the number of users matching the query
+   */
+  public int maxResultSize(UserQuery query) {
+    int count = columns.size();
+    if (query.getCompany() != null) {
+      count = Math.min(count, codeCount(companyCounts, columns.companies().codeOf(query.getCompany())));
+    }
+    if (query.getRole() != null) {
+      count = Math.min(count, codeCount(roleCounts, columns.roles().codeOf(query.getRole())));
+    }
+    return count;
+  }
+
+  private static int codeCount(int[] counts, int code) {
+    return code == DictionaryColumn.NULL_CODE ? 0 : counts[code];
+  }
+
+  /**
+   * Check whether the result of a query is cached, in the form a client
+   * would be sent, without counting it as a hit or a miss.
+   *
+   * @param query the query plan
+   * @param gzip  whether to look for the gzipped result (see
+   *              `listUsersGzip`) rather than the users themselves
+   * @return true if that result is cached
+   */
+  public boolean isCached(UserQuery query, boolean gzip) {
+    return (gzip ? gzipCache : listCache).contains(query.getCacheKey());
   }
 
   /**
@@ -50,31 +337,250 @@ public class UserDatabase {
    * @return an array of all the users matching the given criteria
    */
   public User[] listUsers(Map<String, List<String>> queryParams) {
-    User[] filteredUsers = allUsers;
-
-    // Filter age if defined
-    if (queryParams.containsKey("age")) {
-      String ageParam = queryParams.get("age").get(0);
-      try {
-        int targetAge = Integer.parseInt(ageParam);
-        filteredUsers = filterUsersByAge(filteredUsers, targetAge);
-      } catch (NumberFormatException e) {
-        throw new BadRequestResponse("Specified age '" + ageParam + "' can't be parsed to an integer");
+    return listUsers(UserQuery.fromQueryParams(queryParams));
+  }
+
+  /**
+   * Get an array of all the users satisfying the given query plan.
+   * <p>
+   * Every user is checked against all of the filters in a single pass, so
+   * the only array built is the result.
+   * <p>
+   * Recent results are cached by the canonical form of their query, so a
+   * repeated query is just a lookup. The returned array may be shared with
+   * other callers, so it must not be modified.
+   *
+   * @param query the query plan to evaluate
+   * @return an array of all the users matching the given criteria
+   */
+  public User[] listUsers(UserQuery query) {
+    return listUsers(query, QueryProfile.NONE);
+  }
+
+  /**
+   * `listUsers`, recording the stages of the search in a profile if the
+   * result isn't cached.
+   *
+   * @param query   the query plan to evaluate
+   * @param profile where to record the stages
+   * @return an array of all the users matching the given criteria
+   */
+  public User[] listUsers(UserQuery query, QueryProfile profile) {
+    return listCache.get(query.getCacheKey(), () -> findUsers(query, profile));
+  }
+
+  private User[] findUsers(UserQuery query, QueryProfile profile) {
+    List<User> matches = new ArrayList<>();
+    forEachMatch(query, profile, position -> matches.add(columns.toUser(position)));
+    return matches.toArray(new User[0]);
+  }
+
+  /**
+   * Explain how a query is answered, for `?explain=true`: the users that
+   * went into and came out of each stage, and how long it took, and how
+   * many of the users each of the query's filters lets through on its own.
+   * <p>
+   * The query is run from scratch, whether or not its result is cached (the
+   * explanation says whether it was), and the result is thrown away.
+   *
+   * @param query the query plan to explain
+   * @return the profile of the query, with its plan
+   */
+  public QueryProfile explainUsers(UserQuery query) {
+    QueryProfile profile = new QueryProfile(true);
+    profile.plan("cached", listCache.contains(query.getCacheKey()) || gzipCache.contains(query.getCacheKey()));
+    if (query.getPagination() != null) {
+      listUserPage(query, profile);
+    } else {
+      findUsers(query, profile);
+    }
+
+    filters(query).forEach((name, filter) -> {
+      long start = System.nanoTime();
+      long passed = IntStream.range(0, columns.size()).filter(filter).count();
+      profile.filter(name, columns.size(), passed, System.nanoTime() - start);
+    });
+    return profile;
+  }
+
+  /**
+   * Pass each of the users satisfying the given query plan, in order, to the
+   * given action, as they're found.
+   * <p>
+   * Unlike `listUsers`, this never holds on to the matching users, which lets
+   * the `UserController` stream very large results straight to the client.
+   *
+   * @param query  the query plan to evaluate
+   * @param action what to do with each matching user
+   */
+  public void forEachUser(UserQuery query, Consumer<User> action) {
+    forEachMatch(query, QueryProfile.NONE, position -> action.accept(columns.toUser(position)));
+  }
+
+  /**
+   * Pass the serialized JSON of each of the users satisfying the given query
+   * plan, in order, to the given action, as they're found.
+   * <p>
+   * This is `forEachUser` for callers that are just going to write the users
+   * out as JSON anyway; they get the cached bytes instead of having to
+   * serialize every user again.
+   *
+   * @param query  the query plan to evaluate
+   * @param action what to do with the UTF-8 JSON of each matching user
+   */
+  public void forEachUserJson(UserQuery query, Consumer<byte[]> action) {
+    forEachUserJson(query, QueryProfile.NONE, action);
+  }
+
+  /**
+   * `forEachUserJson`, recording the stages of the search in a profile.
+   * The time taken by the action is part of the stage that finds the
+   * users.
+   *
+   * @param query   the query plan to evaluate
+   * @param profile where to record the stages
+   * @param action  what to do with the UTF-8 JSON of each matching user
+   */
+  public void forEachUserJson(UserQuery query, QueryProfile profile, Consumer<byte[]> action) {
+    forEachMatch(query, profile, position -> action.accept(json(position)));
+  }
+
+  /**
+   * Pass the position of every user matching the query to the action. There
+   * are no indexes on the users, so every one of them is checked; the
+   * profile gets a single "filter" stage.
+   */
+  private void forEachMatch(UserQuery query, QueryProfile profile, IntConsumer action) {
+    profile.start();
+    profile.plan("candidates", columns.size() + " users, all of them (users have no indexes)");
+    IntPredicate matcher = profile.counting(matcher(query, profile));
+    for (int i = 0; i < columns.size(); ++i) {
+      if (matcher.test(i)) {
+        action.accept(i);
       }
     }
-    // Filter company if defined
-    if (queryParams.containsKey("company")) {
-      String targetCompany = queryParams.get("company").get(0);
-      filteredUsers = filterUsersByCompany(filteredUsers, targetCompany);
+    profile.countedStage("filter", query.getFilterNames());
+  }
+
+  /**
+   * Compile the filters of a query into a check on a user's position.
+   * <p>
+   * The company and role filters are looked up in their column's dictionary
+   * once, up front, so checking a user compares int codes rather than
+   * strings. A company or role that no user has can't match anything.
+   *
+   * @param query   the query plan whose filters should be applied
+   * @param profile where to note that nothing can match
+   * @return a test of whether the user at a position passes every filter
+   */
+  private IntPredicate matcher(UserQuery query, QueryProfile profile) {
+    int[] ages = columns.ages();
+    boolean ageFiltered = query.getAge() != null;
+    int age = ageFiltered ? query.getAge() : 0;
+    DictionaryColumn companies = columns.companies();
+    boolean companyFiltered = query.getCompany() != null;
+    int company = companyFiltered ? companies.codeOf(query.getCompany()) : DictionaryColumn.NULL_CODE;
+    DictionaryColumn roles = columns.roles();
+    boolean roleFiltered = query.getRole() != null;
+    int role = roleFiltered ? roles.codeOf(query.getRole()) : DictionaryColumn.NULL_CODE;
+
+    if ((companyFiltered && company == DictionaryColumn.NULL_CODE)
+        || (roleFiltered && role == DictionaryColumn.NULL_CODE)) {
+      profile.plan("shortcut", "no user has the company or role asked for, so nothing can match");
+      return position -> false;
+    }
+    return position -> (!ageFiltered || ages[position] == age)
+        && (!companyFiltered || companies.code(position) == company)
+        && (!roleFiltered || roles.code(position) == role);
+  }
+
+  /**
+   * Compile each of the filters of a query into a check of its own, for
+   * `explainUsers`. (`matcher` checks them all at once, which is quicker.)
+   *
+   * @param query the query plan whose filters should be applied
+   * @return a test for each filter, by name, in the order `matcher` applies
+   *         them
+   */
+  private Map<String, IntPredicate> filters(UserQuery query) {
+    Map<String, IntPredicate> filters = new LinkedHashMap<>();
+    if (query.getAge() != null) {
+      int[] ages = columns.ages();
+      int age = query.getAge();
+      filters.put(UserQuery.AGE, position -> ages[position] == age);
+    }
+    if (query.getCompany() != null) {
+      DictionaryColumn companies = columns.companies();
+      int company = companies.codeOf(query.getCompany());
+      filters.put(UserQuery.COMPANY,
+          position -> company != DictionaryColumn.NULL_CODE && companies.code(position) == company);
+    }
+    if (query.getRole() != null) {
+      DictionaryColumn roles = columns.roles();
+      int role = roles.codeOf(query.getRole());
+      filters.put(UserQuery.ROLE, position -> role != DictionaryColumn.NULL_CODE && roles.code(position) == role);
+    }
+    return filters;
+  }
+
+  /**
+   * Get one page of the users satisfying the given (paginated) query plan.
+   * <p>
+   * The cursor in the query records the position of the last user of the
+   * previous page, so the page starts just after that position rather than
+   * at the beginning.
+   *
+   * @param query the query plan to evaluate, which must have a pagination
+   * @return the requested page of matching users
+   */
+  public Page<User> listUserPage(UserQuery query) {
+    return listUserPage(query, QueryProfile.NONE);
+  }
+
+  /**
+   * `listUserPage`, recording the stages of the search in a profile.
+   *
+   * @param query   the query plan to evaluate, which must have a pagination
+   * @param profile where to record the stages
+   * @return the requested page of matching users
+   */
+  public Page<User> listUserPage(UserQuery query, QueryProfile profile) {
+    Pagination pagination = query.getPagination();
+    int start = 0;
+    if (pagination.getAfter() != null) {
+      start = Math.min(pagination.getAfter().getLastPosition() + 1, columns.size());
     }
-    // Filter by role
-    if (queryParams.containsKey("role")) {
-      String targetRole = queryParams.get("role").get(0);
-      filteredUsers = filterUsersByRole(filteredUsers, targetRole);
+
+    // Look for one more user than fits on the page, so we know whether
+    // there's a next page.
+    profile.start();
+    profile.plan("candidates", (columns.size() - start) + " users, all of them after the cursor");
+    int pageSize = pagination.getPageSize();
+    IntPredicate matcher = matcher(query, profile);
+    IntPredicate counted = profile.counting(matcher);
+    List<User> matches = new ArrayList<>();
+    int lastPosition = -1;
+    for (int i = start; i < columns.size() && matches.size() <= pageSize; ++i) {
+      if (counted.test(i)) {
+        matches.add(columns.toUser(i));
+        if (matches.size() == pageSize) {
+          lastPosition = i;
+        }
+      }
     }
-    // Process other query parameters here...
+    profile.countedStage("filter", query.getFilterNames());
 
-    return filteredUsers;
+    String nextCursor = null;
+    if (matches.size() > pageSize) {
+      matches = matches.subList(0, pageSize);
+      nextCursor = new Cursor(null, null, lastPosition, matches.get(pageSize - 1)._id).encode();
+    }
+    long totalCount = -1;
+    if (pagination.isCountTotal()) {
+      totalCount = IntStream.range(0, columns.size()).filter(profile.counting(matcher)).count();
+      profile.countedStage("count", query.getFilterNames());
+    }
+    return new Page<>(matches.toArray(new User[0]), nextCursor, totalCount);
   }
 
   /**
@@ -0,0 +1,79 @@
+package umm3601.user;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import umm3601.JsonRecords;
+
+/**
+ * Reads users from JSON by walking the parser's tokens (see `JsonRecords`),
+ * filling the user array as it goes.
+ */
+final class UserLoader {
+
+  private static final String WHAT = "users";
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private UserLoader() {
+  }
+
+  /**
+   * Read a JSON array of users.
+   *
+   * @param input the UTF-8 (or UTF-16/32, which Jackson detects) JSON
+   * @return the users, in the order they appear in the input
+   * @throws IOException if the input can't be read or isn't an array of users
+   */
+  static User[] readJson(InputStream input) throws IOException {
+    // Companies and roles are shared by many users, so share the strings
+    // instead of keeping a copy in every user.
+    JsonRecords.StringPool companies = new JsonRecords.StringPool();
+    JsonRecords.StringPool roles = new JsonRecords.StringPool();
+
+    User[] users = new User[INITIAL_CAPACITY];
+    int count = 0;
+    try (JsonParser parser = JsonRecords.factory().createParser(input)) {
+      JsonRecords.startArray(parser, WHAT);
+      while (JsonRecords.nextRecord(parser, WHAT)) {
+        User user = new User();
+        while (parser.nextFieldName() != null) {
+          String field = parser.getCurrentName();
+          parser.nextToken();
+          switch (field) {
+            case "_id":
+              user._id = JsonRecords.text(parser);
+              break;
+            case "name":
+              user.name = JsonRecords.text(parser);
+              break;
+            case "age":
+              user.age = parser.getValueAsInt();
+              break;
+            case "company":
+              user.company = companies.intern(JsonRecords.text(parser));
+              break;
+            case "email":
+              user.email = JsonRecords.text(parser);
+              break;
+            case "avatar":
+              user.avatar = JsonRecords.text(parser);
+              break;
+            case "role":
+              user.role = roles.intern(JsonRecords.text(parser));
+              break;
+            default:
+              throw JsonRecords.unknownField(parser, field, "a user");
+          }
+        }
+        if (count == users.length) {
+          users = Arrays.copyOf(users, count * 2);
+        }
+        users[count++] = user;
+      }
+    }
+    return Arrays.copyOf(users, count);
+  }
+}
@@ -0,0 +1,126 @@
+package umm3601.user;
+
+import java.util.List;
+import java.util.Map;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.Pagination;
+import umm3601.QueryCache;
+
+/**
+ * A parsed and validated `listUsers` query.
+ * <p>
+ * The query parameters are turned into a plan once, up front, and
+ * `UserDatabase` then checks every user against the whole plan in a single
+ * pass instead of building a new array for every parameter.
+ */
+public final class UserQuery {
+
+  static final String AGE = "age";
+  static final String COMPANY = "company";
+  static final String ROLE = "role";
+
+  private Integer age;
+  private String company;
+  private String role;
+  private Pagination pagination;
+  private String cacheKey;
+  private String filterNames;
+
+  private UserQuery() {
+  }
+
+  /**
+   * Build a query plan from the query parameters of a request.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return the query plan for the given parameters
+   * @throws BadRequestResponse if any of the parameters have illegal values
+   */
+  public static UserQuery fromQueryParams(Map<String, List<String>> queryParams) {
+    UserQuery query = new UserQuery();
+
+    if (queryParams.containsKey(AGE)) {
+      String ageParam = queryParams.get(AGE).get(0);
+      try {
+        query.age = Integer.parseInt(ageParam);
+      } catch (NumberFormatException e) {
+        throw new BadRequestResponse("Specified age '" + ageParam + "' can't be parsed to an integer");
+      }
+    }
+    if (queryParams.containsKey(COMPANY)) {
+      query.company = queryParams.get(COMPANY).get(0);
+    }
+    if (queryParams.containsKey(ROLE)) {
+      query.role = queryParams.get(ROLE).get(0);
+    }
+    query.filterNames = filterNames(query);
+    // Users can't be sorted, so they're always paged in "database" order.
+    query.pagination = Pagination.fromQueryParams(queryParams, null);
+    query.cacheKey = QueryCache.key(query.age, query.company, query.role,
+        query.pagination == null ? null : query.pagination.getCacheKey());
+
+    return query;
+  }
+
+  private static String filterNames(UserQuery query) {
+    StringBuilder names = new StringBuilder();
+    appendName(names, query.age != null, AGE);
+    appendName(names, query.company != null, COMPANY);
+    appendName(names, query.role != null, ROLE);
+    return names.length() == 0 ? "none" : names.toString();
+  }
+
+  private static void appendName(StringBuilder names, boolean filtered, String name) {
+    if (filtered) {
+      names.append(names.length() == 0 ? "" : ",").append(name);
+    }
+  }
+
+  /**
+   * @return the age to filter on, or null if age isn't filtered
+   */
+  public Integer getAge() {
+    return age;
+  }
+
+  /**
+   * @return the company to filter on, or null if company isn't filtered
+   */
+  public String getCompany() {
+    return company;
+  }
+
+  /**
+   * @return the role to filter on, or null if role isn't filtered
+   */
+  public String getRole() {
+    return role;
+  }
+
+  /**
+   * Get the canonical form of this query. It's built from the parsed values
+   * rather than the raw query parameters, so the order of the parameters, and
+   * any parameters that aren't used, don't matter.
+   *
+   * @return the key of this query in a result cache
+   */
+  public String getCacheKey() {
+    return cacheKey;
+  }
+
+  /**
+   * @return the filters this query applies, in the order they're checked
+   *         (like "age,role"), or "none"
+   */
+  public String getFilterNames() {
+    return filterNames;
+  }
+
+  /**
+   * @return the pagination of this query, or null if it isn't paginated
+   */
+  public Pagination getPagination() {
+    return pagination;
+  }
+}
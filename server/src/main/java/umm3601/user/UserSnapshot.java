@@ -0,0 +1,116 @@
+package umm3601.user;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.file.Path;
+
+import umm3601.DictionaryColumn;
+import umm3601.SnapshotReader;
+import umm3601.SnapshotWriter;
+import umm3601.TextColumn;
+import umm3601.TextStorage;
+
+/**
+ * A binary snapshot of a `UserDatabase` loaded from a JSON file.
+ * <p>
+ * After the header (see `SnapshotWriter`), a user snapshot holds the content
+ * hash of the users, the number of users, their ages, and then the `_id`,
+ * name and company columns (dictionary-encoded), the email and avatar columns
+ * (plain UTF-8; see `SnapshotWriter.writeTextColumn`) and the role column
+ * (dictionary-encoded).
+ */
+final class UserSnapshot {
+
+  // "USS" and the version of the format; bump the version whenever the
+  // format changes.
+  private static final int MAGIC = 0x55535303;
+
+  private UserSnapshot() {
+  }
+
+  /**
+   * Load the users in a JSON file, from its snapshot if there's an
+   * up-to-date one, and otherwise from the JSON (writing a new snapshot).
+   *
+   * @param source  the JSON file of users
+   * @param storage where to keep the users' emails and avatar URLs
+   * @return a "userDatabase" of the users in that file
+   * @throws IOException if the file can't be read or isn't an array of users
+   */
+  static UserDatabase load(Path source, TextStorage storage) throws IOException {
+    UserDatabase snapshot = read(source, storage);
+    if (snapshot != null) {
+      return snapshot;
+    }
+
+    // Start the snapshot before reading the JSON, so the snapshot is
+    // stamped with the JSON file as it was when we read it.
+    SnapshotWriter writer = null;
+    try {
+      writer = new SnapshotWriter(source, MAGIC);
+    } catch (IOException e) {
+      System.err.println("Can't write a snapshot of " + source + ", so it'll be parsed again next time: " + e);
+    }
+    try {
+      UserDatabase userDatabase = new UserDatabase(UserDatabase.readUsers(source), storage);
+      if (writer != null) {
+        try {
+          write(userDatabase, writer);
+          writer.commit();
+        } catch (IOException e) {
+          System.err.println("Failed to write a snapshot of " + source + ": " + e);
+        }
+      }
+      return userDatabase;
+    } finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Read the snapshot of a JSON file of users.
+   *
+   * @param source  the JSON file of users
+   * @param storage where to keep the users' emails and avatar URLs
+   * @return a "userDatabase" of the users in the snapshot, or null if there's
+   *         no up-to-date snapshot of the file
+   * @throws IOException if the snapshot can't be read
+   */
+  static UserDatabase read(Path source, TextStorage storage) throws IOException {
+    SnapshotReader reader = SnapshotReader.open(source, MAGIC);
+    if (reader == null) {
+      return null;
+    }
+    try {
+      String contentHash = reader.readString();
+      // Skip the number of users; every column knows its own length.
+      reader.readInt();
+      int[] ages = reader.readInts();
+      String[] ids = reader.readStringColumn();
+      String[] names = reader.readStringColumn();
+      DictionaryColumn companies = reader.readDictionaryColumn();
+      TextColumn emails = reader.readTextColumn(storage);
+      TextColumn avatars = reader.readTextColumn(storage);
+      DictionaryColumn roles = reader.readDictionaryColumn();
+      return new UserDatabase(new UserColumns(ids, names, ages, companies, emails, avatars, roles), contentHash);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      // The snapshot is damaged; the JSON is still there.
+      return null;
+    }
+  }
+
+  private static void write(UserDatabase userDatabase, SnapshotWriter writer) throws IOException {
+    UserColumns columns = userDatabase.columns();
+    writer.writeString(userDatabase.getContentHash());
+    writer.writeInt(columns.size());
+    writer.writeInts(columns.ages());
+    writer.writeStringColumn(columns.ids());
+    writer.writeStringColumn(columns.names());
+    writer.writeDictionaryColumn(columns.companies());
+    writer.writeTextColumn(columns.emails());
+    writer.writeTextColumn(columns.avatars());
+    writer.writeDictionaryColumn(columns.roles());
+  }
+}
@@ -0,0 +1,145 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.Context;
+import io.javalin.http.InternalServerErrorResponse;
+import umm3601.todo.Todo;
+import umm3601.todo.TodoController;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.UserDatabase;
+
+/**
+ * Tests the logic of the AdminController, and that reloading swaps in new
+ * "databases" without disturbing the requests that are using the old ones
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class AdminControllerSpec {
+
+  private Context ctx = mock(Context.class);
+
+  private Todo[] allTodos;
+  private Todo[] nextTodos;
+  private Reloadable<UserDatabase> userDatabases;
+  private Reloadable<TodoDatabase> todoDatabases;
+  private AdminController adminController;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    allTodos = new TodoDatabase(Server.TODO_DATA_FILE).listTodos(new HashMap<>());
+    nextTodos = Arrays.copyOf(allTodos, 50);
+    UserDatabase users = new UserDatabase(Server.USER_DATA_FILE);
+    userDatabases = new Reloadable<>("users", users, () -> new UserDatabase(Server.USER_DATA_FILE));
+    todoDatabases = new Reloadable<>("todos", new TodoDatabase(allTodos), () -> new TodoDatabase(nextTodos));
+    adminController = new AdminController(userDatabases, todoDatabases);
+  }
+
+  @Test
+  @SuppressWarnings({ "unchecked" })
+  public void reloadSwapsInNewDatabases() throws IOException {
+    TodoController todoController = new TodoController(todoDatabases, TodoController.DEFAULT_STREAMING_THRESHOLD);
+    TodoDatabase before = todoDatabases.get();
+
+    adminController.reload(ctx);
+
+    ArgumentCaptor<Map<String, Object>> argument = ArgumentCaptor.forClass(Map.class);
+    verify(ctx).json(argument.capture());
+    assertEquals(10, argument.getValue().get("users"));
+    assertEquals(50, argument.getValue().get("todos"));
+    assertEquals(1, todoDatabases.getReloads());
+
+    // The old database is untouched, for any request still using it.
+    assertEquals(300, before.listTodos(new HashMap<>()).length);
+    assertNotSame(before, todoDatabases.get());
+    assertNotEquals(before.getContentHash(), todoDatabases.get().getContentHash());
+
+    Context listCtx = mock(Context.class);
+    todoController.getTodos(listCtx);
+    ArgumentCaptor<Todo[]> todos = ArgumentCaptor.forClass(Todo[].class);
+    verify(listCtx).json(todos.capture());
+    assertEquals(50, todos.getValue().length);
+  }
+
+  @Test
+  public void failedReloadKeepsTheCurrentDatabase() {
+    TodoDatabase before = todoDatabases.get();
+    Reloadable<TodoDatabase> failing = new Reloadable<>("todos", before, () -> {
+      throw new IOException("The todos are missing");
+    });
+    AdminController controller = new AdminController(userDatabases, failing);
+
+    assertThrows(InternalServerErrorResponse.class, () -> controller.reload(ctx));
+    assertSame(before, failing.get());
+    assertEquals(0, failing.getReloads());
+  }
+
+  @Test
+  public void reloadsWaitingToStartAreShared() {
+    List<Runnable> tasks = new ArrayList<>();
+    TodoDatabase before = todoDatabases.get();
+    Reloadable<TodoDatabase> reloadable = new Reloadable<>("todos", before, () -> new TodoDatabase(nextTodos),
+        tasks::add);
+
+    CompletableFuture<TodoDatabase> first = reloadable.reload();
+    assertSame(first, reloadable.reload(), "A reload waiting to start wasn't shared");
+    assertEquals(1, tasks.size());
+    assertSame(before, reloadable.get(), "A database was swapped in before it was loaded");
+
+    tasks.get(0).run();
+    assertSame(first.join(), reloadable.get());
+    assertNotSame(first, reloadable.reload(), "A finished reload was shared");
+  }
+
+  @Test
+  public void readersAlwaysSeeACompleteDatabase() throws InterruptedException {
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicInteger inconsistencies = new AtomicInteger();
+    List<Thread> readers = new ArrayList<>();
+    for (int i = 0; i < 4; ++i) {
+      Thread reader = new Thread(() -> {
+        while (!done.get()) {
+          TodoDatabase db = todoDatabases.get();
+          if (db.listTodos(new HashMap<>()).length != db.size()) {
+            inconsistencies.incrementAndGet();
+          }
+        }
+      });
+      reader.start();
+      readers.add(reader);
+    }
+
+    for (int i = 0; i < 20; ++i) {
+      nextTodos = Arrays.copyOf(allTodos, i % 2 == 0 ? 300 : 50);
+      todoDatabases.reload().join();
+    }
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    assertEquals(0, inconsistencies.get(), "A reader saw a database change under it");
+    assertEquals(20, todoDatabases.getReloads());
+    assertTrue(todoDatabases.getLoadedAtMillis() <= System.currentTimeMillis());
+  }
+}
@@ -0,0 +1,34 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * A `ServletOutputStream` that just collects what's written to it, so tests
+ * can check what a controller streamed to a mock `Context`.
+ */
+public class ByteArrayServletOutputStream extends ServletOutputStream {
+
+  private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+  @Override
+  public void write(int b) {
+    bytes.write(b);
+  }
+
+  @Override
+  public boolean isReady() {
+    return true;
+  }
+
+  @Override
+  public void setWriteListener(WriteListener writeListener) {
+    // Writes never block, so there's nothing to listen for.
+  }
+
+  public byte[] toByteArray() {
+    return bytes.toByteArray();
+  }
+}
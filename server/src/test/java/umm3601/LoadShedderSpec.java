@@ -0,0 +1,81 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the logic of the LoadShedder: which requests it turns away, and
+ * that it always gives back the room a request took
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class LoadShedderSpec {
+
+  @Test
+  public void shedsRequestsBeyondTheLimit() throws Exception {
+    LoadShedder loadShedder = new LoadShedder(1);
+    Handler javalin = mock(Handler.class);
+    loadShedder.setHandler(javalin);
+    Request baseRequest = mock(Request.class);
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse shedResponse = mock(HttpServletResponse.class);
+    HttpServletResponse metricsResponse = mock(HttpServletResponse.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    // While the first request is being handled, a second one arrives (and
+    // is turned away), and so does a request for the metrics (which isn't).
+    doAnswer(invocation -> {
+      assertEquals(1, loadShedder.getInFlight());
+      loadShedder.handle("/api/todos", baseRequest, request, shedResponse);
+      loadShedder.handle("/metrics", baseRequest, request, metricsResponse);
+      return null;
+    }).when(javalin).handle(anyString(), any(), any(), eq(response));
+    loadShedder.handle("/api/todos", baseRequest, request, response);
+
+    verify(javalin).handle("/api/todos", baseRequest, request, response);
+    verify(javalin, never()).handle("/api/todos", baseRequest, request, shedResponse);
+    verify(javalin, times(1)).handle("/metrics", baseRequest, request, metricsResponse);
+    verify(shedResponse).setStatus(503);
+    verify(shedResponse).setHeader("Retry-After", "1");
+    verify(response, never()).setStatus(503);
+    assertEquals(0, loadShedder.getInFlight());
+    assertEquals(1, loadShedder.getShedCount());
+  }
+
+  @Test
+  public void releasesItsRoomWhenAHandlerThrows() throws Exception {
+    LoadShedder loadShedder = new LoadShedder(1);
+    Handler javalin = mock(Handler.class);
+    loadShedder.setHandler(javalin);
+    Request baseRequest = mock(Request.class);
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse failedResponse = mock(HttpServletResponse.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    doThrow(new IllegalStateException("The handler failed"))
+        .when(javalin).handle(anyString(), any(), any(), eq(failedResponse));
+
+    assertThrows(IllegalStateException.class,
+        () -> loadShedder.handle("/api/todos", baseRequest, request, failedResponse));
+    assertEquals(0, loadShedder.getInFlight(), "A failed request kept its room");
+
+    // So the next request still gets in.
+    loadShedder.handle("/api/todos", baseRequest, request, response);
+    verify(javalin).handle("/api/todos", baseRequest, request, response);
+    verify(response, never()).setStatus(503);
+    assertEquals(0, loadShedder.getShedCount());
+  }
+}
@@ -0,0 +1,227 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.sun.management.ThreadMXBean;
+
+import io.javalin.http.Context;
+
+/**
+ * Tests the logic of the MetricsController, and the precision of the
+ * LatencyHistogram it records into
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class MetricsControllerSpec {
+
+  private static Context request(String method, String route, int status) {
+    Context ctx = mock(Context.class);
+    when(ctx.method()).thenReturn(method);
+    when(ctx.endpointHandlerPath()).thenReturn(route);
+    when(ctx.status()).thenReturn(status);
+    return ctx;
+  }
+
+  private static void assertWithin(double expected, long actual, double tolerance) {
+    assertTrue(Math.abs(actual - expected) <= expected * tolerance,
+        "Expected " + expected + " to within " + tolerance + " but got " + actual);
+  }
+
+  private static void assertHasLine(String text, String line) {
+    assertTrue(text.contains(line + "\n"), "Missing \"" + line + "\" in:\n" + text);
+  }
+
+  @Test
+  public void histogramQuantilesAreWithinTheBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long micros = 1; micros <= 10_000; ++micros) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+    }
+    assertEquals(10_000, histogram.getCount());
+    assertEquals(TimeUnit.MICROSECONDS.toNanos(10_000L * 10_001 / 2), histogram.getSumNanos());
+    assertWithin(5_000_000, histogram.getValueAtQuantile(0.5), 0.04);
+    assertWithin(9_900_000, histogram.getValueAtQuantile(0.99), 0.04);
+    assertWithin(9_990_000, histogram.getValueAtQuantile(0.999), 0.04);
+    assertTrue(histogram.getValueAtQuantile(0.5) >= 5_000_000, "A quantile was understated");
+    assertWithin(1_000, histogram.getCountAtOrBelow(TimeUnit.MILLISECONDS.toNanos(1)), 0.04);
+    assertEquals(0, new LatencyHistogram().getValueAtQuantile(0.99));
+  }
+
+  @Test
+  public void histogramRecordsAreCheap() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    long start = System.nanoTime();
+    for (int i = 0; i < 1_000_000; ++i) {
+      histogram.record(i * 997L);
+    }
+    // A microsecond a record would be a whole second; this is far quicker
+    // even on a slow machine (see RecordLatencyBenchmark for the real cost).
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "Recording is too slow");
+    assertEquals(1_000_000, histogram.getCount());
+  }
+
+  @Test
+  public void histogramCorrectsForCoordinatedOmission() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // 99 quick requests, one every millisecond, and one that held the
+    // generator up for a second.
+    for (int i = 0; i < 99; ++i) {
+      histogram.recordWithExpectedInterval(TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(1));
+    }
+    histogram.recordWithExpectedInterval(TimeUnit.SECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(1));
+
+    // The 999 requests that weren't sent while it waited are counted too,
+    // so the median is hundreds of milliseconds, not one.
+    assertEquals(99 + 1000, histogram.getCount());
+    assertWithin(TimeUnit.MILLISECONDS.toNanos(1), histogram.getValueAtQuantile(0.05), 0.04);
+    assertTrue(histogram.getValueAtQuantile(0.5) > TimeUnit.MILLISECONDS.toNanos(400), "Not corrected");
+  }
+
+  @Test
+  public void recordsInstrumentedRoutesOnly() {
+    MetricsController metricsController = new MetricsController();
+    metricsController.record(request("GET", "/api/todos", 200), 1.5f);
+    metricsController.record(request("GET", "/api/todos", 200), 2.5f);
+    metricsController.record(request("GET", "/api/todos/{id}", 404), 0.2f);
+    metricsController.record(request("GET", "/api/stats", 200), 3.0f);
+
+    assertEquals(2, metricsController.getLatencies("/api/todos", "GET").getCount());
+    assertWithin(2_500_000, metricsController.getLatencies("/api/todos", "GET").getValueAtQuantile(1), 0.04);
+    assertEquals(1, metricsController.getLatencies("/api/todos/{id}", "GET").getCount());
+    assertEquals(0, metricsController.getLatencies("/api/users", "GET").getCount());
+    assertNull(metricsController.getLatencies("/api/stats", "GET"), "An uninstrumented route was recorded");
+  }
+
+  @Test
+  public void recordsTheNanosecondsSinceTheRequestStarted() {
+    MetricsController metricsController = new MetricsController();
+    Context ctx = request("GET", "/api/todos", 200);
+    metricsController.start(ctx);
+    ArgumentCaptor<Object> startNanos = ArgumentCaptor.forClass(Object.class);
+    verify(ctx).attribute(anyString(), startNanos.capture());
+
+    // Pretend the request started 5ms ago; Javalin's own (much larger)
+    // time is ignored.
+    long started = (Long) startNanos.getValue() - TimeUnit.MILLISECONDS.toNanos(5);
+    when(ctx.<Long>attribute(anyString())).thenReturn(started);
+    metricsController.record(ctx, 999f);
+
+    long recorded = metricsController.getLatencies("/api/todos", "GET").getSumNanos();
+    assertTrue(recorded >= TimeUnit.MILLISECONDS.toNanos(5), "Recorded " + recorded + "ns, less than 5ms");
+    assertTrue(recorded < TimeUnit.MILLISECONDS.toNanos(999), "Recorded Javalin's time instead");
+  }
+
+  @Test
+  public void recordingRequestsIsCheapAndAllocatesNothing() {
+    MetricsController metricsController = new MetricsController();
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    for (int i = 0; i < 100_000; ++i) {
+      metricsController.record("/api/todos", "GET", 200, i * 997L, 1_000);
+    }
+
+    long allocated = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    for (int i = 0; i < 1_000_000; ++i) {
+      metricsController.record("/api/todos/{id}", i % 2 == 0 ? "GET" : "PUT", 200 + i % 400, i * 997L, 1_000);
+    }
+    long elapsed = System.nanoTime() - start;
+    allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+    // A microsecond a request would be a whole second, and a single object
+    // a request would be at least 16MB (see RecordLatencyBenchmark for the
+    // real cost).
+    assertTrue(elapsed < TimeUnit.SECONDS.toNanos(1), "Recording took " + elapsed / 1_000_000 + "ns a request");
+    assertTrue(allocated < 1_000_000, "Recording allocated " + allocated + " bytes");
+    assertEquals(500_000, metricsController.getLatencies("/api/todos/{id}", "PUT").getCount());
+  }
+
+  @Test
+  public void servesPrometheusTextFormat() {
+    MetricsController metricsController = new MetricsController();
+    metricsController.record(request("GET", "/api/users", 200), 0.3f);
+    metricsController.record(request("GET", "/api/users", 200), 40f);
+    metricsController.record(request("GET", "/api/users/{id}", 404), 0.1f);
+    metricsController.record(request("PUT", "/api/todos/{id}", 500), 2f);
+
+    Context ctx = mock(Context.class);
+    metricsController.getMetrics(ctx);
+    verify(ctx).contentType("text/plain; version=0.0.4; charset=utf-8");
+    ArgumentCaptor<String> argument = ArgumentCaptor.forClass(String.class);
+    verify(ctx).result(argument.capture());
+    String text = argument.getValue();
+
+    assertHasLine(text, "# TYPE http_request_duration_seconds histogram");
+    String users = "method=\"GET\",route=\"/api/users\"";
+    assertHasLine(text, "http_request_duration_seconds_bucket{" + users + ",le=\"5.0E-4\"} 1");
+    assertHasLine(text, "http_request_duration_seconds_bucket{" + users + ",le=\"0.05\"} 2");
+    assertHasLine(text, "http_request_duration_seconds_bucket{" + users + ",le=\"+Inf\"} 2");
+    assertHasLine(text, "http_request_duration_seconds_count{" + users + "} 2");
+    assertTrue(text.contains("http_request_duration_quantile_seconds{" + users + ",quantile=\"0.5\"} "), text);
+    assertHasLine(text, "http_request_errors_total{method=\"GET\",route=\"/api/users/{id}\",kind=\"client\"} 1");
+    assertHasLine(text, "http_request_errors_total{method=\"PUT\",route=\"/api/todos/{id}\",kind=\"server\"} 1");
+    // Routes (and methods) with no requests are left out.
+    assertFalse(text.contains("route=\"/api/todos\""), text);
+  }
+
+  @Test
+  public void servesQueryStageTimings() {
+    QueryProfiler profiler = new QueryProfiler("todos");
+    QueryProfile profile = new QueryProfile(false);
+    profile.start();
+    profile.stage("index", "owner", 300, 61);
+    profile.stage("filter", "status,owner", 61, 27);
+    profiler.record(profile);
+    profiler.record(profile);
+
+    MetricsController metricsController = new MetricsController(MetricsController.INSTRUMENTED_ROUTES,
+        List.of(profiler));
+    Context ctx = mock(Context.class);
+    metricsController.getMetrics(ctx);
+    ArgumentCaptor<String> argument = ArgumentCaptor.forClass(String.class);
+    verify(ctx).result(argument.capture());
+    String text = argument.getValue();
+
+    assertHasLine(text, "# TYPE query_stage_duration_seconds summary");
+    String filter = "collection=\"todos\",stage=\"filter\",detail=\"status,owner\"";
+    assertHasLine(text, "query_stage_duration_seconds_count{" + filter + "} 2");
+    assertTrue(text.contains("query_stage_duration_seconds{" + filter + ",quantile=\"0.99\"} "), text);
+    assertTrue(text.contains("query_stage_duration_seconds_sum{collection=\"todos\",stage=\"index\""), text);
+  }
+
+  @Test
+  public void servesLoadShedderCounts() throws Exception {
+    // With no room at all, a request for the API is turned away at once.
+    LoadShedder loadShedder = new LoadShedder(0);
+    loadShedder.setHandler(mock(Handler.class));
+    loadShedder.handle("/api/todos", mock(Request.class), mock(HttpServletRequest.class),
+        mock(HttpServletResponse.class));
+
+    MetricsController metricsController = new MetricsController(MetricsController.INSTRUMENTED_ROUTES,
+        List.of(), loadShedder);
+    Context ctx = mock(Context.class);
+    metricsController.getMetrics(ctx);
+    ArgumentCaptor<String> argument = ArgumentCaptor.forClass(String.class);
+    verify(ctx).result(argument.capture());
+    assertHasLine(argument.getValue(), "http_requests_shed_total 1");
+    assertHasLine(argument.getValue(), "http_requests_in_flight 0");
+  }
+}
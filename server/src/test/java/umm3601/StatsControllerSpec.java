@@ -0,0 +1,49 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.Context;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.UserDatabase;
+
+/**
+ * Tests the logic of the StatsController
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class StatsControllerSpec {
+
+  private Context ctx = mock(Context.class);
+
+  private StatsController statsController;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    statsController = new StatsController(
+        new UserDatabase(Server.USER_DATA_FILE),
+        new TodoDatabase(Server.TODO_DATA_FILE));
+  }
+
+  @Test
+  @SuppressWarnings({ "unchecked" })
+  public void canGetStats() throws IOException {
+    statsController.getStats(ctx);
+
+    ArgumentCaptor<Map<String, Object>> argument = ArgumentCaptor.forClass(Map.class);
+    verify(ctx).json(argument.capture());
+    Map<String, Object> todoStats = (Map<String, Object>) argument.getValue().get("todos");
+    Map<String, Object> userStats = (Map<String, Object>) argument.getValue().get("users");
+    assertEquals(300, todoStats.get("size"));
+    assertEquals(10, userStats.get("size"));
+    // Four sort orders, each with a position and a rank for every todo
+    assertEquals(4L * 2 * 300 * Integer.BYTES, todoStats.get("totalSortOrderBytes"));
+  }
+}
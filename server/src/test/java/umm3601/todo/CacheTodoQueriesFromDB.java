@@ -0,0 +1,121 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.QueryCache;
+
+/**
+ * Tests that umm3601.todo.TodoDatabase caches listTodos results by the
+ * canonical form of their query
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class CacheTodoQueriesFromDB {
+
+  @Test
+  public void equivalentQueriesShareResults() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+
+    Map<String, List<String>> queryParams = new LinkedHashMap<>();
+    queryParams.put("status", Arrays.asList(new String[] {"complete"}));
+    queryParams.put("category", Arrays.asList(new String[] {"homework"}));
+    queryParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    Todo[] first = db.listTodos(queryParams);
+
+    // Same query, with the parameters in a different order and in a
+    // different case.
+    Map<String, List<String>> reorderedParams = new LinkedHashMap<>();
+    reorderedParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    reorderedParams.put("category", Arrays.asList(new String[] {"HomeWork"}));
+    reorderedParams.put("status", Arrays.asList(new String[] {"COMPLETE"}));
+    Todo[] second = db.listTodos(reorderedParams);
+    assertSame(first, second, "Equivalent queries weren't answered from the cache");
+
+    reorderedParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    Todo[] third = db.listTodos(reorderedParams);
+    assertNotSame(first, third, "A different query was answered from the cache");
+
+    Map<String, Object> cacheStats = getCacheStats(db);
+    assertEquals(1L, cacheStats.get("hits"), "Incorrect number of cache hits");
+    assertEquals(2L, cacheStats.get("misses"), "Incorrect number of cache misses");
+    assertEquals(2, cacheStats.get("entries"), "Incorrect number of cache entries");
+  }
+
+  @Test
+  public void leastRecentlyUsedResultsAreEvicted() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new LinkedHashMap<>();
+
+    int queries = QueryCache.DEFAULT_MAX_ENTRIES + 10;
+    for (int limit = 0; limit < queries; ++limit) {
+      queryParams.put("limit", Arrays.asList(new String[] {Integer.toString(limit)}));
+      db.listTodos(queryParams);
+    }
+
+    Map<String, Object> cacheStats = getCacheStats(db);
+    assertEquals(QueryCache.DEFAULT_MAX_ENTRIES, cacheStats.get("entries"), "Incorrect number of cache entries");
+    assertEquals(10L, cacheStats.get("evictions"), "Incorrect number of cache evictions");
+
+    // The most recent query is still cached, but the first one isn't.
+    Todo[] latest = db.listTodos(queryParams);
+    assertSame(latest, db.listTodos(queryParams), "The most recent query was evicted");
+    queryParams.put("limit", Arrays.asList(new String[] {"0"}));
+    db.listTodos(queryParams);
+    assertEquals(queries + 1L, getCacheStats(db).get("misses"), "The oldest query wasn't evicted");
+  }
+
+  @Test
+  public void concurrentReadersShareTheCache() throws Exception {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    int threads = 8;
+    int queriesPerThread = 2000;
+
+    // Every thread asks for the same 300 queries, more than the cache holds,
+    // so there are hits, misses and evictions all at once.
+    List<Thread> readers = new ArrayList<>();
+    List<Throwable> failures = new ArrayList<>();
+    for (int t = 0; t < threads; ++t) {
+      int seed = t;
+      readers.add(new Thread(() -> {
+        try {
+          Map<String, List<String>> queryParams = new LinkedHashMap<>();
+          for (int i = 0; i < queriesPerThread; ++i) {
+            int limit = (i * 7 + seed) % 300;
+            queryParams.put("limit", Arrays.asList(new String[] {Integer.toString(limit)}));
+            assertEquals(limit, db.listTodos(queryParams).length, "Incorrect result for limit " + limit);
+          }
+        } catch (Throwable e) {
+          synchronized (failures) {
+            failures.add(e);
+          }
+        }
+      }));
+    }
+    readers.forEach(Thread::start);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    assertEquals(List.of(), failures, "A reader failed");
+    Map<String, Object> cacheStats = getCacheStats(db);
+    assertEquals((long) threads * queriesPerThread, (long) cacheStats.get("hits") + (long) cacheStats.get("misses"),
+        "Every query should be a hit or a miss");
+    assertTrue((int) cacheStats.get("entries") <= QueryCache.DEFAULT_MAX_ENTRIES, "The cache outgrew its bound");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> getCacheStats(TodoDatabase db) {
+    return (Map<String, Object>) db.getStats().get("queryCache");
+  }
+}
@@ -0,0 +1,327 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+import umm3601.Page;
+import umm3601.Reloadable;
+import umm3601.TextStorage;
+
+/**
+ * Tests that umm3601.todo.TodoDatabase answers every query about changed
+ * todos just as a "todoDatabase" built from scratch would, and that readers
+ * always see a consistent "todoDatabase" while umm3601.todo.TodoWriter is
+ * changing it
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class ChangeTodosFromDB {
+
+  private static final String[] OWNERS = {"Fry", "Blanche", "Barry", "Workman", "Dawn", "Roberta"};
+  private static final String[] CATEGORIES = {"homework", "groceries", "software design", "video games"};
+  private static final String[] WORDS = {"ipsum", "dolor", "sunt", "esse", "Nisi", "magna", "irure"};
+
+  private static Map<String, List<String>> query(String... keysAndValues) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      queryParams.put(keysAndValues[i], Arrays.asList(new String[] {keysAndValues[i + 1]}));
+    }
+    return queryParams;
+  }
+
+  private static final List<Map<String, List<String>>> QUERIES = List.of(
+      query(),
+      query("owner", "fry"),
+      query("category", "Homework", "status", "complete"),
+      query("contains", "ipsum"),
+      query("contains", "sunt dolor", "orderBy", "body"),
+      query("orderBy", "owner"),
+      query("orderBy", "category", "limit", "40"),
+      query("orderBy", "status", "owner", "barry"),
+      query("orderBy", "body", "contains", "ni"),
+      query("status", "incomplete", "orderBy", "owner", "limit", "7"));
+
+  private static Todo randomTodo(Random random, String id) {
+    Todo todo = new Todo();
+    todo._id = id;
+    todo.owner = OWNERS[random.nextInt(OWNERS.length)];
+    todo.status = random.nextBoolean();
+    todo.body = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + id;
+    todo.category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+    return todo;
+  }
+
+  private static List<Todo> allPages(TodoDatabase db, String orderBy) {
+    List<Todo> todos = new ArrayList<>();
+    String cursor = null;
+    do {
+      Map<String, List<String>> queryParams = query("orderBy", orderBy, "pageSize", "7");
+      if (cursor != null) {
+        queryParams.put("after", Arrays.asList(new String[] {cursor}));
+      }
+      Page<Todo> page = db.listTodoPage(TodoQuery.fromQueryParams(queryParams));
+      todos.addAll(Arrays.asList(page.getItems()));
+      cursor = page.getNextCursor();
+    } while (cursor != null);
+    return todos;
+  }
+
+  private static void assertSameAnswers(TodoDatabase expected, TodoDatabase actual, String when) {
+    assertEquals(expected.size(), actual.size(), "Incorrect size " + when);
+    for (Map<String, List<String>> queryParams : QUERIES) {
+      assertArrayEquals(expected.listTodos(queryParams), actual.listTodos(queryParams),
+          "Results differ for " + queryParams + " " + when);
+    }
+    for (String key : TodoQuery.SORT_KEYS) {
+      assertEquals(allPages(expected, key), allPages(actual, key), "Pages sorted by " + key + " differ " + when);
+    }
+  }
+
+  private void checkChangesMatchAFreshDatabase(TextStorage storage) throws IOException {
+    Random random = new Random(3601);
+    List<Todo> expected = new ArrayList<>(Arrays.asList(new TodoDatabase("/todos.json").listTodos(query())));
+    TodoDatabase db = new TodoDatabase(expected.toArray(new Todo[0]), storage);
+
+    for (int round = 0; round < 30; ++round) {
+      Todo[] before = db.listTodos(query("orderBy", "owner"));
+      Map<String, Todo> changes = new LinkedHashMap<>();
+      for (int i = random.nextInt(6); i >= 0; --i) {
+        int kind = random.nextInt(3);
+        if (kind == 0 || expected.isEmpty()) {
+          Todo added = randomTodo(random, "new-" + round + "-" + i);
+          changes.put(added._id, added);
+          expected.add(added);
+        } else {
+          int index = random.nextInt(expected.size());
+          String id = expected.get(index)._id;
+          if (kind == 1) {
+            Todo updated = randomTodo(random, id);
+            changes.put(id, updated);
+            expected.set(index, updated);
+          } else {
+            changes.put(id, null);
+            expected.remove(index);
+          }
+        }
+      }
+      TodoDatabase next = db.withChanges(changes);
+
+      assertArrayEquals(before, db.listTodos(query("orderBy", "owner")), "The old todoDatabase changed");
+      assertSameAnswers(new TodoDatabase(expected.toArray(new Todo[0]), storage), next, "after round " + round);
+      for (Map.Entry<String, Todo> change : changes.entrySet()) {
+        assertEquals(change.getValue(), next.getTodo(change.getKey()), "Incorrect todo " + change.getKey());
+      }
+      assertNotEquals(db.getContentHash(), next.getContentHash(), "The content hash didn't change");
+      db = next;
+    }
+    assertEquals(db.size(), (int) db.getStats().get("size"), "Incorrect size in the stats");
+  }
+
+  @Test
+  public void changesMatchAFreshDatabase() throws IOException {
+    checkChangesMatchAFreshDatabase(TextStorage.HEAP);
+  }
+
+  @Test
+  public void offHeapChangesMatchAFreshDatabase() throws IOException {
+    checkChangesMatchAFreshDatabase(TextStorage.OFF_HEAP);
+  }
+
+  @Test
+  public void largeChangesMatchAFreshDatabase() {
+    // Enough todos, in big enough batches, that the columns and indexes span
+    // many chunks and blocks, and the added todos (which sort after the
+    // todos they tie with) make the last blocks split.
+    Random random = new Random(3601);
+    List<Todo> expected = new ArrayList<>();
+    for (int i = 0; i < 5000; ++i) {
+      expected.add(randomTodo(random, "todo-" + i));
+    }
+    TodoDatabase db = new TodoDatabase(expected.toArray(new Todo[0]));
+
+    for (int round = 0; round < 4; ++round) {
+      Map<String, Todo> changes = new LinkedHashMap<>();
+      for (int i = 0; i < 1500; ++i) {
+        int kind = random.nextInt(3);
+        if (kind == 0) {
+          Todo added = randomTodo(random, "new-" + round + "-" + i);
+          changes.put(added._id, added);
+          expected.add(added);
+        } else {
+          int index = random.nextInt(expected.size());
+          String id = expected.get(index)._id;
+          if (kind == 1) {
+            Todo updated = randomTodo(random, id);
+            changes.put(id, updated);
+            expected.set(index, updated);
+          } else {
+            changes.put(id, null);
+            expected.remove(index);
+          }
+        }
+      }
+      db = db.withChanges(changes);
+      assertSameAnswers(new TodoDatabase(expected.toArray(new Todo[0])), db, "after round " + round);
+    }
+  }
+
+  @Test
+  public void smallChangesCostFarLessThanARebuild() {
+    // HotSpot can count the bytes a thread allocates, which stands in for
+    // the work `withChanges` does: it should copy the few chunks and blocks
+    // a change touches, not every column and index.
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    Random random = new Random(3601);
+    Todo[] todos = new Todo[100_000];
+    for (int i = 0; i < todos.length; ++i) {
+      todos[i] = randomTodo(random, "todo-" + i);
+    }
+
+    long start = threads.getThreadAllocatedBytes(thread);
+    TodoDatabase db = new TodoDatabase(todos);
+    long rebuilt = threads.getThreadAllocatedBytes(thread) - start;
+
+    for (int i = 0; i < 100; ++i) {
+      String id = "todo-" + random.nextInt(todos.length);
+      db = db.withChanges(Map.of(id, randomTodo(random, id)));
+    }
+    start = threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i < 100; ++i) {
+      String id = "todo-" + random.nextInt(todos.length);
+      db = db.withChanges(Map.of(id, randomTodo(random, id)));
+    }
+    long changed = (threads.getThreadAllocatedBytes(thread) - start) / 100;
+    assertTrue(changed * 100 < rebuilt,
+        "Changing a todo allocated " + changed + " bytes, against " + rebuilt + " to build from scratch");
+  }
+
+  @Test
+  public void writerAddsUpdatesAndDeletesTodos() throws IOException {
+    Reloadable<TodoDatabase> todoDatabases = new Reloadable<>("todos", new TodoDatabase("/todos.json"), () -> null);
+    TodoWriter writer = new TodoWriter(todoDatabases);
+    String hash = todoDatabases.get().getContentHash();
+
+    Todo todo = new Todo();
+    todo._id = "ignored";
+    todo.owner = "Fry";
+    todo.body = "Deliver a package to the Moon";
+    todo.category = "work";
+    Todo added = writer.addTodo(todo);
+    assertTrue(added._id.matches("[0-9a-f]{24}"), "Incorrect new _id " + added._id);
+    assertEquals("ignored", todo._id, "The given todo was changed");
+    assertEquals(301, todoDatabases.get().size());
+    assertEquals(added, todoDatabases.get().getTodo(added._id));
+    assertEquals(1, todoDatabases.get().listTodos(query("category", "work")).length);
+    assertNotEquals(hash, todoDatabases.get().getContentHash());
+
+    todo.status = true;
+    assertEquals(true, writer.updateTodo(added._id, todo).status);
+    assertEquals(true, todoDatabases.get().getTodo(added._id).status);
+    assertNull(writer.updateTodo("no such todo", todo), "Updated a todo that doesn't exist");
+
+    assertTrue(writer.deleteTodo("58895985a22c04e761776d54"), "Didn't delete an existing todo");
+    assertFalse(writer.deleteTodo("58895985a22c04e761776d54"), "Deleted a todo twice");
+    assertNull(todoDatabases.get().getTodo("58895985a22c04e761776d54"));
+    assertEquals(300, todoDatabases.get().size());
+    assertEquals(1, todoDatabases.get().getStats().get("deletedTodos"));
+  }
+
+  @Test
+  public void readersSeeConsistentSnapshotsWhileWritersChangeTodos() throws Exception {
+    Reloadable<TodoDatabase> todoDatabases = new Reloadable<>("todos", new TodoDatabase("/todos.json"), () -> null);
+    TodoWriter writer = new TodoWriter(todoDatabases);
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicReference<String> problem = new AtomicReference<>();
+    AtomicInteger reads = new AtomicInteger();
+
+    List<Thread> readers = new ArrayList<>();
+    for (int r = 0; r < 8; ++r) {
+      Thread reader = new Thread(() -> {
+        while (!done.get() && problem.get() == null) {
+          TodoDatabase db = todoDatabases.get();
+          Todo[] all = db.listTodos(query());
+          Todo[] byOwner = db.listTodos(query("orderBy", "owner"));
+          Todo[] fry = db.listTodos(query("owner", "Fry"));
+          if (all.length != db.size() || byOwner.length != db.size()) {
+            problem.compareAndSet(null, "A list didn't hold every todo");
+          }
+          for (int i = 1; i < byOwner.length; ++i) {
+            if (byOwner[i - 1].owner.compareTo(byOwner[i].owner) > 0) {
+              problem.compareAndSet(null, "Todos weren't sorted by owner");
+            }
+          }
+          for (Todo todo : fry) {
+            if (!todo.owner.equalsIgnoreCase("Fry") || !todo.equals(db.getTodo(todo._id))) {
+              problem.compareAndSet(null, "Found an inconsistent todo " + todo._id);
+            }
+          }
+          reads.incrementAndGet();
+        }
+      });
+      reader.start();
+      readers.add(reader);
+    }
+
+    Set<String> live = ConcurrentHashMap.newKeySet();
+    AtomicInteger deleted = new AtomicInteger();
+    List<Thread> writers = new ArrayList<>();
+    for (int w = 0; w < 3; ++w) {
+      int seed = w;
+      Thread writerThread = new Thread(() -> {
+        Random random = new Random(seed);
+        List<String> mine = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+          if (mine.isEmpty() || random.nextInt(3) > 0) {
+            mine.add(writer.addTodo(randomTodo(random, null))._id);
+          } else if (random.nextBoolean()) {
+            writer.updateTodo(mine.get(random.nextInt(mine.size())), randomTodo(random, null));
+          } else if (writer.deleteTodo(mine.remove(random.nextInt(mine.size())))) {
+            deleted.incrementAndGet();
+          }
+        }
+        live.addAll(mine);
+      });
+      writerThread.start();
+      writers.add(writerThread);
+    }
+    for (Thread writerThread : writers) {
+      writerThread.join();
+    }
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+
+    assertNull(problem.get(), problem.get());
+    assertTrue(reads.get() > 0, "The readers never got to read");
+    TodoDatabase db = todoDatabases.get();
+    assertEquals(300 + live.size(), db.size(), "Some changes were lost");
+    for (String id : live) {
+      assertTrue(db.contains(id), "Lost the todo " + id);
+    }
+    assertEquals(db.size(), db.listTodos(query()).length);
+  }
+}
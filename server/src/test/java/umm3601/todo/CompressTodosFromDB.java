@@ -0,0 +1,59 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.Compression;
+
+/**
+ * Tests umm3601.todo.TodoDatabase listTodosGzip, which caches gzipped lists
+ * of todos
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class CompressTodosFromDB {
+
+  @Test
+  public void gzippedListMatchesListTodos() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    queryParams.put("orderBy", Arrays.asList(new String[] {"body"}));
+    TodoQuery query = TodoQuery.fromQueryParams(queryParams);
+
+    byte[] gzipped = db.listTodosGzip(query);
+    Todo[] todos;
+    try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+      todos = new ObjectMapper().readValue(input, Todo[].class);
+    }
+    Todo[] expected = db.listTodos(query);
+    assertEquals(61, todos.length, "Incorrect number of todos with owner Fry");
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(expected[i]._id, todos[i]._id, "Incorrect todo at position " + i);
+    }
+
+    assertSame(gzipped, db.listTodosGzip(query), "The gzipped list wasn't cached");
+  }
+
+  @Test
+  public void smallListsAreNotCompressed() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] {"1"}));
+
+    assertNull(db.listTodosGzip(TodoQuery.fromQueryParams(queryParams)), "A single todo was compressed");
+    assertNull(Compression.precompress(db.getTodoJson("58895985e96bc855be665b7d")), "A single todo was compressed");
+  }
+}
@@ -0,0 +1,139 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.LatencyHistogram;
+import umm3601.QueryProfile;
+import umm3601.QueryProfiler;
+
+/**
+ * Tests that umm3601.todo.TodoDatabase explains its queries: the stages
+ * they go through, the todos in and out of each one, and how selective
+ * each filter is
+ */
+@SuppressWarnings({ "MagicNumber", "unchecked" })
+public class ExplainTodoQueriesFromDB {
+
+  private static TodoQuery query(String... keysAndValues) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      queryParams.put(keysAndValues[i], Arrays.asList(new String[] {keysAndValues[i + 1]}));
+    }
+    return TodoQuery.fromQueryParams(queryParams);
+  }
+
+  private static List<String> stageNames(QueryProfile profile) {
+    List<String> names = new ArrayList<>();
+    for (QueryProfile.Stage stage : profile.getStages()) {
+      names.add(stage.getName());
+    }
+    return names;
+  }
+
+  private static void assertRows(QueryProfile.Stage stage, String detail, long in, long out) {
+    assertEquals(detail, stage.getDetail(), "Incorrect detail of the " + stage.getName() + " stage");
+    assertEquals(in, stage.getRowsIn(), "Incorrect rows into the " + stage.getName() + " stage");
+    assertEquals(out, stage.getRowsOut(), "Incorrect rows out of the " + stage.getName() + " stage");
+  }
+
+  private static List<Map<String, Object>> filters(QueryProfile profile) {
+    return (List<Map<String, Object>>) profile.toMap().get("filters");
+  }
+
+  private static Map<String, Object> plan(QueryProfile profile) {
+    return (Map<String, Object>) profile.toMap().get("plan");
+  }
+
+  @Test
+  public void explainsAnIndexedFilteredQuery() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    QueryProfile profile = db.explainTodos(query("owner", "Fry", "status", "complete"));
+
+    assertEquals(List.of("index", "filter", "materialize"), stageNames(profile));
+    List<QueryProfile.Stage> stages = profile.getStages();
+    assertRows(stages.get(0), "owner", 300, 61);
+    assertRows(stages.get(1), "status,owner", 61, 27);
+    assertRows(stages.get(2), null, 27, 27);
+
+    // Each filter on its own, against the 61 candidates from the owner index.
+    List<Map<String, Object>> filters = filters(profile);
+    assertEquals(2, filters.size());
+    assertEquals("status", filters.get(0).get("filter"));
+    assertEquals(61L, filters.get(0).get("rowsIn"));
+    assertEquals(27L, filters.get(0).get("rowsOut"));
+    assertEquals("owner", filters.get(1).get("filter"));
+    assertEquals(61L, filters.get(1).get("rowsOut"));
+
+    Map<String, Object> plan = plan(profile);
+    assertEquals(false, plan.get("cached"));
+    assertTrue(plan.get("candidates").toString().contains("owner index"), "Incorrect candidates " + plan);
+    assertNotNull(profile.toMap().get("totalMicros"));
+  }
+
+  @Test
+  public void explainsASortedLimitedQuery() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    QueryProfile profile = db.explainTodos(query("orderBy", "owner", "limit", "5"));
+
+    // Every todo is a candidate, so the precomputed order is walked, and
+    // the walk stops after the first 5.
+    assertEquals(List.of("index", "filter", "materialize"), stageNames(profile));
+    assertRows(profile.getStages().get(0), "none", 300, 300);
+    assertRows(profile.getStages().get(1), "none", 5, 5);
+    assertTrue(filters(profile).isEmpty(), "Explained filters that aren't in the query");
+  }
+
+  @Test
+  public void explainsASortOfAFewCandidates() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    QueryProfile profile = db.explainTodos(query("contains", "in sunt ex non", "orderBy", "body"));
+
+    assertEquals(List.of("index", "filter", "sort", "materialize"), stageNames(profile));
+    QueryProfile.Stage sort = profile.getStages().get(2);
+    assertEquals("body", sort.getDetail());
+    assertEquals(db.listTodos(query("contains", "in sunt ex non")).length, sort.getRowsOut());
+    assertEquals("contains", profile.getStages().get(0).getDetail());
+  }
+
+  @Test
+  public void explainingBypassesTheCache() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    TodoQuery query = query("category", "homework", "pageSize", "10", "count", "true");
+    db.listTodos(query);
+
+    QueryProfile profile = db.explainTodos(query);
+    assertEquals(true, plan(profile).get("cached"));
+    assertEquals(List.of("index", "filter", "materialize", "count"), stageNames(profile));
+    assertRows(profile.getStages().get(3), "category", 79, 79);
+    Map<String, Object> cacheStats = (Map<String, Object>) db.getStats().get("queryCache");
+    assertEquals(0L, cacheStats.get("hits"), "Explaining used the cache");
+  }
+
+  @Test
+  public void profilerAddsUpUncachedStages() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    QueryProfiler profiler = new QueryProfiler("todos");
+    for (int i = 0; i < 3; ++i) {
+      QueryProfile profile = new QueryProfile(false);
+      db.listTodos(query("owner", "Barry", "contains", "ipsum"), profile);
+      profiler.record(profile);
+    }
+
+    // Only the first query missed the cache.
+    Map<String, Map<String, LatencyHistogram>> stages = profiler.getStageLatencies();
+    assertEquals(1, stages.get("filter").get("owner,contains").getCount());
+    assertEquals(1, stages.get("materialize").get("").getCount());
+    assertEquals(List.of("filter", "index", "materialize"), new ArrayList<>(stages.keySet()));
+  }
+}
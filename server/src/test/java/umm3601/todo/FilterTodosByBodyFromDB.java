@@ -0,0 +1,125 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.TextStorage;
+
+/**
+ * Tests umm3601.todo.TodoDatabase listTodos with the _contains_ query
+ * parameter, which is answered from the trigram index
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class FilterTodosByBodyFromDB {
+
+  private static Todo todo(String id, String body) {
+    Todo todo = new Todo();
+    todo._id = id;
+    todo.owner = "Fry";
+    todo.body = body;
+    todo.category = "homework";
+    return todo;
+  }
+
+  private static Map<String, List<String>> query(String key, String value) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(key, Arrays.asList(new String[] {value}));
+    return queryParams;
+  }
+
+  @Test
+  public void indexedContainsMatchesScan() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Todo[] allTodos = db.listTodos(new HashMap<>());
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    // Short and long targets, mixed case, and targets spanning words.
+    for (String target : new String[] {"a", "es", "sit", "Cillum", "ex non", "IPSUM ESSE", "nisi. "}) {
+      queryParams.put("contains", Arrays.asList(new String[] {target}));
+      Todo[] expected = Arrays
+          .stream(allTodos)
+          .filter(todo -> todo.body.toLowerCase().contains(target.toLowerCase()))
+          .toArray(Todo[]::new);
+      assertArrayEquals(expected, db.listTodos(queryParams), "Incorrect todos containing '" + target + "'");
+    }
+  }
+
+  @Test
+  public void missingTextMatchesNothing() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("contains", Arrays.asList(new String[] {"zzzzz"}));
+    assertEquals(0, db.listTodos(queryParams).length, "Found todos containing text that isn't there");
+  }
+
+  @Test
+  public void containsCombinesWithOtherFilters() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("contains", Arrays.asList(new String[] {"sit"}));
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    queryParams.put("orderBy", Arrays.asList(new String[] {"body"}));
+    Todo[] todos = db.listTodos(queryParams);
+    for (int i = 0; i < todos.length; ++i) {
+      assertEquals("Fry", todos[i].owner, "Incorrect owner");
+      assertEquals(true, todos[i].body.toLowerCase().contains("sit"), "Body doesn't contain 'sit'");
+      if (i > 0) {
+        assertEquals(true, todos[i - 1].body.compareTo(todos[i].body) <= 0, "Todos not sorted by body");
+      }
+    }
+  }
+
+  @Test
+  public void indexAndScanFoldCaseAlike() {
+    // The dotted and dotless i's are where lowercasing and ignoring case
+    // part ways; every path has to agree they're all 'i'.
+    Todo[] todos = {
+        todo("0", "\u0130stanbul trip"), todo("1", "D\u0131v\u0131de the cake"),
+        todo("2", "ISTANBUL"), todo("3", "divide"), todo("4", "kayak"),
+    };
+    todos[0].owner = "\u0130rem";
+    String[][] expected = {
+        {"istanbul", "0", "2"},
+        {"\u0130STANBUL", "0", "2"},
+        {"d\u0131v", "1", "3"},
+        {"DIV", "1", "3"},
+        {"d\u0131", "1", "3"},
+    };
+    for (TextStorage storage : TextStorage.values()) {
+      TodoDatabase db = new TodoDatabase(todos, storage);
+      for (String[] search : expected) {
+        String[] ids = Arrays.copyOfRange(search, 1, search.length);
+        assertArrayEquals(ids, Arrays.stream(db.listTodos(query("contains", search[0]))).map(todo -> todo._id)
+            .toArray(), "Incorrect todos containing '" + search[0] + "' (" + storage + ")");
+        assertArrayEquals(ids, Arrays.stream(db.filterTodosByBody(todos, search[0])).map(todo -> todo._id)
+            .toArray(), "Scan disagrees for '" + search[0] + "' (" + storage + ")");
+      }
+      assertEquals(1, db.listTodos(query("owner", "irem")).length, "Owner didn't fold the dotted I");
+      assertEquals(1, db.filterTodosByOwner(todos, "IREM").length, "Owner scan didn't fold the dotted I");
+    }
+  }
+
+  @Test
+  public void todosWithoutBodiesAreNeverCandidates() {
+    TrigramIndex index = new TrigramIndex(TodoColumns.of(
+        new Todo[] {todo("a", null), todo("b", "sit amet"), todo("c", null)}, TextStorage.HEAP));
+    assertArrayEquals(new int[] {1}, index.candidates("sit").toArray(), "Incorrect candidates for 'sit'");
+
+    // Updating a todo to have no body, and adding one without a body, drops
+    // it from the index.
+    index = index.withChanges(List.of(1), List.of("sit amet"), new int[] {1, 3}, new String[] {null, null});
+    assertEquals(0, index.candidates("sit").size(), "A todo without a body is still a candidate");
+    assertNull(index.candidates("si"), "A short target narrowed the search");
+  }
+}
@@ -0,0 +1,64 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests umm3601.todo.TodoDatabase listTodos with _status_, _owner_ and
+ * _category_ query parameters, which are answered from the indexes
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class FilterTodosByCombinedFiltersFromDB {
+
+  @Test
+  public void listTodosWithCombinedFilters() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("owner", Arrays.asList(new String[] {"Blanche"}));
+    Todo[] blancheTodos = db.listTodos(queryParams);
+    assertEquals(43, blancheTodos.length, "Incorrect number of todos with owner Blanche");
+
+    queryParams.put("status", Arrays.asList(new String[] {"complete"}));
+    queryParams.put("category", Arrays.asList(new String[] {"homework"}));
+    Todo[] combinedTodos = db.listTodos(queryParams);
+    for (Todo todo : combinedTodos) {
+      assertEquals("Blanche", todo.owner, "Incorrect owner");
+      assertEquals(true, todo.status, "Incorrect status");
+      assertEquals("homework", todo.category, "Incorrect category");
+    }
+  }
+
+  @Test
+  public void indexedFiltersMatchScanningFilters() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Todo[] allTodos = db.listTodos(new HashMap<>());
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("status", Arrays.asList(new String[] {"Incomplete"}));
+    queryParams.put("owner", Arrays.asList(new String[] {"fry"}));
+    queryParams.put("category", Arrays.asList(new String[] {"Video Games"}));
+    Todo[] expected = db.filterTodosByStatus(allTodos, "Incomplete");
+    expected = db.filterTodosByOwner(expected, "fry");
+    expected = db.filterTodosByCategory(expected, "Video Games");
+
+    assertArrayEquals(expected, db.listTodos(queryParams), "Indexed filters disagree with scanning filters");
+  }
+
+  @Test
+  public void unknownOwnerMatchesNothing() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("owner", Arrays.asList(new String[] {"Nobody"}));
+    assertEquals(0, db.listTodos(queryParams).length, "Found todos for an owner that doesn't exist");
+  }
+}
@@ -1,11 +1,14 @@
 package umm3601.todo;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import java.io.IOException;
 
 import org.junit.jupiter.api.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 /**
  * Tests umm3601.todo.TodoDatabase getTodo functionality
  */
@@ -26,4 +29,21 @@ public class GetTodoByIDFromDB {
     assertEquals("Roberta", todo.owner, "Incorrect owner");
     assertEquals("software design", todo.category, "Incorrect category");
   }
+
+  @Test
+  public void getNonexistentTodo() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    assertNull(db.getTodo("nonexistent"), "Found a todo that shouldn't exist");
+  }
+
+  @Test
+  public void getRobertaSoftwareDesignJson() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    byte[] json = db.getTodoJson("588959858d6f5457cb2b779f");
+    Todo todo = new ObjectMapper().readValue(json, Todo.class);
+    assertEquals("588959858d6f5457cb2b779f", todo._id, "Incorrect id");
+    assertEquals("Roberta", todo.owner, "Incorrect owner");
+    assertEquals("software design", todo.category, "Incorrect category");
+    assertNull(db.getTodoJson("nonexistent"), "Found JSON for a todo that shouldn't exist");
+  }
 }
@@ -0,0 +1,238 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.Reloadable;
+import umm3601.SnapshotReader;
+import umm3601.TextStorage;
+
+/**
+ * Tests that changes made through a umm3601.todo.TodoWriter with a
+ * umm3601.todo.TodoJournal survive a restart, a reload, a partly written
+ * journal, and compaction
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class JournalTodoChangesFromDB {
+
+  private static Path copyTodosJson() throws IOException {
+    Path directory = Files.createTempDirectory("todos");
+    Path file = directory.resolve("todos.json");
+    // Files are deleted in the reverse of the order they're registered in,
+    // so the directory goes last. The files are mapped, and Windows won't
+    // delete a mapped file, so they're left until the JVM exits.
+    directory.toFile().deleteOnExit();
+    file.toFile().deleteOnExit();
+    SnapshotReader.snapshotPathFor(file).toFile().deleteOnExit();
+    directory.resolve("todos.json.journal").toFile().deleteOnExit();
+    directory.resolve("todos.json.journal.compacting").toFile().deleteOnExit();
+    try (InputStream input = JournalTodoChangesFromDB.class.getResourceAsStream("/todos.json")) {
+      Files.copy(input, file);
+    }
+    return file;
+  }
+
+  private static Todo todo(String owner, boolean status, String body) {
+    Todo todo = new Todo();
+    todo.owner = owner;
+    todo.status = status;
+    todo.body = body;
+    todo.category = "work";
+    return todo;
+  }
+
+  private static Reloadable<TodoDatabase> open(TodoJournal journal) throws IOException {
+    return new Reloadable<>("todos", journal.recover(), journal::loadBase, journal::catchUp, Runnable::run);
+  }
+
+  private static Map<String, Todo> byId(TodoDatabase db) {
+    Map<String, Todo> todos = new HashMap<>();
+    for (Todo todo : db.listTodos(new HashMap<>())) {
+      todos.put(todo._id, todo);
+    }
+    return todos;
+  }
+
+  /**
+   * Make some changes: add todos, update one of them and one of the
+   * original todos, and delete another of each.
+   *
+   * @return the `_id`s of the todos that were added and are still there
+   */
+  private static List<String> makeChanges(TodoWriter writer) {
+    List<String> added = new ArrayList<>();
+    for (int i = 0; i < 5; ++i) {
+      added.add(writer.addTodo(todo("Fry", false, "Deliver package " + i))._id);
+    }
+    writer.updateTodo(added.get(0), todo("Fry", true, "Delivered package 0"));
+    writer.updateTodo("58895985a22c04e761776d54", todo("Blanche", true, "All done"));
+    writer.deleteTodo(added.remove(4));
+    writer.deleteTodo("588959856f0b82ee93cd93eb");
+    return added;
+  }
+
+  @Test
+  public void changesSurviveARestart() throws IOException {
+    Path file = copyTodosJson();
+    TodoJournal journal = new TodoJournal(file, TextStorage.HEAP);
+    Reloadable<TodoDatabase> todoDatabases = open(journal);
+    List<String> added = makeChanges(new TodoWriter(todoDatabases, journal));
+    Map<String, Todo> expected = byId(todoDatabases.get());
+    assertEquals(303, expected.size());
+    assertEquals(9L, journal.getStats().get("changes"));
+    journal.close();
+
+    TodoJournal reopened = new TodoJournal(file, TextStorage.HEAP);
+    TodoDatabase recovered = reopened.recover();
+    assertEquals(expected, byId(recovered), "The recovered todos differ");
+    assertEquals(true, recovered.getTodo(added.get(0)).status);
+    assertEquals("All done", recovered.getTodo("58895985a22c04e761776d54").body);
+    assertNull(recovered.getTodo("588959856f0b82ee93cd93eb"), "A deleted todo came back");
+    assertEquals(7L, reopened.getStats().get("replayedChanges"));
+    reopened.close();
+  }
+
+  @Test
+  public void changesThatFailAreNotJournaled() throws IOException {
+    Path file = copyTodosJson();
+    TodoJournal journal = new TodoJournal(file, TextStorage.HEAP);
+    TodoDatabase failing = new TodoDatabase(journal.recover().listTodos(new HashMap<>())) {
+      @Override
+      TodoDatabase withChanges(Map<String, Todo> changes) {
+        throw new IllegalStateException("Couldn't make the changes");
+      }
+    };
+    Reloadable<TodoDatabase> todoDatabases = new Reloadable<>("todos", failing, journal::loadBase,
+        journal::catchUp, Runnable::run);
+    TodoWriter writer = new TodoWriter(todoDatabases, journal);
+    assertThrows(IllegalStateException.class, () -> writer.addTodo(todo("Fry", false, "Deliver package")));
+    assertSame(failing, todoDatabases.get(), "A failed change was swapped in");
+    assertEquals(0L, journal.getStats().get("changes"), "A failed change was journaled");
+    journal.close();
+
+    TodoJournal reopened = new TodoJournal(file, TextStorage.HEAP);
+    assertEquals(300, reopened.recover().size(), "A failed change came back after a restart");
+    assertEquals(0L, reopened.getStats().get("replayedChanges"));
+    reopened.close();
+  }
+
+  @Test
+  public void reloadsKeepTheJournaledChanges() throws IOException {
+    Path file = copyTodosJson();
+    TodoJournal journal = new TodoJournal(file, TextStorage.OFF_HEAP);
+    Reloadable<TodoDatabase> todoDatabases = open(journal);
+    makeChanges(new TodoWriter(todoDatabases, journal));
+    Map<String, Todo> expected = byId(todoDatabases.get());
+
+    TodoDatabase before = todoDatabases.get();
+    todoDatabases.reload().join();
+    assertNotSame(before, todoDatabases.get(), "Nothing was reloaded");
+    assertEquals(expected, byId(todoDatabases.get()), "The reload lost some changes");
+    journal.close();
+  }
+
+  @Test
+  public void partlyWrittenRecordsAreDropped() throws IOException {
+    Path file = copyTodosJson();
+    Path journalFile = file.resolveSibling("todos.json.journal");
+    TodoJournal journal = new TodoJournal(file, TextStorage.HEAP);
+    TodoWriter writer = new TodoWriter(open(journal), journal);
+    String kept = writer.addTodo(todo("Fry", false, "Kept"))._id;
+    journal.close();
+
+    // A record that was cut off part way through being appended...
+    long complete = Files.size(journalFile);
+    Files.write(journalFile, new byte[] {40, 0, 0, 0, 1, 2, 3, 4, 1, 0}, StandardOpenOption.APPEND);
+
+    TodoJournal reopened = new TodoJournal(file, TextStorage.HEAP);
+    Reloadable<TodoDatabase> todoDatabases = open(reopened);
+    assertEquals(301, todoDatabases.get().size());
+    assertTrue(todoDatabases.get().contains(kept), "Lost a complete record");
+    assertEquals(complete, Files.size(journalFile), "The partial record wasn't dropped");
+
+    // ...is dropped, so the records appended after it can be read.
+    String next = new TodoWriter(todoDatabases, reopened).addTodo(todo("Fry", false, "Next"))._id;
+    reopened.close();
+    TodoJournal again = new TodoJournal(file, TextStorage.HEAP);
+    TodoDatabase recovered = again.recover();
+    assertEquals(302, recovered.size());
+    assertTrue(recovered.contains(next), "Lost the record after the partial one");
+    again.close();
+  }
+
+  @Test
+  public void compactionFoldsTheJournalIntoTheDataFile() throws IOException {
+    Path file = copyTodosJson();
+    Path journalFile = file.resolveSibling("todos.json.journal");
+    TodoJournal journal = new TodoJournal(file, TextStorage.HEAP);
+    Reloadable<TodoDatabase> todoDatabases = open(journal);
+    TodoWriter writer = new TodoWriter(todoDatabases, journal);
+    makeChanges(writer);
+    Map<String, Todo> compacted = byId(todoDatabases.get());
+    long journalSize = Files.size(journalFile);
+
+    journal.compact(todoDatabases);
+    assertTrue(Files.size(journalFile) < journalSize, "The journal wasn't emptied");
+    assertFalse(Files.exists(file.resolveSibling("todos.json.journal.compacting")), "The old journal was kept");
+    assertTrue(journal.wroteDataFile(), "The new data file isn't the one compaction wrote");
+    assertEquals(compacted, byId(TodoDatabase.fromFile(file)), "The new data file doesn't hold every change");
+    assertEquals(1L, journal.getStats().get("compactions"));
+
+    // Changes made after compacting go in the new journal.
+    String added = writer.addTodo(todo("Dawn", false, "After compacting"))._id;
+    journal.close();
+    TodoJournal reopened = new TodoJournal(file, TextStorage.HEAP);
+    TodoDatabase recovered = reopened.recover();
+    assertEquals(compacted.size() + 1, recovered.size());
+    assertTrue(recovered.contains(added), "Lost a change made after compacting");
+    assertEquals(1L, reopened.getStats().get("replayedChanges"));
+    reopened.close();
+  }
+
+  @Test
+  public void concurrentWritersShareCommits() throws Exception {
+    Path file = copyTodosJson();
+    TodoJournal journal = new TodoJournal(file, TextStorage.HEAP);
+    Reloadable<TodoDatabase> todoDatabases = open(journal);
+    TodoWriter writer = new TodoWriter(todoDatabases, journal);
+
+    List<Thread> writers = new ArrayList<>();
+    for (int w = 0; w < 8; ++w) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 50; ++i) {
+          writer.addTodo(todo("Barry", false, "Concurrent " + i));
+        }
+      });
+      thread.start();
+      writers.add(thread);
+    }
+    for (Thread thread : writers) {
+      thread.join();
+    }
+
+    Map<String, Object> stats = journal.getStats();
+    assertEquals(400L, stats.get("changes"));
+    assertTrue((long) stats.get("commits") <= 400, "More commits than changes");
+    journal.close();
+    TodoJournal reopened = new TodoJournal(file, TextStorage.HEAP);
+    assertEquals(700, reopened.recover().size(), "Lost some changes");
+    reopened.close();
+  }
+}
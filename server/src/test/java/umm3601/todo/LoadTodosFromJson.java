@@ -0,0 +1,67 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests umm3601.todo.TodoLoader, which reads todos by streaming the JSON
+ * tokens instead of using data binding
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class LoadTodosFromJson {
+
+  @Test
+  public void readsTheSameTodosAsDataBinding() throws IOException {
+    Todo[] expected;
+    try (InputStream input = getClass().getResourceAsStream("/todos.json")) {
+      expected = new ObjectMapper().readValue(new InputStreamReader(input, StandardCharsets.UTF_8), Todo[].class);
+    }
+    Todo[] todos;
+    try (InputStream input = getClass().getResourceAsStream("/todos.json")) {
+      todos = TodoLoader.readJson(input);
+    }
+
+    assertEquals(300, todos.length, "Incorrect number of todos");
+    for (int i = 0; i < todos.length; ++i) {
+      assertEquals(expected[i]._id, todos[i]._id, "Incorrect id");
+      assertEquals(expected[i].owner, todos[i].owner, "Incorrect owner");
+      assertEquals(expected[i].status, todos[i].status, "Incorrect status");
+      assertEquals(expected[i].body, todos[i].body, "Incorrect body");
+      assertEquals(expected[i].category, todos[i].category, "Incorrect category");
+    }
+  }
+
+  @Test
+  public void sharesRepeatedOwnersAndReadsNulls() throws IOException {
+    String json = "[{\"_id\": \"a\", \"owner\": \"Fry\", \"status\": true, \"body\": null, \"category\": \"homework\"},"
+        + " {\"_id\": \"b\", \"owner\": \"Fry\", \"status\": false, \"body\": \"x\", \"category\": \"homework\"}]";
+    Todo[] todos = TodoLoader.readJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals(2, todos.length, "Incorrect number of todos");
+    assertNull(todos[0].body, "A null body wasn't read as null");
+    assertEquals(false, todos[1].status, "Incorrect status");
+    assertSame(todos[0].owner, todos[1].owner, "Repeated owners weren't shared");
+  }
+
+  @Test
+  public void rejectsMalformedTodos() {
+    assertThrows(IOException.class, () -> {
+      TodoLoader.readJson(new ByteArrayInputStream("{\"_id\": \"a\"}".getBytes(StandardCharsets.UTF_8)));
+    });
+    assertThrows(IOException.class, () -> {
+      TodoLoader.readJson(new ByteArrayInputStream("[{\"color\": \"red\"}]".getBytes(StandardCharsets.UTF_8)));
+    });
+  }
+}
@@ -0,0 +1,38 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.SnapshotReader;
+
+/**
+ * Tests umm3601.todo.TodoDatabase loaded from a memory-mapped file outside
+ * the jar
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class LoadTodosFromMappedFile {
+
+  @Test
+  public void mappedFileMatchesBundledData() throws IOException {
+    Path file = Files.createTempFile("todos", ".json");
+    // Windows won't delete a file while it's mapped, and the mapping lasts
+    // until it's garbage collected, so leave the file until the JVM exits.
+    file.toFile().deleteOnExit();
+    SnapshotReader.snapshotPathFor(file).toFile().deleteOnExit();
+    try (InputStream input = getClass().getResourceAsStream("/todos.json")) {
+      Files.copy(input, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    TodoDatabase mapped = TodoDatabase.fromFile(file);
+    TodoDatabase bundled = new TodoDatabase("/todos.json");
+    assertEquals(300, mapped.size(), "Incorrect number of todos");
+    assertEquals(bundled.getContentHash(), mapped.getContentHash(), "Mapped todos differ from the bundled ones");
+  }
+}
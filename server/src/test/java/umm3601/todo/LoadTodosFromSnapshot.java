@@ -0,0 +1,130 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.SnapshotReader;
+import umm3601.TextStorage;
+
+/**
+ * Tests loading umm3601.todo.TodoDatabase from a binary snapshot of its JSON
+ * file, and falling back to the JSON when the snapshot is stale
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class LoadTodosFromSnapshot {
+
+  private static Path copyTodosJson() throws IOException {
+    Path file = Files.createTempFile("todos", ".json");
+    // The files are mapped, and Windows won't delete a mapped file.
+    file.toFile().deleteOnExit();
+    SnapshotReader.snapshotPathFor(file).toFile().deleteOnExit();
+    try (InputStream input = LoadTodosFromSnapshot.class.getResourceAsStream("/todos.json")) {
+      Files.copy(input, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+    return file;
+  }
+
+  @Test
+  public void snapshotMatchesJson() throws IOException {
+    Path file = copyTodosJson();
+    assertNull(TodoSnapshot.read(file, TextStorage.HEAP), "Found a snapshot before one was written");
+
+    TodoDatabase fromJson = TodoDatabase.fromFile(file);
+    assertTrue(Files.exists(SnapshotReader.snapshotPathFor(file)), "No snapshot was written");
+    TodoDatabase fromSnapshot = TodoSnapshot.read(file, TextStorage.HEAP);
+    assertNotNull(fromSnapshot, "The snapshot wasn't used");
+
+    assertEquals(fromJson.size(), fromSnapshot.size(), "Incorrect number of todos");
+    assertEquals(fromJson.getContentHash(), fromSnapshot.getContentHash(), "Incorrect content hash");
+    Todo todo = fromSnapshot.getTodo("588959858d6f5457cb2b779f");
+    assertEquals("Roberta", todo.owner, "Incorrect owner");
+    assertEquals("software design", todo.category, "Incorrect category");
+
+    // The saved indexes answer queries just like the freshly built ones.
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("contains", Arrays.asList(new String[] {"dolor"}));
+    queryParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    assertArrayEquals(
+        Arrays.stream(fromJson.listTodos(queryParams)).map(t -> t._id).toArray(),
+        Arrays.stream(fromSnapshot.listTodos(queryParams)).map(t -> t._id).toArray(),
+        "The snapshot's indexes give different results");
+  }
+
+  private static Map<String, List<String>> query(String key, String value) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(key, Arrays.asList(new String[] {value}));
+    return queryParams;
+  }
+
+  private static Object[] ids(Todo[] todos) {
+    return Arrays.stream(todos).map(t -> t._id).toArray();
+  }
+
+  @Test
+  public void snapshotIndexesAreReadNotRebuilt() throws IOException {
+    Path file = copyTodosJson();
+    TodoDatabase fromJson = TodoDatabase.fromFile(file);
+    TodoDatabase fromSnapshot = TodoSnapshot.read(file, TextStorage.HEAP);
+    assertNotNull(fromSnapshot, "The snapshot wasn't used");
+    // Not even hashing the todos' content serializes them.
+    assertEquals(0L, fromJson.getStats().get("jsonCacheBytes"), "The todos were serialized to be hashed");
+    assertEquals(0L, fromSnapshot.getStats().get("jsonCacheBytes"), "The todos were serialized at load time");
+
+    for (String key : TodoQuery.SORT_KEYS) {
+      assertArrayEquals(ids(fromJson.listTodos(query("orderBy", key))),
+          ids(fromSnapshot.listTodos(query("orderBy", key))), "The saved sort order by " + key + " differs");
+    }
+    assertArrayEquals(ids(fromJson.listTodos(query("owner", "fry"))),
+        ids(fromSnapshot.listTodos(query("owner", "fry"))), "The saved owner index differs");
+    assertArrayEquals(ids(fromJson.listTodos(query("category", "homework"))),
+        ids(fromSnapshot.listTodos(query("category", "homework"))), "The saved category index differs");
+    assertArrayEquals(fromJson.getTodoJson("588959858d6f5457cb2b779f"),
+        fromSnapshot.getTodoJson("588959858d6f5457cb2b779f"), "Incorrect JSON");
+    assertTrue((long) fromSnapshot.getStats().get("jsonCacheBytes") > 0, "The served JSON wasn't cached");
+
+    // The saved indexes can be changed just like freshly built ones.
+    Todo updated = fromJson.getTodo("588959858d6f5457cb2b779f");
+    updated.owner = "Fry";
+    Map<String, Todo> changes = new HashMap<>();
+    changes.put(updated._id, updated);
+    changes.put("58895985a22c04e761776d54", null);
+    TodoDatabase changedJson = fromJson.withChanges(changes);
+    TodoDatabase changedSnapshot = fromSnapshot.withChanges(changes);
+    assertNull(changedSnapshot.getTodo("58895985a22c04e761776d54"), "A deleted todo is still there");
+    assertEquals(updated, changedSnapshot.getTodo(updated._id), "Incorrect updated todo");
+    for (String key : TodoQuery.SORT_KEYS) {
+      assertArrayEquals(ids(changedJson.listTodos(query("orderBy", key))),
+          ids(changedSnapshot.listTodos(query("orderBy", key))), "The changed sort order by " + key + " differs");
+    }
+    assertArrayEquals(ids(changedJson.listTodos(query("owner", "fry"))),
+        ids(changedSnapshot.listTodos(query("owner", "fry"))), "The changed owner index differs");
+  }
+
+  @Test
+  public void staleSnapshotIsIgnored() throws IOException {
+    Path file = copyTodosJson();
+    TodoDatabase.fromFile(file);
+    assertNotNull(TodoSnapshot.read(file, TextStorage.HEAP), "The snapshot wasn't used");
+
+    // Changing the JSON file makes the snapshot stale.
+    Files.write(file, "[]".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+    assertNull(TodoSnapshot.read(file, TextStorage.HEAP), "A stale snapshot was used");
+    assertEquals(0, TodoDatabase.fromFile(file).size(), "The changed JSON file wasn't loaded");
+  }
+}
@@ -0,0 +1,210 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.Cursor;
+import umm3601.Page;
+
+/**
+ * Tests umm3601.todo.TodoDatabase listTodoPage with the _after_, _pageSize_
+ * and _count_ query parameters
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class PaginateTodosFromDB {
+
+  /**
+   * Follow the cursors through every page of a query, and return all the
+   * todos on all the pages.
+   */
+  private Todo[] allPages(TodoDatabase db, Map<String, List<String>> queryParams) {
+    List<Todo> todos = new ArrayList<>();
+    queryParams.put("pageSize", Arrays.asList(new String[] {"7"}));
+    queryParams.remove("after");
+    while (true) {
+      Page<Todo> page = db.listTodoPage(TodoQuery.fromQueryParams(queryParams));
+      todos.addAll(Arrays.asList(page.getItems()));
+      if (page.getNextCursor() == null) {
+        return todos.toArray(new Todo[0]);
+      }
+      assertEquals(7, page.getItems().length, "Only the last page may be short");
+      queryParams.put("after", Arrays.asList(new String[] {page.getNextCursor()}));
+    }
+  }
+
+  @Test
+  public void pagesCoverUnsortedList() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Todo[] allTodos = db.listTodos(new HashMap<>());
+
+    assertArrayEquals(allTodos, allPages(db, new HashMap<>()), "Pages don't add up to the full list");
+  }
+
+  @Test
+  public void pagesCoverSortedAndFilteredLists() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+
+    for (String order : new String[] {"owner", "body", "status", "category"}) {
+      Map<String, List<String>> queryParams = new HashMap<>();
+      queryParams.put("orderBy", Arrays.asList(new String[] {order}));
+      Todo[] expected = db.listTodos(queryParams);
+      assertArrayEquals(expected, allPages(db, queryParams), "Pages sorted by " + order + " don't add up");
+
+      queryParams = new HashMap<>();
+      queryParams.put("orderBy", Arrays.asList(new String[] {order}));
+      queryParams.put("owner", Arrays.asList(new String[] {"Dawn"}));
+      queryParams.put("status", Arrays.asList(new String[] {"complete"}));
+      expected = db.listTodos(queryParams);
+      assertArrayEquals(expected, allPages(db, queryParams), "Filtered pages sorted by " + order + " don't add up");
+    }
+  }
+
+  @Test
+  public void canCountTotal() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("owner", Arrays.asList(new String[] {"Blanche"}));
+    queryParams.put("pageSize", Arrays.asList(new String[] {"5"}));
+    queryParams.put("count", Arrays.asList(new String[] {"true"}));
+    Page<Todo> page = db.listTodoPage(TodoQuery.fromQueryParams(queryParams));
+    assertEquals(5, page.getItems().length);
+    assertEquals(43, page.getTotalCount());
+
+    queryParams.remove("count");
+    assertEquals(-1, db.listTodoPage(TodoQuery.fromQueryParams(queryParams)).getTotalCount());
+  }
+
+  @Test
+  public void lastPageHasNoCursor() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("pageSize", Arrays.asList(new String[] {"300"}));
+    Page<Todo> page = db.listTodoPage(TodoQuery.fromQueryParams(queryParams));
+    assertEquals(300, page.getItems().length);
+    assertNull(page.getNextCursor());
+  }
+
+  @Test
+  public void rejectsBadPaginationParameters() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+
+    Map<String, List<String>> badCursor = new HashMap<>();
+    badCursor.put("after", Arrays.asList(new String[] {"not a cursor!"}));
+    assertThrows(BadRequestResponse.class, () -> db.listTodoPage(TodoQuery.fromQueryParams(badCursor)));
+
+    Map<String, List<String>> badPageSize = new HashMap<>();
+    badPageSize.put("pageSize", Arrays.asList(new String[] {"0"}));
+    assertThrows(BadRequestResponse.class, () -> TodoQuery.fromQueryParams(badPageSize));
+
+    Map<String, List<String>> pageSizeAndLimit = new HashMap<>();
+    pageSizeAndLimit.put("pageSize", Arrays.asList(new String[] {"10"}));
+    pageSizeAndLimit.put("limit", Arrays.asList(new String[] {"10"}));
+    assertThrows(BadRequestResponse.class, () -> TodoQuery.fromQueryParams(pageSizeAndLimit));
+
+    // A cursor made for one order can't be used with another.
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    queryParams.put("pageSize", Arrays.asList(new String[] {"10"}));
+    String cursor = db.listTodoPage(TodoQuery.fromQueryParams(queryParams)).getNextCursor();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"body"}));
+    queryParams.put("after", Arrays.asList(new String[] {cursor}));
+    assertThrows(BadRequestResponse.class, () -> TodoQuery.fromQueryParams(queryParams));
+  }
+
+  /**
+   * Page through the todos, updating (so that it moves) or deleting the last
+   * todo of each page before asking for the next one, and check that every
+   * other todo still turns up exactly once, in order.
+   */
+  private void checkPagingWhileChanging(String orderBy, boolean delete) throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+    if (orderBy != null) {
+      queryParams.put("orderBy", Arrays.asList(new String[] {orderBy}));
+    }
+    Map<String, List<String>> listParams = new HashMap<>(queryParams);
+    queryParams.put("pageSize", Arrays.asList(new String[] {"7"}));
+
+    Set<String> changed = new HashSet<>();
+    List<String> paged = new ArrayList<>();
+    while (true) {
+      Page<Todo> page = db.listTodoPage(TodoQuery.fromQueryParams(queryParams));
+      Arrays.stream(page.getItems()).forEach(todo -> paged.add(todo._id));
+      if (page.getNextCursor() == null) {
+        break;
+      }
+      Todo last = page.getItems()[page.getItems().length - 1];
+      Todo moved = null;
+      if (!delete) {
+        moved = new Todo();
+        moved._id = last._id;
+        moved.owner = "Aaron";
+        moved.status = !last.status;
+        moved.body = "zzz " + last.body;
+        moved.category = "aardvarks";
+      }
+      Map<String, Todo> changes = new HashMap<>();
+      changes.put(last._id, moved);
+      changed.add(last._id);
+      db = db.withChanges(changes);
+      queryParams.put("after", Arrays.asList(new String[] {page.getNextCursor()}));
+    }
+
+    List<String> expected = Arrays.stream(db.listTodos(listParams))
+        .map(todo -> todo._id)
+        .filter(id -> !changed.contains(id))
+        .collect(Collectors.toList());
+    paged.removeIf(changed::contains);
+    assertEquals(expected, paged, "Paging by " + orderBy + (delete ? " with deletes" : " with updates")
+        + " skipped or repeated todos");
+  }
+
+  @Test
+  public void pagingSurvivesUpdatesToTheCursorsTodo() throws IOException {
+    checkPagingWhileChanging(null, false);
+    for (String order : TodoQuery.SORT_KEYS) {
+      checkPagingWhileChanging(order, false);
+    }
+  }
+
+  @Test
+  public void pagingSurvivesDeletingTheCursorsTodo() throws IOException {
+    checkPagingWhileChanging(null, true);
+    for (String order : TodoQuery.SORT_KEYS) {
+      checkPagingWhileChanging(order, true);
+    }
+  }
+
+  @Test
+  public void rejectsOutOfRangeCursors() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    // The next page would start past the largest int.
+    queryParams.put("after", Arrays.asList(new String[] {new Cursor(null, null, Integer.MAX_VALUE, "x").encode()}));
+    assertThrows(BadRequestResponse.class, () -> TodoQuery.fromQueryParams(queryParams));
+
+    // Past the end of the todos, there's just nothing left.
+    queryParams.put("after", Arrays.asList(new String[] {new Cursor(null, null, 1_000_000, "x").encode()}));
+    Page<Todo> page = db.listTodoPage(TodoQuery.fromQueryParams(queryParams));
+    assertEquals(0, page.getItems().length);
+    assertNull(page.getNextCursor());
+  }
+}
@@ -0,0 +1,124 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.TextStorage;
+
+/**
+ * Tests umm3601.todo.TodoDatabase listTodos with _orderBy_ and _limit_ query
+ * parameters
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class SortAndLimitTodosFromDB {
+
+  @Test
+  public void limitLargerThanResultDoesNotPad() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("owner", Arrays.asList(new String[] {"Blanche"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"1000"}));
+    Todo[] todos = db.listTodos(queryParams);
+    assertEquals(43, todos.length, "Incorrect number of todos with owner Blanche");
+    for (Todo todo : todos) {
+      assertNotNull(todo, "Result was padded with nulls");
+    }
+
+    queryParams.put("orderBy", Arrays.asList(new String[] {"body"}));
+    assertEquals(43, db.listTodos(queryParams).length, "Incorrect number of sorted todos with owner Blanche");
+  }
+
+  @Test
+  public void topKMatchesFullSort() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Todo[] allTodos = db.listTodos(new HashMap<>());
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    for (String order : new String[] {"owner", "body", "status", "category"}) {
+      queryParams.put("orderBy", Arrays.asList(new String[] {order}));
+      queryParams.put("limit", Arrays.asList(new String[] {"20"}));
+      Todo[] expected = db.filterTodosByLimit(db.sortTodos(allTodos, order), 20);
+      assertArrayEquals(expected, db.listTodos(queryParams), "Top 20 by " + order + " disagrees with a full sort");
+    }
+  }
+
+  @Test
+  public void zeroLimitReturnsNothing() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"0"}));
+    assertEquals(0, db.listTodos(queryParams).length, "A limit of 0 should return no todos");
+  }
+
+  @Test
+  public void negativeLimitIsABadRequest() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("limit", Arrays.asList(new String[] {"-1"}));
+    assertThrows(BadRequestResponse.class, () -> {
+      db.listTodos(queryParams);
+    });
+  }
+
+  @Test
+  public void selectiveSortedQueryMatchesFullSort() {
+    // Only a handful of these todos belong to "Rare", so sorting them is
+    // answered by sorting their ranks rather than walking the whole order.
+    Todo[] todos = new Todo[1000];
+    for (int i = 0; i < todos.length; ++i) {
+      todos[i] = new Todo();
+      todos[i]._id = Integer.toString(i);
+      todos[i].owner = i % 100 == 0 ? "Rare" : "Common";
+      todos[i].status = i % 3 == 0;
+      todos[i].body = "Body " + (todos.length - i);
+      todos[i].category = "category " + (i % 7);
+    }
+    TodoDatabase db = new TodoDatabase(todos);
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("owner", Arrays.asList(new String[] {"rare"}));
+    for (String order : new String[] {"owner", "body", "status", "category"}) {
+      queryParams.put("orderBy", Arrays.asList(new String[] {order}));
+      Todo[] expected = db.sortTodos(db.filterTodosByOwner(todos, "rare"), order);
+      assertArrayEquals(expected, db.listTodos(queryParams), "Todos sorted by " + order + " in the wrong order");
+    }
+  }
+
+  @Test
+  public void sortsTodosWithoutBodiesFirst() throws IOException {
+    String json = "[{\"_id\": \"a\", \"owner\": \"Fry\", \"status\": true, \"body\": \"sit\", \"category\": \"x\"},"
+        + " {\"_id\": \"b\", \"owner\": \"Fry\", \"status\": false, \"body\": null, \"category\": \"x\"},"
+        + " {\"_id\": \"c\", \"owner\": \"Fry\", \"status\": true, \"body\": \"amet\", \"category\": \"x\"}]";
+    for (TextStorage storage : TextStorage.values()) {
+      TodoDatabase db = new TodoDatabase(
+          TodoLoader.readJson(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))), storage);
+      Map<String, List<String>> queryParams = new HashMap<>();
+
+      queryParams.put("orderBy", Arrays.asList(new String[] {"body"}));
+      Todo[] todos = db.listTodos(queryParams);
+      assertEquals(3, todos.length, "Incorrect number of todos");
+      assertEquals("b", todos[0]._id, "A todo without a body wasn't sorted first (" + storage + ")");
+      assertEquals("c", todos[1]._id, "Incorrect order of bodies (" + storage + ")");
+      assertEquals("a", todos[2]._id, "Incorrect order of bodies (" + storage + ")");
+      assertArrayEquals(todos, db.sortTodos(db.listTodos(new HashMap<>()), "body"),
+          "sortTodos disagrees about todos without a body (" + storage + ")");
+    }
+  }
+}
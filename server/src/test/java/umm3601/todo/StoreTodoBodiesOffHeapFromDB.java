@@ -0,0 +1,90 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.TextStorage;
+
+/**
+ * Tests that umm3601.todo.TodoDatabase answers every query the same way
+ * with its bodies kept off the heap as it does with them on the heap
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class StoreTodoBodiesOffHeapFromDB {
+
+  private static Map<String, List<String>> query(String... keysAndValues) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      queryParams.put(keysAndValues[i], Arrays.asList(new String[] {keysAndValues[i + 1]}));
+    }
+    return queryParams;
+  }
+
+  @Test
+  public void offHeapMatchesHeap() throws IOException {
+    TodoDatabase heap = new TodoDatabase("/todos.json");
+    TodoDatabase offHeap = new TodoDatabase("/todos.json", TextStorage.OFF_HEAP);
+
+    assertEquals(heap.getContentHash(), offHeap.getContentHash(), "The content hashes differ");
+    assertArrayEquals(heap.getTodoJson("58895985a22c04e761776d54"), offHeap.getTodoJson("58895985a22c04e761776d54"),
+        "The JSON of a todo differs");
+    assertEquals(heap.getTodo("58895985a22c04e761776d54"), offHeap.getTodo("58895985a22c04e761776d54"),
+        "A todo differs");
+
+    List<Map<String, List<String>>> queries = List.of(
+        query(),
+        query("contains", "Sunt"),
+        query("contains", "a"),
+        query("contains", "ipsum dolor", "orderBy", "owner"),
+        query("contains", "nothing like this"),
+        query("owner", "fry", "contains", "esse", "status", "complete"),
+        query("orderBy", "body", "limit", "25"));
+    for (Map<String, List<String>> queryParams : queries) {
+      assertArrayEquals(heap.listTodos(queryParams), offHeap.listTodos(queryParams),
+          "Results differ for " + queryParams);
+    }
+
+    Map<String, Object> stats = offHeap.getStats();
+    assertEquals(TextStorage.OFF_HEAP, stats.get("textStorage"), "Incorrect text storage");
+    assertTrue((Long) stats.get("offHeapTextBytes") > 0, "No bodies were stored off the heap");
+    assertEquals(0L, stats.get("jsonCacheBytes"), "The JSON of the todos was cached on the heap");
+  }
+
+  @Test
+  public void containsHandlesNonAsciiBodies() {
+    String[] bodies = {"Caf\u00e9 au lait", "CAF\u00c9 NOIR", "Caffeine", "273 \u212Aelvin", "kayak", ""};
+    Todo[] todos = new Todo[bodies.length];
+    for (int i = 0; i < bodies.length; ++i) {
+      todos[i] = new Todo();
+      todos[i]._id = Integer.toString(i);
+      todos[i].owner = "Fry";
+      todos[i].body = bodies[i];
+      todos[i].category = "groceries";
+    }
+    TodoDatabase offHeap = new TodoDatabase(todos, TextStorage.OFF_HEAP);
+    assertEquals("273 \u212Aelvin", offHeap.getTodo("3").body, "A non-ASCII body wasn't kept");
+
+    String[][] expected = {
+        {"caf", "0", "1", "2"},
+        {"caf\u00e9", "0", "1"},
+        {"\u00c9 n", "1"},
+        // The Kelvin sign lowercases to an ASCII 'k'.
+        {"kelvin", "3"},
+        {"k", "3", "4"},
+    };
+    for (String[] search : expected) {
+      Todo[] found = offHeap.listTodos(query("contains", search[0]));
+      assertArrayEquals(Arrays.copyOfRange(search, 1, search.length),
+          Arrays.stream(found).map(todo -> todo._id).toArray(), "Incorrect todos containing '" + search[0] + "'");
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.TextStorage;
+
+/**
+ * Tests that umm3601.todo.TodoDatabase stores its todos in dictionary-encoded
+ * columns, and filters and sorts them by their codes
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class StoreTodosInColumnsFromDB {
+
+  private static Todo todo(String id, String owner, boolean status, String category) {
+    Todo todo = new Todo();
+    todo._id = id;
+    todo.owner = owner;
+    todo.status = status;
+    todo.body = "Body of " + id;
+    todo.category = category;
+    return todo;
+  }
+
+  @Test
+  public void repeatedValuesShareOneCode() throws IOException {
+    Todo[] todos = new TodoDatabase("/todos.json").listTodos(new HashMap<>());
+    TodoColumns columns = TodoColumns.of(todos, TextStorage.HEAP);
+
+    assertEquals(300, columns.size(), "Incorrect number of todos");
+    assertEquals(Arrays.stream(todos).map(todo -> todo.owner).distinct().count(),
+        columns.owners().cardinality(), "Incorrect number of distinct owners");
+    assertEquals(Arrays.stream(todos).map(todo -> todo.category).distinct().count(),
+        columns.categories().cardinality(), "Incorrect number of distinct categories");
+    for (int i = 0; i < todos.length; ++i) {
+      assertEquals(todos[i], columns.toTodo(i), "The columns don't hold todo " + i);
+    }
+  }
+
+  @Test
+  public void ownerFilterMatchesCodesOfEveryCase() {
+    TodoDatabase db = new TodoDatabase(new Todo[] {
+        todo("1", "Fry", true, "homework"),
+        todo("2", "Blanche", false, "groceries"),
+        todo("3", "fry", false, "Homework"),
+        todo("4", "FRY", true, "video games"),
+    });
+
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"fRy"}));
+    assertArrayEquals(new String[] {"1", "3", "4"},
+        Arrays.stream(db.listTodos(queryParams)).map(todo -> todo._id).toArray(),
+        "Incorrect todos owned by fry");
+
+    queryParams.put("category", Arrays.asList(new String[] {"HOMEWORK"}));
+    queryParams.put("status", Arrays.asList(new String[] {"incomplete"}));
+    assertArrayEquals(new String[] {"3"},
+        Arrays.stream(db.listTodos(queryParams)).map(todo -> todo._id).toArray(),
+        "Incorrect incomplete homework owned by fry");
+
+    queryParams.put("owner", Arrays.asList(new String[] {"Nobody"}));
+    assertEquals(0, db.listTodos(queryParams).length, "Found todos for an owner nobody has");
+  }
+
+  @Test
+  public void sortOrdersMatchComparators() {
+    Todo[] todos = {
+        todo("1", "Fry", true, "homework"),
+        todo("2", "Blanche", false, "groceries"),
+        todo("3", "Fry", false, "software design"),
+        todo("4", "Barry", true, "groceries"),
+        todo("5", "Blanche", true, "homework"),
+    };
+    TodoDatabase db = new TodoDatabase(todos);
+
+    for (String key : TodoQuery.SORT_KEYS) {
+      Map<String, List<String>> queryParams = new HashMap<>();
+      queryParams.put("orderBy", Arrays.asList(new String[] {key}));
+      assertArrayEquals(db.sortTodos(todos, key), db.listTodos(queryParams), "Todos sorted by " + key + " disagree");
+    }
+  }
+
+  @Test
+  public void getTodoBuildsAnIndependentCopy() throws IOException {
+    TodoDatabase db = new TodoDatabase("/todos.json");
+
+    Todo todo = db.getTodo("58895985a22c04e761776d54");
+    assertNotSame(todo, db.getTodo("58895985a22c04e761776d54"), "getTodo shared a todo");
+    assertEquals(todo, db.getTodo("58895985a22c04e761776d54"), "getTodo built different todos");
+    todo.owner = "Somebody Else";
+    assertEquals("Blanche", db.getTodo("58895985a22c04e761776d54").owner, "Changing a todo changed the database");
+
+    // Every todo with the same owner gets that owner from the dictionary.
+    Todo other = Arrays.stream(db.listTodos(new HashMap<>()))
+        .filter(x -> x.owner.equals("Blanche") && !x._id.equals("58895985a22c04e761776d54"))
+        .findFirst()
+        .get();
+    assertSame(db.getTodo("58895985a22c04e761776d54").owner, other.owner, "Repeated owners weren't shared");
+  }
+}
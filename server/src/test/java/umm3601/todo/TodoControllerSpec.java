@@ -1,25 +1,41 @@
 package umm3601.todo;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpCode;
 import io.javalin.http.NotFoundResponse;
+import umm3601.ByteArrayServletOutputStream;
+import umm3601.Compression;
+import umm3601.ETags;
+import umm3601.Page;
 import umm3601.Server;
 
 /**
@@ -132,6 +148,182 @@ public class TodoControllerSpec {
     });
   }
 
+  @Test
+  public void canStreamAllTodos() throws IOException {
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(output);
+
+    // A threshold of 0 means lists are always streamed.
+    new TodoController(db, 0).getTodos(ctx);
+
+    Todo[] todos = new ObjectMapper().readValue(output.toByteArray(), Todo[].class);
+    assertEquals(db.size(), todos.length);
+  }
+
+  @Test
+  public void canStreamSortedAndLimitedTodos() throws IOException {
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"20"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.outputStream()).thenReturn(output);
+
+    new TodoController(db, 0).getTodos(ctx);
+
+    Todo[] todos = new ObjectMapper().readValue(output.toByteArray(), Todo[].class);
+    assertEquals(20, todos.length);
+    for (int i = 0; i < todos.length - 1; ++i) {
+      Assertions.assertTrue(todos[i].owner.compareTo(todos[i + 1].owner) <= 0);
+    }
+  }
+
+  @Test
+  public void cachesResultsSmallerThanTheStreamingThreshold() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Blanche"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    // There are more todos than the threshold, but only 43 of them are
+    // Blanche's, so her list is built and cached rather than streamed.
+    TodoController controller = new TodoController(db, 100);
+    controller.getTodos(ctx);
+    controller.getTodos(ctx);
+
+    ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+    verify(ctx, times(2)).json(argument.capture());
+    assertEquals(43, argument.getValue().length);
+    verify(ctx, never()).outputStream();
+    Map<?, ?> cacheStats = (Map<?, ?>) db.getStats().get("queryCache");
+    assertEquals(1L, cacheStats.get("hits"));
+  }
+
+  @Test
+  public void sendsCachedGzipAboveTheStreamingThreshold() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Blanche"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.header(Compression.ACCEPT_ENCODING_HEADER)).thenReturn("gzip");
+
+    new TodoController(db, 100).getTodos(ctx);
+
+    verify(ctx).header(Compression.CONTENT_ENCODING_HEADER, "gzip");
+    verify(ctx).result(db.listTodosGzip(TodoQuery.fromQueryParams(queryParams)));
+    verify(ctx, never()).outputStream();
+  }
+
+  @Test
+  public void canStreamGzippedTodos() throws IOException {
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    when(ctx.outputStream()).thenReturn(output);
+    when(ctx.header(Compression.ACCEPT_ENCODING_HEADER)).thenReturn("gzip");
+
+    new TodoController(db, 0).getTodos(ctx);
+
+    verify(ctx).header(Compression.CONTENT_ENCODING_HEADER, "gzip");
+    Todo[] todos;
+    try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+      todos = new ObjectMapper().readValue(input, Todo[].class);
+    }
+    assertEquals(db.size(), todos.length);
+  }
+
+  @Test
+  public void canGetFirstPageOfTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("pageSize", Arrays.asList(new String[] {"20"}));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    todoController.getTodos(ctx);
+
+    // Confirm that we got a page of 20 todos, and a cursor for the next page.
+    ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+    verify(ctx).json(argument.capture());
+    assertEquals(20, argument.getValue().length);
+    verify(ctx).header(eq(Page.NEXT_CURSOR_HEADER), anyString());
+  }
+
+  @Test
+  public void canGetGzippedTodos() throws IOException {
+    when(ctx.header(Compression.ACCEPT_ENCODING_HEADER)).thenReturn("gzip, deflate, br");
+    todoController.getTodos(ctx);
+
+    // All 300 todos are well over the threshold, so they're sent gzipped.
+    verify(ctx).header(Compression.CONTENT_ENCODING_HEADER, "gzip");
+    verify(ctx).result(db.listTodosGzip(TodoQuery.fromQueryParams(new HashMap<>())));
+    verify(ctx, never()).json(any(Object.class));
+  }
+
+  @Test
+  public void respondsNotModifiedToRepeatPoll() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    queryParams.put("status", Arrays.asList(new String[] {"complete"}));
+
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    todoController.getTodos(ctx);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(ETags.ETAG_HEADER), etag.capture());
+
+    // Poll again with the same query (in a different case) and the tag we
+    // were given.
+    Context pollCtx = mock(Context.class);
+    Map<String, List<String>> pollParams = new HashMap<>();
+    pollParams.put("status", Arrays.asList(new String[] {"Complete"}));
+    pollParams.put("owner", Arrays.asList(new String[] {"fry"}));
+    when(pollCtx.queryParamMap()).thenReturn(pollParams);
+    when(pollCtx.header(ETags.IF_NONE_MATCH_HEADER)).thenReturn(etag.getValue());
+    todoController.getTodos(pollCtx);
+
+    verify(pollCtx).status(HttpCode.NOT_MODIFIED);
+    verify(pollCtx, never()).json(any(Object.class));
+  }
+
+  @Test
+  public void gzippedAndIdentityResponsesHaveDifferentTags() throws IOException {
+    when(ctx.header(Compression.ACCEPT_ENCODING_HEADER)).thenReturn("gzip");
+    todoController.getTodos(ctx);
+    ArgumentCaptor<String> gzipTag = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(ETags.ETAG_HEADER), gzipTag.capture());
+    verify(ctx, atLeastOnce()).header(Compression.VARY_HEADER, Compression.ACCEPT_ENCODING_HEADER);
+
+    Context identityCtx = mock(Context.class);
+    todoController.getTodos(identityCtx);
+    ArgumentCaptor<String> identityTag = ArgumentCaptor.forClass(String.class);
+    verify(identityCtx).header(eq(ETags.ETAG_HEADER), identityTag.capture());
+    assertNotEquals(gzipTag.getValue(), identityTag.getValue(), "The gzipped and identity bodies share a tag");
+
+    // A client that doesn't accept gzip can't revalidate its copy with the
+    // gzipped body's tag.
+    Context pollCtx = mock(Context.class);
+    when(pollCtx.header(ETags.IF_NONE_MATCH_HEADER)).thenReturn(gzipTag.getValue());
+    todoController.getTodos(pollCtx);
+    verify(pollCtx, never()).status(HttpCode.NOT_MODIFIED);
+    verify(pollCtx, atLeastOnce()).header(Compression.VARY_HEADER, Compression.ACCEPT_ENCODING_HEADER);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void canExplainTodoQuery() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    queryParams.put("orderBy", Arrays.asList(new String[] {"body"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam("explain")).thenReturn("true");
+    todoController.getTodos(ctx);
+
+    // The response is the explanation, not the todos.
+    ArgumentCaptor<Map<String, Object>> argument = ArgumentCaptor.forClass(Map.class);
+    verify(ctx).json(argument.capture());
+    Map<String, Object> explanation = argument.getValue();
+    List<Map<String, Object>> stages = (List<Map<String, Object>>) explanation.get("stages");
+    assertEquals("index", stages.get(0).get("stage"));
+    assertEquals("owner", stages.get(0).get("detail"));
+    assertEquals(61L, stages.get(0).get("rowsOut"));
+    assertEquals(1, ((List<?>) explanation.get("filters")).size());
+    verify(ctx, never()).header(eq(ETags.ETAG_HEADER), anyString());
+  }
+
   @Test
   public void canGetTodoWithSpecifiedId() throws IOException {
     when(ctx.pathParam("id")).thenReturn("58895985a22c04e761776d54");
@@ -146,4 +338,91 @@ public class TodoControllerSpec {
       todoController.getTodo(ctx);
     });
   }
+
+  @Test
+  @SuppressWarnings({ "unchecked" })
+  public void canAddNewTodo() throws IOException {
+    when(ctx.body()).thenReturn(
+        "{\"owner\": \"Fry\", \"status\": false, \"body\": \"Deliver a package\", \"category\": \"work\"}");
+    todoController.addNewTodo(ctx);
+
+    verify(ctx).status(HttpCode.CREATED);
+    ArgumentCaptor<Map<String, String>> argument = ArgumentCaptor.forClass(Map.class);
+    verify(ctx).json(argument.capture());
+    String id = argument.getValue().get("id");
+
+    // The new todo can be got, and listed.
+    Context getCtx = mock(Context.class);
+    when(getCtx.pathParam("id")).thenReturn(id);
+    todoController.getTodo(getCtx);
+    verify(getCtx).status(HttpCode.OK);
+
+    Context listCtx = mock(Context.class);
+    ArgumentCaptor<Todo[]> todos = ArgumentCaptor.forClass(Todo[].class);
+    todoController.getTodos(listCtx);
+    verify(listCtx).json(todos.capture());
+    assertEquals(db.size() + 1, todos.getValue().length);
+  }
+
+  @Test
+  public void respondsAppropriatelyToInvalidNewTodo() {
+    when(ctx.body()).thenReturn("{\"owner\": \"Fry\", \"status\": false, \"category\": \"work\"}");
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.addNewTodo(ctx);
+    });
+
+    Context badJsonCtx = mock(Context.class);
+    when(badJsonCtx.body()).thenReturn("{\"owner\": ");
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.addNewTodo(badJsonCtx);
+    });
+  }
+
+  @Test
+  public void canUpdateTodo() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("58895985a22c04e761776d54");
+    when(ctx.body()).thenReturn(
+        "{\"owner\": \"Blanche\", \"status\": true, \"body\": \"All done\", \"category\": \"software design\"}");
+    todoController.updateTodo(ctx);
+
+    verify(ctx).status(HttpCode.OK);
+    ArgumentCaptor<Todo> argument = ArgumentCaptor.forClass(Todo.class);
+    verify(ctx).json(argument.capture());
+    assertEquals("58895985a22c04e761776d54", argument.getValue()._id);
+    assertEquals("All done", argument.getValue().body);
+    assertEquals(true, argument.getValue().status);
+  }
+
+  @Test
+  public void respondsAppropriatelyToUpdatingNonexistentTodo() {
+    when(ctx.pathParam("id")).thenReturn("nonexistent");
+    when(ctx.body()).thenReturn(
+        "{\"owner\": \"Blanche\", \"status\": true, \"body\": \"All done\", \"category\": \"work\"}");
+    Assertions.assertThrows(NotFoundResponse.class, () -> {
+      todoController.updateTodo(ctx);
+    });
+
+    Context mismatchCtx = mock(Context.class);
+    when(mismatchCtx.pathParam("id")).thenReturn("58895985a22c04e761776d54");
+    when(mismatchCtx.body()).thenReturn("{\"_id\": \"588959856f0b82ee93cd93eb\", \"owner\": \"Blanche\", "
+        + "\"status\": true, \"body\": \"All done\", \"category\": \"work\"}");
+    Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.updateTodo(mismatchCtx);
+    });
+  }
+
+  @Test
+  public void canDeleteTodo() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("58895985a22c04e761776d54");
+    todoController.deleteTodo(ctx);
+    verify(ctx).status(HttpCode.OK);
+
+    // It's gone, so it can't be got or deleted again.
+    Assertions.assertThrows(NotFoundResponse.class, () -> {
+      todoController.getTodo(ctx);
+    });
+    Assertions.assertThrows(NotFoundResponse.class, () -> {
+      todoController.deleteTodo(ctx);
+    });
+  }
 }
@@ -1,11 +1,14 @@
 package umm3601.user;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 import java.io.IOException;
 
 import org.junit.jupiter.api.Test;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 /**
  * Tests umm3601.user.Database getUser functionality
  */
@@ -24,4 +27,20 @@ public class GetUserByIDFromDB {
     User user = db.getUser("588935f5556f992bf8f37c01");
     assertEquals("Bolton Monroe", user.name, "Incorrect name");
   }
+
+  @Test
+  public void getNonexistentUser() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    assertNull(db.getUser("nonexistent"), "Found a user that shouldn't exist");
+  }
+
+  @Test
+  public void getStokesClaytonJson() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    byte[] json = db.getUserJson("588935f52787254123f71fed");
+    User user = new ObjectMapper().readValue(json, User.class);
+    assertEquals("588935f52787254123f71fed", user._id, "Incorrect id");
+    assertEquals("Stokes Clayton", user.name, "Incorrect name");
+    assertNull(db.getUserJson("nonexistent"), "Found JSON for a user that shouldn't exist");
+  }
 }
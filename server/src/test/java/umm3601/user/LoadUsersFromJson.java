@@ -0,0 +1,64 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests umm3601.user.UserLoader, which reads users by streaming the JSON
+ * tokens instead of using data binding
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class LoadUsersFromJson {
+
+  private static InputStream json(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void readsTheSameUsersAsDataBinding() throws IOException {
+    User[] expected;
+    try (InputStream input = getClass().getResourceAsStream("/users.json")) {
+      expected = new ObjectMapper().readValue(new InputStreamReader(input, StandardCharsets.UTF_8), User[].class);
+    }
+    User[] users;
+    try (InputStream input = getClass().getResourceAsStream("/users.json")) {
+      users = UserLoader.readJson(input);
+    }
+
+    assertEquals(10, users.length, "Incorrect number of users");
+    assertArrayEquals(expected, users, "The users differ");
+  }
+
+  @Test
+  public void sharesRepeatedCompaniesAndReadsNulls() throws IOException {
+    User[] users = UserLoader.readJson(json(
+        "[{\"_id\": \"a\", \"name\": \"Ann\", \"age\": 25, \"company\": \"OHMNET\", \"email\": null,"
+        + " \"role\": \"admin\"},"
+        + " {\"_id\": \"b\", \"name\": \"Bo\", \"age\": 37, \"company\": \"OHMNET\", \"role\": \"viewer\"}]"));
+
+    assertEquals(2, users.length, "Incorrect number of users");
+    assertNull(users[0].email, "A null email wasn't read as null");
+    assertNull(users[1].avatar, "A missing avatar wasn't read as null");
+    assertEquals(37, users[1].age, "Incorrect age");
+    assertSame(users[0].company, users[1].company, "Repeated companies weren't shared");
+  }
+
+  @Test
+  public void rejectsMalformedUsers() {
+    assertThrows(IOException.class, () -> UserLoader.readJson(json("{\"_id\": \"a\"}")));
+    assertThrows(IOException.class, () -> UserLoader.readJson(json("[{\"_id\": \"a\", \"color\": \"red\"}]")));
+  }
+}
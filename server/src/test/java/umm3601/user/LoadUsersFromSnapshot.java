@@ -0,0 +1,90 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.SnapshotReader;
+import umm3601.TextStorage;
+
+/**
+ * Tests loading umm3601.user.UserDatabase from a binary snapshot of its JSON
+ * file, and falling back to the JSON when the snapshot is stale or damaged
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class LoadUsersFromSnapshot {
+
+  private static Path copyUsersJson() throws IOException {
+    Path file = Files.createTempFile("users", ".json");
+    // The files are mapped, and Windows won't delete a mapped file.
+    file.toFile().deleteOnExit();
+    SnapshotReader.snapshotPathFor(file).toFile().deleteOnExit();
+    try (InputStream input = LoadUsersFromSnapshot.class.getResourceAsStream("/users.json")) {
+      Files.copy(input, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+    return file;
+  }
+
+  @Test
+  public void snapshotMatchesJson() throws IOException {
+    for (TextStorage storage : TextStorage.values()) {
+      Path file = copyUsersJson();
+      assertNull(UserSnapshot.read(file, storage), "Found a snapshot before one was written");
+
+      UserDatabase fromJson = UserDatabase.fromFile(file, storage);
+      assertTrue(Files.exists(SnapshotReader.snapshotPathFor(file)), "No snapshot was written");
+      UserDatabase fromSnapshot = UserSnapshot.read(file, storage);
+      assertNotNull(fromSnapshot, "The snapshot wasn't used");
+      assertEquals(0L, fromJson.getStats().get("jsonCacheBytes"), "The users were serialized to be hashed");
+      assertEquals(0L, fromSnapshot.getStats().get("jsonCacheBytes"), "The users were serialized at load time");
+
+      assertEquals(fromJson.size(), fromSnapshot.size(), "Incorrect number of users");
+      assertEquals(fromJson.getContentHash(), fromSnapshot.getContentHash(), "Incorrect content hash");
+      assertArrayEquals(fromJson.listUsers(new HashMap<>()), fromSnapshot.listUsers(new HashMap<>()),
+          "The users differ (" + storage + ")");
+      assertArrayEquals(fromJson.getUserJson("588935f52787254123f71fed"),
+          fromSnapshot.getUserJson("588935f52787254123f71fed"), "Incorrect JSON");
+    }
+  }
+
+  @Test
+  public void staleSnapshotIsIgnored() throws IOException {
+    Path file = copyUsersJson();
+    UserDatabase.fromFile(file);
+    assertNotNull(UserSnapshot.read(file, TextStorage.HEAP), "The snapshot wasn't used");
+
+    // Changing the JSON file makes the snapshot stale.
+    Files.write(file, "[]".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+    assertNull(UserSnapshot.read(file, TextStorage.HEAP), "A stale snapshot was used");
+    assertEquals(0, UserDatabase.fromFile(file).size(), "The changed JSON file wasn't loaded");
+  }
+
+  @Test
+  public void damagedSnapshotFallsBackToJson() throws IOException {
+    Path file = copyUsersJson();
+    UserDatabase fromJson = UserDatabase.fromFile(file);
+
+    // Cut the snapshot off just after its header and the start of the
+    // content hash, as if the disk filled up while it was being written.
+    try (FileChannel channel = FileChannel.open(SnapshotReader.snapshotPathFor(file), StandardOpenOption.WRITE)) {
+      channel.truncate(Integer.BYTES + 2 * Long.BYTES + 6);
+    }
+    assertNull(UserSnapshot.read(file, TextStorage.HEAP), "A damaged snapshot was used");
+    UserDatabase reloaded = UserDatabase.fromFile(file);
+    assertEquals(fromJson.getContentHash(), reloaded.getContentHash(), "The JSON file wasn't loaded");
+    assertArrayEquals(fromJson.listUsers(new HashMap<>()), reloaded.listUsers(new HashMap<>()), "The users differ");
+  }
+}
@@ -0,0 +1,81 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.Cursor;
+import umm3601.Page;
+
+/**
+ * Tests umm3601.user.UserDatabase listUserPage with the _after_, _pageSize_
+ * and _count_ query parameters
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class PaginateUsersFromDB {
+
+  @Test
+  public void pagesCoverFullList() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    User[] allUsers = db.listUsers(new HashMap<>());
+    Map<String, List<String>> queryParams = new HashMap<>();
+    List<User> users = new ArrayList<>();
+
+    queryParams.put("pageSize", Arrays.asList(new String[] {"3"}));
+    Page<User> page = db.listUserPage(UserQuery.fromQueryParams(queryParams));
+    users.addAll(Arrays.asList(page.getItems()));
+    while (page.getNextCursor() != null) {
+      queryParams.put("after", Arrays.asList(new String[] {page.getNextCursor()}));
+      page = db.listUserPage(UserQuery.fromQueryParams(queryParams));
+      users.addAll(Arrays.asList(page.getItems()));
+    }
+
+    assertArrayEquals(allUsers, users.toArray(new User[0]), "Pages don't add up to the full list");
+  }
+
+  @Test
+  public void canPageFilteredUsersWithCount() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    queryParams.put("company", Arrays.asList(new String[] {"OHMNET"}));
+    queryParams.put("pageSize", Arrays.asList(new String[] {"1"}));
+    queryParams.put("count", Arrays.asList(new String[] {"true"}));
+    Page<User> firstPage = db.listUserPage(UserQuery.fromQueryParams(queryParams));
+    assertEquals(1, firstPage.getItems().length);
+    assertEquals(2, firstPage.getTotalCount());
+
+    queryParams.put("after", Arrays.asList(new String[] {firstPage.getNextCursor()}));
+    Page<User> secondPage = db.listUserPage(UserQuery.fromQueryParams(queryParams));
+    assertEquals(1, secondPage.getItems().length);
+    assertEquals("OHMNET", secondPage.getItems()[0].company);
+    assertNull(secondPage.getNextCursor());
+  }
+
+  @Test
+  public void rejectsOutOfRangeCursors() throws IOException {
+    UserDatabase db = new UserDatabase("/users.json");
+    Map<String, List<String>> queryParams = new HashMap<>();
+
+    // The next page would start past the largest int.
+    queryParams.put("after", Arrays.asList(new String[] {new Cursor(null, null, Integer.MAX_VALUE, "x").encode()}));
+    assertThrows(BadRequestResponse.class, () -> UserQuery.fromQueryParams(queryParams));
+
+    // Past the end of the users, there's just nothing left.
+    queryParams.put("after", Arrays.asList(new String[] {new Cursor(null, null, 1_000_000, "x").encode()}));
+    Page<User> page = db.listUserPage(UserQuery.fromQueryParams(queryParams));
+    assertEquals(0, page.getItems().length);
+    assertNull(page.getNextCursor());
+  }
+}
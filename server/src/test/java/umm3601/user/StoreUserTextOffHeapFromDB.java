@@ -0,0 +1,37 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.TextStorage;
+
+/**
+ * Tests that umm3601.user.UserDatabase serves the same users with their
+ * emails and avatars kept off the heap as it does with them on the heap
+ */
+public class StoreUserTextOffHeapFromDB {
+
+  @Test
+  public void offHeapMatchesHeap() throws IOException {
+    UserDatabase heap = new UserDatabase("/users.json");
+    UserDatabase offHeap = new UserDatabase("/users.json", TextStorage.OFF_HEAP);
+
+    assertEquals(heap.getContentHash(), offHeap.getContentHash(), "The content hashes differ");
+    assertArrayEquals(heap.listUsers(new HashMap<>()), offHeap.listUsers(new HashMap<>()), "The users differ");
+    assertArrayEquals(heap.getUserJson("588935f52787254123f71fed"), offHeap.getUserJson("588935f52787254123f71fed"),
+        "The JSON of a user differs");
+    assertEquals(0L, offHeap.getStats().get("jsonCacheBytes"), "JSON was cached on the heap");
+
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList(new String[] {"OHMNET"}));
+    assertArrayEquals(heap.listUsers(queryParams), offHeap.listUsers(queryParams), "The OHMNET users differ");
+  }
+}
@@ -1,7 +1,11 @@
 package umm3601.user;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -16,10 +20,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpCode;
 import io.javalin.http.NotFoundResponse;
+import umm3601.ByteArrayServletOutputStream;
+import umm3601.ETags;
 import umm3601.Server;
 
 /**
@@ -135,6 +143,67 @@ public class UserControllerSpec {
     }
   }
 
+  @Test
+  public void canStreamUsersWithCompany() throws IOException {
+    ByteArrayServletOutputStream output = new ByteArrayServletOutputStream();
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.outputStream()).thenReturn(output);
+
+    // A threshold of 0 means lists are always streamed.
+    new UserController(db, 0).getUsers(ctx);
+
+    User[] users = new ObjectMapper().readValue(output.toByteArray(), User[].class);
+    assertEquals(2, users.length);
+    for (User user : users) {
+      assertEquals("OHMNET", user.company);
+    }
+  }
+
+  @Test
+  public void cachesResultsSmallerThanTheStreamingThreshold() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    // There are more users than the threshold, but only two of them work
+    // at OHMNET, so that list is built and cached rather than streamed.
+    UserController controller = new UserController(db, 5);
+    controller.getUsers(ctx);
+    controller.getUsers(ctx);
+
+    ArgumentCaptor<User[]> argument = ArgumentCaptor.forClass(User[].class);
+    verify(ctx, times(2)).json(argument.capture());
+    assertEquals(2, argument.getValue().length);
+    verify(ctx, never()).outputStream();
+    Map<?, ?> cacheStats = (Map<?, ?>) db.getStats().get("queryCache");
+    assertEquals(1L, cacheStats.get("hits"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void canExplainUserQuery() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("age", Arrays.asList(new String[] {"25"}));
+    queryParams.put("company", Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam("explain")).thenReturn("true");
+    userController.getUsers(ctx);
+
+    // The response is the explanation, not the users.
+    ArgumentCaptor<Map<String, Object>> argument = ArgumentCaptor.forClass(Map.class);
+    verify(ctx).json(argument.capture());
+    List<Map<String, Object>> stages = (List<Map<String, Object>>) argument.getValue().get("stages");
+    assertEquals("filter", stages.get(0).get("stage"));
+    assertEquals("age,company", stages.get(0).get("detail"));
+    assertEquals((long) db.size(), stages.get(0).get("rowsIn"));
+    assertEquals(1L, stages.get(0).get("rowsOut"));
+    List<Map<String, Object>> filters = (List<Map<String, Object>>) argument.getValue().get("filters");
+    assertEquals(2L, filters.get(0).get("rowsOut"));
+    assertEquals(2L, filters.get(1).get("rowsOut"));
+  }
+
   @Test
   public void canGetUserWithSpecifiedId() throws IOException {
     when(ctx.pathParam("id")).thenReturn("588935f5c668650dc77df581");
@@ -142,6 +211,22 @@ public class UserControllerSpec {
     verify(ctx).status(HttpCode.OK);
   }
 
+  @Test
+  public void respondsNotModifiedToRepeatRequestForId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("588935f5c668650dc77df581");
+    userController.getUser(ctx);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq(ETags.ETAG_HEADER), etag.capture());
+
+    Context pollCtx = mock(Context.class);
+    when(pollCtx.pathParam("id")).thenReturn("588935f5c668650dc77df581");
+    when(pollCtx.header(ETags.IF_NONE_MATCH_HEADER)).thenReturn("W/" + etag.getValue());
+    userController.getUser(pollCtx);
+
+    verify(pollCtx).status(HttpCode.NOT_MODIFIED);
+    verify(pollCtx, never()).result(any(byte[].class));
+  }
+
   @Test
   public void respondsAppropriatelyToRequestForNonexistentId() throws IOException {
     when(ctx.pathParam("id")).thenReturn("nonexistent");